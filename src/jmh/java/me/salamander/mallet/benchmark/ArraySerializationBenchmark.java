@@ -0,0 +1,142 @@
+package me.salamander.mallet.benchmark;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.benchmark.SerializationBenchmark.Light;
+import me.salamander.mallet.benchmark.SerializationBenchmark.Particle;
+import me.salamander.mallet.type.ArrayWriter;
+import me.salamander.mallet.type.InstanceReader;
+import me.salamander.mallet.type.MalletType;
+import org.openjdk.jmh.annotations.*;
+import org.objectweb.asm.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Measures writing and reading whole std430 arrays of structs at a few sizes, which is what uploading to a buffer object does.
+ * {@link SerializationBenchmark} only covers a fixed number of single-element calls. Scores are per array, so compare them
+ * across {@link #size}s to see how the per-element cost changes.
+ * <br><br>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=ArraySerializationBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArraySerializationBenchmark {
+    @Param({"64", "4096", "262144"})
+    public int size;
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private Particle[] particles;
+    private List<Particle> particleList;
+    private Light[] lights;
+    private Particle[] particleTargets;
+
+    private ArrayWriter particleArrayWriter;
+    private ArrayWriter lightArrayWriter;
+    private BiConsumer<ByteBuffer, Particle> particleWriter;
+    private InstanceReader<Particle> particleInstanceReader;
+
+    private ByteBuffer particleBuffer;
+    private ByteBuffer lightBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MalletContext context = new MalletContext();
+        Random random = new Random(1234);
+
+        particles = new Particle[size];
+        lights = new Light[size];
+
+        for (int i = 0; i < size; i++) {
+            particles[i] = Particle.makeRandom(random);
+            //Roughly one in eight lights is missing
+            lights[i] = random.nextInt(8) == 0 ? null : Light.makeRandom(random);
+        }
+
+        particleList = Arrays.asList(particles);
+
+        MalletType particleType = context.getType(Type.getType(Particle.class));
+        MalletType lightType = context.getType(Type.getType(Light.class));
+
+        particleArrayWriter = particleType.makeArrayWriter();
+        lightArrayWriter = lightType.makeArrayWriter();
+        particleWriter = particleType.makeWriter(BiConsumer.class);
+        particleInstanceReader = particleType.makeInstanceReader();
+
+        //Room for a full stride after the last element too, since the single-element writer may pad it
+        particleBuffer = allocate(size * particleArrayWriter.getStride());
+        lightBuffer = allocate(lightArrayWriter.getSizeOf(size));
+
+        //Fill the buffer so that the read benchmarks have something to read, then let the first read allocate the targets
+        writeParticles();
+        particleTargets = new Particle[size];
+        readParticlesInto();
+    }
+
+    private ByteBuffer allocate(int size) {
+        return switch (buffer) {
+            case "heap" -> ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            case "direct" -> ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            default -> throw new IllegalArgumentException("Unknown buffer kind " + buffer);
+        };
+    }
+
+    @Benchmark
+    public ByteBuffer writeParticles() {
+        ByteBuffer buffer = particleBuffer.clear();
+        particleArrayWriter.write(buffer, particles);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeParticleList() {
+        ByteBuffer buffer = particleBuffer.clear();
+        particleArrayWriter.write(buffer, particleList);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeParticlesParallel() {
+        ByteBuffer buffer = particleBuffer.clear();
+        particleArrayWriter.writeParallel(buffer, particles);
+        return buffer;
+    }
+
+    /**
+     * Writes one element at a time with the single-element writer, which is what the array writer replaces
+     */
+    @Benchmark
+    public ByteBuffer writeParticlesOneByOne() {
+        ByteBuffer buffer = particleBuffer.clear();
+
+        for (Particle particle : particles) {
+            particleWriter.accept(buffer, particle);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeLights() {
+        ByteBuffer buffer = lightBuffer.clear();
+        lightArrayWriter.write(buffer, lights);
+        return buffer;
+    }
+
+    @Benchmark
+    public Particle[] readParticlesInto() {
+        particleInstanceReader.read(particleBuffer.clear(), particleTargets);
+        return particleTargets;
+    }
+}
@@ -0,0 +1,208 @@
+package me.salamander.mallet.benchmark;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.benchmark.shaders.CallShader;
+import me.salamander.mallet.benchmark.shaders.LoopShader;
+import me.salamander.mallet.benchmark.shaders.StructShader;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerListener;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerPhase;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import me.salamander.mallet.util.MethodInvocation;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.*;
+import org.objectweb.asm.Type;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to compile shaders to GLSL. None of this needs an OpenGL context.
+ * <br><br>
+ * Run with {@code ./gradlew jmh}. {@code -PjmhIncludes=CompilerBenchmark} only runs these benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompilerBenchmark {
+    @Param({"vertex", "fragment", "loops", "calls", "structs"})
+    public String shader;
+
+    private Class<?> shaderClass;
+    private Object[] mainArgs;
+
+    private MalletContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mainArgs = new Object[0];
+
+        switch (shader) {
+            case "vertex" -> {
+                shaderClass = ExampleVertexShader.class;
+                mainArgs = new Object[]{new Tint(new Vector3f(1f, 0.5f, 0.5f))};
+            }
+            case "fragment" -> shaderClass = ExampleFragmentShader.class;
+            case "loops" -> shaderClass = LoopShader.class;
+            case "calls" -> shaderClass = CallShader.class;
+            case "structs" -> shaderClass = StructShader.class;
+            default -> throw new IllegalArgumentException("Unknown shader " + shader);
+        }
+
+        //Loads and parses every class the shader uses so that the warm benchmarks only measure the compiler
+        context = new MalletContext();
+        new ShaderCompiler(context, shaderClass).compile(mainArgs);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCaches() {
+        context.getCompilationCache().clear();
+    }
+
+    /**
+     * Full compilation with the classes already loaded by the context
+     */
+    @Benchmark
+    public String compileWarm() {
+        return new ShaderCompiler(context, shaderClass).compile(mainArgs);
+    }
+
+    /**
+     * Full compilation in a fresh context, including reading the classes
+     */
+    @Benchmark
+    public String compileCold() {
+        return new ShaderCompiler(new MalletContext(), shaderClass).compile(mainArgs);
+    }
+
+    @Benchmark
+    public String compileParallel() {
+        ShaderCompiler compiler = new ShaderCompiler(context, shaderClass);
+        compiler.setParallel(true);
+        return compiler.compile(mainArgs);
+    }
+
+    /**
+     * Same as {@link #compileWarm()} but also reports the average time spent in each phase, in milliseconds per compilation
+     */
+    @Benchmark
+    public String compilePhases(PhaseTimes phaseTimes) {
+        ShaderCompiler compiler = new ShaderCompiler(context, shaderClass);
+        compiler.setListener(phaseTimes);
+        String glsl = compiler.compile(mainArgs);
+        phaseTimes.compilations++;
+        return glsl;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PhaseTimes implements CompilerListener {
+        private final long[] nanos = new long[CompilerPhase.values().length];
+        private long fixpointNanos;
+        private long compilations;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            Arrays.fill(nanos, 0);
+            fixpointNanos = 0;
+            compilations = 0;
+        }
+
+        @Override
+        public void phaseFinished(Type shader, MethodInvocation method, CompilerPhase phase, long nanos, long allocatedBytes) {
+            this.nanos[phase.ordinal()] += nanos;
+        }
+
+        @Override
+        public void fixpointFinished(Type shader, MethodInvocation method, String analysis, int iterations, long nanos, long allocatedBytes) {
+            fixpointNanos += nanos;
+        }
+
+        private double average(long total) {
+            return compilations == 0 ? 0 : total / 1e6 / compilations;
+        }
+
+        public double bytecodeAnalysis() {
+            return average(nanos[CompilerPhase.BYTECODE_ANALYSIS.ordinal()]);
+        }
+
+        public double irConstruction() {
+            return average(nanos[CompilerPhase.IR_CONSTRUCTION.ordinal()]);
+        }
+
+        public double valueInlining() {
+            return average(nanos[CompilerPhase.VALUE_INLINING.ordinal()]);
+        }
+
+        public double commonSubexpressionElimination() {
+            return average(nanos[CompilerPhase.COMMON_SUBEXPRESSION_ELIMINATION.ordinal()]);
+        }
+
+        public double deadAssignmentRemoval() {
+            return average(nanos[CompilerPhase.DEAD_ASSIGNMENT_REMOVAL.ordinal()]);
+        }
+
+        public double mutabilityCheck() {
+            return average(nanos[CompilerPhase.MUTABILITY_CHECK.ordinal()]);
+        }
+
+        public double astConstruction() {
+            return average(nanos[CompilerPhase.AST_CONSTRUCTION.ordinal()]);
+        }
+
+        public double constantInlining() {
+            return average(nanos[CompilerPhase.CONSTANT_INLINING.ordinal()]);
+        }
+
+        public double constantFolding() {
+            return average(nanos[CompilerPhase.CONSTANT_FOLDING.ordinal()]);
+        }
+
+        public double loopInvariantCodeMotion() {
+            return average(nanos[CompilerPhase.LOOP_INVARIANT_CODE_MOTION.ordinal()]);
+        }
+
+        public double methodPreparation() {
+            return average(nanos[CompilerPhase.METHOD_PREPARATION.ordinal()]);
+        }
+
+        public double methodInlining() {
+            return average(nanos[CompilerPhase.METHOD_INLINING.ordinal()]);
+        }
+
+        public double deadCodeElimination() {
+            return average(nanos[CompilerPhase.DEAD_CODE_ELIMINATION.ordinal()]);
+        }
+
+        public double glslEmission() {
+            return average(nanos[CompilerPhase.GLSL_EMISSION.ordinal()]);
+        }
+
+        /**
+         * Time spent solving dataflow analyses. This overlaps with the other phases
+         */
+        public double fixpoints() {
+            return average(fixpointNanos);
+        }
+    }
+
+    /**
+     * Argument for the main method of {@link ExampleVertexShader}, the same tint that {@link me.salamander.mallet.Main} uses
+     */
+    public static class Tint implements ExampleVertexShader.Func {
+        private final Vector3f tint;
+
+        public Tint(Vector3f tint) {
+            this.tint = tint;
+        }
+
+        @Override
+        public void run(Vector3f color) {
+            color.mul(tint);
+        }
+    }
+}
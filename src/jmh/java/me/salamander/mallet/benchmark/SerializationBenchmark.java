@@ -0,0 +1,614 @@
+package me.salamander.mallet.benchmark;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.annotation.NullableType;
+import me.salamander.mallet.shaders.glsltypes.Vec3;
+import me.salamander.mallet.type.BasicType;
+import me.salamander.mallet.type.InstanceReader;
+import me.salamander.mallet.type.MalletType;
+import me.salamander.mallet.type.RawReader;
+import me.salamander.mallet.type.RawWriter;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.objectweb.asm.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Compares the generated writers and readers of {@link MalletType} against hand-written {@link ByteBuffer} code that
+ * produces the same std430 layout. Every benchmark processes a whole array of {@link #ELEMENTS} elements, scores are per element.
+ * <br><br>
+ * Run with {@code ./gradlew jmh -PjmhIncludes=SerializationBenchmark}. Add {@code -prof gc} to the JMH arguments to also
+ * get the allocation rate per element ({@code gc.alloc.rate.norm}).
+ * <br><br>
+ * The {@code Raw} benchmarks use {@link RawWriter} and {@link RawReader}, which only work on off-heap memory. They always use
+ * their own direct buffers, whatever {@link #buffer} is.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    public static final int ELEMENTS = 1024;
+    private static final Kind[] KINDS = Kind.values();
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private ByteBuffer floatBuffer;
+    private ByteBuffer vec3Buffer;
+    private ByteBuffer particleBuffer;
+    private ByteBuffer lightBuffer;
+    private ByteBuffer enumBuffer;
+
+    private float[] floats;
+    private Vec3[] vec3s;
+    private Particle[] particles;
+    private Light[] lights;
+    private Kind[] kinds;
+
+    private BasicType.FloatWriter floatWriter;
+    private BasicType.Vec3Writer vec3Writer;
+    private BiConsumer<ByteBuffer, Particle> particleWriter;
+    private BiConsumer<ByteBuffer, Light> lightWriter;
+    private BiConsumer<ByteBuffer, Kind> enumWriter;
+
+    private BiConsumer<ByteBuffer, FloatVisitor> floatReader;
+    private BiConsumer<ByteBuffer, Consumer> particleReader;
+    private BiConsumer<ByteBuffer, ParticleVisitor> particleFieldReader;
+    private BiConsumer<ByteBuffer, Consumer> lightReader;
+    private BiConsumer<ByteBuffer, Consumer> enumReader;
+
+    private InstanceReader<Particle> particleInstanceReader;
+    private Particle[] particleTargets;
+
+    private RawWriter particleRawWriter;
+    private RawWriter lightRawWriter;
+    private RawReader<ParticleVisitor> particleFieldRawReader;
+
+    private ByteBuffer rawParticleBuffer;
+    private ByteBuffer rawLightBuffer;
+
+    //Layout used by the hand-written code. It is taken from the types so that both sides write exactly the same bytes
+    private int particleSize, particlePosition, particleVelocity, particleMaterial, particleMass;
+    private int materialRoughness, materialLayer, materialKind;
+    private int lightSize, lightPosition, lightIntensity, lightKind;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MalletContext context = new MalletContext();
+        Random random = new Random(1234);
+
+        floats = new float[ELEMENTS];
+        vec3s = new Vec3[ELEMENTS];
+        particles = new Particle[ELEMENTS];
+        lights = new Light[ELEMENTS];
+        kinds = new Kind[ELEMENTS];
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            floats[i] = random.nextFloat();
+            vec3s[i] = new Vec3(random.nextFloat(), random.nextFloat(), random.nextFloat());
+            particles[i] = Particle.makeRandom(random);
+            //Roughly one in eight lights is missing
+            lights[i] = random.nextInt(8) == 0 ? null : Light.makeRandom(random);
+            kinds[i] = KINDS[random.nextInt(KINDS.length)];
+        }
+
+        MalletType floatType = context.getType(Type.FLOAT_TYPE);
+        MalletType vec3Type = context.getType(Type.getType(Vec3.class));
+        MalletType particleType = context.getType(Type.getType(Particle.class));
+        MalletType materialType = context.getType(Type.getType(Material.class));
+        MalletType lightType = context.getType(Type.getType(Light.class));
+        MalletType enumType = context.getType(Type.getType(Kind.class));
+
+        floatWriter = floatType.makeWriter(BasicType.FloatWriter.class);
+        vec3Writer = vec3Type.makeWriter(BasicType.Vec3Writer.class);
+        particleWriter = particleType.makeWriter(BiConsumer.class);
+        lightWriter = lightType.makeWriter(BiConsumer.class);
+        enumWriter = enumType.makeWriter(BiConsumer.class);
+
+        floatReader = floatType.makeReader(FloatVisitor.class, "this");
+        particleReader = particleType.makeReader(Consumer.class, "this");
+        particleFieldReader = particleType.makeReader(
+                ParticleVisitor.class,
+                "this.position.x", "this.position.y", "this.position.z",
+                "this.velocity.x", "this.velocity.y", "this.velocity.z",
+                "this.material.roughness", "this.material.layer", "this.material.kind",
+                "this.mass"
+        );
+        lightReader = lightType.makeReader(Consumer.class, "this");
+        enumReader = enumType.makeReader(Consumer.class, "this");
+
+        particleInstanceReader = particleType.makeInstanceReader();
+
+        particleRawWriter = particleType.makeRawWriter();
+        lightRawWriter = lightType.makeRawWriter();
+        particleFieldRawReader = particleType.makeRawReader(
+                ParticleVisitor.class,
+                "this.position.x", "this.position.y", "this.position.z",
+                "this.velocity.x", "this.velocity.y", "this.velocity.z",
+                "this.material.roughness", "this.material.layer", "this.material.kind",
+                "this.mass"
+        );
+
+        particleSize = particleType.getSize();
+        particlePosition = particleType.getOffsetOfField("position");
+        particleVelocity = particleType.getOffsetOfField("velocity");
+        particleMaterial = particleType.getOffsetOfField("material");
+        particleMass = particleType.getOffsetOfField("mass");
+        materialRoughness = materialType.getOffsetOfField("roughness");
+        materialLayer = materialType.getOffsetOfField("layer");
+        materialKind = materialType.getOffsetOfField("kind");
+        lightSize = lightType.getSize();
+        lightPosition = lightType.getOffsetOfField("position");
+        lightIntensity = lightType.getOffsetOfField("intensity");
+        lightKind = lightType.getOffsetOfField("kind");
+
+        floatBuffer = allocate(ELEMENTS * floatType.getSize());
+        vec3Buffer = allocate(ELEMENTS * vec3Type.getSize());
+        particleBuffer = allocate(ELEMENTS * particleSize);
+        lightBuffer = allocate(ELEMENTS * lightSize);
+        enumBuffer = allocate(ELEMENTS * enumType.getSize());
+        rawParticleBuffer = ByteBuffer.allocateDirect(ELEMENTS * particleRawWriter.getStride()).order(ByteOrder.nativeOrder());
+        rawLightBuffer = ByteBuffer.allocateDirect(ELEMENTS * lightRawWriter.getStride()).order(ByteOrder.nativeOrder());
+
+        //Fill the buffers so that the read benchmarks have something to read
+        writeFloats();
+        writeVec3s();
+        writeParticles();
+        writeLights();
+        writeEnums();
+        writeParticlesRaw();
+        writeLightsRaw();
+
+        //The first read allocates the targets, after that they are reused
+        particleTargets = new Particle[ELEMENTS];
+        readParticlesInto();
+    }
+
+    private ByteBuffer allocate(int size) {
+        return switch (buffer) {
+            case "heap" -> ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            case "direct" -> ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            default -> throw new IllegalArgumentException("Unknown buffer kind " + buffer);
+        };
+    }
+
+    //BasicType
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeFloats() {
+        ByteBuffer buffer = floatBuffer.clear();
+
+        for (float value : floats) {
+            floatWriter.write(buffer, value);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeFloatsByHand() {
+        ByteBuffer buffer = floatBuffer.clear();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            buffer.putFloat(i * 4, floats[i]);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeVec3s() {
+        ByteBuffer buffer = vec3Buffer.clear();
+
+        for (Vec3 value : vec3s) {
+            vec3Writer.write(buffer, value);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeVec3sByHand() {
+        ByteBuffer buffer = vec3Buffer.clear();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            Vec3 value = vec3s[i];
+            int base = i * 16;
+            buffer.putFloat(base, value.x());
+            buffer.putFloat(base + 4, value.y());
+            buffer.putFloat(base + 8, value.z());
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readFloats(Blackhole blackhole) {
+        ByteBuffer buffer = floatBuffer.clear();
+        FloatVisitor visitor = blackhole::consume;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            floatReader.accept(buffer, visitor);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readFloatsByHand(Blackhole blackhole) {
+        ByteBuffer buffer = floatBuffer;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            blackhole.consume(buffer.getFloat(i * 4));
+        }
+    }
+
+    //Nested StructType
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeParticles() {
+        ByteBuffer buffer = particleBuffer.clear();
+
+        for (Particle particle : particles) {
+            particleWriter.accept(buffer, particle);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeParticlesByHand() {
+        ByteBuffer buffer = particleBuffer.clear();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            Particle particle = particles[i];
+            int base = i * particleSize;
+
+            putVector(buffer, base + particlePosition, particle.position);
+            putVector(buffer, base + particleVelocity, particle.velocity);
+
+            int material = base + particleMaterial;
+            buffer.putFloat(material + materialRoughness, particle.material.roughness);
+            buffer.putInt(material + materialLayer, particle.material.layer);
+            buffer.putInt(material + materialKind, particle.material.kind.ordinal());
+
+            buffer.putFloat(base + particleMass, particle.mass);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeParticlesRaw() {
+        ByteBuffer buffer = rawParticleBuffer.clear();
+        particleRawWriter.write(MemoryUtil.memAddress(buffer), buffer.remaining(), particles, 0, ELEMENTS);
+        return buffer;
+    }
+
+    /**
+     * Reads whole objects. This allocates the particle and everything inside it, like the hand-written version
+     */
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readParticles(Blackhole blackhole) {
+        ByteBuffer buffer = particleBuffer.clear();
+        Consumer<Object> consumer = blackhole::consume;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            particleReader.accept(buffer, consumer);
+        }
+    }
+
+    /**
+     * Reads whole objects into the same particles every time, so nothing is allocated
+     */
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public Particle[] readParticlesInto() {
+        particleInstanceReader.read(particleBuffer, 0, particleTargets, 0, ELEMENTS);
+        return particleTargets;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readParticlesByHand(Blackhole blackhole) {
+        ByteBuffer buffer = particleBuffer;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            int base = i * particleSize;
+            int material = base + particleMaterial;
+
+            blackhole.consume(new Particle(
+                    getVector(buffer, base + particlePosition),
+                    getVector(buffer, base + particleVelocity),
+                    new Material(
+                            buffer.getFloat(material + materialRoughness),
+                            buffer.getInt(material + materialLayer),
+                            getKind(buffer, material + materialKind)
+                    ),
+                    buffer.getFloat(base + particleMass)
+            ));
+        }
+    }
+
+    /**
+     * Reads the primitive fields only. Apart from the enum lookup this shouldn't allocate anything
+     */
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readParticleFields(Blackhole blackhole) {
+        ByteBuffer buffer = particleBuffer.clear();
+        ParticleVisitor visitor = (px, py, pz, vx, vy, vz, roughness, layer, kind, mass) -> {
+            blackhole.consume(px + py + pz + vx + vy + vz + roughness + mass);
+            blackhole.consume(layer);
+            blackhole.consume(kind);
+        };
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            particleFieldReader.accept(buffer, visitor);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readParticleFieldsRaw(Blackhole blackhole) {
+        ByteBuffer buffer = rawParticleBuffer;
+        long address = MemoryUtil.memAddress(buffer);
+        long length = buffer.capacity();
+        int stride = particleRawWriter.getStride();
+        ParticleVisitor visitor = (px, py, pz, vx, vy, vz, roughness, layer, kind, mass) -> {
+            blackhole.consume(px + py + pz + vx + vy + vz + roughness + mass);
+            blackhole.consume(layer);
+            blackhole.consume(kind);
+        };
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            long offset = (long) i * stride;
+            particleFieldRawReader.read(address + offset, length - offset, visitor);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readParticleFieldsByHand(Blackhole blackhole) {
+        ByteBuffer buffer = particleBuffer;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            int base = i * particleSize;
+            int position = base + particlePosition;
+            int velocity = base + particleVelocity;
+            int material = base + particleMaterial;
+
+            blackhole.consume(
+                    buffer.getFloat(position) + buffer.getFloat(position + 4) + buffer.getFloat(position + 8) +
+                    buffer.getFloat(velocity) + buffer.getFloat(velocity + 4) + buffer.getFloat(velocity + 8) +
+                    buffer.getFloat(material + materialRoughness) + buffer.getFloat(base + particleMass)
+            );
+            blackhole.consume(buffer.getInt(material + materialLayer));
+            blackhole.consume(getKind(buffer, material + materialKind));
+        }
+    }
+
+    //Nullable StructType
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeLights() {
+        ByteBuffer buffer = lightBuffer.clear();
+
+        for (Light light : lights) {
+            lightWriter.accept(buffer, light);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeLightsByHand() {
+        ByteBuffer buffer = lightBuffer.clear();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            Light light = lights[i];
+            int base = i * lightSize;
+
+            if (light == null) {
+                buffer.put(base, (byte) 1);
+                continue;
+            }
+
+            buffer.put(base, (byte) 0);
+            putVector(buffer, base + lightPosition, light.position);
+            buffer.putFloat(base + lightIntensity, light.intensity);
+            buffer.putInt(base + lightKind, light.kind.ordinal());
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeLightsRaw() {
+        ByteBuffer buffer = rawLightBuffer.clear();
+        lightRawWriter.write(MemoryUtil.memAddress(buffer), buffer.remaining(), lights, 0, ELEMENTS);
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readLights(Blackhole blackhole) {
+        ByteBuffer buffer = lightBuffer.clear();
+        Consumer<Object> consumer = blackhole::consume;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            lightReader.accept(buffer, consumer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readLightsByHand(Blackhole blackhole) {
+        ByteBuffer buffer = lightBuffer;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            int base = i * lightSize;
+
+            if (buffer.get(base) != 0) {
+                blackhole.consume((Object) null);
+                continue;
+            }
+
+            blackhole.consume(new Light(
+                    getVector(buffer, base + lightPosition),
+                    buffer.getFloat(base + lightIntensity),
+                    getKind(buffer, base + lightKind)
+            ));
+        }
+    }
+
+    //EnumType
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeEnums() {
+        ByteBuffer buffer = enumBuffer.clear();
+
+        for (Kind kind : kinds) {
+            enumWriter.accept(buffer, kind);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public ByteBuffer writeEnumsByHand() {
+        ByteBuffer buffer = enumBuffer.clear();
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            buffer.putInt(i * 4, kinds[i].ordinal());
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readEnums(Blackhole blackhole) {
+        ByteBuffer buffer = enumBuffer.clear();
+        Consumer<Object> consumer = blackhole::consume;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            enumReader.accept(buffer, consumer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ELEMENTS)
+    public void readEnumsByHand(Blackhole blackhole) {
+        ByteBuffer buffer = enumBuffer;
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            blackhole.consume(getKind(buffer, i * 4));
+        }
+    }
+
+    private static void putVector(ByteBuffer buffer, int index, Vector3f vector) {
+        buffer.putFloat(index, vector.x);
+        buffer.putFloat(index + 4, vector.y);
+        buffer.putFloat(index + 8, vector.z);
+    }
+
+    private static Vector3f getVector(ByteBuffer buffer, int index) {
+        return new Vector3f(buffer.getFloat(index), buffer.getFloat(index + 4), buffer.getFloat(index + 8));
+    }
+
+    private static Kind getKind(ByteBuffer buffer, int index) {
+        int ordinal = buffer.getInt(index);
+        return ordinal == -1 ? null : KINDS[ordinal];
+    }
+
+    public enum Kind {
+        SOLID,
+        LIQUID,
+        GAS
+    }
+
+    public static class Material {
+        public final float roughness;
+        public final int layer;
+        public final Kind kind;
+
+        public Material(float roughness, int layer, Kind kind) {
+            this.roughness = roughness;
+            this.layer = layer;
+            this.kind = kind;
+        }
+    }
+
+    public static class Particle {
+        public final Vector3f position;
+        public final Vector3f velocity;
+        public final Material material;
+        public final float mass;
+
+        public Particle(Vector3f position, Vector3f velocity, Material material, float mass) {
+            this.position = position;
+            this.velocity = velocity;
+            this.material = material;
+            this.mass = mass;
+        }
+
+        public static Particle makeRandom(Random random) {
+            return new Particle(
+                    new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()),
+                    new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()),
+                    new Material(random.nextFloat(), random.nextInt(16), KINDS[random.nextInt(KINDS.length)]),
+                    random.nextFloat()
+            );
+        }
+    }
+
+    @NullableType
+    public static class Light {
+        public final Vector3f position;
+        public final float intensity;
+        public final Kind kind;
+
+        public Light(Vector3f position, float intensity, Kind kind) {
+            this.position = position;
+            this.intensity = intensity;
+            this.kind = kind;
+        }
+
+        public static Light makeRandom(Random random) {
+            return new Light(new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()), random.nextFloat(), KINDS[random.nextInt(KINDS.length)]);
+        }
+    }
+
+    public interface FloatVisitor {
+        void visit(float value);
+    }
+
+    public interface ParticleVisitor {
+        void visit(float px, float py, float pz, float vx, float vy, float vz, float roughness, int layer, Kind kind, float mass);
+    }
+}
@@ -0,0 +1,77 @@
+package me.salamander.mallet.benchmark.shaders;
+
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.annotation.Uniform;
+import me.salamander.mallet.shaders.glsltypes.Vec3;
+import me.salamander.mallet.shaders.glsltypes.Vec4;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+
+/**
+ * Many small helper methods calling each other, so most of the time goes into compiling separate methods
+ */
+public class CallShader extends FragmentShader {
+    @In
+    private static Vec3 position;
+
+    @Uniform
+    private static float scale = 0.0f;
+
+    @Out
+    private static Vec4 outColor;
+
+    public static void main() {
+        Vec3 v = position;
+
+        v = step0(v, scale);
+        v = step1(v, scale);
+        v = step2(v, scale);
+        v = step3(v, scale);
+
+        outColor = new Vec4(v, combine(v.x(), v.y(), v.z()));
+    }
+
+    private static Vec3 step0(Vec3 v, float s) {
+        return step1(v.mul(s), s + 1.0f);
+    }
+
+    private static Vec3 step1(Vec3 v, float s) {
+        return step2(v.mul(v), s * 0.5f);
+    }
+
+    private static Vec3 step2(Vec3 v, float s) {
+        return step3(v.mul(square(s)), s - 1.0f);
+    }
+
+    private static Vec3 step3(Vec3 v, float s) {
+        return step4(v, cube(s));
+    }
+
+    private static Vec3 step4(Vec3 v, float s) {
+        return step5(v.mul(s), s * 2.0f);
+    }
+
+    private static Vec3 step5(Vec3 v, float s) {
+        return step6(v, square(s) + 1.0f);
+    }
+
+    private static Vec3 step6(Vec3 v, float s) {
+        return step7(v.mul(new Vec3(s, 1.0f, s)), s);
+    }
+
+    private static Vec3 step7(Vec3 v, float s) {
+        return v.mul(combine(s, square(s), cube(s)));
+    }
+
+    private static float square(float x) {
+        return x * x;
+    }
+
+    private static float cube(float x) {
+        return square(x) * x;
+    }
+
+    private static float combine(float a, float b, float c) {
+        return square(a) + square(b) * 0.5f + cube(c) * 0.25f;
+    }
+}
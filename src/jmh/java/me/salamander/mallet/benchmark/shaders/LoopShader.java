@@ -0,0 +1,56 @@
+package me.salamander.mallet.benchmark.shaders;
+
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.annotation.Uniform;
+import me.salamander.mallet.shaders.glsltypes.Vec3;
+import me.salamander.mallet.shaders.glsltypes.Vec4;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+
+/**
+ * Deeply nested loops and branches, which make the dataflow analyses and the AST maker do a lot of work
+ */
+public class LoopShader extends FragmentShader {
+    @In
+    private static Vec3 position;
+
+    @Uniform
+    private static int iterations = 0;
+
+    @Uniform
+    private static float falloff = 0.0f;
+
+    @Out
+    private static Vec4 outColor;
+
+    public static void main() {
+        Vec3 acc = new Vec3(1.0f);
+        float weight = 1.0f;
+
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (i % 2 == 0) {
+                    acc = acc.mul(position);
+                } else if (j % 3 == 1) {
+                    acc = acc.mul(falloff);
+                } else {
+                    acc = acc.mul(0.5f);
+                }
+
+                for (int k = 0; k < j; k++) {
+                    weight = weight * 0.9f;
+
+                    if (weight < 0.01f) {
+                        weight = 1.0f;
+                    }
+
+                    for (int l = 0; l < k; l++) {
+                        acc = acc.mul(weight);
+                    }
+                }
+            }
+        }
+
+        outColor = new Vec4(acc, weight);
+    }
+}
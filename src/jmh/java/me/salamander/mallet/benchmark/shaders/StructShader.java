@@ -0,0 +1,94 @@
+package me.salamander.mallet.benchmark.shaders;
+
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.annotation.Uniform;
+import me.salamander.mallet.shaders.glsltypes.Vec3;
+import me.salamander.mallet.shaders.glsltypes.Vec4;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+
+/**
+ * Uses large structs, which stress type definition and struct construction
+ */
+public class StructShader extends FragmentShader {
+    @In
+    private static Vec3 normal;
+
+    @In
+    private static Vec3 position;
+
+    @Uniform
+    private static float roughness = 0.0f;
+
+    @Out
+    private static Vec4 outColor;
+
+    public static void main() {
+        Material material = new Material(
+                new Vec3(0.8f, 0.2f, 0.1f),
+                new Vec3(0.0f),
+                new Vec3(1.0f, 0.9f, 0.8f),
+                roughness,
+                0.5f,
+                1.45f,
+                1.0f,
+                0.0f,
+                2.0f
+        );
+
+        Light key = new Light(new Vec3(1.0f, 1.0f, 0.0f), new Vec3(1.0f), 2.0f, 10.0f);
+        Light fill = new Light(new Vec3(-1.0f, 0.5f, 0.0f), new Vec3(0.3f, 0.3f, 0.5f), 0.5f, 20.0f);
+
+        Vec3 color = shade(material, key, normal).mul(shade(material, fill, position));
+
+        outColor = new Vec4(color, material.opacity);
+    }
+
+    private static Vec3 shade(Material material, Light light, Vec3 n) {
+        float diffuse = n.x() * light.direction.x() + n.y() * light.direction.y() + n.z() * light.direction.z();
+        float specular = diffuse * (1.0f - material.roughness) * material.metallic;
+        float attenuation = light.intensity / light.range;
+
+        return material.albedo.mul(light.color).mul(diffuse * attenuation)
+                .mul(material.tint)
+                .mul(specular + material.sheen + material.clearcoat * material.ior);
+    }
+
+    public static class Material {
+        public final Vec3 albedo;
+        public final Vec3 emission;
+        public final Vec3 tint;
+        public final float roughness;
+        public final float metallic;
+        public final float ior;
+        public final float opacity;
+        public final float sheen;
+        public final float clearcoat;
+
+        public Material(Vec3 albedo, Vec3 emission, Vec3 tint, float roughness, float metallic, float ior, float opacity, float sheen, float clearcoat) {
+            this.albedo = albedo;
+            this.emission = emission;
+            this.tint = tint;
+            this.roughness = roughness;
+            this.metallic = metallic;
+            this.ior = ior;
+            this.opacity = opacity;
+            this.sheen = sheen;
+            this.clearcoat = clearcoat;
+        }
+    }
+
+    public static class Light {
+        public final Vec3 direction;
+        public final Vec3 color;
+        public final float intensity;
+        public final float range;
+
+        public Light(Vec3 direction, Vec3 color, float intensity, float range) {
+            this.direction = direction;
+            this.color = color;
+            this.intensity = intensity;
+            this.range = range;
+        }
+    }
+}
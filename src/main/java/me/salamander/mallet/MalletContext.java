@@ -2,6 +2,8 @@ package me.salamander.mallet;
 
 import me.salamander.mallet.resolution.AnnotationResolver;
 import me.salamander.mallet.resolution.DefaultAnnotationResolver;
+import me.salamander.mallet.shaders.compiler.CompilationCache;
+import me.salamander.mallet.shaders.compiler.cache.ShaderCache;
 import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
 import me.salamander.mallet.resolution.ClassResolver;
 import me.salamander.mallet.resolution.DefaultClassResolver;
@@ -28,6 +30,10 @@ public class MalletContext {
 
     private final Set<Type> beingCreated = new HashSet<>();
 
+    private final CompilationCache compilationCache = new CompilationCache();
+    private ShaderCache shaderCache = null;
+    private ClassLoader classLoader = MalletContext.class.getClassLoader();
+
     public MalletContext(){
         addDefaultResolvers();
         addDefaultTypes();
@@ -65,6 +71,41 @@ public class MalletContext {
         throw new RuntimeException("Could not find class " + name);
     }
 
+    /**
+     * Sets the cache used to store compiled shaders between runs
+     * @param shaderCache The cache, or null to disable caching
+     */
+    public void setShaderCache(ShaderCache shaderCache) {
+        this.shaderCache = shaderCache;
+    }
+
+    public ShaderCache getShaderCache() {
+        return shaderCache;
+    }
+
+    /**
+     * Sets the loader that the classes of shaders are loaded from, used to read the values of static fields that get inlined
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Loads a class through the context's class loader without initializing it
+     * @param name The name of the class in binary form. (i.e. java.lang.Object)
+     */
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        return Class.forName(name, false, classLoader);
+    }
+
+    public CompilationCache getCompilationCache() {
+        return compilationCache;
+    }
+
     public void addAnnotationResolver(AnnotationResolver resolver) {
         annotationResolvers.add(resolver);
     }
@@ -125,7 +166,8 @@ public class MalletContext {
         }
     }
 
-    public MalletType getType(Type type) {
+    //Synchronized since shaders may be compiled in parallel. Reentrant so that types can create the types they depend on
+    public synchronized MalletType getType(Type type) {
         if (types.containsKey(type)) {
             return types.get(type);
         }
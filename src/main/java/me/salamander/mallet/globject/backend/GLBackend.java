@@ -0,0 +1,166 @@
+package me.salamander.mallet.globject.backend;
+
+import me.salamander.mallet.globject.buffer.BufferBackend;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Every OpenGL call made by {@link me.salamander.mallet.globject.buffer.BufferObject}, {@link me.salamander.mallet.globject.vao.VAOLayout},
+ * {@link me.salamander.mallet.shaders.program.ShaderProgram} and {@link me.salamander.mallet.window.Window}. The methods are
+ * named after the GL functions they stand for, without the {@code gl} prefix.
+ * <br><br>
+ * Objects use the backend that was current when they were created. The default is {@link LWJGLBackend};
+ * {@link RecordingBackend} can be used to run and measure the same code without a GPU.
+ */
+public interface GLBackend extends BufferBackend {
+    static GLBackend get() {
+        GLBackend backend = Current.backend;
+
+        if (backend == null) {
+            synchronized (Current.class) {
+                if (Current.backend == null) {
+                    Current.backend = new LWJGLBackend();
+                }
+
+                backend = Current.backend;
+            }
+        }
+
+        return backend;
+    }
+
+    /**
+     * Sets the backend used by objects created from now on
+     */
+    static void set(GLBackend backend) {
+        synchronized (Current.class) {
+            Current.backend = backend;
+        }
+    }
+
+    /**
+     * Called once the context of a window has been made current
+     */
+    void createCapabilities();
+
+    //Buffers
+    int genBuffer();
+
+    void bindBuffer(int target, int buffer);
+
+    void bindBufferBase(int target, int index, int buffer);
+
+    void bufferData(int target, long size, int usage);
+
+    /**
+     * Uploads the remaining bytes of {@code data}
+     */
+    void bufferSubData(int target, long offset, ByteBuffer data);
+
+    /**
+     * Like {@link #bufferSubData(int, long, ByteBuffer)} but by name, so the buffer doesn't have to be bound
+     */
+    void namedBufferSubData(int buffer, long offset, ByteBuffer data);
+
+    /**
+     * Fills the remaining bytes of {@code data}
+     */
+    void getBufferSubData(int target, long offset, ByteBuffer data);
+
+    /**
+     * Copies between two buffers on the GPU, by name rather than by binding point
+     */
+    void copyBufferSubData(int readBuffer, int writeBuffer, long readOffset, long writeOffset, long size);
+
+    //Vertex attributes
+    void enableVertexAttribArray(int index);
+
+    void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+
+    void vertexAttribIPointer(int index, int size, int type, int stride, long pointer);
+
+    void vertexAttribLPointer(int index, int size, int type, int stride, long pointer);
+
+    //Programs
+    int createProgram();
+
+    int createShader(int type);
+
+    void shaderSource(int shader, String source);
+
+    void compileShader(int shader);
+
+    int getShaderi(int shader, int pname);
+
+    String getShaderInfoLog(int shader);
+
+    void attachShader(int program, int shader);
+
+    void linkProgram(int program);
+
+    void deleteShader(int shader);
+
+    void deleteProgram(int program);
+
+    int getProgrami(int program, int pname);
+
+    String getProgramInfoLog(int program);
+
+    void useProgram(int program);
+
+    void dispatchCompute(int numGroupsX, int numGroupsY, int numGroupsZ);
+
+    int getUniformLocation(int program, String name);
+
+    String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type);
+
+    void getActiveUniformsiv(int program, IntBuffer uniformIndices, int pname, IntBuffer params);
+
+    void getProgramInterfaceiv(int program, int programInterface, int pname, IntBuffer params);
+
+    int getProgramResourceIndex(int program, int programInterface, String name);
+
+    String getProgramResourceName(int program, int programInterface, int index);
+
+    void getProgramResourceiv(int program, int programInterface, int index, IntBuffer props, IntBuffer length, IntBuffer params);
+
+    void uniform1i(int location, int value);
+
+    void uniform1f(int location, float value);
+
+    void uniform1d(int location, double value);
+
+    void uniform2f(int location, float x, float y);
+
+    void uniform3f(int location, float x, float y, float z);
+
+    void uniform4f(int location, float x, float y, float z, float w);
+
+    void uniform3i(int location, int x, int y, int z);
+
+    //State
+    void enable(int capability);
+
+    void blendFunc(int sourceFactor, int destinationFactor);
+
+    void clear(int mask);
+
+    void clearColor(float r, float g, float b, float a);
+
+    void viewport(int x, int y, int width, int height);
+
+    void scissor(int x, int y, int width, int height);
+
+    int getInteger(int pname);
+
+    String getStringi(int name, int index);
+
+    final class Current {
+        private static volatile GLBackend backend;
+
+        private Current() {
+
+        }
+    }
+}
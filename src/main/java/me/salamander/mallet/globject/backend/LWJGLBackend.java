@@ -0,0 +1,313 @@
+package me.salamander.mallet.globject.backend;
+
+import org.lwjgl.opengl.GL;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * {@link GLBackend} that calls OpenGL through LWJGL. Needs a current context with OpenGL 4.5
+ */
+public class LWJGLBackend implements GLBackend {
+    @Override
+    public void createCapabilities() {
+        GL.createCapabilities();
+    }
+
+    //Buffers
+    @Override
+    public int genBuffer() {
+        return glGenBuffers();
+    }
+
+    @Override
+    public int createBuffer() {
+        return glCreateBuffers();
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void bindBufferBase(int target, int index, int buffer) {
+        glBindBufferBase(target, index, buffer);
+    }
+
+    @Override
+    public void bindBufferRange(int target, int index, int buffer, long offset, long size) {
+        glBindBufferRange(target, index, buffer, offset, size);
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        glBufferData(target, size, usage);
+    }
+
+    @Override
+    public void bufferStorage(int buffer, long size, int flags) {
+        glNamedBufferStorage(buffer, size, flags);
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, ByteBuffer data) {
+        glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void namedBufferSubData(int buffer, long offset, ByteBuffer data) {
+        glNamedBufferSubData(buffer, offset, data);
+    }
+
+    @Override
+    public void getBufferSubData(int target, long offset, ByteBuffer data) {
+        glGetBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void copyBufferSubData(int readBuffer, int writeBuffer, long readOffset, long writeOffset, long size) {
+        glCopyNamedBufferSubData(readBuffer, writeBuffer, readOffset, writeOffset, size);
+    }
+
+    @Override
+    public ByteBuffer mapBufferRange(int buffer, long offset, long length, int access) {
+        ByteBuffer mapped = glMapNamedBufferRange(buffer, offset, length, access);
+
+        if (mapped == null) {
+            throw new IllegalStateException("Could not map buffer " + buffer);
+        }
+
+        return mapped;
+    }
+
+    @Override
+    public void unmapBuffer(int buffer) {
+        glUnmapNamedBuffer(buffer);
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public long fenceSync() {
+        return glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public int clientWaitSync(long sync, int flags, long timeoutNanos) {
+        return glClientWaitSync(sync, flags, timeoutNanos);
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+        glDeleteSync(sync);
+    }
+
+    //Vertex attributes
+    @Override
+    public void enableVertexAttribArray(int index) {
+        glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribIPointer(int index, int size, int type, int stride, long pointer) {
+        glVertexAttribIPointer(index, size, type, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribLPointer(int index, int size, int type, int stride, long pointer) {
+        glVertexAttribLPointer(index, size, type, stride, pointer);
+    }
+
+    //Programs
+    @Override
+    public int createProgram() {
+        return glCreateProgram();
+    }
+
+    @Override
+    public int createShader(int type) {
+        return glCreateShader(type);
+    }
+
+    @Override
+    public void shaderSource(int shader, String source) {
+        glShaderSource(shader, source);
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        glCompileShader(shader);
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        return glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        return glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        glAttachShader(program, shader);
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        glLinkProgram(program);
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        glDeleteShader(shader);
+    }
+
+    @Override
+    public void deleteProgram(int program) {
+        glDeleteProgram(program);
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        return glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        return glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void useProgram(int program) {
+        glUseProgram(program);
+    }
+
+    @Override
+    public void dispatchCompute(int numGroupsX, int numGroupsY, int numGroupsZ) {
+        glDispatchCompute(numGroupsX, numGroupsY, numGroupsZ);
+    }
+
+    @Override
+    public int getUniformLocation(int program, String name) {
+        return glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type) {
+        return glGetActiveUniform(program, index, size, type);
+    }
+
+    @Override
+    public void getActiveUniformsiv(int program, IntBuffer uniformIndices, int pname, IntBuffer params) {
+        glGetActiveUniformsiv(program, uniformIndices, pname, params);
+    }
+
+    @Override
+    public void getProgramInterfaceiv(int program, int programInterface, int pname, IntBuffer params) {
+        glGetProgramInterfaceiv(program, programInterface, pname, params);
+    }
+
+    @Override
+    public int getProgramResourceIndex(int program, int programInterface, String name) {
+        return glGetProgramResourceIndex(program, programInterface, name);
+    }
+
+    @Override
+    public String getProgramResourceName(int program, int programInterface, int index) {
+        return glGetProgramResourceName(program, programInterface, index);
+    }
+
+    @Override
+    public void getProgramResourceiv(int program, int programInterface, int index, IntBuffer props, IntBuffer length, IntBuffer params) {
+        glGetProgramResourceiv(program, programInterface, index, props, length, params);
+    }
+
+    @Override
+    public void uniform1i(int location, int value) {
+        glUniform1i(location, value);
+    }
+
+    @Override
+    public void uniform1f(int location, float value) {
+        glUniform1f(location, value);
+    }
+
+    @Override
+    public void uniform1d(int location, double value) {
+        glUniform1d(location, value);
+    }
+
+    @Override
+    public void uniform2f(int location, float x, float y) {
+        glUniform2f(location, x, y);
+    }
+
+    @Override
+    public void uniform3f(int location, float x, float y, float z) {
+        glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void uniform4f(int location, float x, float y, float z, float w) {
+        glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void uniform3i(int location, int x, int y, int z) {
+        glUniform3i(location, x, y, z);
+    }
+
+    //State
+    @Override
+    public void enable(int capability) {
+        glEnable(capability);
+    }
+
+    @Override
+    public void blendFunc(int sourceFactor, int destinationFactor) {
+        glBlendFunc(sourceFactor, destinationFactor);
+    }
+
+    @Override
+    public void clear(int mask) {
+        glClear(mask);
+    }
+
+    @Override
+    public void clearColor(float r, float g, float b, float a) {
+        glClearColor(r, g, b, a);
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void scissor(int x, int y, int width, int height) {
+        glScissor(x, y, width, height);
+    }
+
+    @Override
+    public int getInteger(int pname) {
+        return glGetInteger(pname);
+    }
+
+    @Override
+    public String getStringi(int name, int index) {
+        return glGetStringi(name, index);
+    }
+}
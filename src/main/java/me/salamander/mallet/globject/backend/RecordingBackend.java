@@ -0,0 +1,556 @@
+package me.salamander.mallet.globject.backend;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * A {@link GLBackend} that doesn't need a GPU. Buffers are simulated with direct byte buffers, programs always compile and link
+ * and every call is counted. Optionally, the whole command stream is recorded.
+ * <br><br>
+ * Uniforms and shader storage blocks don't exist unless they are declared with {@link #declareUniform(String, int)} and
+ * {@link #declareShaderStorageBlock(String, int)}, since nothing actually compiles the shaders.
+ * <br><br>
+ * Like OpenGL, this must only be used from one thread at a time.
+ */
+public class RecordingBackend implements GLBackend {
+    private final Object2LongMap<String> calls = new Object2LongOpenHashMap<>();
+    private long totalCalls;
+    private long stateChanges;
+    private long bytesUploaded;
+    private long bytesDownloaded;
+
+    private boolean recording = false;
+    private final List<Command> commands = new ArrayList<>();
+
+    private final Int2ObjectMap<ByteBuffer> buffers = new Int2ObjectOpenHashMap<>();
+    private final Int2IntMap boundBuffers = new Int2IntOpenHashMap();
+    private final Int2IntMap shaderTypes = new Int2IntOpenHashMap();
+    private final Int2ObjectMap<List<Integer>> programShaders = new Int2ObjectOpenHashMap<>();
+    private int nextHandle = 1;
+    private long nextSync = 1;
+    private int fenceTimeouts = 0;
+    private final Long2IntMap fenceWaits = new Long2IntOpenHashMap();
+
+    private final List<String> uniformNames = new ArrayList<>();
+    private final List<Integer> uniformTypes = new ArrayList<>();
+    private final List<String> blockNames = new ArrayList<>();
+    private final List<Integer> blockBindings = new ArrayList<>();
+
+    /**
+     * Whether to keep every command in {@link #getCommands()}. This allocates for every call so it is off by default
+     */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Makes waiting on every fence time out this many times before it is signaled, as if the GPU was still busy. By default
+     * fences are always already signaled
+     */
+    public void setFenceTimeouts(int fenceTimeouts) {
+        this.fenceTimeouts = fenceTimeouts;
+    }
+
+    /**
+     * Makes every program report a uniform with this name and type (for example {@code GL_FLOAT})
+     */
+    public void declareUniform(String name, int type) {
+        uniformNames.add(name);
+        uniformTypes.add(type);
+    }
+
+    /**
+     * Makes every program report a shader storage block with this name and binding
+     */
+    public void declareShaderStorageBlock(String name, int binding) {
+        blockNames.add(name);
+        blockBindings.add(binding);
+    }
+
+    private void call(String name, Object... args) {
+        calls.put(name, calls.getLong(name) + 1);
+        totalCalls++;
+
+        if (recording) {
+            commands.add(new Command(name, args));
+        }
+    }
+
+    private void stateChange(String name, Object... args) {
+        call(name, args);
+        stateChanges++;
+    }
+
+    private ByteBuffer getBound(int target) {
+        int buffer = boundBuffers.get(target);
+        ByteBuffer storage = buffers.get(buffer);
+
+        if (storage == null) {
+            throw new IllegalStateException("No buffer with storage bound to " + target);
+        }
+
+        return storage;
+    }
+
+    //Statistics
+
+    public long getCalls(String name) {
+        return calls.getLong(name);
+    }
+
+    public long getTotalCalls() {
+        return totalCalls;
+    }
+
+    /**
+     * @return The number of binds, program changes and enabled capabilities
+     */
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * @return The bytes passed to {@code bufferSubData} and {@code namedBufferSubData}. Writes into mapped buffers can't be seen and aren't counted
+     */
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    public List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    /**
+     * @return The simulated storage of a buffer
+     */
+    public ByteBuffer getStorage(int buffer) {
+        return buffers.get(buffer);
+    }
+
+    /**
+     * Resets the counters and forgets the recorded commands. Objects and buffer contents are kept
+     */
+    public void reset() {
+        calls.clear();
+        totalCalls = 0;
+        stateChanges = 0;
+        bytesUploaded = 0;
+        bytesDownloaded = 0;
+        commands.clear();
+    }
+
+    @Override
+    public void createCapabilities() {
+        call("createCapabilities");
+    }
+
+    //Buffers
+
+    @Override
+    public int genBuffer() {
+        call("genBuffer");
+        return nextHandle++;
+    }
+
+    @Override
+    public int createBuffer() {
+        call("createBuffer");
+        return nextHandle++;
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer) {
+        stateChange("bindBuffer", target, buffer);
+        boundBuffers.put(target, buffer);
+    }
+
+    @Override
+    public void bindBufferBase(int target, int index, int buffer) {
+        stateChange("bindBufferBase", target, index, buffer);
+        boundBuffers.put(target, buffer);
+    }
+
+    @Override
+    public void bindBufferRange(int target, int index, int buffer, long offset, long size) {
+        stateChange("bindBufferRange", target, index, buffer, offset, size);
+        boundBuffers.put(target, buffer);
+    }
+
+    @Override
+    public void bufferData(int target, long size, int usage) {
+        call("bufferData", target, size, usage);
+        buffers.put(boundBuffers.get(target), ByteBuffer.allocateDirect(Math.toIntExact(size)).order(ByteOrder.nativeOrder()));
+    }
+
+    @Override
+    public void bufferStorage(int buffer, long size, int flags) {
+        call("bufferStorage", buffer, size, flags);
+        buffers.put(buffer, ByteBuffer.allocateDirect(Math.toIntExact(size)).order(ByteOrder.nativeOrder()));
+    }
+
+    @Override
+    public void bufferSubData(int target, long offset, ByteBuffer data) {
+        call("bufferSubData", target, offset, data.remaining());
+        bytesUploaded += data.remaining();
+
+        getBound(target).put(Math.toIntExact(offset), data, data.position(), data.remaining());
+    }
+
+    @Override
+    public void namedBufferSubData(int buffer, long offset, ByteBuffer data) {
+        call("namedBufferSubData", buffer, offset, data.remaining());
+        bytesUploaded += data.remaining();
+
+        buffers.get(buffer).put(Math.toIntExact(offset), data, data.position(), data.remaining());
+    }
+
+    @Override
+    public void getBufferSubData(int target, long offset, ByteBuffer data) {
+        call("getBufferSubData", target, offset, data.remaining());
+        bytesDownloaded += data.remaining();
+
+        data.put(data.position(), getBound(target), Math.toIntExact(offset), data.remaining());
+    }
+
+    @Override
+    public void copyBufferSubData(int readBuffer, int writeBuffer, long readOffset, long writeOffset, long size) {
+        call("copyBufferSubData", readBuffer, writeBuffer, readOffset, writeOffset, size);
+
+        buffers.get(writeBuffer).put(Math.toIntExact(writeOffset), buffers.get(readBuffer), Math.toIntExact(readOffset), Math.toIntExact(size));
+    }
+
+    @Override
+    public ByteBuffer mapBufferRange(int buffer, long offset, long length, int access) {
+        call("mapBufferRange", buffer, offset, length, access);
+        return buffers.get(buffer).slice(Math.toIntExact(offset), Math.toIntExact(length)).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void unmapBuffer(int buffer) {
+        call("unmapBuffer", buffer);
+    }
+
+    @Override
+    public void deleteBuffer(int buffer) {
+        call("deleteBuffer", buffer);
+        buffers.remove(buffer);
+    }
+
+    @Override
+    public long fenceSync() {
+        call("fenceSync");
+        return nextSync++;
+    }
+
+    @Override
+    public int clientWaitSync(long sync, int flags, long timeoutNanos) {
+        call("clientWaitSync", sync, flags, timeoutNanos);
+
+        int waits = fenceWaits.get(sync) + 1;
+        fenceWaits.put(sync, waits);
+
+        if (waits <= fenceTimeouts) {
+            return GL_TIMEOUT_EXPIRED;
+        }
+
+        return fenceTimeouts == 0 ? GL_ALREADY_SIGNALED : GL_CONDITION_SATISFIED;
+    }
+
+    @Override
+    public void deleteSync(long sync) {
+        call("deleteSync", sync);
+        fenceWaits.remove(sync);
+    }
+
+    //Vertex attributes
+
+    @Override
+    public void enableVertexAttribArray(int index) {
+        stateChange("enableVertexAttribArray", index);
+    }
+
+    @Override
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        stateChange("vertexAttribPointer", index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribIPointer(int index, int size, int type, int stride, long pointer) {
+        stateChange("vertexAttribIPointer", index, size, type, stride, pointer);
+    }
+
+    @Override
+    public void vertexAttribLPointer(int index, int size, int type, int stride, long pointer) {
+        stateChange("vertexAttribLPointer", index, size, type, stride, pointer);
+    }
+
+    //Programs
+
+    @Override
+    public int createProgram() {
+        call("createProgram");
+        int program = nextHandle++;
+        programShaders.put(program, new ArrayList<>());
+        return program;
+    }
+
+    @Override
+    public int createShader(int type) {
+        call("createShader", type);
+        int shader = nextHandle++;
+        shaderTypes.put(shader, type);
+        return shader;
+    }
+
+    @Override
+    public void shaderSource(int shader, String source) {
+        call("shaderSource", shader, source.length());
+    }
+
+    @Override
+    public void compileShader(int shader) {
+        call("compileShader", shader);
+    }
+
+    @Override
+    public int getShaderi(int shader, int pname) {
+        call("getShaderi", shader, pname);
+
+        return switch (pname) {
+            case GL_COMPILE_STATUS -> GL_TRUE;
+            case GL_SHADER_TYPE -> shaderTypes.get(shader);
+            default -> 0;
+        };
+    }
+
+    @Override
+    public String getShaderInfoLog(int shader) {
+        call("getShaderInfoLog", shader);
+        return "";
+    }
+
+    @Override
+    public void attachShader(int program, int shader) {
+        call("attachShader", program, shader);
+        programShaders.get(program).add(shaderTypes.get(shader));
+    }
+
+    @Override
+    public void linkProgram(int program) {
+        call("linkProgram", program);
+    }
+
+    @Override
+    public void deleteShader(int shader) {
+        call("deleteShader", shader);
+    }
+
+    @Override
+    public void deleteProgram(int program) {
+        call("deleteProgram", program);
+        programShaders.remove(program);
+    }
+
+    @Override
+    public int getProgrami(int program, int pname) {
+        call("getProgrami", program, pname);
+
+        return switch (pname) {
+            case GL_LINK_STATUS -> GL_TRUE;
+            case GL_ACTIVE_UNIFORMS -> uniformNames.size();
+            //Only the x size is returned, which is all that is checked
+            case GL_COMPUTE_WORK_GROUP_SIZE -> programShaders.getOrDefault(program, List.of()).contains(GL_COMPUTE_SHADER) ? 1 : 0;
+            default -> 0;
+        };
+    }
+
+    @Override
+    public String getProgramInfoLog(int program) {
+        call("getProgramInfoLog", program);
+        return "";
+    }
+
+    @Override
+    public void useProgram(int program) {
+        stateChange("useProgram", program);
+    }
+
+    @Override
+    public void dispatchCompute(int numGroupsX, int numGroupsY, int numGroupsZ) {
+        call("dispatchCompute", numGroupsX, numGroupsY, numGroupsZ);
+    }
+
+    @Override
+    public int getUniformLocation(int program, String name) {
+        call("getUniformLocation", program, name);
+        return uniformNames.indexOf(name);
+    }
+
+    @Override
+    public String getActiveUniform(int program, int index, IntBuffer size, IntBuffer type) {
+        call("getActiveUniform", program, index);
+        size.put(size.position(), 1);
+        type.put(type.position(), uniformTypes.get(index));
+        return uniformNames.get(index);
+    }
+
+    @Override
+    public void getActiveUniformsiv(int program, IntBuffer uniformIndices, int pname, IntBuffer params) {
+        call("getActiveUniformsiv", program, pname);
+
+        for (int i = 0; i < uniformIndices.remaining(); i++) {
+            int index = uniformIndices.get(uniformIndices.position() + i);
+            params.put(params.position() + i, pname == GL_UNIFORM_TYPE ? uniformTypes.get(index) : 1);
+        }
+    }
+
+    @Override
+    public void getProgramInterfaceiv(int program, int programInterface, int pname, IntBuffer params) {
+        call("getProgramInterfaceiv", program, programInterface, pname);
+
+        int value = 0;
+        if (programInterface == GL_SHADER_STORAGE_BLOCK && pname == GL_ACTIVE_RESOURCES) {
+            value = blockNames.size();
+        }
+
+        params.put(params.position(), value);
+    }
+
+    @Override
+    public int getProgramResourceIndex(int program, int programInterface, String name) {
+        call("getProgramResourceIndex", program, programInterface, name);
+        return programInterface == GL_SHADER_STORAGE_BLOCK ? blockNames.indexOf(name) : -1;
+    }
+
+    @Override
+    public String getProgramResourceName(int program, int programInterface, int index) {
+        call("getProgramResourceName", program, programInterface, index);
+        return programInterface == GL_SHADER_STORAGE_BLOCK ? blockNames.get(index) : "";
+    }
+
+    @Override
+    public void getProgramResourceiv(int program, int programInterface, int index, IntBuffer props, IntBuffer length, IntBuffer params) {
+        call("getProgramResourceiv", program, programInterface, index);
+
+        int count = Math.min(props.remaining(), params.remaining());
+        for (int i = 0; i < count; i++) {
+            int prop = props.get(props.position() + i);
+            int value = prop == GL_BUFFER_BINDING && programInterface == GL_SHADER_STORAGE_BLOCK ? blockBindings.get(index) : 0;
+            params.put(params.position() + i, value);
+        }
+
+        if (length != null) {
+            length.put(length.position(), count);
+        }
+    }
+
+    @Override
+    public void uniform1i(int location, int value) {
+        call("uniform1i", location, value);
+    }
+
+    @Override
+    public void uniform1f(int location, float value) {
+        call("uniform1f", location, value);
+    }
+
+    @Override
+    public void uniform1d(int location, double value) {
+        call("uniform1d", location, value);
+    }
+
+    @Override
+    public void uniform2f(int location, float x, float y) {
+        call("uniform2f", location, x, y);
+    }
+
+    @Override
+    public void uniform3f(int location, float x, float y, float z) {
+        call("uniform3f", location, x, y, z);
+    }
+
+    @Override
+    public void uniform4f(int location, float x, float y, float z, float w) {
+        call("uniform4f", location, x, y, z, w);
+    }
+
+    @Override
+    public void uniform3i(int location, int x, int y, int z) {
+        call("uniform3i", location, x, y, z);
+    }
+
+    //State
+
+    @Override
+    public void enable(int capability) {
+        stateChange("enable", capability);
+    }
+
+    @Override
+    public void blendFunc(int sourceFactor, int destinationFactor) {
+        stateChange("blendFunc", sourceFactor, destinationFactor);
+    }
+
+    @Override
+    public void clear(int mask) {
+        call("clear", mask);
+    }
+
+    @Override
+    public void clearColor(float r, float g, float b, float a) {
+        stateChange("clearColor", r, g, b, a);
+    }
+
+    @Override
+    public void viewport(int x, int y, int width, int height) {
+        stateChange("viewport", x, y, width, height);
+    }
+
+    @Override
+    public void scissor(int x, int y, int width, int height) {
+        stateChange("scissor", x, y, width, height);
+    }
+
+    @Override
+    public int getInteger(int pname) {
+        call("getInteger", pname);
+        return 0;
+    }
+
+    @Override
+    public String getStringi(int name, int index) {
+        call("getStringi", name, index);
+        return "";
+    }
+
+    public record Command(String name, Object... args) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append('(');
+
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(args[i]);
+            }
+
+            return sb.append(')').toString();
+        }
+    }
+}
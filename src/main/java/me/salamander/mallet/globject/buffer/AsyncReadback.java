@@ -0,0 +1,252 @@
+package me.salamander.mallet.globject.buffer;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import me.salamander.mallet.globject.backend.GLBackend;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Reads buffers back from the GPU without stalling. A read copies the range into a persistently mapped staging buffer and
+ * places a fence after the copy; {@link #poll()} completes the reads whose fence has been signaled.
+ * <br><br>
+ * Staging buffers are pooled by power of two size so reading every frame doesn't create any GL objects once the pool is warm.
+ * Like the rest of the GL code, this must only be used from the thread owning the context. Futures are completed from
+ * {@link #poll()} and {@link #finish()}.
+ */
+public class AsyncReadback {
+    private static final int FLAGS = GL_MAP_READ_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+    private static final int MIN_STAGING_SIZE = 4096;
+    private static final long WAIT_TIMEOUT_NANOS = 1_000_000;
+
+    private final GLBackend backend;
+    private final Int2ObjectMap<ArrayDeque<Staging>> pool = new Int2ObjectOpenHashMap<>();
+    private final ArrayDeque<PendingRead> pending = new ArrayDeque<>();
+    private final Map<ByteBuffer, Staging> borrowed = new IdentityHashMap<>();
+
+    private long stagingBuffersCreated = 0;
+    private long reads = 0;
+
+    public AsyncReadback() {
+        this(GLBackend.get());
+    }
+
+    public AsyncReadback(GLBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Starts reading part of a buffer.
+     * @return A future completed with the data, in native byte order. The buffer is staging memory and must be handed back with
+     * {@link #release(ByteBuffer)} once it has been read
+     */
+    public CompletableFuture<ByteBuffer> read(BufferObject buffer, int offset, int length) {
+        CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        Staging staging = copy(buffer, offset, length);
+
+        pending.add(new PendingRead(staging, length, (data) -> {
+            borrowed.put(data, staging);
+            future.complete(data);
+        }));
+
+        return future;
+    }
+
+    /**
+     * Starts reading part of a buffer and decodes it with a reader once it is available. The staging memory is returned to the
+     * pool as soon as the reader is done.
+     * @param reader A reader made by {@link me.salamander.mallet.type.MalletType#makeReader(Class, String...)}
+     * @param callback The callback passed to the reader
+     * @return A future completed after the reader has run
+     */
+    public <T> CompletableFuture<Void> read(BufferObject buffer, int offset, int length, BiConsumer<ByteBuffer, T> reader, T callback) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Staging staging = copy(buffer, offset, length);
+
+        pending.add(new PendingRead(staging, length, (data) -> {
+            try {
+                reader.accept(data, callback);
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                free(staging);
+            }
+        }));
+
+        return future;
+    }
+
+    private Staging copy(BufferObject buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.getSize()) {
+            throw new IllegalArgumentException("Offset + length > size");
+        }
+
+        //Writes still in the shadow copy have to reach the buffer first
+        buffer.flush();
+
+        Staging staging = allocate(length);
+        backend.copyBufferSubData(buffer.getHandle(), staging.handle, offset, 0, length);
+        staging.fence = backend.fenceSync();
+        reads++;
+
+        return staging;
+    }
+
+    /**
+     * Completes every read whose copy has finished. Never blocks. Should be called about once per frame
+     * @return The number of reads completed
+     */
+    public int poll() {
+        int completed = 0;
+
+        //Fences are signaled in the order they were placed, so the first unsignaled one ends the search
+        while (!pending.isEmpty()) {
+            int result = backend.clientWaitSync(pending.peek().staging.fence, 0, 0);
+
+            if (result == GL_TIMEOUT_EXPIRED) {
+                break;
+            } else if (result == GL_WAIT_FAILED) {
+                throw new IllegalStateException("Waiting for fence failed");
+            }
+
+            complete(pending.poll());
+            completed++;
+        }
+
+        return completed;
+    }
+
+    /**
+     * Blocks until every pending read has completed
+     */
+    public void finish() {
+        while (!pending.isEmpty()) {
+            PendingRead read = pending.poll();
+
+            while (true) {
+                int result = backend.clientWaitSync(read.staging.fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOS);
+
+                if (result == GL_WAIT_FAILED) {
+                    throw new IllegalStateException("Waiting for fence failed");
+                } else if (result != GL_TIMEOUT_EXPIRED) {
+                    break;
+                }
+            }
+
+            complete(read);
+        }
+    }
+
+    private void complete(PendingRead read) {
+        backend.deleteSync(read.staging.fence);
+        read.staging.fence = 0;
+
+        ByteBuffer data = read.staging.memory.slice(0, read.length).order(ByteOrder.nativeOrder());
+        read.onComplete.accept(data);
+    }
+
+    /**
+     * Hands back a buffer given by {@link #read(BufferObject, int, int)} so its staging memory can be reused
+     */
+    public void release(ByteBuffer data) {
+        Staging staging = borrowed.remove(data);
+
+        if (staging == null) {
+            throw new IllegalArgumentException("Buffer was not given by this readback or was already released");
+        }
+
+        free(staging);
+    }
+
+    private Staging allocate(int length) {
+        int size = Math.max(MIN_STAGING_SIZE, Integer.highestOneBit(Math.max(length - 1, 1)) << 1);
+        ArrayDeque<Staging> free = pool.get(size);
+
+        if (free != null && !free.isEmpty()) {
+            return free.pop();
+        }
+
+        int handle = backend.createBuffer();
+        backend.bufferStorage(handle, size, FLAGS);
+        ByteBuffer memory = backend.mapBufferRange(handle, 0, size, FLAGS);
+        stagingBuffersCreated++;
+
+        return new Staging(handle, size, memory);
+    }
+
+    private void free(Staging staging) {
+        ArrayDeque<Staging> free = pool.get(staging.size);
+
+        if (free == null) {
+            free = new ArrayDeque<>();
+            pool.put(staging.size, free);
+        }
+
+        free.push(staging);
+    }
+
+    public int getPendingReads() {
+        return pending.size();
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return How many staging buffers had to be created. If this keeps growing, buffers are not being released
+     */
+    public long getStagingBuffersCreated() {
+        return stagingBuffersCreated;
+    }
+
+    /**
+     * Waits for the pending reads and deletes every staging buffer. Buffers that haven't been released are deleted too
+     */
+    public void release() {
+        finish();
+
+        for (ArrayDeque<Staging> free : pool.values()) {
+            for (Staging staging : free) {
+                delete(staging);
+            }
+        }
+        pool.clear();
+
+        for (Staging staging : borrowed.values()) {
+            delete(staging);
+        }
+        borrowed.clear();
+    }
+
+    private void delete(Staging staging) {
+        backend.unmapBuffer(staging.handle);
+        backend.deleteBuffer(staging.handle);
+    }
+
+    private static class Staging {
+        private final int handle;
+        private final int size;
+        private final ByteBuffer memory;
+        private long fence;
+
+        private Staging(int handle, int size, ByteBuffer memory) {
+            this.handle = handle;
+            this.size = size;
+            this.memory = memory;
+        }
+    }
+
+    private record PendingRead(Staging staging, int length, Consumer<ByteBuffer> onComplete) {
+    }
+}
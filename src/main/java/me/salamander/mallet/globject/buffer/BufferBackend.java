@@ -0,0 +1,36 @@
+package me.salamander.mallet.globject.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The OpenGL calls used by {@link PersistentBuffer}. They go through this interface so that the buffer logic can be tested
+ * without a GL context.
+ */
+public interface BufferBackend {
+    int createBuffer();
+
+    void bufferStorage(int buffer, long size, int flags);
+
+    /**
+     * @return A buffer pointing to the mapped memory, in native byte order
+     */
+    ByteBuffer mapBufferRange(int buffer, long offset, long length, int access);
+
+    void unmapBuffer(int buffer);
+
+    void deleteBuffer(int buffer);
+
+    void bindBufferRange(int target, int index, int buffer, long offset, long size);
+
+    /**
+     * @return A sync object that is signaled when the GPU has executed every command issued before it
+     */
+    long fenceSync();
+
+    /**
+     * @return One of {@code GL_ALREADY_SIGNALED}, {@code GL_CONDITION_SATISFIED}, {@code GL_TIMEOUT_EXPIRED} or {@code GL_WAIT_FAILED}
+     */
+    int clientWaitSync(long sync, int flags, long timeoutNanos);
+
+    void deleteSync(long sync);
+}
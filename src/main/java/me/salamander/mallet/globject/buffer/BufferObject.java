@@ -1,19 +1,36 @@
 package me.salamander.mallet.globject.buffer;
 
 import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.globject.backend.GLBackend;
+import me.salamander.mallet.type.ArrayWriter;
 import me.salamander.mallet.type.BasicType;
 import me.salamander.mallet.type.MalletType;
-import me.salamander.mallet.util.MathHelper;
-import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.objectweb.asm.Type;
 
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 
 import static org.lwjgl.opengl.GL45.*;
 
 public class BufferObject {
+    /**
+     * Dirty ranges closer than this are uploaded as one. Re-uploading a few unchanged bytes is cheaper than another call
+     */
+    public static final int DEFAULT_COALESCE_GAP = 256;
+
+    private final GLBackend backend;
+    private final StagingAllocator staging = StagingAllocator.SHARED;
+
+    private final ResolvedWriter<BasicType.IntWriter> intWriter = new ResolvedWriter<>(BasicType.IntWriter.class);
+    private final ResolvedWriter<BasicType.FloatWriter> floatWriter = new ResolvedWriter<>(BasicType.FloatWriter.class);
+    private final ResolvedWriter<BasicType.DoubleWriter> doubleWriter = new ResolvedWriter<>(BasicType.DoubleWriter.class);
+    private final ResolvedWriter<BasicType.BooleanWriter> booleanWriter = new ResolvedWriter<>(BasicType.BooleanWriter.class);
+    @SuppressWarnings("rawtypes")
+    private final ResolvedWriter<BiConsumer> objectWriter = new ResolvedWriter<>(BiConsumer.class);
+
     private final int handle;
     private int size;
 
@@ -21,8 +38,24 @@ public class BufferObject {
 
     private int defaultBindingPoint = GL_ARRAY_BUFFER;
 
+    //Shadow mode
+    private boolean shadowed = false;
+    private ByteBuffer shadow = null;
+    private final DirtyRanges dirty = new DirtyRanges();
+    private int coalesceGap = DEFAULT_COALESCE_GAP;
+
+    private long writes = 0;
+    private long uploadedWrites = 0;
+    private long uploadCalls = 0;
+    private long bytesUploaded = 0;
+
     public BufferObject() {
-        this.handle = glGenBuffers();
+        this(GLBackend.get());
+    }
+
+    public BufferObject(GLBackend backend) {
+        this.backend = backend;
+        this.handle = backend.genBuffer();
     }
 
     public void setDefaultBindingPoint(int defaultBindingPoint) {
@@ -34,7 +67,7 @@ public class BufferObject {
     }
 
     public void bind(int bindingPoint) {
-        glBindBuffer(bindingPoint, handle);
+        backend.bindBuffer(bindingPoint, handle);
     }
 
     public void bindBase(int index) {
@@ -42,7 +75,7 @@ public class BufferObject {
     }
 
     public void bindBase(int bindingPoint, int index) {
-        glBindBufferBase(bindingPoint, index, handle);
+        backend.bindBufferBase(bindingPoint, index, handle);
     }
 
     public void allocate(int bytes, int usage) {
@@ -52,7 +85,96 @@ public class BufferObject {
     public void allocate(int bindingPoint, int bytes, int usage) {
         this.size = bytes;
         this.usage = usage;
-        glBufferData(bindingPoint, bytes, usage);
+        backend.bufferData(bindingPoint, bytes, usage);
+
+        if (shadowed) {
+            freeShadow();
+            shadow = bytes > 0 ? MemoryUtil.memCalloc(bytes) : null;
+            dirty.clear();
+        }
+    }
+
+    /**
+     * In shadow mode, writes go to a copy of the buffer in CPU memory and only the byte ranges that changed are uploaded by
+     * {@link #flush()}. Ranges that are close to each other are merged, so many small scattered writes become a few
+     * sub-data calls.
+     * <br><br>
+     * Merged ranges re-upload the bytes between them from the copy, so this is only meant for buffers that the GPU doesn't write
+     * to. Enabling it reads the current contents back once.
+     */
+    public void setShadowed(boolean shadowed) {
+        if (shadowed == this.shadowed) return;
+
+        if (shadowed) {
+            if (size > 0) {
+                shadow = MemoryUtil.memAlloc(size);
+                backend.bindBuffer(defaultBindingPoint, handle);
+                backend.getBufferSubData(defaultBindingPoint, 0, shadow);
+            }
+        } else {
+            flush();
+            freeShadow();
+        }
+
+        this.shadowed = shadowed;
+    }
+
+    private void freeShadow() {
+        if (shadow != null) {
+            MemoryUtil.memFree(shadow);
+            shadow = null;
+        }
+    }
+
+    public boolean isShadowed() {
+        return shadowed;
+    }
+
+    /**
+     * @param coalesceGap Dirty ranges at most this many bytes apart are uploaded together. Defaults to {@link #DEFAULT_COALESCE_GAP}
+     */
+    public void setCoalesceGap(int coalesceGap) {
+        if (coalesceGap < 0) {
+            throw new IllegalArgumentException("Gap must not be negative");
+        }
+
+        this.coalesceGap = coalesceGap;
+    }
+
+    /**
+     * Uploads every range written since the last flush. Does nothing if the buffer isn't in shadow mode. Must be called before
+     * the GPU uses the buffer.
+     */
+    public void flush() {
+        if (!shadowed || dirty.isEmpty()) return;
+
+        int ranges = dirty.coalesce(coalesceGap);
+
+        for (int i = 0; i < ranges; i++) {
+            int start = dirty.getStart(i);
+            int length = dirty.getEnd(i) - start;
+
+            backend.namedBufferSubData(handle, start, shadow.slice(start, length));
+            uploadCalls++;
+            bytesUploaded += length;
+        }
+
+        dirty.clear();
+        uploadedWrites = writes;
+    }
+
+    private void upload(int bindingPoint, int offset, ByteBuffer data) {
+        writes++;
+
+        if (shadowed) {
+            shadow.put(offset, data, data.position(), data.remaining());
+            dirty.add(offset, offset + data.remaining());
+        } else {
+            uploadedWrites++;
+            uploadCalls++;
+            bytesUploaded += data.remaining();
+            backend.bufferSubData(bindingPoint, offset, data);
+        }
     }
 
     public void set(int defaultBindingPoint, int offset, ByteBuffer data) {
@@ -64,7 +186,7 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + data.remaining() > size");
         }
 
-        glBufferSubData(GL_ARRAY_BUFFER, offset, data);
+        upload(GL_ARRAY_BUFFER, offset, data);
     }
 
     public void set(int offset, ByteBuffer data, int start, int length) {
@@ -76,8 +198,7 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + length > size");
         }
 
-        long pointer = MemoryUtil.memAddress(data) + start;
-        nglBufferSubData(bindingPoint, offset, length, pointer);
+        upload(bindingPoint, offset, data.slice(data.position() + start, length));
     }
 
     public ByteBuffer read(int offset, int length) {
@@ -91,12 +212,26 @@ public class BufferObject {
 
         ByteBuffer buffer = MemoryUtil.memAlloc(length);
 
-        //nglGetBufferSubData(bindingPoint, offset, length, MemoryUtil.memAddress(buffer));
-        glGetBufferSubData(bindingPoint, offset, buffer);
+        flush();
+        backend.getBufferSubData(bindingPoint, offset, buffer);
 
         return buffer;
     }
 
+    /**
+     * Reads without waiting for the GPU. See {@link AsyncReadback#read(BufferObject, int, int)}
+     */
+    public CompletableFuture<ByteBuffer> readAsync(AsyncReadback readback, int offset, int length) {
+        return readback.read(this, offset, length);
+    }
+
+    /**
+     * Reads without waiting for the GPU and decodes the data with a reader. See {@link AsyncReadback#read(BufferObject, int, int, BiConsumer, Object)}
+     */
+    public <T> CompletableFuture<Void> readAsync(AsyncReadback readback, int offset, int length, BiConsumer<ByteBuffer, T> reader, T callback) {
+        return readback.read(this, offset, length, reader, callback);
+    }
+
     //// Write methods
     //Int
     public void write(int offset, int data, MalletContext context) {
@@ -112,11 +247,13 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize());
-            type.makeWriter(BasicType.IntWriter.class).write(buffer, data);
+        ByteBuffer buffer = staging.allocate(type.getSize());
+        try {
+            intWriter.get(type).write(buffer, data);
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -133,14 +270,16 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() * data.length > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize() * data.length);
-            BasicType.IntWriter writer = type.makeWriter(BasicType.IntWriter.class);
+        ByteBuffer buffer = staging.allocate(type.getSize() * data.length);
+        try {
+            BasicType.IntWriter writer = intWriter.get(type);
             for (int datum : data) {
                 writer.write(buffer, datum);
             }
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -158,11 +297,13 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize());
-            type.makeWriter(BasicType.FloatWriter.class).write(buffer, data);
+        ByteBuffer buffer = staging.allocate(type.getSize());
+        try {
+            floatWriter.get(type).write(buffer, data);
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -179,14 +320,16 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() * data.length > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize() * data.length);
-            BasicType.FloatWriter writer = type.makeWriter(BasicType.FloatWriter.class);
+        ByteBuffer buffer = staging.allocate(type.getSize() * data.length);
+        try {
+            BasicType.FloatWriter writer = floatWriter.get(type);
             for (float datum : data) {
                 writer.write(buffer, datum);
             }
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -204,11 +347,13 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize());
-            type.makeWriter(BasicType.DoubleWriter.class).write(buffer, data);
+        ByteBuffer buffer = staging.allocate(type.getSize());
+        try {
+            doubleWriter.get(type).write(buffer, data);
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -225,14 +370,16 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() * data.length > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize() * data.length);
-            BasicType.DoubleWriter writer = type.makeWriter(BasicType.DoubleWriter.class);
+        ByteBuffer buffer = staging.allocate(type.getSize() * data.length);
+        try {
+            BasicType.DoubleWriter writer = doubleWriter.get(type);
             for (double datum : data) {
                 writer.write(buffer, datum);
             }
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -250,11 +397,13 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize());
-            type.makeWriter(BasicType.BooleanWriter.class).write(buffer, data);
+        ByteBuffer buffer = staging.allocate(type.getSize());
+        try {
+            booleanWriter.get(type).write(buffer, data);
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -271,14 +420,16 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() * data.length > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize() * data.length);
-            BasicType.BooleanWriter writer = type.makeWriter(BasicType.BooleanWriter.class);
+        ByteBuffer buffer = staging.allocate(type.getSize() * data.length);
+        try {
+            BasicType.BooleanWriter writer = booleanWriter.get(type);
             for (boolean datum : data) {
                 writer.write(buffer, datum);
             }
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -297,11 +448,13 @@ public class BufferObject {
             throw new IllegalArgumentException("Offset + type.getSize() > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize());
-            type.makeWriter(BiConsumer.class).accept(buffer, data);
+        ByteBuffer buffer = staging.allocate(type.getSize());
+        try {
+            objectWriter.get(type).accept(buffer, data);
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
@@ -313,26 +466,70 @@ public class BufferObject {
         this.writeArray(bindingPoint, offset, data, context.getType(Type.getType(data[0].getClass())));
     }
 
-    @SuppressWarnings("unchecked")
     public void writeArray(int bindingPoint, int offset, Object[] data, MalletType type) {
-        int roundedSize = MathHelper.align(type.getSize(), type.getAlignment());
-        int neededSize = roundedSize * (data.length - 1) + type.getSize();
+        this.writeArray(bindingPoint, offset, data, type, false);
+    }
+
+    /**
+     * Writes the array with the std430 array stride of the type.
+     * @param parallel Whether to serialise chunks of the array on multiple threads. Only worth it for very large arrays
+     */
+    public void writeArray(int bindingPoint, int offset, Object[] data, MalletType type, boolean parallel) {
+        ArrayWriter writer = type.makeArrayWriter();
+        int neededSize = writer.getSizeOf(data.length);
+
+        if (offset + neededSize > size) {
+            throw new IllegalArgumentException("Offset + neededSize > size");
+        }
+
+        ByteBuffer buffer = staging.allocate(neededSize);
+        try {
+            if (parallel) {
+                writer.writeParallel(buffer, data);
+            } else {
+                writer.write(buffer, data);
+            }
+            buffer.flip();
+            this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
+        }
+    }
+
+    public void writeArray(int offset, List<?> data, MalletContext context) {
+        this.writeArray(defaultBindingPoint, offset, data, context);
+    }
+
+    public void writeArray(int bindingPoint, int offset, List<?> data, MalletContext context) {
+        this.writeArray(bindingPoint, offset, data, context.getType(Type.getType(data.get(0).getClass())), false);
+    }
+
+    public void writeArray(int bindingPoint, int offset, List<?> data, MalletType type, boolean parallel) {
+        ArrayWriter writer = type.makeArrayWriter();
+        int neededSize = writer.getSizeOf(data.size());
 
         if (offset + neededSize > size) {
             throw new IllegalArgumentException("Offset + neededSize > size");
         }
 
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            ByteBuffer buffer = stack.malloc(type.getSize() * data.length);
-            BiConsumer<ByteBuffer, Object> writer = type.makeWriter(BiConsumer.class);
-            for (Object datum : data) {
-                writer.accept(buffer, datum);
+        ByteBuffer buffer = staging.allocate(neededSize);
+        try {
+            if (parallel) {
+                writer.writeParallel(buffer, data);
+            } else {
+                writer.write(buffer, data);
             }
             buffer.flip();
             this.set(bindingPoint, offset, buffer);
+        } finally {
+            staging.release(buffer);
         }
     }
 
+    public int getHandle() {
+        return handle;
+    }
+
     public int getSize() {
         return size;
     }
@@ -345,7 +542,59 @@ public class BufferObject {
         return defaultBindingPoint;
     }
 
+    /**
+     * @return How many times data was written to this buffer
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return How many sub-data calls were actually made
+     */
+    public long getUploadCalls() {
+        return uploadCalls;
+    }
+
+    /**
+     * @return How many sub-data calls shadow mode avoided, not counting writes that haven't been flushed yet
+     */
+    public long getCallsSaved() {
+        return uploadedWrites - uploadCalls;
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
     public void release() {
-        glDeleteBuffers(handle);
+        freeShadow();
+        backend.deleteBuffer(handle);
+    }
+
+    /**
+     * Remembers the writer of the last type written through it, so that repeated writes of the same type don't look it up again
+     */
+    private static class ResolvedWriter<T> {
+        private final Class<T> itf;
+        private Resolved<T> resolved;
+
+        private ResolvedWriter(Class<T> itf) {
+            this.itf = itf;
+        }
+
+        private T get(MalletType type) {
+            Resolved<T> resolved = this.resolved;
+
+            if (resolved == null || resolved.type != type) {
+                resolved = new Resolved<>(type, type.makeWriter(itf));
+                this.resolved = resolved;
+            }
+
+            return resolved.writer;
+        }
+
+        private record Resolved<T>(MalletType type, T writer) {
+        }
     }
 }
@@ -0,0 +1,98 @@
+package me.salamander.mallet.globject.buffer;
+
+import java.util.Arrays;
+
+/**
+ * A list of byte ranges that have changed since the last upload. Ranges are only sorted and merged by
+ * {@link #coalesce(int)}, so recording one is just an append.
+ */
+public class DirtyRanges {
+    //Each range is packed as (start << 32) | end so that sorting the longs sorts the ranges by start
+    private long[] ranges = new long[16];
+    private int count = 0;
+
+    /**
+     * @param start The first dirty byte
+     * @param end One past the last dirty byte
+     */
+    public void add(int start, int end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ")");
+        }
+
+        if (start == end) return;
+
+        //Writes are often sequential, in which case the last range can just be extended
+        if (count > 0) {
+            int lastStart = getStart(count - 1);
+            int lastEnd = getEnd(count - 1);
+
+            if (start >= lastStart && start <= lastEnd) {
+                ranges[count - 1] = pack(lastStart, Math.max(lastEnd, end));
+                return;
+            }
+        }
+
+        if (count == ranges.length) {
+            ranges = Arrays.copyOf(ranges, count * 2);
+        }
+
+        ranges[count++] = pack(start, end);
+    }
+
+    /**
+     * Sorts the ranges and merges the ones that overlap or are at most {@code gap} bytes apart
+     * @return The number of ranges left
+     */
+    public int coalesce(int gap) {
+        if (count <= 1) return count;
+
+        Arrays.sort(ranges, 0, count);
+
+        int merged = 0;
+        int currentStart = getStart(0);
+        int currentEnd = getEnd(0);
+
+        for (int i = 1; i < count; i++) {
+            int start = getStart(i);
+            int end = getEnd(i);
+
+            if ((long) start - currentEnd <= gap) {
+                currentEnd = Math.max(currentEnd, end);
+            } else {
+                ranges[merged++] = pack(currentStart, currentEnd);
+                currentStart = start;
+                currentEnd = end;
+            }
+        }
+
+        ranges[merged++] = pack(currentStart, currentEnd);
+        count = merged;
+
+        return count;
+    }
+
+    public int getStart(int index) {
+        return (int) (ranges[index] >>> 32);
+    }
+
+    public int getEnd(int index) {
+        return (int) ranges[index];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    private static long pack(int start, int end) {
+        return ((long) start << 32) | (end & 0xFFFFFFFFL);
+    }
+}
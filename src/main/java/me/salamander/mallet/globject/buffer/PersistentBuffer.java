@@ -0,0 +1,223 @@
+package me.salamander.mallet.globject.buffer;
+
+import me.salamander.mallet.globject.backend.GLBackend;
+import me.salamander.mallet.type.ArrayWriter;
+import me.salamander.mallet.type.MalletType;
+import me.salamander.mallet.util.MathHelper;
+import me.salamander.mallet.util.Util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * A buffer that is mapped once with {@code GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT} and split into several sections which are
+ * used as a ring. Writers serialise straight into the mapped memory so there is no staging copy and no {@code glBufferSubData}.
+ * <br><br>
+ * Every frame should call {@link #begin()}, write its data, bind the ranges it wrote and then call {@link #end()} once the draw
+ * or dispatch calls that read the data have been issued. {@link #end()} places a fence and {@link #begin()} waits for the
+ * fence of the section it is about to reuse, so the CPU can fill one section while the GPU still reads the others.
+ */
+public class PersistentBuffer {
+    /**
+     * Sections start at multiples of this so that they can be bound with {@code glBindBufferRange} on any implementation
+     */
+    public static final int DEFAULT_SECTION_ALIGNMENT = 256;
+    private static final int FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+    private static final long WAIT_TIMEOUT_NANOS = 1_000_000;
+
+    private final BufferBackend backend;
+    private final int handle;
+    private final int sectionSize;
+    private final ByteBuffer[] sections;
+    private final long[] fences;
+
+    private int current = 0;
+    private boolean writing = false;
+    private long stalls = 0;
+
+    public PersistentBuffer(int sectionSize, int sections) {
+        this(GLBackend.get(), sectionSize, sections);
+    }
+
+    public PersistentBuffer(BufferBackend backend, int sectionSize, int sections) {
+        this(backend, sectionSize, sections, DEFAULT_SECTION_ALIGNMENT);
+    }
+
+    public PersistentBuffer(BufferBackend backend, int sectionSize, int sections, int sectionAlignment) {
+        if (sectionSize <= 0 || sections <= 0) {
+            throw new IllegalArgumentException("Section size and section count must be positive");
+        }
+
+        this.backend = backend;
+        this.sectionSize = MathHelper.align(sectionSize, sectionAlignment);
+        this.sections = new ByteBuffer[sections];
+        this.fences = new long[sections];
+
+        long totalSize = (long) this.sectionSize * sections;
+        if (totalSize > Integer.MAX_VALUE) {
+            //The whole buffer is mapped into a single ByteBuffer, which can't be any larger
+            throw new IllegalArgumentException("Buffer of " + totalSize + " bytes is too large to be mapped");
+        }
+
+        this.handle = backend.createBuffer();
+        backend.bufferStorage(handle, totalSize, FLAGS);
+        ByteBuffer mapped = backend.mapBufferRange(handle, 0, totalSize, FLAGS);
+
+        for (int i = 0; i < sections; i++) {
+            this.sections[i] = mapped.slice(Math.toIntExact((long) i * this.sectionSize), this.sectionSize).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Waits until the GPU is done with the next section and returns it. Its position is where the next write goes.
+     */
+    public ByteBuffer begin() {
+        if (writing) {
+            throw new IllegalStateException("begin() called twice without end()");
+        }
+
+        long fence = fences[current];
+        if (fence != 0) {
+            waitFor(fence);
+            backend.deleteSync(fence);
+            fences[current] = 0;
+        }
+
+        writing = true;
+        return sections[current].clear();
+    }
+
+    private void waitFor(long fence) {
+        boolean stalled = false;
+
+        while (true) {
+            int result = backend.clientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOS);
+
+            switch (result) {
+                case GL_ALREADY_SIGNALED -> {
+                    if (stalled) stalls++;
+                    return;
+                }
+                case GL_CONDITION_SATISFIED -> {
+                    stalls++;
+                    return;
+                }
+                case GL_TIMEOUT_EXPIRED -> stalled = true;
+                default -> throw new IllegalStateException("Waiting for fence failed: " + result);
+            }
+        }
+    }
+
+    /**
+     * Writes the object into the current section
+     * @return The offset of the object in the whole buffer, to be used with {@link #bindRange(int, int, int, int)}
+     */
+    @SuppressWarnings("unchecked")
+    public int write(Object data, MalletType type) {
+        ByteBuffer section = currentSection();
+        Util.align(section, type.getAlignment());
+
+        int offset = getSectionOffset() + section.position();
+        type.makeWriter(BiConsumer.class).accept(section, data);
+
+        return offset;
+    }
+
+    /**
+     * Writes the array into the current section with the std430 array stride of the type
+     * @return The offset of the first element in the whole buffer
+     */
+    public int writeArray(Object[] data, MalletType type) {
+        ByteBuffer section = currentSection();
+        Util.align(section, type.getAlignment());
+
+        int offset = getSectionOffset() + section.position();
+        ArrayWriter writer = type.makeArrayWriter();
+        writer.write(section, data);
+
+        return offset;
+    }
+
+    public int writeArray(List<?> data, MalletType type) {
+        ByteBuffer section = currentSection();
+        Util.align(section, type.getAlignment());
+
+        int offset = getSectionOffset() + section.position();
+        ArrayWriter writer = type.makeArrayWriter();
+        writer.write(section, data);
+
+        return offset;
+    }
+
+    /**
+     * Binds part of the current section to an indexed binding point such as {@code GL_SHADER_STORAGE_BUFFER}
+     * @param offset An offset returned by one of the write methods
+     */
+    public void bindRange(int target, int index, int offset, int length) {
+        backend.bindBufferRange(target, index, handle, offset, length);
+    }
+
+    /**
+     * Marks the current section as in use by the GPU and moves on to the next one. Must be called after the commands reading
+     * the section have been issued.
+     */
+    public void end() {
+        if (!writing) {
+            throw new IllegalStateException("end() called without begin()");
+        }
+
+        fences[current] = backend.fenceSync();
+        current = (current + 1) % sections.length;
+        writing = false;
+    }
+
+    private ByteBuffer currentSection() {
+        if (!writing) {
+            throw new IllegalStateException("Writes must happen between begin() and end()");
+        }
+
+        return sections[current];
+    }
+
+    /**
+     * @return The offset of the current section in the whole buffer
+     */
+    public int getSectionOffset() {
+        return current * sectionSize;
+    }
+
+    public int getSectionSize() {
+        return sectionSize;
+    }
+
+    public int getSectionCount() {
+        return sections.length;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return How many times {@link #begin()} had to wait for the GPU. If this keeps growing, more sections are needed
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    public void release() {
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                backend.deleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+
+        backend.unmapBuffer(handle);
+        backend.deleteBuffer(handle);
+    }
+}
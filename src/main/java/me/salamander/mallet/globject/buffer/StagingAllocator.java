@@ -0,0 +1,201 @@
+package me.salamander.mallet.globject.buffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap memory for data on its way to the GPU. Sizes are rounded up to a power of two and freed blocks are kept in free lists
+ * per thread and size class, so uploading the same amount of data every frame doesn't allocate once the lists are warm.
+ * <br><br>
+ * Every buffer from {@link #allocate(int)} must be given back with {@link #release(ByteBuffer)}. Blocks kept by a thread are
+ * freed by {@link #trim()} on that thread, or once the thread has died by {@link #trim()} on any thread. {@link #close()} frees
+ * the blocks of every thread.
+ */
+public class StagingAllocator {
+    public static final StagingAllocator SHARED = new StagingAllocator();
+
+    private static final int MIN_SIZE_CLASS = 6; //64 bytes
+    private static final int MAX_SIZE_CLASS = 30;
+    /**
+     * Blocks larger than this are freed straight away instead of being kept
+     */
+    private static final int MAX_POOLED_SIZE_CLASS = 26; //64 MiB
+    private static final int MAX_FREE_PER_CLASS = 4;
+
+    /**
+     * The free lists of every thread that has used this allocator, so that blocks kept by threads that have died can still be freed
+     */
+    private final Set<FreeLists> allFreeLists = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<FreeLists> freeLists = ThreadLocal.withInitial(() -> {
+        FreeLists lists = new FreeLists(Thread.currentThread());
+        allFreeLists.add(lists);
+        return lists;
+    });
+
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong bytesPooled = new AtomicLong();
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    /**
+     * @return A buffer with position 0 and limit {@code bytes}, in native byte order. Its contents are undefined
+     */
+    public ByteBuffer allocate(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative size: " + bytes);
+        }
+
+        int sizeClass = sizeClassOf(bytes);
+        allocations.incrementAndGet();
+
+        ByteBuffer buffer = sizeClass <= MAX_POOLED_SIZE_CLASS ? freeLists.get().poll(sizeClass) : null;
+
+        if (buffer != null) {
+            reuses.incrementAndGet();
+            bytesPooled.addAndGet(-buffer.capacity());
+        } else {
+            buffer = MemoryUtil.memAlloc(1 << sizeClass);
+        }
+
+        bytesInUse.addAndGet(buffer.capacity());
+        return buffer.clear().limit(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+
+        if (Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_SIZE_CLASS)) {
+            throw new IllegalArgumentException("Buffer was not allocated by a StagingAllocator");
+        }
+
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        bytesInUse.addAndGet(-capacity);
+
+        if (sizeClass <= MAX_POOLED_SIZE_CLASS && freeLists.get().offer(sizeClass, buffer)) {
+            bytesPooled.addAndGet(capacity);
+        } else {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Frees every block kept by the current thread and by threads that have died
+     */
+    public void trim() {
+        free(freeLists.get());
+
+        for (FreeLists lists : allFreeLists) {
+            if (!lists.owner.isAlive()) {
+                free(lists);
+                allFreeLists.remove(lists);
+            }
+        }
+    }
+
+    /**
+     * Frees every block kept by any thread. The allocator can still be used afterwards
+     */
+    public void close() {
+        for (FreeLists lists : allFreeLists) {
+            free(lists);
+
+            if (!lists.owner.isAlive()) {
+                allFreeLists.remove(lists);
+            }
+        }
+    }
+
+    private void free(FreeLists lists) {
+        synchronized (lists) {
+            for (ArrayDeque<ByteBuffer> free : lists.lists) {
+                ByteBuffer buffer;
+                while ((buffer = free.poll()) != null) {
+                    bytesPooled.addAndGet(-buffer.capacity());
+                    MemoryUtil.memFree(buffer);
+                }
+            }
+        }
+    }
+
+    private static int sizeClassOf(int bytes) {
+        int sizeClass = Math.max(MIN_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(bytes - 1, 0)));
+
+        if (sizeClass > MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes of staging memory");
+        }
+
+        return sizeClass;
+    }
+
+    /**
+     * @return The bytes handed out and not released yet, rounded up to their size class
+     */
+    public long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    /**
+     * @return The bytes kept in free lists, over all threads
+     */
+    public long getBytesPooled() {
+        return bytesPooled.get();
+    }
+
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    /**
+     * @return The fraction of allocations that were served from a free list
+     */
+    public double getReuseRate() {
+        long allocations = this.allocations.get();
+        return allocations == 0 ? 0 : (double) reuses.get() / allocations;
+    }
+
+    /**
+     * The blocks kept by one thread. Only that thread adds to or takes from them, but {@link #close()} and {@link #trim()} free them
+     * from other threads, so every access holds the lock of the lists (which is uncontended almost always)
+     */
+    private static class FreeLists {
+        private final Thread owner;
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<ByteBuffer>[] lists = new ArrayDeque[MAX_POOLED_SIZE_CLASS + 1];
+
+        private FreeLists(Thread owner) {
+            this.owner = owner;
+
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = new ArrayDeque<>();
+            }
+        }
+
+        private synchronized ByteBuffer poll(int sizeClass) {
+            return lists[sizeClass].poll();
+        }
+
+        /**
+         * @return Whether the block was kept, otherwise it must be freed
+         */
+        private synchronized boolean offer(int sizeClass, ByteBuffer buffer) {
+            ArrayDeque<ByteBuffer> free = lists[sizeClass];
+
+            if (free.size() >= MAX_FREE_PER_CLASS) {
+                return false;
+            }
+
+            free.push(buffer);
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package me.salamander.mallet.globject.vao;
 
+import me.salamander.mallet.globject.backend.GLBackend;
 import me.salamander.mallet.globject.buffer.BufferObject;
 
 import java.util.ArrayList;
@@ -10,11 +11,13 @@ import java.util.List;
 import static org.lwjgl.opengl.GL45.*;
 
 public class VAOLayout {
+    private final GLBackend backend;
     private final LayoutElement[] elements;
     private final int[] indices;
     private final int[] strides;
 
     public VAOLayout(LayoutElement[] elements, int... strides) {
+        this.backend = GLBackend.get();
         this.elements = elements;
         this.indices = new int[elements.length];
         this.strides = strides;
@@ -35,18 +38,18 @@ public class VAOLayout {
                 buffers[currIndex].bind(GL_ARRAY_BUFFER);
             }
 
-            element.declare(strides[currIndex]);
+            element.declare(backend, strides[currIndex]);
         }
     }
 
     public void enable() {
         for (int index : indices) {
-            glEnableVertexAttribArray(index);
+            backend.enableVertexAttribArray(index);
         }
     }
 
     private interface LayoutElement {
-        void declare(int stride);
+        void declare(GLBackend backend, int stride);
         int index();
         int bufferIndex();
     }
@@ -84,8 +87,8 @@ public class VAOLayout {
         }
 
         @Override
-        public void declare(int stride) {
-            glVertexAttribPointer(index, numFloats, GL_FLOAT, normalized, stride, offset);
+        public void declare(GLBackend backend, int stride) {
+            backend.vertexAttribPointer(index, numFloats, GL_FLOAT, normalized, stride, offset);
         }
     }
 
@@ -98,8 +101,8 @@ public class VAOLayout {
         }
 
         @Override
-        public void declare(int stride) {
-            glVertexAttribIPointer(index, numInts, GL_INT, stride, offset);
+        public void declare(GLBackend backend, int stride) {
+            backend.vertexAttribIPointer(index, numInts, GL_INT, stride, offset);
         }
     }
 
@@ -112,8 +115,8 @@ public class VAOLayout {
         }
 
         @Override
-        public void declare(int stride) {
-            glVertexAttribLPointer(index, numDoubles, GL_DOUBLE, stride, offset);
+        public void declare(GLBackend backend, int stride) {
+            backend.vertexAttribLPointer(index, numDoubles, GL_DOUBLE, stride, offset);
         }
     }
 
@@ -126,8 +129,8 @@ public class VAOLayout {
         }
 
         @Override
-        public void declare(int stride) {
-            glVertexAttribPointer(index, numBytes, GL_BYTE, false, stride, offset);
+        public void declare(GLBackend backend, int stride) {
+            backend.vertexAttribPointer(index, numBytes, GL_BYTE, false, stride, offset);
         }
     }
 
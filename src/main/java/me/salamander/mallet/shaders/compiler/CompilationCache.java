@@ -0,0 +1,243 @@
+package me.salamander.mallet.shaders.compiler;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
+import me.salamander.mallet.shaders.compiler.cache.ValueKeys;
+import me.salamander.mallet.shaders.compiler.instruction.value.StaticField;
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Context-wide cache of decompiled and constant-inlined method ASTs, shared by every {@link ShaderCompiler} of a
+ * {@link me.salamander.mallet.MalletContext}. It is safe to use from multiple threads.
+ * <br><br>
+ * Entries must never be mutated. The compiler copies them before using them (see {@link ShaderCompiler#copyTree(ASTNode)}).
+ * <br><br>
+ * Constant-inlined methods are keyed by a snapshot of their constants (see {@link ValueKeys}) rather than the constants
+ * themselves, since those are usually the caller's objects and may be mutated after compiling. The values of the static fields
+ * that got inlined are snapshot too, since they can also change between shaders. An entry whose constants or static fields
+ * changed since it was made is recomputed, and methods with values that can't be snapshot aren't cached at all. Entries still
+ * reference the constants they were made from (as does their AST), so those stay reachable until the entry is dropped.
+ * <br><br>
+ * Each kind of entry is limited to {@link #getMaxEntries()} entries. Once there are more, the oldest ones are dropped.
+ */
+public class CompilationCache {
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private final int maxEntries;
+
+    private final Entries<Key<MethodInvocation>, ASTNode> decompiled = new Entries<>();
+    private final Entries<Key<InlinedKey>, InlinedEntry> inlined = new Entries<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CompilationCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries How many decompiled methods (and separately how many constant-inlined methods) are kept at most
+     */
+    public CompilationCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    ASTNode getDecompiled(Key<MethodInvocation> key, Supplier<ASTNode> decompiler) {
+        ASTNode value = decompiled.map.get(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        misses.incrementAndGet();
+        return decompiled.put(key, decompiler.get());
+    }
+
+    InlinedMethod getInlined(Key<MethodInvocationWithConstants> key, Supplier<InlinedMethod> inliner) {
+        MethodInvocationWithConstants invocation = key.invocation();
+        String constants = describeConstants(invocation.getParamIndexToConstant());
+
+        if (constants == null) {
+            misses.incrementAndGet();
+            return inliner.get();
+        }
+
+        Key<InlinedKey> snapshotKey = new Key<>(
+                new InlinedKey(invocation.getMethodInvocation(), List.of(invocation.getActualTypes()), constants),
+                key.environment(),
+                key.commonSubexpressionElimination()
+        );
+
+        InlinedEntry entry = inlined.map.get(snapshotKey);
+        if (entry != null && constants.equals(describeConstants(entry.constants())) && entry.statics().equals(describeStatics(entry.method().staticsRead()))) {
+            hits.incrementAndGet();
+            return entry.method();
+        }
+
+        //Either missing or the objects or static fields the entry was made from have changed since
+        misses.incrementAndGet();
+        InlinedMethod method = inliner.get();
+
+        String statics = describeStatics(method.staticsRead());
+        if (statics == null) {
+            return method;
+        }
+
+        InlinedEntry computed = new InlinedEntry(method, invocation.getParamIndexToConstant(), statics);
+
+        if (entry != null) {
+            inlined.map.replace(snapshotKey, entry, computed);
+            return computed.method();
+        }
+
+        return inlined.put(snapshotKey, computed).method();
+    }
+
+    private static @Nullable String describeConstants(Int2ObjectMap<Object> constants) {
+        //Sorted so that the description doesn't depend on the map's iteration order
+        IntList indices = new IntArrayList(constants.keySet());
+        indices.sort(null);
+
+        StringBuilder sb = new StringBuilder();
+        for (int index : indices) {
+            String value = ValueKeys.describe(constants.get(index));
+            if (value == null) return null;
+
+            sb.append(index).append('=').append(value).append(';');
+        }
+
+        return sb.toString();
+    }
+
+    private static @Nullable String describeStatics(Set<StaticField> fields) {
+        //Sorted so that the description doesn't depend on the set's iteration order
+        List<StaticField> sorted = new ArrayList<>(fields);
+        sorted.sort(Comparator.comparing(StaticField::toString));
+
+        StringBuilder sb = new StringBuilder();
+        for (StaticField field : sorted) {
+            Object value;
+            try {
+                value = field.getValue();
+            } catch (RuntimeException e) {
+                return null;
+            }
+
+            String description = ValueKeys.describe(value);
+            if (description == null) return null;
+
+            sb.append(field).append('=').append(description).append(';');
+        }
+
+        return sb.toString();
+    }
+
+    public void clear() {
+        decompiled.clear();
+        inlined.clear();
+    }
+
+    /**
+     * @return How many entries there are, of both kinds
+     */
+    public int size() {
+        return decompiled.map.size() + inlined.map.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * A map which remembers the order entries were added in so that the oldest ones can be dropped
+     */
+    private class Entries<K, V> {
+        private final Map<K, V> map = new ConcurrentHashMap<>();
+        private final Queue<K> order = new ConcurrentLinkedQueue<>();
+
+        /**
+         * @return The value that ends up in the map
+         */
+        private V put(K key, V value) {
+            //Not computeIfAbsent, since that would lock other entries for the whole decompilation.
+            //Two threads may both compute the value but only the first one is kept
+            V existing = map.putIfAbsent(key, value);
+            if (existing != null) {
+                return existing;
+            }
+
+            order.add(key);
+            while (map.size() > maxEntries) {
+                K oldest = order.poll();
+                if (oldest == null) break;
+
+                map.remove(oldest);
+            }
+
+            return value;
+        }
+
+        private void clear() {
+            map.clear();
+            order.clear();
+        }
+    }
+
+    /**
+     * @param invocation The method this entry is for
+     * @param environment The main class of the shader if the result depends on that shader's global state. Null otherwise,
+     *                    which lets every shader share the entry.
+     * @param commonSubexpressionElimination Whether the decompiler reused repeated expressions, since that changes the AST
+     */
+    record Key<T>(T invocation, @Nullable Type environment, boolean commonSubexpressionElimination) {
+    }
+
+    /**
+     * Identifies a constant-inlined method without holding on to its constants
+     * @param constants The description of the constants
+     */
+    private record InlinedKey(MethodInvocation method, List<Type> actualTypes, String constants) {
+    }
+
+    /**
+     * @param constants The constants the method was made from, used to check that they haven't been mutated since. These are the
+     *                  caller's objects, not copies
+     * @param statics The description of the values of {@link InlinedMethod#staticsRead()} when the method was made
+     */
+    private record InlinedEntry(InlinedMethod method, Int2ObjectMap<Object> constants, String statics) {
+    }
+
+    /**
+     * The result of inlining constants into a method, along with the constants the compiler needs to know about
+     * @param staticsRead The static fields whose values were inlined
+     */
+    record InlinedMethod(ASTNode root, Set<PrimitiveConstant> constants, Set<PrimitiveConstant> needFullConstants, Set<StaticField> staticsRead) {
+    }
+}
@@ -4,6 +4,7 @@ import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet;
 import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedSemilattice;
 import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedValue;
 import me.salamander.mallet.shaders.compiler.analysis.definition.DefinitionSemilattice;
@@ -30,8 +31,9 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class CompiledMethod {
-    private final ASTNode root;
-    private final String name;
+    private ASTNode root;
+    private final String baseName;
+    private String name;
     private final UUID uuid;
     private final Type returnType;
     private final Type[] argumentTypes;
@@ -47,7 +49,8 @@ public class CompiledMethod {
 
         this.root = nodeCopier.value.apply(root);
         this.uuid = UUID.randomUUID();
-        this.name = Util.removeSpecial( owner + "_" + name + "_" + uuid);
+        this.baseName = owner + "_" + name;
+        this.name = Util.removeSpecial(this.baseName + "_" + uuid);
 
         this.returnType = returnType;
         this.argumentTypes = argumentTypes;
@@ -60,6 +63,7 @@ public class CompiledMethod {
     public CompiledMethod(ASTNode root, String name, Type returnType, Type[] argumentTypes, boolean scrambleName) {
         this.root = root;
         this.uuid = UUID.randomUUID();
+        this.baseName = name;
         if (scrambleName) {
             this.name = Util.removeSpecial(name + uuid);
         } else {
@@ -73,7 +77,7 @@ public class CompiledMethod {
     }
 
     private void replaceArgTypes() {
-        ASTAnalysisResults<DefinedValue> results = ASTAnalysis.analyseMethod(new DefinedSemilattice(), root);
+        ASTAnalysisResults<DefinedValue> results = ASTAnalysis.analyseMethod(new DefinedSemilattice(VariableNumbering.of(root)), root);
 
         Ref<ASTNode> currInstruction = new Ref<>(null);
 
@@ -171,6 +175,13 @@ public class CompiledMethod {
         return root;
     }
 
+    /**
+     * Replaces the body of this method. Used by passes that run once every method of the shader has been compiled
+     */
+    public void setRoot(ASTNode root) {
+        this.root = root;
+    }
+
     public Type getReturnType() {
         return returnType;
     }
@@ -179,10 +190,32 @@ public class CompiledMethod {
         return argumentTypes;
     }
 
+    /**
+     * @return The index of the local variable holding each argument
+     */
+    public int[] getArgumentIndices() {
+        return argumentIndices;
+    }
+
+    /**
+     * @return Whether each argument gets mutated, which makes it an {@code out} argument in GLSL
+     */
+    public boolean[] getOutArguments() {
+        return outArguments;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * Replaces the random suffix of this method's name with an index. Used to get the same GLSL for every compilation of a shader
+     * @param index An index unique to this method within its shader
+     */
+    public void assignIndex(int index) {
+        this.name = Util.removeSpecial(baseName + "_" + index);
+    }
+
     private void writeSignature(StringBuilder sb, MalletContext ctx) {
         //Return type
         if (returnType == Type.VOID_TYPE) {
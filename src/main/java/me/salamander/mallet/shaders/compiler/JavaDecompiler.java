@@ -3,10 +3,16 @@ package me.salamander.mallet.shaders.compiler;
 import me.salamander.mallet.shaders.compiler.analysis.Analysis;
 import me.salamander.mallet.shaders.compiler.analysis.AnalysisInfo;
 import me.salamander.mallet.shaders.compiler.analysis.AnalysisResults;
+import me.salamander.mallet.shaders.compiler.analysis.SemiLattice;
+import me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressions;
+import me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressionsValue;
+import me.salamander.mallet.shaders.compiler.analysis.available.ExpressionNumbering;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.analysis.livevar.LiveVarValue;
 import me.salamander.mallet.shaders.compiler.analysis.livevar.LiveVariables;
 import me.salamander.mallet.shaders.compiler.analysis.mutability.MutabilitySemiLattice;
 import me.salamander.mallet.shaders.compiler.analysis.usage.PossibleValuesTracker;
+import me.salamander.mallet.shaders.compiler.analysis.usage.PossibleValuesValue;
 import me.salamander.mallet.shaders.compiler.analysis.valuetrack.ValueTrackValue;
 import me.salamander.mallet.shaders.compiler.analysis.valuetrack.ValueTracker;
 import me.salamander.mallet.shaders.compiler.ast.AbstractASTVisitor;
@@ -20,11 +26,15 @@ import me.salamander.mallet.shaders.compiler.instruction.IntermediaryInstruction
 import me.salamander.mallet.shaders.compiler.instruction.Label;
 import me.salamander.mallet.shaders.compiler.instruction.value.Location;
 import me.salamander.mallet.shaders.compiler.instruction.value.MethodCallValue;
+import me.salamander.mallet.shaders.compiler.instruction.value.UnaryOperation;
 import me.salamander.mallet.shaders.compiler.instruction.value.Value;
 import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerPhase;
+import me.salamander.mallet.shaders.compiler.optimize.CommonSubexpressionEliminator;
 import me.salamander.mallet.util.MethodInvocation;
 import me.salamander.mallet.util.Ref;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.LabelNode;
@@ -39,16 +49,26 @@ public class JavaDecompiler {
     private final MethodNode methodNode;
     private final ClassNode classNode;
     private final ShaderCompiler shaderCompiler;
+    private final MethodInvocation invocation;
     private final AtomicInteger tempVarCounter = new AtomicInteger();
 
     public MethodNode getMethodNode() {
         return methodNode;
     }
 
+    public ClassNode getClassNode() {
+        return classNode;
+    }
+
+    public MethodInvocation getInvocation() {
+        return invocation;
+    }
+
     public JavaDecompiler(ClassNode classNode, MethodNode methodNode, ShaderCompiler shaderCompiler) {
         this.methodNode = methodNode;
         this.classNode = classNode;
         this.shaderCompiler = shaderCompiler;
+        this.invocation = MethodInvocation.of(classNode.name, methodNode);
 
         //Verify compatibility
         if(this.methodNode.tryCatchBlocks.size() > 0) {
@@ -61,14 +81,15 @@ public class JavaDecompiler {
         List<Instruction> instructions = makeIntermediateRepresentation();
         IntermediaryCFG intermediaryCFG = createIntermediaryCFG(instructions);
 
-        AbstractSyntaxTreeMaker astMaker = new AbstractSyntaxTreeMaker(intermediaryCFG);
-        ASTNode astRoot = astMaker.make();
-        removeUnneededLabels(astRoot);
-        //TODO: Remove all labels (GLSL doesn't support labels)
+        ASTNode astRoot = shaderCompiler.measure(CompilerPhase.AST_CONSTRUCTION, invocation, () -> {
+            AbstractSyntaxTreeMaker astMaker = new AbstractSyntaxTreeMaker(intermediaryCFG);
+            ASTNode root = astMaker.make();
+            removeUnneededLabels(root);
+            //TODO: Remove all labels (GLSL doesn't support labels)
+            return root;
+        });
 
-        StringBuilder sb = new StringBuilder();
-        astRoot.print(sb);
-        System.out.println(sb);
+        shaderCompiler.getListener().methodDecompiled(shaderCompiler.getMainClass(), invocation, astRoot);
 
         return astRoot;
     }
@@ -142,36 +163,103 @@ public class JavaDecompiler {
 
     @NotNull
     private IntermediaryCFG createIntermediaryCFG(List<Instruction> instructions) {
-        IntermediaryCFG cfg;
-        cfg = new IntermediaryCFG(instructions);
-
-        boolean changed = true;
-        while (changed){
-            ValueTracker valueTracker = new ValueTracker(this.shaderCompiler);
-            AnalysisResults<ValueTrackValue> results = Analysis.analyze(valueTracker, cfg);
+        IntermediaryCFG cfg = shaderCompiler.measure(CompilerPhase.IR_CONSTRUCTION, invocation, () -> new IntermediaryCFG(instructions));
+
+        shaderCompiler.measure(CompilerPhase.VALUE_INLINING, invocation, () -> {
+            if (shaderCompiler.isIncrementalInlining()) {
+                inlineValuesIncrementally(cfg);
+            } else {
+                boolean changed = true;
+                while (changed){
+                    ValueTracker valueTracker = new ValueTracker(this.shaderCompiler);
+                    AnalysisResults<ValueTrackValue> results = analyze(valueTracker, cfg);
+
+                    PossibleValuesTracker possibleValuesTracker = new PossibleValuesTracker();
+                    analyze(possibleValuesTracker, cfg); //Discard results
+
+                    //results.print(System.out, cfg);
+                    changed = inlineValues(cfg, results, possibleValuesTracker, null);
+                }
+            }
+        });
 
-            PossibleValuesTracker possibleValuesTracker = new PossibleValuesTracker();
-            Analysis.analyze(possibleValuesTracker, cfg); //Discard results
+        if (shaderCompiler.isCommonSubexpressionElimination()) {
+            shaderCompiler.measure(CompilerPhase.COMMON_SUBEXPRESSION_ELIMINATION, invocation, () -> {
+                ExpressionNumbering numbering = ExpressionNumbering.of(cfg);
+                if (numbering.size() == 0) return;
 
-            //results.print(System.out, cfg);
-            changed = inlineValues(cfg, results, possibleValuesTracker);
-            //System.out.println("\n");
+                AnalysisResults<AvailableExpressionsValue> availableExpressions = analyze(new AvailableExpressions(numbering), cfg);
+                CommonSubexpressionEliminator.eliminate(cfg, numbering, availableExpressions, this::getNextTempVar);
+            });
         }
 
-        //Remove unneeded assignments
-        System.out.println("Live variables:");
-        AnalysisResults<LiveVarValue> liveVariableResults = Analysis.analyze(new LiveVariables(), cfg);
-        //liveVariableResults.print(System.out, cfg);
-        removeUnneededAssignments(cfg, liveVariableResults);
-        //System.out.println("\n");
+        //Remove unneeded assignments (this also removes temporaries that ended up unused)
+        shaderCompiler.measure(CompilerPhase.DEAD_ASSIGNMENT_REMOVAL, invocation, () -> {
+            //Removing an assignment can make the assignments to the variables it read dead too
+            boolean changed = true;
+            while (changed) {
+                AnalysisResults<LiveVarValue> liveVariableResults = analyze(new LiveVariables(VariableNumbering.of(cfg)), cfg);
+                //liveVariableResults.print(System.out, cfg);
+                changed = removeUnneededAssignments(cfg, liveVariableResults);
+            }
+        });
 
-        System.out.println("Final:");
         //cfg.print(System.out);
 
-        checkMutability(cfg);
+        shaderCompiler.measure(CompilerPhase.MUTABILITY_CHECK, invocation, () -> checkMutability(cfg));
         return cfg;
     }
 
+    /**
+     * Does the same as re-analysing the whole CFG after every inlining pass, but only the blocks that were rewritten by the
+     * last pass and the blocks they flow into get re-analysed. Blocks where nothing got inlined keep their instructions, so
+     * their analysis results stay valid.
+     */
+    private void inlineValuesIncrementally(IntermediaryCFG cfg) {
+        ValueTracker valueTracker = new ValueTracker(this.shaderCompiler);
+        AnalysisResults<ValueTrackValue> results = analyze(valueTracker, cfg);
+
+        //Only the side effects (PossibleValuesTracker#getUsedBy) are used but the results are needed to update it
+        PossibleValuesTracker possibleValuesTracker = new PossibleValuesTracker();
+        AnalysisResults<PossibleValuesValue> possibleValues = analyze(possibleValuesTracker, cfg);
+
+        Map<BasicBlock, List<Instruction>> replaced = new IdentityHashMap<>();
+
+        while (inlineValues(cfg, results, possibleValuesTracker, replaced)) {
+            //The instructions that were replaced and the ones that are about to be re-analysed must not count as uses anymore
+            List<Instruction> stale = new ArrayList<>();
+            replaced.values().forEach(stale::addAll);
+            for (BasicBlock block : reachableFrom(replaced.keySet())) {
+                stale.addAll(block.getInstructions());
+            }
+            possibleValuesTracker.forget(stale);
+
+            Set<BasicBlock> changedBlocks = replaced.keySet();
+            shaderCompiler.measureFixpoint(invocation, valueTracker, () -> {
+                Analysis.reanalyzeForwards(valueTracker, cfg, results, changedBlocks);
+                return results;
+            }, AnalysisResults::getIterations);
+            shaderCompiler.measureFixpoint(invocation, possibleValuesTracker, () -> {
+                Analysis.reanalyzeForwards(possibleValuesTracker, cfg, possibleValues, changedBlocks);
+                return possibleValues;
+            }, AnalysisResults::getIterations);
+
+            replaced.clear();
+        }
+    }
+
+    private <T extends me.salamander.mallet.shaders.compiler.analysis.Value> AnalysisResults<T> analyze(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
+        return shaderCompiler.measureFixpoint(invocation, semiLattice, () -> Analysis.analyze(semiLattice, cfg), AnalysisResults::getIterations);
+    }
+
+    private static Set<BasicBlock> reachableFrom(Collection<BasicBlock> blocks) {
+        Set<BasicBlock> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BasicBlock block : blocks) {
+            block.getAll(reachable);
+        }
+        return reachable;
+    }
+
     private void checkMutability(IntermediaryCFG cfg) {
         /*
          * Mutability rules:
@@ -183,10 +271,15 @@ public class JavaDecompiler {
          *  - Immutable values cannot be passed as mutable arguments
          */
 
-        Analysis.analyze(new MutabilitySemiLattice(MethodInvocation.of(this.classNode.name, methodNode), shaderCompiler), cfg);
+        analyze(new MutabilitySemiLattice(invocation, shaderCompiler), cfg);
     }
 
-    private void removeUnneededAssignments(IntermediaryCFG cfg, AnalysisResults<LiveVarValue> results) {
+    /**
+     * @return Whether any assignment was removed
+     */
+    private boolean removeUnneededAssignments(IntermediaryCFG cfg, AnalysisResults<LiveVarValue> results) {
+        boolean removed = false;
+
         for(BasicBlock block : cfg.getBlocks()) {
             List<Instruction> instructions = block.getInstructions();
 
@@ -201,27 +294,55 @@ public class JavaDecompiler {
                     //Check if can remove
                     if(assign.getLocation() instanceof Variable var){
                         if(!info.out[i].isLive(var)){
-                            if(assign.getValue() instanceof MethodCallValue methodCall){
-                                //Check the method call doesn't mutate anything
-                                if(shaderCompiler.getMutatedArgs(methodCall.getMethodCall().getInvocation()).size() > 0){
-                                    continue;
-                                }
+                            //Check no method call in the value mutates anything
+                            if(mutatesAnything(assign.getValue())){
+                                continue;
                             }
 
                             instructions.remove(i);
+                            removed = true;
                         }
                     }
                 }
             }
         }
+
+        return removed;
+    }
+
+    private boolean mutatesAnything(Value value) {
+        if (value instanceof MethodCallValue methodCall) {
+            if (shaderCompiler.getMutatedArgs(methodCall.getMethodCall().getInvocation()).size() > 0) {
+                return true;
+            }
+        }
+
+        if (value instanceof UnaryOperation unary) {
+            //UnaryOperation.copyValue doesn't pass its argument itself to the copier
+            return mutatesAnything(unary.getArg());
+        }
+
+        Ref<Boolean> mutates = new Ref<>(false);
+        value.copyValue(inner -> {
+            mutates.value |= mutatesAnything(inner);
+            return inner;
+        });
+
+        return mutates.value;
     }
 
-    //Returns whether a change occurred
-    private boolean inlineValues(IntermediaryCFG cfg, AnalysisResults<ValueTrackValue> results, PossibleValuesTracker valueTracker) {
+    /**
+     * @param replaced If null, every block gets its instructions replaced by copies. Otherwise only the blocks where something
+     *                 was inlined are replaced and their old instructions are put in this map
+     * @return Whether a change occurred
+     */
+    private boolean inlineValues(IntermediaryCFG cfg, AnalysisResults<ValueTrackValue> results, PossibleValuesTracker valueTracker, @Nullable Map<BasicBlock, List<Instruction>> replaced) {
         Ref<Boolean> changed = new Ref<>(false);
 
         for(BasicBlock block: cfg.getBlocks()){
             List<Instruction> newInstructions = new ArrayList<>();
+            boolean changedBefore = changed.value;
+            changed.value = false;
 
             AnalysisInfo<ValueTrackValue> info = results.getBlocks().get(block);
 
@@ -269,6 +390,14 @@ public class JavaDecompiler {
                 ));
             }
 
+            boolean blockChanged = changed.value;
+            changed.value |= changedBefore;
+
+            if (replaced != null) {
+                if (!blockChanged) continue;
+                replaced.put(block, block.getInstructions());
+            }
+
             if(newInstructions.size() > 0) {
                 block.setInstructions(newInstructions);
             }
@@ -277,17 +406,22 @@ public class JavaDecompiler {
         return changed.value;
     }
 
-    private List<Instruction> makeIntermediateRepresentation() {
-        SimpleVerifier verifier = new SimpleVerifier();
-        Analyzer<BasicValue> analyzer = new Analyzer<>(verifier);
-        Frame<BasicValue>[] frames;
+    List<Instruction> makeIntermediateRepresentation() {
+        Frame<BasicValue>[] frames = shaderCompiler.measure(CompilerPhase.BYTECODE_ANALYSIS, invocation, () -> {
+            SimpleVerifier verifier = new SimpleVerifier();
+            Analyzer<BasicValue> analyzer = new Analyzer<>(verifier);
 
-        try {
-            frames = analyzer.analyze(classNode.name, methodNode);
-        }catch (AnalyzerException e) {
-            throw new RuntimeException(e);
-        }
+            try {
+                return analyzer.analyze(classNode.name, methodNode);
+            }catch (AnalyzerException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        return shaderCompiler.measure(CompilerPhase.IR_CONSTRUCTION, invocation, () -> makeInstructions(frames));
+    }
 
+    private List<Instruction> makeInstructions(Frame<BasicValue>[] frames) {
         List<Instruction> instructions = new ArrayList<>();
 
         for (int i = 0; i < frames.length; i++) {
@@ -11,17 +11,26 @@ import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import me.salamander.mallet.MalletContext;
 import me.salamander.mallet.shaders.annotation.*;
 import me.salamander.mallet.shaders.annotation.internal.ShaderVar;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedSemilattice;
 import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedValue;
 import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
 import me.salamander.mallet.shaders.compiler.ast.node.InstructionASTNode;
 import me.salamander.mallet.shaders.compiler.astanalysis.ASTAnalysis;
 import me.salamander.mallet.shaders.compiler.astanalysis.ASTAnalysisResults;
+import me.salamander.mallet.shaders.compiler.cache.ShaderCache;
 import me.salamander.mallet.shaders.compiler.constant.Constant;
 import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
 import me.salamander.mallet.shaders.compiler.instruction.Instruction;
 import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
 import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerListener;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerPhase;
+import me.salamander.mallet.shaders.compiler.metrics.PhaseTimer;
+import me.salamander.mallet.shaders.compiler.optimize.ConstantFolder;
+import me.salamander.mallet.shaders.compiler.optimize.DeadCodeEliminator;
+import me.salamander.mallet.shaders.compiler.optimize.LoopInvariantCodeMotion;
+import me.salamander.mallet.shaders.compiler.optimize.MethodInliner;
 import me.salamander.mallet.type.MalletType;
 import me.salamander.mallet.shaders.shader.ComputeShader;
 import me.salamander.mallet.shaders.shader.Shader;
@@ -33,7 +42,13 @@ import org.objectweb.asm.tree.*;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 public class ShaderCompiler {
@@ -44,19 +59,28 @@ public class ShaderCompiler {
     private final MalletContext globalContext;
     private final Type mainClass;
 
-    private final Set<StaticField> globalState = new HashSet<>();
-    private final Map<MethodInvocationWithConstants, CompiledMethod> compiledMethodMap = new HashMap<>();
-    private final Set<PrimitiveConstant> constants = new HashSet<>();
-    private final Set<PrimitiveConstant> needFullConstants = new HashSet<>();
+    //These get filled from multiple threads when compiling in parallel
+    private final Set<StaticField> globalState = ConcurrentHashMap.newKeySet();
+    private final Map<MethodInvocationWithConstants, CompiledMethod> compiledMethodMap = new ConcurrentHashMap<>();
+    private final Set<PrimitiveConstant> constants = ConcurrentHashMap.newKeySet();
+    private final Set<PrimitiveConstant> needFullConstants = ConcurrentHashMap.newKeySet();
     private final Object2ObjectMap<PrimitiveConstant, String> constantNames = new Object2ObjectOpenHashMap<>();
     private final List<StaticField> buffers = new ArrayList<>();
 
-    private final Map<MethodInvocation, ASTNode> decompiledMethods = new HashMap<>();
-    private final Map<MethodInvocationWithConstants, ASTNode> inlinedConstants = new HashMap<>();
+    //Shared between all compilers of the context
+    private final CompilationCache compilationCache;
+
+    private ForkJoinPool pool = null;
+    private boolean incrementalInlining = true;
+    private boolean commonSubexpressionElimination = true;
+    private int inlineThreshold = MethodInliner.DEFAULT_THRESHOLD;
+    private boolean deadCodeElimination = true;
+    private CompilerListener listener = CompilerListener.NONE;
 
     public ShaderCompiler(MalletContext globalContext, Type mainClass) {
         this.globalContext = globalContext;
         this.mainClass = mainClass;
+        this.compilationCache = globalContext.getCompilationCache();
 
         addDefaultState();
     }
@@ -73,75 +97,325 @@ public class ShaderCompiler {
         return compiledMethodMap;
     }
 
+    /**
+     * Makes this compiler decompile and compile methods in parallel. The generated GLSL is the same as when compiling serially
+     * @param parallel Whether to compile in parallel using the common fork-join pool
+     */
+    public void setParallel(boolean parallel) {
+        this.pool = parallel ? ForkJoinPool.commonPool() : null;
+    }
+
+    /**
+     * Makes this compiler compile methods in parallel on the given pool
+     * @param pool The pool to use, or null to compile serially
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Controls how the decompiler inlines values. When enabled (the default) only the parts of a method that changed get
+     * re-analysed after each inlining pass. Disabling it re-analyses the whole method every time, which is slower but
+     * produces the same GLSL.
+     */
+    public void setIncrementalInlining(boolean incrementalInlining) {
+        this.incrementalInlining = incrementalInlining;
+    }
+
+    public boolean isIncrementalInlining() {
+        return incrementalInlining;
+    }
+
+    /**
+     * Controls whether the decompiler stores expressions that a method computes more than once in temporaries and reuses them
+     * (enabled by default). Methods decompiled with and without it are cached separately, so this can be changed between shaders.
+     */
+    public void setCommonSubexpressionElimination(boolean commonSubexpressionElimination) {
+        this.commonSubexpressionElimination = commonSubexpressionElimination;
+    }
+
+    public boolean isCommonSubexpressionElimination() {
+        return commonSubexpressionElimination;
+    }
+
+    /**
+     * Controls which methods get inlined into their callers instead of being emitted as separate GLSL functions. Inlining happens
+     * once every method of the shader has been compiled, so unlike the decompiler options this can be changed between shaders.
+     * @param inlineThreshold The largest {@link MethodInliner#size(ASTNode) size} of a method that gets inlined, or 0 to disable
+     *                        inlining. Defaults to {@link MethodInliner#DEFAULT_THRESHOLD}
+     */
+    public void setInlineThreshold(int inlineThreshold) {
+        this.inlineThreshold = inlineThreshold;
+    }
+
+    public int getInlineThreshold() {
+        return inlineThreshold;
+    }
+
+    /**
+     * Controls whether dead code is removed from the whole shader once every method has been compiled and inlined (enabled by
+     * default). This removes assignments to variables that are never read, methods that are no longer called, and uniforms,
+     * inputs, buffers and constants that nothing references. Outputs are always kept.
+     */
+    public void setDeadCodeElimination(boolean deadCodeElimination) {
+        this.deadCodeElimination = deadCodeElimination;
+    }
+
+    public boolean isDeadCodeElimination() {
+        return deadCodeElimination;
+    }
+
+    /**
+     * Describes the options that change the generated GLSL, so that the {@link ShaderCache} keeps shaders compiled with different
+     * options apart. Incremental inlining and parallelism aren't included since they don't change the output.
+     */
+    public String describeOptions() {
+        return "cse=" + commonSubexpressionElimination + ",inline=" + inlineThreshold + ",dce=" + deadCodeElimination;
+    }
+
+    /**
+     * Sets the listener that gets told what the compiler is doing and how long it takes. See
+     * {@link me.salamander.mallet.shaders.compiler.metrics.CompilerMetrics} for one that produces a report.
+     * @param listener The listener, or null to stop listening
+     */
+    public void setListener(CompilerListener listener) {
+        this.listener = listener == null ? CompilerListener.NONE : listener;
+    }
+
+    public CompilerListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Runs a phase of the compilation and reports how long it took to the listener
+     * @param method The method the phase is run on, or null if it is for the whole shader
+     */
+    <T> T measure(CompilerPhase phase, MethodInvocation method, Supplier<T> action) {
+        if (listener == CompilerListener.NONE) {
+            return action.get();
+        }
+
+        PhaseTimer timer = PhaseTimer.start();
+        T result = action.get();
+        listener.phaseFinished(mainClass, method, phase, timer.elapsedNanos(), timer.allocatedBytes());
+
+        return result;
+    }
+
+    void measure(CompilerPhase phase, MethodInvocation method, Runnable action) {
+        measure(phase, method, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a dataflow analysis and reports how long it took and how many iterations it needed to the listener
+     * @param analysis The semi-lattice of the analysis. Its class name is used to identify it
+     * @param iterations Gets the number of iterations from the results
+     */
+    <R> R measureFixpoint(MethodInvocation method, Object analysis, Supplier<R> solve, ToIntFunction<R> iterations) {
+        if (listener == CompilerListener.NONE) {
+            return solve.get();
+        }
+
+        PhaseTimer timer = PhaseTimer.start();
+        R results = solve.get();
+        listener.fixpointFinished(mainClass, method, analysis.getClass().getSimpleName(), iterations.applyAsInt(results), timer.elapsedNanos(), timer.allocatedBytes());
+
+        return results;
+    }
+
+    /**
+     * Compiles many shaders concurrently. All compilers share the context's {@link CompilationCache}, so methods used by
+     * several shaders only get decompiled once.
+     * @param globalContext The context to compile in
+     * @param shaders The shaders to compile
+     * @return The GLSL of each shader, in the same order as {@code shaders}
+     */
+    public static List<String> compileBatch(MalletContext globalContext, List<BatchEntry> shaders) {
+        return compileBatch(globalContext, shaders, ForkJoinPool.commonPool());
+    }
+
+    public static List<String> compileBatch(MalletContext globalContext, List<BatchEntry> shaders, ForkJoinPool pool) {
+        List<ForkJoinTask<String>> tasks = new ArrayList<>();
+
+        for (BatchEntry entry : shaders) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                ShaderCompiler compiler = new ShaderCompiler(globalContext, entry.shaderClass());
+                compiler.setForkJoinPool(pool);
+                return compiler.compile(entry.mainArgs());
+            }));
+        }
+
+        return pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(tasks);
+
+            List<String> results = new ArrayList<>();
+            for (ForkJoinTask<String> task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        }));
+    }
+
+    /**
+     * A shader to compile with {@link #compileBatch(MalletContext, List)}
+     * @param shaderClass The main class of the shader
+     * @param mainArgs The arguments that get inlined into the shader's main method
+     */
+    public record BatchEntry(Type shaderClass, Object... mainArgs) {
+        public BatchEntry(Class<?> shaderClass, Object... mainArgs) {
+            this(Type.getType(shaderClass), mainArgs);
+        }
+    }
+
     public String compile(Object... mainArgs) {
+        ShaderCache cache = globalContext.getShaderCache();
+        if (cache != null) {
+            return cache.getOrCompile(globalContext, mainClass, mainArgs, describeOptions(), () -> compileUncached(mainArgs));
+        }
+
+        return compileUncached(mainArgs);
+    }
+
+    private String compileUncached(Object... mainArgs) {
+        PhaseTimer timer = listener == CompilerListener.NONE ? null : PhaseTimer.start();
+
+        String glsl = compileShader(mainArgs);
+
+        if (timer != null) {
+            listener.shaderCompiled(mainClass, timer.elapsedNanos(), timer.allocatedBytes());
+        }
+
+        return glsl;
+    }
+
+    private String compileShader(Object... mainArgs) {
         JavaDecompiler mainDecompiler = makeMainDecompiler();
-        ASTNode astRoot = mainDecompiler.decompile();
         MethodNode method = mainDecompiler.getMethodNode();
+        MethodInvocation mainInvocation = MethodInvocation.of(mainClass.getInternalName(), method);
         Type[] args = Type.getArgumentTypes(method.desc);
 
         Int2ObjectMap<Object> inlineArgs = new Int2ObjectOpenHashMap<>();
+        Int2ObjectMap<Object> paramIndexToConstant = new Int2ObjectOpenHashMap<>();
         int varIndex = 0;
         for(int i = 0; i < mainArgs.length; i++) {
             inlineArgs.put(varIndex, mainArgs[i]);
+            paramIndexToConstant.put(i, mainArgs[i]);
             varIndex += args[i].getSize();
         }
-        astRoot = inlineConstants(method, astRoot, inlineArgs);
 
-        StringBuilder sb = new StringBuilder();
-        astRoot.print(sb);
-        System.out.println(sb);
+        ASTNode astRoot = inlineConstants(
+                new MethodInvocationWithConstants(mainInvocation, args, paramIndexToConstant),
+                mainDecompiler,
+                inlineArgs
+        );
 
         CompiledMethod main = new CompiledMethod(astRoot, "main", Type.VOID_TYPE, new Type[0], false);
         Set<MethodInvocationWithConstants> methodInvocations = getAllMethodInvocations(main.getRoot());
 
         compileAll(methodInvocations);
 
+        if (inlineThreshold > 0) {
+            methodInvocations = measure(CompilerPhase.METHOD_INLINING, null, () -> inlineMethods(main));
+        }
+
+        if (deadCodeElimination) {
+            methodInvocations = measure(CompilerPhase.DEAD_CODE_ELIMINATION, null, () -> eliminateDeadCode(main));
+        }
+
+        List<CompiledMethod> compiledMethods = orderCompiledMethods(methodInvocations);
+
+        return measure(CompilerPhase.GLSL_EMISSION, null, () -> emitGLSL(main, compiledMethods));
+    }
+
+    /**
+     * Inlines small methods into their callers and forgets the methods that are no longer called
+     * @return The invocations in main after inlining
+     */
+    private Set<MethodInvocationWithConstants> inlineMethods(CompiledMethod main) {
+        List<CompiledMethod> before = orderCompiledMethods(getAllMethodInvocations(main.getRoot()));
+        int sizeBefore = totalSize(main, before);
+
+        int inlinedCalls = MethodInliner.inline(main, compiledMethodMap, this, inlineThreshold);
+
+        Set<MethodInvocationWithConstants> methodInvocations = getAllMethodInvocations(main.getRoot());
+        List<CompiledMethod> after = orderCompiledMethods(methodInvocations);
+        compiledMethodMap.values().retainAll(after);
+
+        listener.methodsInlined(mainClass, inlinedCalls, before.size(), after.size(), sizeBefore, totalSize(main, after));
+
+        return methodInvocations;
+    }
+
+    /**
+     * Removes unread assignments from every method and forgets the methods that are no longer called
+     * @return The invocations in main afterwards
+     */
+    private Set<MethodInvocationWithConstants> eliminateDeadCode(CompiledMethod main) {
+        DeadCodeEliminator.eliminate(main, this);
+        for (CompiledMethod method : orderCompiledMethods(getAllMethodInvocations(main.getRoot()))) {
+            DeadCodeEliminator.eliminate(method, this);
+        }
+
+        Set<MethodInvocationWithConstants> methodInvocations = getAllMethodInvocations(main.getRoot());
+        compiledMethodMap.values().retainAll(orderCompiledMethods(methodInvocations));
+
+        return methodInvocations;
+    }
+
+    private static int totalSize(CompiledMethod main, List<CompiledMethod> methods) {
+        int size = MethodInliner.size(main.getRoot());
+        for (CompiledMethod method : methods) {
+            size += MethodInliner.size(method.getRoot());
+        }
+        return size;
+    }
 
+    private String emitGLSL(CompiledMethod main, List<CompiledMethod> compiledMethods) {
         Set<Type> usedTypes = new HashSet<>();
         gatherUsedTypes(usedTypes, main);
-        for (CompiledMethod compiledMethod : compiledMethodMap.values()) {
+        for (CompiledMethod compiledMethod : compiledMethods) {
             gatherUsedTypes(usedTypes, compiledMethod);
         }
         usedTypes.removeIf(Objects::isNull);
         usedTypes = usedTypes.stream().map(t -> t.getSort() == Type.ARRAY ? t.getElementType() : t).collect(Collectors.toSet());
 
-        for (Type type : usedTypes) {
-            System.out.println("Used type: " + type);
-        }
-
         StringBuilder glsl = new StringBuilder();
         glsl.append("#version 450 core\n\n");
 
         defineTypes(glsl, usedTypes);
 
-        makeShaderIO(glsl);
+        //Without dead code elimination every global and constant gets defined
+        Set<StaticField> referencedFields = globalState;
+        Set<PrimitiveConstant> referencedConstants = needFullConstants;
+        if (deadCodeElimination) {
+            referencedFields = new HashSet<>();
+            referencedConstants = new HashSet<>();
 
-        //Define constants
-        glsl.append("\n");
-        int i = 0;
-        for (PrimitiveConstant constant : needFullConstants) {
-            Type type = constant.getType();
-            MalletType malletType = globalContext.getType(type);
+            gatherReferences(referencedFields, referencedConstants, main);
+            for (CompiledMethod compiledMethod : compiledMethods) {
+                gatherReferences(referencedFields, referencedConstants, compiledMethod);
+            }
+        }
 
-            String name = "const_" + i++;
-            constantNames.put(constant, name);
-            glsl.append(malletType.getName()).append(" ");
-            glsl.append(name).append(" = ");
+        makeShaderIO(glsl, referencedFields);
 
-            malletType.make(glsl, constant.obj(), globalContext);
-            glsl.append(";\n");
-        }
+        //Define constants
+        glsl.append("\n");
+        defineConstants(glsl, referencedConstants);
         glsl.append("\n");
 
         //Pre-declare all methods
-        for (CompiledMethod compiledMethod : compiledMethodMap.values()) {
+        for (CompiledMethod compiledMethod : compiledMethods) {
             compiledMethod.declare(glsl, globalContext);
         }
 
         glsl.append("\n");
 
         //Define all methods
-        for (CompiledMethod compiledMethod : compiledMethodMap.values()) {
+        for (CompiledMethod compiledMethod : compiledMethods) {
             compiledMethod.define(glsl, globalContext, this);
         }
 
@@ -151,7 +425,42 @@ public class ShaderCompiler {
         return glsl.toString();
     }
 
-    private void makeShaderIO(StringBuilder glsl) {
+    /**
+     * Defines every referenced constant that needs a full definition. Constants are sorted by their definition (and identical ones are merged)
+     * so that the output doesn't depend on the order they were found in
+     */
+    private void defineConstants(StringBuilder glsl, Set<PrimitiveConstant> referenced) {
+        SortedMap<String, List<PrimitiveConstant>> definitions = new TreeMap<>();
+
+        for (PrimitiveConstant constant : needFullConstants) {
+            if (!referenced.contains(constant)) continue;
+
+            MalletType malletType = globalContext.getType(constant.getType());
+
+            StringBuilder definition = new StringBuilder();
+            definition.append(malletType.getName()).append(" ");
+            definition.append("\0 = ");
+            malletType.make(definition, constant.obj(), globalContext);
+
+            definitions.computeIfAbsent(definition.toString(), k -> new ArrayList<>()).add(constant);
+        }
+
+        int i = 0;
+        for (Map.Entry<String, List<PrimitiveConstant>> entry : definitions.entrySet()) {
+            String name = "const_" + i++;
+
+            for (PrimitiveConstant constant : entry.getValue()) {
+                constantNames.put(constant, name);
+            }
+
+            glsl.append(entry.getKey().replace("\0", name)).append(";\n");
+        }
+    }
+
+    /**
+     * @param referenced The fields the code references. Other inputs, uniforms and buffers aren't declared
+     */
+    private void makeShaderIO(StringBuilder glsl, Set<StaticField> referenced) {
         Set<StaticField> shaderVertexInputs = new HashSet<>();
         Set<StaticField> shaderOutputs = new HashSet<>();
         Set<StaticField> shaderUniforms = new HashSet<>();
@@ -174,6 +483,11 @@ public class ShaderCompiler {
                 throw new RuntimeException("Only one of the input type annotations can be present on a field");
             }
 
+            //Outputs are part of the interface with the next stage even if they are never written
+            if (!isOutput && !referenced.contains(staticField)) {
+                continue;
+            }
+
             if (isInput) {
                 shaderVertexInputs.add(staticField);
             } else if (isOutput) {
@@ -398,7 +712,41 @@ public class ShaderCompiler {
         });
     }
 
+    /**
+     * Finds the static fields and the constants that the code of a method references
+     */
+    private void gatherReferences(Set<StaticField> fields, Set<PrimitiveConstant> constants, CompiledMethod compiledMethod) {
+        Ref<Function<Value, Value>> valueVisitor = new Ref<>(null);
+        valueVisitor.value = (val) -> {
+            if (val instanceof Constant cst) {
+                //The value the constant replaced isn't written
+                constants.add(cst.toPrimitiveConstant());
+                return val;
+            }
+
+            if (val instanceof StaticField field) {
+                fields.add(field);
+            } else if (val instanceof UnaryOperation unary) {
+                valueVisitor.value.apply(unary.getArg());
+            }
+
+            return val.copyValue(valueVisitor.value);
+        };
+
+        compiledMethod.getRoot().visitTree(node -> node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(valueVisitor.value, loc -> (Location) valueVisitor.value.apply(loc)),
+                valueVisitor.value
+        ));
+    }
+
     private void compileAll(Set<MethodInvocationWithConstants> methodInvocations) {
+        if (pool != null) {
+            Set<MethodInvocationWithConstants> claimed = ConcurrentHashMap.newKeySet();
+            pool.invoke(ForkJoinTask.adapt(() -> compileInParallel(methodInvocations, claimed)));
+            return;
+        }
+
         Queue<MethodInvocationWithConstants> queue = new ArrayDeque<>(methodInvocations);
         while(!queue.isEmpty()) {
             MethodInvocationWithConstants methodInvocation = queue.poll();
@@ -406,11 +754,62 @@ public class ShaderCompiler {
                 continue;
             }
 
-            compileInvocation(methodInvocation, queue);
+            queue.addAll(compileInvocation(methodInvocation));
+        }
+    }
+
+    private void compileInParallel(Collection<MethodInvocationWithConstants> invocations, Set<MethodInvocationWithConstants> claimed) {
+        List<CompileTask> tasks = new ArrayList<>();
+
+        for (MethodInvocationWithConstants invocation : invocations) {
+            //Each invocation is only compiled by the task that claims it first
+            if (claimed.add(invocation)) {
+                tasks.add(new CompileTask(invocation, claimed));
+            }
         }
+
+        ForkJoinTask.invokeAll(tasks);
     }
 
-    private void compileInvocation(MethodInvocationWithConstants methodInvocation, Queue<MethodInvocationWithConstants> queue) {
+    private class CompileTask extends RecursiveAction {
+        private final MethodInvocationWithConstants invocation;
+        private final Set<MethodInvocationWithConstants> claimed;
+
+        private CompileTask(MethodInvocationWithConstants invocation, Set<MethodInvocationWithConstants> claimed) {
+            this.invocation = invocation;
+            this.claimed = claimed;
+        }
+
+        @Override
+        protected void compute() {
+            compileInParallel(compileInvocation(invocation), claimed);
+        }
+    }
+
+    /**
+     * Orders the compiled methods by a breadth-first traversal of the call graph starting from main. This doesn't depend on the order
+     * in which the methods were compiled and is used for naming and emitting them.
+     */
+    private List<CompiledMethod> orderCompiledMethods(Set<MethodInvocationWithConstants> mainInvocations) {
+        Set<MethodInvocationWithConstants> visited = new HashSet<>();
+        List<CompiledMethod> ordered = new ArrayList<>();
+
+        Queue<MethodInvocationWithConstants> queue = new ArrayDeque<>(mainInvocations);
+        while (!queue.isEmpty()) {
+            MethodInvocationWithConstants invocation = queue.poll();
+            if (!visited.add(invocation)) continue;
+
+            CompiledMethod method = compiledMethodMap.get(invocation);
+            method.assignIndex(ordered.size());
+            ordered.add(method);
+
+            queue.addAll(getAllMethodInvocations(method.getRoot()));
+        }
+
+        return ordered;
+    }
+
+    private Set<MethodInvocationWithConstants> compileInvocation(MethodInvocationWithConstants methodInvocation) {
         Type owner = methodInvocation.getMethodInvocation().methodOwner();
         if (methodInvocation.getMethodInvocation().type() != MethodInvocation.MethodCallType.STATIC && methodInvocation.getParamIndexToConstant().containsKey(0)) {
             owner = Type.getType(methodInvocation.getParamIndexToConstant().get(0).getClass());
@@ -426,8 +825,6 @@ public class ShaderCompiler {
                 methodInvocation.getMethodInvocation().methodDesc()
         );
 
-        ASTNode astRoot = decompiler.decompile();
-
         //Convert params to var indices
         IntList paramIndices = new IntArrayList();
         Type[] baseType = methodInvocation.getMethodInvocation().methodDesc().getArgumentTypes();
@@ -451,7 +848,7 @@ public class ShaderCompiler {
         for (Int2ObjectMap.Entry<Object> entry : methodInvocation.getParamIndexToConstant().int2ObjectEntrySet()) {
             inlineArgs.put(paramIndices.getInt(entry.getIntKey()), entry.getValue());
         }
-        astRoot = inlineConstants(decompiler.getMethodNode(), astRoot, inlineArgs);
+        ASTNode astRoot = inlineConstants(methodInvocation, decompiler, inlineArgs);
 
         //Inline method invocations
 
@@ -474,17 +871,20 @@ public class ShaderCompiler {
         Type[] argTypesArray = argTypes.toArray(new Type[0]);
 
         String name = owner + "_" + methodInvocation.getMethodInvocation().methodName();
-        CompiledMethod method = new CompiledMethod(astRoot, owner, methodInvocation.getMethodInvocation().methodName(), methodInvocation.getMethodInvocation().methodDesc().getReturnType(), methodInvocation.getActualTypes(), argIndices.toIntArray(), outArgs.toBooleanArray());
+        Type methodOwner = owner;
+        CompiledMethod method = measure(
+                CompilerPhase.METHOD_PREPARATION,
+                methodInvocation.getMethodInvocation(),
+                () -> new CompiledMethod(astRoot, methodOwner, methodInvocation.getMethodInvocation().methodName(), methodInvocation.getMethodInvocation().methodDesc().getReturnType(), methodInvocation.getActualTypes(), argIndices.toIntArray(), outArgs.toBooleanArray())
+        );
         compiledMethodMap.put(methodInvocation, method);
 
-        Set<MethodInvocationWithConstants> methodInvocations = getAllMethodInvocations(method.getRoot());
-        queue.addAll(methodInvocations);
-
-        System.out.println("Compiled " + methodInvocation.getMethodInvocation().methodName());
+        return getAllMethodInvocations(method.getRoot());
     }
 
+    //Keeps the order in which the invocations appear in the tree
     private Set<MethodInvocationWithConstants> getAllMethodInvocations(ASTNode astRoot) {
-        Set<MethodInvocationWithConstants> methodInvocations = new HashSet<>();
+        Set<MethodInvocationWithConstants> methodInvocations = new LinkedHashSet<>();
         getAllMethodInvocations(astRoot, methodInvocations);
         return methodInvocations;
     }
@@ -511,25 +911,113 @@ public class ShaderCompiler {
         });
     }
 
-    private ASTNode inlineConstants(MethodNode methodNode, ASTNode decompiled, Int2ObjectMap<Object> args) {
-        ASTAnalysisResults<DefinedValue> definedValues = ASTAnalysis.analyseMethod(new DefinedSemilattice(), decompiled);
+    /**
+     * Decompiles a method, going through the shared cache
+     * @return A copy of the decompiled AST which this compiler may mutate
+     */
+    private ASTNode decompile(JavaDecompiler decompiler) {
+        CompilationCache.Key<MethodInvocation> key = new CompilationCache.Key<>(decompiler.getInvocation(), getEnvironment(decompiler), commonSubexpressionElimination);
+
+        return copyTree(compilationCache.getDecompiled(key, decompiler::decompile));
+    }
+
+    /**
+     * Decompiles a method and inlines constants into it, going through the shared cache
+     * @return A copy of the resulting AST which this compiler may mutate
+     */
+    private ASTNode inlineConstants(MethodInvocationWithConstants invocation, JavaDecompiler decompiler, Int2ObjectMap<Object> args) {
+        CompilationCache.Key<MethodInvocationWithConstants> key = new CompilationCache.Key<>(invocation, getEnvironment(decompiler), commonSubexpressionElimination);
+
+        MethodInvocation method = invocation.getMethodInvocation();
+        CompilationCache.InlinedMethod inlined = compilationCache.getInlined(key, () -> {
+            ASTNode decompiled = decompile(decompiler);
+            CompilationCache.InlinedMethod withConstants = measure(CompilerPhase.CONSTANT_INLINING, method, () -> inlineConstants(method, decompiled, args));
+            ASTNode folded = measure(CompilerPhase.CONSTANT_FOLDING, method, () -> ConstantFolder.fold(withConstants.root()));
+            ASTNode hoisted = measure(CompilerPhase.LOOP_INVARIANT_CODE_MOTION, method, () -> LoopInvariantCodeMotion.hoist(folded, this));
+
+            return new CompilationCache.InlinedMethod(hoisted, withConstants.constants(), withConstants.needFullConstants(), withConstants.staticsRead());
+        });
+
+        constants.addAll(inlined.constants());
+        needFullConstants.addAll(inlined.needFullConstants());
+
+        return copyTree(inlined.root());
+    }
+
+    /**
+     * The decompilation of a method only depends on this compiler's global state if it belongs to the main class, calls a method of the main
+     * class or accesses a field that is part of the global state. Every other method can be shared between all shaders.
+     * @return The main class if the method depends on it, otherwise null
+     */
+    private Type getEnvironment(JavaDecompiler decompiler) {
+        if (decompiler.getClassNode().name.equals(mainClass.getInternalName())) {
+            return mainClass;
+        }
+
+        for (AbstractInsnNode insn : decompiler.getMethodNode().instructions) {
+            if (insn instanceof MethodInsnNode methodInsn) {
+                if (methodInsn.owner.equals(mainClass.getInternalName())) {
+                    return mainClass;
+                }
+            } else if (insn instanceof FieldInsnNode fieldInsn) {
+                StaticField field = new StaticField(Type.getObjectType(fieldInsn.owner), fieldInsn.name, Type.getType(fieldInsn.desc), this);
+                if (globalState.contains(field)) {
+                    return mainClass;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Deep copies an AST, making every value that refers to a compiler refer to this one instead
+     */
+    ASTNode copyTree(ASTNode root) {
+        Ref<Function<Value, Value>> valueCopier = new Ref<>(null);
+        valueCopier.value = (value) -> rebind(value.copyValue(valueCopier.value));
+
+        Ref<Function<ASTNode, ASTNode>> nodeCopier = new Ref<>(null);
+        nodeCopier.value = node -> node.visitAndReplace(nodeCopier.value, (insn) -> insn.visitAndReplace(valueCopier.value, l -> (Location) valueCopier.value.apply(l)), valueCopier.value);
+
+        return nodeCopier.value.apply(root);
+    }
+
+    private Value rebind(Value value) {
+        if (value instanceof MethodCallValue call) {
+            return new MethodCallValue(call.getMethodCall(), this);
+        } else if (value instanceof StaticField field) {
+            return new StaticField(field.getFieldOwner(), field.getFieldName(), field.getFieldDesc(), this);
+        } else if (value instanceof Constant cst) {
+            return new Constant(cst.getValue(), cst.getOriginal(), this);
+        }
+
+        return value;
+    }
+
+    private CompilationCache.InlinedMethod inlineConstants(MethodInvocation method, ASTNode decompiled, Int2ObjectMap<Object> args) {
+        DefinedSemilattice semiLattice = new DefinedSemilattice(VariableNumbering.of(decompiled));
+        ASTAnalysisResults<DefinedValue> definedValues = measureFixpoint(method, semiLattice, () -> ASTAnalysis.analyseMethod(semiLattice, decompiled), ASTAnalysisResults::getIterations);
 
         Ref<ASTNode> curr = new Ref<>(null);
+        CompilationCache.InlinedMethod result = new CompilationCache.InlinedMethod(null, new HashSet<>(), new HashSet<>(), new HashSet<>());
+
+        ASTNode root = inlineConstants(definedValues, decompiled, args, curr, result);
 
-        return inlineConstants(definedValues, decompiled, args, curr);
+        return new CompilationCache.InlinedMethod(root, result.constants(), result.needFullConstants(), result.staticsRead());
     }
 
-    private ASTNode inlineConstants(ASTAnalysisResults<DefinedValue> definedValues, ASTNode decompiled, Int2ObjectMap<Object> args, Ref<ASTNode> curr) {
+    private ASTNode inlineConstants(ASTAnalysisResults<DefinedValue> definedValues, ASTNode decompiled, Int2ObjectMap<Object> args, Ref<ASTNode> curr, CompilationCache.InlinedMethod result) {
         curr.value = decompiled;
 
-        Function<Value, Value> valueCopier = (val) -> inlineValueConstant(val, definedValues, args, curr.value);
+        Function<Value, Value> valueCopier = (val) -> inlineValueConstant(val, definedValues, args, curr.value, result);
 
         return decompiled.visitAndReplace(
-                node -> inlineConstants(definedValues, node, args, curr),
+                node -> inlineConstants(definedValues, node, args, curr, result),
                 insn -> {
                     if (insn instanceof AssignmentInstruction assign) {
                         if (assign.getValue() instanceof Constant cst) {
-                            addFullConstant(cst);
+                            addFullConstant(cst, result);
                         }
                     }
 
@@ -542,9 +1030,12 @@ public class ShaderCompiler {
         );
     }
 
-    private Value inlineValueConstant(Value value, ASTAnalysisResults<DefinedValue> definedValues, Int2ObjectMap<Object> args, ASTNode insn) {
+    private Value inlineValueConstant(Value value, ASTAnalysisResults<DefinedValue> definedValues, Int2ObjectMap<Object> args, ASTNode insn, CompilationCache.InlinedMethod result) {
+        Set<PrimitiveConstant> constants = result.constants();
+        Set<PrimitiveConstant> needFullConstants = result.needFullConstants();
+
         value = value.copyValue(
-                (node) -> inlineValueConstant(node, definedValues, args, insn)
+                (node) -> inlineValueConstant(node, definedValues, args, insn, result)
         );
 
         if (value instanceof Variable var) {
@@ -561,6 +1052,7 @@ public class ShaderCompiler {
             if (!globalState.contains(field)) {
                 boolean primitive = field.getType().getSort() <= Type.DOUBLE;
 
+                result.staticsRead().add(field);
                 constants.add(new PrimitiveConstant(field.getValue(), primitive));
                 return new Constant(field.getValue(), field, this);
             }
@@ -638,12 +1130,12 @@ public class ShaderCompiler {
         return value;
     }
 
-    private void addFullConstant(Constant constant) {
+    private void addFullConstant(Constant constant, CompilationCache.InlinedMethod result) {
         Object value = constant.getValue();
         Type type = constant.getType();
         boolean isPrimitive = type.getSort() <= Type.DOUBLE;
 
-        needFullConstants.add(new PrimitiveConstant(value, isPrimitive));
+        result.needFullConstants().add(new PrimitiveConstant(value, isPrimitive));
     }
 
     private void addDefaultState() {
@@ -872,6 +1364,10 @@ public class ShaderCompiler {
         malletType.writeGLSLForGetField(sb, field, this);
     }
 
+    public Type getMainClass() {
+        return mainClass;
+    }
+
     public MalletContext getGlobalContext() {
         return globalContext;
     }
@@ -2,19 +2,352 @@ package me.salamander.mallet.shaders.compiler.analysis;
 
 import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
 import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 //Dragon book, chapter 9
 public class Analysis {
     public static <T extends Value> AnalysisResults<T> analyze(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
+        boolean worklist = semiLattice.getSolver() == SemiLattice.Solver.WORKLIST;
+
         if(semiLattice.getOrder() == SemiLattice.Order.FORWARDS) {
-            return analyzeForwards(semiLattice, cfg);
+            return worklist ? analyzeForwardsWorklist(semiLattice, cfg) : analyzeForwards(semiLattice, cfg);
         }else{
-            return analyzeBackwards(semiLattice, cfg);
+            return worklist ? analyzeBackwardsWorklist(semiLattice, cfg) : analyzeBackwards(semiLattice, cfg);
+        }
+    }
+
+    /*
+     * Worklist solvers. They compute the same fixpoint as the round-robin solvers below but only re-evaluate a block when
+     * the value flowing into it has changed. Pending blocks are picked in reverse post-order (forwards) or post-order (backwards)
+     * so that a block is usually evaluated after everything that flows into it.
+     */
+
+    private static <T extends Value> AnalysisResults<T> analyzeForwardsWorklist(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
+        AnalysisResults<T> results = new AnalysisResults<>(semiLattice, cfg);
+        solveForwards(semiLattice, cfg, results, null);
+        return results;
+    }
+
+    /**
+     * Updates the results of a forwards analysis after the instructions of some blocks were replaced. Only the replaced
+     * blocks and the blocks reachable from them are re-evaluated; the values of every other block can't have changed so
+     * they are kept as they are. The results are the same as those of {@link #analyze(SemiLattice, IntermediaryCFG)} on the
+     * modified CFG.
+     * <br><br>
+     * This always uses the worklist solver.
+     * @param semiLattice The semi-lattice used to produce {@code results}
+     * @param cfg The modified CFG. Its blocks and edges must be the same as when {@code results} were computed
+     * @param results The results to update
+     * @param changedBlocks The blocks whose instructions were replaced
+     */
+    public static <T extends Value> void reanalyzeForwards(SemiLattice<T> semiLattice, IntermediaryCFG cfg, AnalysisResults<T> results, Collection<BasicBlock> changedBlocks) {
+        if (semiLattice.getOrder() != SemiLattice.Order.FORWARDS) {
+            throw new IllegalArgumentException("Only forwards analyses can be updated");
+        }
+
+        int headIndex = semiLattice.getHeadIndex(cfg);
+        AnalysisInfo<T> intraBlockValues = results.getIntraBlockValues();
+
+        boolean[] affected = new boolean[cfg.getBlocks().size()];
+        Deque<BasicBlock> toVisit = new ArrayDeque<>(changedBlocks);
+
+        while (!toVisit.isEmpty()) {
+            BasicBlock block = toVisit.poll();
+            int i = cfg.getIndexOf(block);
+            if (affected[i]) continue;
+
+            affected[i] = true;
+            toVisit.addAll(block.getNext());
+
+            if (i != headIndex) {
+                intraBlockValues.in[i] = semiLattice.getTop();
+                intraBlockValues.out[i] = semiLattice.getTop();
+            }
+        }
+
+        for (BasicBlock block : changedBlocks) {
+            results.getBlocks().put(block, new AnalysisInfo<>(semiLattice, block.getInstructions().size(), -1));
+        }
+
+        results.iterations = 0;
+        solveForwards(semiLattice, cfg, results, affected);
+    }
+
+    /**
+     * @param region Which blocks to evaluate, by index. Blocks outside it keep their current values. Null to evaluate every block.
+     *               Every successor of a block in the region must also be in it.
+     */
+    private static <T extends Value> void solveForwards(SemiLattice<T> semiLattice, IntermediaryCFG cfg, AnalysisResults<T> results, boolean[] region) {
+        AnalysisInfo<T> intraBlockValues = results.getIntraBlockValues();
+        List<BasicBlock> blocks = cfg.getBlocks();
+        int headIndex = semiLattice.getHeadIndex(cfg);
+
+        Map<BasicBlock, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            indices.put(blocks.get(i), i);
+        }
+
+        int[][] prev = new int[blocks.size()][];
+        int[][] next = new int[blocks.size()][];
+        makeEdgeArrays(blocks, indices, prev, next);
+
+        //order[position] = block, position[block] = position in order
+        int[] order = reversePostOrder(next, cfg.getStartIndex());
+        int[] position = invert(order);
+
+        BitSet pending = new BitSet(order.length);
+        if (region == null) {
+            pending.set(0, order.length);
+        } else {
+            for (int i = 0; i < region.length; i++) {
+                if (region[i]) pending.set(position[i]);
+            }
+        }
+
+        InPlaceSemiLattice<T> inPlace = semiLattice instanceof InPlaceSemiLattice<T> l ? l : null;
+
+        while (!pending.isEmpty()) {
+            int pos = pending.nextSetBit(0);
+            pending.clear(pos);
+
+            int i = order[pos];
+            if (i == headIndex) continue;
+
+            BasicBlock block = blocks.get(i);
+            boolean changed;
+            results.iterations++;
+
+            if (inPlace != null) {
+                T inValue = intraBlockValues.in[i];
+                inPlace.setTop(inValue);
+                for (int previous : prev[i]) {
+                    inPlace.meetInto(inValue, intraBlockValues.out[previous]);
+                }
+
+                changed = analyzeBlockForwardsInPlace(inPlace, block, inValue, results.getBlocks().get(block), intraBlockValues.out[i]);
+            } else {
+                T inValue = semiLattice.getTop();
+                for (int previous : prev[i]) {
+                    inValue = semiLattice.meet(inValue, intraBlockValues.out[previous]);
+                }
+                intraBlockValues.in[i] = inValue;
+
+                T outValue = analyzeBlockForwards(semiLattice, block, inValue, results.getBlocks().get(block));
+                changed = !outValue.equals(intraBlockValues.out[i]);
+                intraBlockValues.out[i] = outValue;
+            }
+
+            if (changed) {
+                for (int successor : next[i]) {
+                    pending.set(position[successor]);
+                }
+            }
+        }
+    }
+
+    private static <T extends Value> AnalysisResults<T> analyzeBackwardsWorklist(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
+        AnalysisResults<T> results = new AnalysisResults<>(semiLattice, cfg);
+        AnalysisInfo<T> intraBlockValues = results.getIntraBlockValues();
+        int headIndex = 0;
+
+        //Like the round-robin solver, intra block values are indexed by position in this list
+        List<BasicBlock> blocks = cfg.getEndBlock().getAllBackwards();
+
+        Map<BasicBlock, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            indices.put(blocks.get(i), i);
+        }
+
+        int[][] prev = new int[blocks.size()][];
+        int[][] next = new int[blocks.size()][];
+        makeEdgeArrays(blocks, indices, prev, next);
+
+        //Post-order of the forward graph is reverse post-order of the reversed graph
+        int[] order = reversePostOrder(prev, headIndex);
+        int[] position = invert(order);
+
+        BitSet pending = new BitSet(order.length);
+        pending.set(0, order.length);
+
+        InPlaceSemiLattice<T> inPlace = semiLattice instanceof InPlaceSemiLattice<T> l ? l : null;
+
+        while (!pending.isEmpty()) {
+            int pos = pending.nextSetBit(0);
+            pending.clear(pos);
+
+            int i = order[pos];
+            if (i == headIndex) continue;
+
+            BasicBlock block = blocks.get(i);
+            boolean changed;
+            results.iterations++;
+
+            if (inPlace != null) {
+                T outValue = intraBlockValues.out[i];
+                inPlace.setTop(outValue);
+                for (int successor : next[i]) {
+                    inPlace.meetInto(outValue, intraBlockValues.in[successor]);
+                }
+
+                changed = analyzeBlockBackwardsInPlace(inPlace, block, outValue, results.getBlocks().get(block), intraBlockValues.in[i]);
+            } else {
+                T outValue = semiLattice.getTop();
+                for (int successor : next[i]) {
+                    outValue = semiLattice.meet(outValue, intraBlockValues.in[successor]);
+                }
+                intraBlockValues.out[i] = outValue;
+
+                T inValue = analyzeBlockBackwards(semiLattice, block, outValue, results.getBlocks().get(block));
+                changed = !inValue.equals(intraBlockValues.in[i]);
+                intraBlockValues.in[i] = inValue;
+            }
+
+            if (changed) {
+                for (int previous : prev[i]) {
+                    pending.set(position[previous]);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluates a block, writing into the values already held by the analysis info instead of allocating new ones
+     * @return Whether {@code blockOut} changed
+     */
+    private static <T extends Value> boolean analyzeBlockForwardsInPlace(InPlaceSemiLattice<T> semiLattice, BasicBlock block, T inValue, AnalysisInfo<T> analysisInfo, T blockOut) {
+        List<Instruction> instructions = block.getInstructions();
+        if (instructions.isEmpty()) return semiLattice.copyInto(inValue, blockOut);
+
+        semiLattice.copyInto(inValue, analysisInfo.in[0]);
+
+        for (int i = 0; i < instructions.size(); i++) {
+            semiLattice.executeInto(analysisInfo.in[i], instructions.get(i), analysisInfo.out[i]);
+            if (i < instructions.size() - 1) {
+                semiLattice.copyInto(analysisInfo.out[i], analysisInfo.in[i + 1]);
+            }
+        }
+
+        return semiLattice.copyInto(analysisInfo.out[instructions.size() - 1], blockOut);
+    }
+
+    /**
+     * @return Whether {@code blockIn} changed
+     */
+    private static <T extends Value> boolean analyzeBlockBackwardsInPlace(InPlaceSemiLattice<T> semiLattice, BasicBlock block, T outValue, AnalysisInfo<T> analysisInfo, T blockIn) {
+        List<Instruction> instructions = block.getInstructions();
+        if (instructions.isEmpty()) return semiLattice.copyInto(outValue, blockIn);
+
+        int lastIndex = instructions.size() - 1;
+        semiLattice.copyInto(outValue, analysisInfo.out[lastIndex]);
+
+        for (int i = lastIndex; i >= 0; i--) {
+            semiLattice.executeInto(analysisInfo.out[i], instructions.get(i), analysisInfo.in[i]);
+            if (i > 0) {
+                semiLattice.copyInto(analysisInfo.in[i], analysisInfo.out[i - 1]);
+            }
+        }
+
+        return semiLattice.copyInto(analysisInfo.in[0], blockIn);
+    }
+
+    /**
+     * Fills in the predecessor and successor indices of each block. Edges to blocks that aren't in {@code blocks} are dropped.
+     */
+    private static void makeEdgeArrays(List<BasicBlock> blocks, Map<BasicBlock, Integer> indices, int[][] prev, int[][] next) {
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+
+            prev[i] = toIndices(block.getPrev(), indices);
+            next[i] = toIndices(block.getNext(), indices);
+        }
+    }
+
+    private static int[] toIndices(List<BasicBlock> blocks, Map<BasicBlock, Integer> indices) {
+        int[] result = new int[blocks.size()];
+        int length = 0;
+
+        for (BasicBlock block : blocks) {
+            Integer index = indices.get(block);
+            if (index != null) {
+                result[length++] = index;
+            }
+        }
+
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Computes the reverse post-order of the graph starting at {@code root}. Nodes that can't be reached from the root are
+     * appended at the end so that they still get analyzed.
+     * @return An array containing every node index exactly once
+     */
+    private static int[] reversePostOrder(int[][] edges, int root) {
+        int n = edges.length;
+        int[] postOrder = new int[n];
+        int postOrderLength = 0;
+
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] edgeIndex = new int[n];
+        int stackSize = 0;
+
+        stack[stackSize++] = root;
+        visited[root] = true;
+
+        while (stackSize > 0) {
+            int node = stack[stackSize - 1];
+
+            if (edgeIndex[node] < edges[node].length) {
+                int child = edges[node][edgeIndex[node]++];
+
+                if (!visited[child]) {
+                    visited[child] = true;
+                    stack[stackSize++] = child;
+                }
+            } else {
+                stackSize--;
+                postOrder[postOrderLength++] = node;
+            }
+        }
+
+        int[] order = new int[n];
+        for (int i = 0; i < postOrderLength; i++) {
+            order[i] = postOrder[postOrderLength - 1 - i];
+        }
+
+        int length = postOrderLength;
+        for (int i = 0; i < n; i++) {
+            if (!visited[i]) {
+                order[length++] = i;
+            }
         }
+
+        return order;
+    }
+
+    private static int[] invert(int[] order) {
+        int[] position = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+        return position;
     }
 
+    /*
+     * Round-robin solvers
+     */
+
     private static <T extends Value> AnalysisResults<T> analyzeForwards(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
         AnalysisResults<T> results = new AnalysisResults<>(semiLattice, cfg);
         int headIndex = semiLattice.getHeadIndex(cfg);
@@ -26,6 +359,7 @@ public class Analysis {
                 if (i == headIndex) continue;
 
                 BasicBlock block = cfg.getBlocks().get(i);
+                results.iterations++;
 
                 T inValue = semiLattice.getTop();
                 for (BasicBlock previous : block.getPrev()) {
@@ -69,16 +403,22 @@ public class Analysis {
 
         List<BasicBlock> backwardsBlocks = cfg.getEndBlock().getAllBackwards();
 
+        Map<BasicBlock, Integer> backwardsIndices = new IdentityHashMap<>();
+        for (int i = 0; i < backwardsBlocks.size(); i++) {
+            backwardsIndices.put(backwardsBlocks.get(i), i);
+        }
+
         while (changed) {
             changed = false;
             for (int i = 0; i < backwardsBlocks.size(); i++) {
                 if (i == headIndex) continue;
 
                 BasicBlock block = backwardsBlocks.get(i);
+                results.iterations++;
 
                 T outValue = semiLattice.getTop();
                 for (BasicBlock next : block.getNext()) {
-                    int backwardsIndex = backwardsBlocks.indexOf(next);
+                    int backwardsIndex = backwardsIndices.get(next);
                     outValue = semiLattice.meet(outValue, results.getIntraBlockValues().in[backwardsIndex]);
                 }
                 results.getIntraBlockValues().out[i] = outValue;
@@ -10,6 +10,9 @@ public class AnalysisResults<T extends Value> {
     private final Map<BasicBlock, AnalysisInfo<T>> blocks;
     private final AnalysisInfo<T> intraBlockValues;
 
+    //Number of times a block was evaluated by the last solve
+    int iterations;
+
     public AnalysisResults(SemiLattice<T> semiLattice, IntermediaryCFG cfg) {
         this.intraBlockValues = new AnalysisInfo<>(semiLattice, cfg.getBlocks().size(), 0);
         this.blocks = new HashMap<>();
@@ -27,6 +30,13 @@ public class AnalysisResults<T extends Value> {
         return intraBlockValues;
     }
 
+    /**
+     * @return How many block evaluations it took to reach the fixpoint (for the last update if the results were re-analysed)
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
     public void print(PrintStream out, IntermediaryCFG controlFlowGraph) {
         out.println("Analysis Results:");
 
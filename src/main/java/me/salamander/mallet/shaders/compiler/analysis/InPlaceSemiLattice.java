@@ -0,0 +1,46 @@
+package me.salamander.mallet.shaders.compiler.analysis;
+
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+
+/**
+ * A semi-lattice whose values can be updated in place. {@link Analysis} and
+ * {@link me.salamander.mallet.shaders.compiler.astanalysis.ASTAnalysis} use these methods to reuse the values they already
+ * hold instead of allocating new ones for every instruction on every iteration.
+ */
+public abstract class InPlaceSemiLattice<T extends Value> extends SemiLattice<T> {
+    protected InPlaceSemiLattice(Order order) {
+        super(order);
+    }
+
+    /**
+     * Sets {@code result} to the value after executing the instruction. {@code result} is never the same object as {@code value}
+     */
+    public abstract void executeInto(T value, Instruction instruction, T result);
+
+    /**
+     * Sets {@code target} to the meet of {@code target} and {@code other}
+     */
+    public abstract void meetInto(T target, T other);
+
+    public abstract void setTop(T target);
+
+    /**
+     * @return Whether {@code target} changed
+     */
+    public abstract boolean copyInto(T source, T target);
+
+    @Override
+    public T execute(T value, Instruction instruction) {
+        T result = getTop();
+        executeInto(value, instruction, result);
+        return result;
+    }
+
+    @Override
+    public T meet(T a, T b) {
+        T result = getTop();
+        copyInto(a, result);
+        meetInto(result, b);
+        return result;
+    }
+}
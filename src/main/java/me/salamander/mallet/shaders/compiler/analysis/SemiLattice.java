@@ -31,8 +31,26 @@ public abstract class SemiLattice<T extends Value> {
 
     public abstract T[] makeArray(int size);
 
+    /**
+     * Override to change the algorithm used to find the fixpoint. Both give the same results.
+     */
+    public Solver getSolver() {
+        return Solver.WORKLIST;
+    }
+
     public enum Order{
         FORWARDS,
         BACKWARDS
     }
+
+    public enum Solver {
+        /**
+         * Re-evaluates every block until nothing changes
+         */
+        ROUND_ROBIN,
+        /**
+         * Only re-evaluates blocks whose input changed
+         */
+        WORKLIST
+    }
 }
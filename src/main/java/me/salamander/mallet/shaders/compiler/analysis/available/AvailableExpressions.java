@@ -0,0 +1,65 @@
+package me.salamander.mallet.shaders.compiler.analysis.available;
+
+import me.salamander.mallet.shaders.compiler.analysis.InPlaceSemiLattice;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+
+/**
+ * Finds the expressions that have been computed on every path to an instruction without any of the variables or memory they
+ * read changing since.
+ */
+public class AvailableExpressions extends InPlaceSemiLattice<AvailableExpressionsValue> {
+    private final ExpressionNumbering numbering;
+
+    public AvailableExpressions(ExpressionNumbering numbering) {
+        super(Order.FORWARDS);
+        this.numbering = numbering;
+    }
+
+    @Override
+    public AvailableExpressionsValue getHeadValue() {
+        return new AvailableExpressionsValue(numbering);
+    }
+
+    @Override
+    public AvailableExpressionsValue getTop() {
+        AvailableExpressionsValue value = new AvailableExpressionsValue(numbering);
+        value.fill();
+        return value;
+    }
+
+    @Override
+    public void executeInto(AvailableExpressionsValue value, Instruction instruction, AvailableExpressionsValue result) {
+        result.copyFrom(value);
+
+        //Gen set
+        for (int computed : numbering.getComputed(instruction)) {
+            result.add(computed);
+        }
+
+        //Kill set. Expressions are computed before the instruction changes anything
+        long[] killed = numbering.getKilled(instruction);
+        if (killed != null) {
+            result.removeAll(killed);
+        }
+    }
+
+    @Override
+    public void meetInto(AvailableExpressionsValue target, AvailableExpressionsValue other) {
+        target.retainAll(other);
+    }
+
+    @Override
+    public void setTop(AvailableExpressionsValue target) {
+        target.fill();
+    }
+
+    @Override
+    public boolean copyInto(AvailableExpressionsValue source, AvailableExpressionsValue target) {
+        return target.copyFrom(source);
+    }
+
+    @Override
+    public AvailableExpressionsValue[] makeArray(int size) {
+        return new AvailableExpressionsValue[size];
+    }
+}
@@ -0,0 +1,92 @@
+package me.salamander.mallet.shaders.compiler.analysis.available;
+
+import me.salamander.mallet.shaders.compiler.analysis.Value;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * A set of expressions stored as a bitset over an {@link ExpressionNumbering}.
+ * <br><br>
+ * Like {@link me.salamander.mallet.shaders.compiler.analysis.bitset.VariableBitSet}, this value is mutable and the mutating
+ * methods are only meant to be used by {@link AvailableExpressions}.
+ */
+public class AvailableExpressionsValue extends Value {
+    private final ExpressionNumbering numbering;
+    private final long[] words;
+
+    public AvailableExpressionsValue(ExpressionNumbering numbering) {
+        this.numbering = numbering;
+        this.words = new long[(numbering.size() + 63) >>> 6];
+    }
+
+    public boolean contains(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    void add(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    void removeAll(long[] other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other[i];
+        }
+    }
+
+    void retainAll(AvailableExpressionsValue other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+    }
+
+    void fill() {
+        Arrays.fill(words, -1L);
+
+        //Keep the bits past the last expression clear so that equals works
+        int used = numbering.size() & 63;
+        if (used != 0) {
+            words[words.length - 1] = (1L << used) - 1;
+        }
+    }
+
+    /**
+     * @return Whether this set changed
+     */
+    boolean copyFrom(AvailableExpressionsValue other) {
+        boolean changed = false;
+
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != other.words[i]) {
+                words[i] = other.words[i];
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AvailableExpressionsValue that = (AvailableExpressionsValue) o;
+        return Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < numbering.size(); i++) {
+            if (contains(i)) {
+                joiner.add(numbering.get(i).toString());
+            }
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package me.salamander.mallet.shaders.compiler.analysis.available;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
+import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Assigns a dense index to every expression of a method that is worth reusing, so that sets of them can be stored as bitsets.
+ * Expressions are identified by their structure, so two occurrences of {@code a.x * b} get the same index.
+ * <br><br>
+ * An expression is worth reusing if it is a pure operation or load (arithmetic, comparisons, conversions, field and array
+ * element reads) with a primitive result. Method calls, allocations and {@code cmp} (which only exists until the AST is
+ * simplified) are never part of one.
+ * <br><br>
+ * Like {@link me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering}, the expressions each instruction
+ * computes and invalidates are found up front.
+ */
+public class ExpressionNumbering {
+    private static final int[] NO_EXPRESSIONS = new int[0];
+
+    private final Object2IntMap<String> indices = new Object2IntOpenHashMap<>();
+    private final List<Value> expressions = new ArrayList<>();
+    private final List<Boolean> readsMemory = new ArrayList<>();
+
+    private final Map<Instruction, int[]> computed = new IdentityHashMap<>();
+    private final Map<Instruction, long[]> killed = new IdentityHashMap<>();
+
+    private ExpressionNumbering() {
+        indices.defaultReturnValue(-1);
+    }
+
+    public static ExpressionNumbering of(IntermediaryCFG cfg) {
+        ExpressionNumbering numbering = new ExpressionNumbering();
+
+        //Every expression needs an index before the kill sets can be made
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                visitExpressions(instruction, (value, conditional) -> numbering.add(value));
+            }
+        }
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                numbering.addInstruction(instruction);
+            }
+        }
+
+        return numbering;
+    }
+
+    /**
+     * Calls {@code visitor} with every value used by the instruction and whether it is only evaluated conditionally (the right
+     * side of {@code &&} and {@code ||}). The values that make up the location of an assignment aren't visited.
+     */
+    public static void visitExpressions(Instruction instruction, BiConsumer<Value, Boolean> visitor) {
+        instruction.visitAndReplace(value -> {
+            visitExpressions(value, false, visitor);
+            return value;
+        }, loc -> loc);
+    }
+
+    private static void visitExpressions(Value value, boolean conditional, BiConsumer<Value, Boolean> visitor) {
+        visitor.accept(value, conditional);
+
+        if (value instanceof UnaryOperation unary) {
+            visitExpressions(unary.getArg(), conditional, visitor);
+        } else if (value instanceof BinaryOperation binary) {
+            boolean shortCircuit = binary.getOp() == BinaryOperation.Op.BOOLEAN_AND || binary.getOp() == BinaryOperation.Op.BOOLEAN_OR;
+
+            visitExpressions(binary.getLeft(), conditional, visitor);
+            visitExpressions(binary.getRight(), conditional || shortCircuit, visitor);
+        } else {
+            value.copyValue(inner -> {
+                visitExpressions(inner, conditional, visitor);
+                return inner;
+            });
+        }
+    }
+
+    private void add(Value value) {
+        String key = keyOf(value);
+        if (key == null || indices.containsKey(key)) return;
+
+        indices.put(key, expressions.size());
+        expressions.add(value);
+        readsMemory.add(readsMemory(value));
+    }
+
+    private void addInstruction(Instruction instruction) {
+        boolean callsMethod = callsMethod(instruction);
+
+        //Gen set
+        List<Integer> computedHere = new ArrayList<>();
+        visitExpressions(instruction, (value, conditional) -> {
+            int index = indexOf(value);
+
+            if (index != -1 && !conditional && !computedHere.contains(index) && isUsable(index, callsMethod)) {
+                computedHere.add(index);
+            }
+        });
+
+        computed.put(instruction, computedHere.isEmpty() ? NO_EXPRESSIONS : computedHere.stream().mapToInt(Integer::intValue).toArray());
+
+        //Kill set
+        Variable assignedVariable = null;
+        boolean writesMemory = callsMethod;
+
+        if (instruction instanceof AssignmentInstruction assign) {
+            if (assign.getLocation() instanceof Variable var) {
+                assignedVariable = var;
+            } else {
+                writesMemory = true;
+            }
+        }
+
+        long[] killedHere = null;
+        for (int i = 0; i < expressions.size(); i++) {
+            boolean kill = (writesMemory && readsMemory.get(i)) || (assignedVariable != null && expressions.get(i).isInvalidatedByChangeIn(assignedVariable));
+
+            if (kill) {
+                if (killedHere == null) {
+                    killedHere = new long[(expressions.size() + 63) >>> 6];
+                }
+
+                killedHere[i >>> 6] |= 1L << i;
+            }
+        }
+
+        if (killedHere != null) {
+            killed.put(instruction, killedHere);
+        }
+    }
+
+    /**
+     * @return The index of the expression or -1 if it isn't worth reusing or doesn't appear in the method
+     */
+    public int indexOf(Value value) {
+        String key = keyOf(value);
+        return key == null ? -1 : indices.getInt(key);
+    }
+
+    public Value get(int index) {
+        return expressions.get(index);
+    }
+
+    public int size() {
+        return expressions.size();
+    }
+
+    /**
+     * @return The indices of the expressions that are always evaluated by the instruction and still hold their value while it
+     * runs. The array must not be modified
+     */
+    public int[] getComputed(Instruction instruction) {
+        int[] result = computed.get(instruction);
+        return result == null ? NO_EXPRESSIONS : result;
+    }
+
+    /**
+     * @return The expressions whose value may be changed by the instruction, as the words of a bitset, or null if there are none.
+     * The array must not be modified
+     */
+    public long @Nullable [] getKilled(Instruction instruction) {
+        return killed.get(instruction);
+    }
+
+    /**
+     * Memory that is read by an expression can be written to by a method called in the same instruction, in which case the
+     * expression can't be reused in that instruction
+     */
+    public boolean isUsable(int index, boolean callsMethod) {
+        return !callsMethod || !readsMemory.get(index);
+    }
+
+    public static boolean callsMethod(Instruction instruction) {
+        if (instruction instanceof MethodCallInstruction) return true;
+
+        boolean[] found = {false};
+        visitExpressions(instruction, (value, conditional) -> found[0] |= value instanceof MethodCallValue);
+
+        return found[0];
+    }
+
+    /**
+     * @return A string that is the same for two values if and only if they have the same structure, or null if the value isn't
+     * an expression worth reusing
+     */
+    private static @Nullable String keyOf(Value value) {
+        if (!(value instanceof BinaryOperation || value instanceof UnaryOperation || value instanceof ObjectField || value instanceof ArrayElement)) {
+            return null;
+        }
+
+        int sort = value.getType().getSort();
+        if (sort < Type.BOOLEAN || sort > Type.DOUBLE) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        return describe(value, sb) ? sb.toString() : null;
+    }
+
+    /**
+     * Fully parenthesizes the value so that different trees never produce the same string
+     * @return Whether the value is pure
+     */
+    private static boolean describe(Value value, StringBuilder sb) {
+        if (value instanceof Variable var) {
+            //Variables are only equal by index, but the same local slot can hold values of different types
+            sb.append(var).append(':').append(var.getType().getDescriptor());
+        } else if (value instanceof LiteralValue literal) {
+            sb.append(literal.getType().getDescriptor()).append(':').append(literal.getValue());
+        } else if (value instanceof StaticField field) {
+            sb.append(field.getFieldOwner().getInternalName()).append('.').append(field.getFieldName());
+        } else if (value instanceof ObjectField field) {
+            sb.append('(');
+            if (!describe(field.getObject(), sb)) return false;
+            sb.append(").").append(field.getFieldOwner().getInternalName()).append('.').append(field.getFieldName());
+        } else if (value instanceof ArrayElement element) {
+            sb.append('(');
+            if (!describe(element.getArray(), sb)) return false;
+            sb.append(")[");
+            if (!describe(element.getIndex(), sb)) return false;
+            sb.append(']');
+        } else if (value instanceof UnaryOperation unary) {
+            UnaryOperation.Op op = unary.getOp();
+            boolean pure = op == UnaryOperation.Op.NEG || op == UnaryOperation.Op.NOT || op == UnaryOperation.Op.TO_INT
+                    || op == UnaryOperation.Op.TO_LONG || op == UnaryOperation.Op.TO_FLOAT || op == UnaryOperation.Op.TO_DOUBLE;
+            if (!pure) return false;
+
+            sb.append('(').append(op);
+            if (!describe(unary.getArg(), sb)) return false;
+            sb.append(')');
+        } else if (value instanceof BinaryOperation binary) {
+            if (binary.getOp() == BinaryOperation.Op.CMP) return false;
+
+            sb.append('(');
+            if (!describe(binary.getLeft(), sb)) return false;
+            sb.append(' ').append(binary.getOp()).append(' ');
+            if (!describe(binary.getRight(), sb)) return false;
+            sb.append(')');
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean readsMemory(Value value) {
+        if (value instanceof ObjectField || value instanceof ArrayElement || value instanceof StaticField) {
+            return true;
+        } else if (value instanceof UnaryOperation unary) {
+            return readsMemory(unary.getArg());
+        }
+
+        boolean[] reads = {false};
+        value.copyValue(inner -> {
+            reads[0] |= readsMemory(inner);
+            return inner;
+        });
+
+        return reads[0];
+    }
+}
@@ -0,0 +1,160 @@
+package me.salamander.mallet.shaders.compiler.analysis.bitset;
+
+import me.salamander.mallet.shaders.compiler.analysis.Value;
+import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set of variables stored as a bitset over a {@link VariableNumbering}.
+ * <br><br>
+ * Unlike most lattice values this one is mutable. The mutating methods are only meant to be used by
+ * {@link me.salamander.mallet.shaders.compiler.analysis.InPlaceSemiLattice}s on values they own.
+ */
+public abstract class VariableBitSet extends Value {
+    protected final VariableNumbering numbering;
+    protected final long[] words;
+
+    protected VariableBitSet(VariableNumbering numbering) {
+        this.numbering = numbering;
+        this.words = new long[(numbering.size() + 63) >>> 6];
+    }
+
+    public boolean contains(Variable variable) {
+        int index = numbering.indexOf(variable);
+        return index != -1 && contains(index);
+    }
+
+    public boolean contains(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void add(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    public void remove(int index) {
+        words[index >>> 6] &= ~(1L << index);
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * @return Whether this set changed
+     */
+    public boolean addAll(VariableBitSet other) {
+        boolean changed = false;
+
+        for (int i = 0; i < words.length; i++) {
+            long merged = words[i] | other.words[i];
+            if (merged != words[i]) {
+                words[i] = merged;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return Whether this set changed
+     */
+    public boolean copyFrom(VariableBitSet other) {
+        boolean changed = false;
+
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != other.words[i]) {
+                words[i] = other.words[i];
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /**
+     * @return A read-only view of the variables in this set
+     */
+    public Set<Variable> asSet() {
+        return new AbstractSet<>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Variable var && VariableBitSet.this.contains(var);
+            }
+
+            @Override
+            public Iterator<Variable> iterator() {
+                return new Iterator<>() {
+                    private int next = nextSetBit(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != -1;
+                    }
+
+                    @Override
+                    public Variable next() {
+                        if (next == -1) throw new NoSuchElementException();
+
+                        Variable variable = numbering.get(next);
+                        next = nextSetBit(next + 1);
+                        return variable;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return VariableBitSet.this.size();
+            }
+        };
+    }
+
+    private int nextSetBit(int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= words.length) return -1;
+
+        long word = words[wordIndex] & (-1L << from);
+
+        while (true) {
+            if (word != 0) {
+                return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            }
+
+            if (++wordIndex == words.length) return -1;
+            word = words[wordIndex];
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VariableBitSet that = (VariableBitSet) o;
+        return Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return asSet().toString();
+    }
+}
@@ -0,0 +1,162 @@
+package me.salamander.mallet.shaders.compiler.analysis.bitset;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
+import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.Value;
+import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns every variable of a method a dense index so that sets of variables can be stored as bitsets.
+ * <br><br>
+ * The variables each instruction defines and uses are computed up front so that the lattices using this don't have to
+ * call {@link Instruction#usedVariables()} (which allocates) every time they execute an instruction.
+ */
+public class VariableNumbering {
+    private static final int[] NO_VARIABLES = new int[0];
+
+    private final Object2IntMap<Variable> indices = new Object2IntOpenHashMap<>();
+    private final List<Variable> variables = new ArrayList<>();
+
+    private final Map<Instruction, int[]> usedVariables = new IdentityHashMap<>();
+    private final Map<Instruction, Integer> definedVariables = new IdentityHashMap<>();
+
+    private VariableNumbering() {
+        indices.defaultReturnValue(-1);
+    }
+
+    public static VariableNumbering of(IntermediaryCFG cfg) {
+        VariableNumbering numbering = new VariableNumbering();
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (Instruction instruction : block.getInstructions()) {
+                numbering.addInstruction(instruction);
+            }
+        }
+
+        return numbering;
+    }
+
+    public static VariableNumbering of(ASTNode root) {
+        VariableNumbering numbering = new VariableNumbering();
+
+        root.visitTree(node -> {
+            if (node instanceof InstructionASTNode insnNode) {
+                numbering.addInstruction(insnNode.getInstruction());
+            } else if (node instanceof ReturnASTNode returnNode) {
+                numbering.addValue(returnNode.getReturnValue());
+            } else if (node instanceof IfASTNode ifNode) {
+                numbering.addValue(ifNode.getCondition());
+            } else if (node instanceof IfElseASTNode ifElseNode) {
+                numbering.addValue(ifElseNode.getCondition());
+            } else if (node instanceof LoopASTNode loopNode) {
+                numbering.addValue(loopNode.getCondition());
+            }
+        });
+
+        return numbering;
+    }
+
+    private void addInstruction(Instruction instruction) {
+        definedVariables.put(instruction, computeDefinedVariable(instruction, true));
+        usedVariables.put(instruction, computeUsedVariables(instruction, true));
+    }
+
+    private void addValue(Value value) {
+        if (value == null) return;
+
+        for (Variable variable : value.usedVariables()) {
+            add(variable);
+        }
+    }
+
+    private int add(Variable variable) {
+        int index = indices.getInt(variable);
+
+        if (index == -1) {
+            index = variables.size();
+            indices.put(variable, index);
+            variables.add(variable);
+        }
+
+        return index;
+    }
+
+    private int computeDefinedVariable(Instruction instruction, boolean add) {
+        if (instruction instanceof AssignmentInstruction assign && assign.getLocation() instanceof Variable var) {
+            return add ? add(var) : indexOf(var);
+        }
+
+        return -1;
+    }
+
+    private int[] computeUsedVariables(Instruction instruction, boolean add) {
+        List<Variable> used = instruction.usedVariables();
+        if (used.isEmpty()) return NO_VARIABLES;
+
+        int[] result = new int[used.size()];
+        int length = 0;
+
+        for (Variable variable : used) {
+            int index = add ? add(variable) : indexOf(variable);
+
+            if (index != -1) {
+                result[length++] = index;
+            }
+        }
+
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * @return The index of the variable or -1 if it doesn't appear in the method
+     */
+    public int indexOf(Variable variable) {
+        return indices.getInt(variable);
+    }
+
+    public Variable get(int index) {
+        return variables.get(index);
+    }
+
+    public int size() {
+        return variables.size();
+    }
+
+    /**
+     * @return The index of the variable assigned by the instruction or -1 if it doesn't assign a variable
+     */
+    public int getDefinedVariable(Instruction instruction) {
+        Integer index = definedVariables.get(instruction);
+
+        if (index == null) {
+            //Instruction that wasn't part of the method (for example the synthetic returns of ASTAnalysis)
+            return computeDefinedVariable(instruction, false);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return The indices of the variables used by the instruction. The array must not be modified
+     */
+    public int[] getUsedVariables(Instruction instruction) {
+        int[] used = usedVariables.get(instruction);
+
+        if (used == null) {
+            return computeUsedVariables(instruction, false);
+        }
+
+        return used;
+    }
+}
@@ -1,39 +1,50 @@
 package me.salamander.mallet.shaders.compiler.analysis.defined;
 
-import me.salamander.mallet.shaders.compiler.analysis.SemiLattice;
-import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.analysis.InPlaceSemiLattice;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.instruction.Instruction;
-import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
 
-public class DefinedSemilattice extends SemiLattice<DefinedValue> {
-    public DefinedSemilattice() {
+public class DefinedSemilattice extends InPlaceSemiLattice<DefinedValue> {
+    private final VariableNumbering numbering;
+
+    public DefinedSemilattice(VariableNumbering numbering) {
         super(Order.FORWARDS);
+        this.numbering = numbering;
     }
 
     @Override
     public DefinedValue getHeadValue() {
-        return new DefinedValue();
+        return new DefinedValue(numbering);
     }
 
     @Override
     public DefinedValue getTop() {
-        return new DefinedValue();
+        return new DefinedValue(numbering);
     }
 
     @Override
-    public DefinedValue execute(DefinedValue value, Instruction instruction) {
-        if (instruction instanceof AssignmentInstruction assign) {
-            if (assign.getLocation() instanceof Variable var) {
-                return value.with(var);
-            }
+    public void executeInto(DefinedValue value, Instruction instruction, DefinedValue result) {
+        result.copyFrom(value);
+
+        int defined = numbering.getDefinedVariable(instruction);
+        if (defined != -1) {
+            result.add(defined);
         }
+    }
 
-        return value;
+    @Override
+    public void meetInto(DefinedValue target, DefinedValue other) {
+        target.addAll(other);
+    }
+
+    @Override
+    public void setTop(DefinedValue target) {
+        target.clear();
     }
 
     @Override
-    public DefinedValue meet(DefinedValue a, DefinedValue b) {
-        return a.merge(b);
+    public boolean copyInto(DefinedValue source, DefinedValue target) {
+        return target.copyFrom(source);
     }
 
     @Override
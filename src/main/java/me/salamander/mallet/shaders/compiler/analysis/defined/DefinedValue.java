@@ -1,49 +1,40 @@
 package me.salamander.mallet.shaders.compiler.analysis.defined;
 
-import me.salamander.mallet.shaders.compiler.analysis.Value;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableBitSet;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
 
-import java.util.HashSet;
-import java.util.Objects;
 import java.util.Set;
 
-public class DefinedValue extends Value {
-    private final Set<Variable> definedVars;
-
-    public DefinedValue() {
-        this.definedVars = new HashSet<>();
-    }
-
-    private DefinedValue(Set<Variable> definedVars) {
-        this.definedVars = definedVars;
+public class DefinedValue extends VariableBitSet {
+    public DefinedValue(VariableNumbering numbering) {
+        super(numbering);
     }
 
     public DefinedValue with(Variable var) {
-        Set<Variable> newDefinedVars = new HashSet<>(definedVars);
-        newDefinedVars.add(var);
-        return new DefinedValue(newDefinedVars);
+        int index = numbering.indexOf(var);
+        if (index == -1) {
+            throw new IllegalArgumentException("Variable " + var + " is not part of this method");
+        }
+
+        DefinedValue newValue = copy();
+        newValue.add(index);
+        return newValue;
     }
 
     public DefinedValue merge(DefinedValue other) {
-        Set<Variable> newDefinedVars = new HashSet<>(definedVars);
-        newDefinedVars.addAll(other.definedVars);
-        return new DefinedValue(newDefinedVars);
+        DefinedValue newValue = copy();
+        newValue.addAll(other);
+        return newValue;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        DefinedValue that = (DefinedValue) o;
-        return Objects.equals(definedVars, that.definedVars);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(definedVars);
+    public Set<Variable> getDefinedVars() {
+        return asSet();
     }
 
-    public Set<Variable> getDefinedVars() {
-        return definedVars;
+    private DefinedValue copy() {
+        DefinedValue copy = new DefinedValue(numbering);
+        copy.copyFrom(this);
+        return copy;
     }
 }
@@ -1,64 +1,53 @@
 package me.salamander.mallet.shaders.compiler.analysis.livevar;
 
-import me.salamander.mallet.shaders.compiler.analysis.Value;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableBitSet;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
 
-import java.util.HashSet;
-import java.util.Objects;
 import java.util.Set;
 
-public class LiveVarValue extends Value {
-    private final Set<Variable> liveVariables;
-
-    public Set<Variable> getLiveVariables() {
-        return liveVariables;
+public class LiveVarValue extends VariableBitSet {
+    public LiveVarValue(VariableNumbering numbering) {
+        super(numbering);
     }
 
-    public LiveVarValue() {
-        liveVariables = new HashSet<>();
-    }
-
-    private LiveVarValue(Set<Variable> liveVariables) {
-        this.liveVariables = liveVariables;
+    public Set<Variable> getLiveVariables() {
+        return asSet();
     }
 
     public LiveVarValue kill(Variable variable) {
-        Set<Variable> newLiveVariables = new HashSet<>(liveVariables);
-        newLiveVariables.remove(variable);
-        return new LiveVarValue(newLiveVariables);
+        LiveVarValue newValue = copy();
+        int index = numbering.indexOf(variable);
+        if (index != -1) {
+            newValue.remove(index);
+        }
+        return newValue;
     }
 
     public LiveVarValue with(Variable variable) {
-        Set<Variable> newLiveVariables = new HashSet<>(liveVariables);
-        newLiveVariables.add(variable);
-        return new LiveVarValue(newLiveVariables);
+        int index = numbering.indexOf(variable);
+        if (index == -1) {
+            throw new IllegalArgumentException("Variable " + variable + " is not part of this method");
+        }
+
+        LiveVarValue newValue = copy();
+        newValue.add(index);
+        return newValue;
     }
 
     public LiveVarValue merge(LiveVarValue other) {
-        Set<Variable> newLiveVariables = new HashSet<>(liveVariables);
-        newLiveVariables.addAll(other.liveVariables);
-        return new LiveVarValue(newLiveVariables);
+        LiveVarValue newValue = copy();
+        newValue.addAll(other);
+        return newValue;
     }
 
     public boolean isLive(Variable variable){
-        return liveVariables.contains(variable);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        LiveVarValue that = (LiveVarValue) o;
-        return Objects.equals(liveVariables, that.liveVariables);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(liveVariables);
+        return contains(variable);
     }
 
-    @Override
-    public String toString() {
-        return liveVariables.toString();
+    private LiveVarValue copy() {
+        LiveVarValue copy = new LiveVarValue(numbering);
+        copy.copyFrom(this);
+        return copy;
     }
 }
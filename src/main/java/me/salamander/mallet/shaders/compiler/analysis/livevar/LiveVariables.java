@@ -1,45 +1,56 @@
 package me.salamander.mallet.shaders.compiler.analysis.livevar;
 
-import me.salamander.mallet.shaders.compiler.analysis.SemiLattice;
-import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.analysis.InPlaceSemiLattice;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
 import me.salamander.mallet.shaders.compiler.instruction.Instruction;
-import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
 
-public class LiveVariables extends SemiLattice<LiveVarValue> {
-    public LiveVariables() {
+public class LiveVariables extends InPlaceSemiLattice<LiveVarValue> {
+    private final VariableNumbering numbering;
+
+    public LiveVariables(VariableNumbering numbering) {
         super(Order.BACKWARDS);
+        this.numbering = numbering;
     }
 
     @Override
     public LiveVarValue getHeadValue() {
-        return new LiveVarValue();
+        return new LiveVarValue(numbering);
     }
 
     @Override
     public LiveVarValue getTop() {
-        return new LiveVarValue();
+        return new LiveVarValue(numbering);
     }
 
     @Override
-    public LiveVarValue execute(LiveVarValue value, Instruction instruction) {
+    public void executeInto(LiveVarValue value, Instruction instruction, LiveVarValue result) {
+        result.copyFrom(value);
+
         //Kill set
-        if(instruction instanceof AssignmentInstruction assign){
-            if(assign.getLocation() instanceof Variable var){
-                value = value.kill(var);
-            }
+        int defined = numbering.getDefinedVariable(instruction);
+        if (defined != -1) {
+            result.remove(defined);
         }
 
         //Gen set
-        for(Variable used: instruction.usedVariables()) {
-            value = value.with(used);
+        for (int used : numbering.getUsedVariables(instruction)) {
+            result.add(used);
         }
+    }
 
-        return value;
+    @Override
+    public void meetInto(LiveVarValue target, LiveVarValue other) {
+        target.addAll(other);
+    }
+
+    @Override
+    public void setTop(LiveVarValue target) {
+        target.clear();
     }
 
     @Override
-    public LiveVarValue meet(LiveVarValue a, LiveVarValue b) {
-        return a.merge(b);
+    public boolean copyInto(LiveVarValue source, LiveVarValue target) {
+        return target.copyFrom(source);
     }
 
     @Override
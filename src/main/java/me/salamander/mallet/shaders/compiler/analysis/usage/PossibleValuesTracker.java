@@ -52,6 +52,19 @@ public class PossibleValuesTracker extends SemiLattice<PossibleValuesValue> {
         return usedBy;
     }
 
+    /**
+     * Removes the instructions from {@link #getUsedBy()}. Must be called on instructions that are about to be re-analysed or
+     * were removed from the CFG so that they don't count as uses anymore.
+     */
+    public void forget(Collection<Instruction> instructions) {
+        Set<Instruction> toRemove = new ObjectOpenCustomHashSet<>(instructions, Util.IDENTITY_HASH_STRATEGY);
+
+        usedBy.values().removeIf(users -> {
+            users.removeIf(toRemove::contains);
+            return users.isEmpty();
+        });
+    }
+
     @Override
     public PossibleValuesValue meet(PossibleValuesValue a, PossibleValuesValue b) {
         return a.merge(b);
@@ -73,7 +73,6 @@ public class AbstractSyntaxTreeMaker {
                         if (newBreaks.containsKey(successor)) {
                             if (!cfg.hasSpecialEdge(cfgNode, successor)) {
                                 cfg.putSpecialEdge(cfgNode, successor, new SpecialEdge(newBreaks.get(successor), SpecialEdge.Type.BREAK));
-                                System.out.println("Found break from! (" + cfgNode.getId() + " -> " + successor.getId() + ")");
                             }
                         }
                     }
@@ -103,7 +102,6 @@ public class AbstractSyntaxTreeMaker {
             for (CFGNode predecessor : target.getPredecessors()) {
                 if (node.getBody().contains(predecessor)) {
                     cfg.putSpecialEdge(predecessor, target, new SpecialEdge(loop, SpecialEdge.Type.CONTINUE));
-                    System.out.println("Found continue! (" + predecessor.getId() + " -> " + target.getId() + ")");
                 }
             }
         }
@@ -327,7 +325,6 @@ public class AbstractSyntaxTreeMaker {
         //Create loop
         LoopSetNode loopSetNode = new LoopSetNode(set, body, entryPoint);
         this.set.addNode(loopSetNode);
-        System.out.println("Made loop!");
 
         //Find inner loops
         this.makeLoops(new SubGraph(this.cfg, body).without(entryPoint));
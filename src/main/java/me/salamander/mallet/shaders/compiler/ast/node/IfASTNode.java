@@ -78,7 +78,7 @@ public class IfASTNode extends ASTNode{
     @Override
     public ASTNode visitAndReplace(Function<ASTNode, ASTNode> subCopier, Function<Instruction, Instruction> instructionCopier, Function<Value, Value> valueCopier) {
         List<ASTNode> body = this.body.stream().map(subCopier).collect(Collectors.toList());
-        return new IfASTNode(body, condition);
+        return new IfASTNode(body, valueCopier.apply(condition));
     }
 
     @Override
@@ -1,8 +1,10 @@
 package me.salamander.mallet.shaders.compiler.astanalysis;
 
+import me.salamander.mallet.shaders.compiler.analysis.InPlaceSemiLattice;
 import me.salamander.mallet.shaders.compiler.analysis.SemiLattice;
 import me.salamander.mallet.shaders.compiler.analysis.Value;
 import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
 import me.salamander.mallet.shaders.compiler.instruction.ReturnInstruction;
 
 import java.util.List;
@@ -13,9 +15,9 @@ public class ASTAnalysis {
 
         ASTAnalysisResults<T> results = new ASTAnalysisResults<T>(semiLattice, root);
 
-        while (analyseMethod(semiLattice, method, results)) {
-            // Do nothing
-        }
+        do {
+            results.passes++;
+        } while (analyseMethod(semiLattice, method, results));
 
         return results;
     }
@@ -84,6 +86,10 @@ public class ASTAnalysis {
     }
 
     private static <T extends Value> boolean analyseReturn(SemiLattice<T> semiLattice, ReturnASTNode returnNode, ASTAnalysisResults<T> results) {
+        if (semiLattice instanceof InPlaceSemiLattice<T> inPlace) {
+            return executeInPlace(inPlace, returnNode, new ReturnInstruction(returnNode.getReturnValue()), results);
+        }
+
         T newValue = semiLattice.execute(results.in.get(returnNode), new ReturnInstruction(returnNode.getReturnValue()));
 
         if (!newValue.equals(results.out.get(returnNode))) {
@@ -95,6 +101,10 @@ public class ASTAnalysis {
     }
 
     private static <T extends Value> boolean analyseInstruction(SemiLattice<T> semiLattice, InstructionASTNode instructionNode, ASTAnalysisResults<T> results) {
+        if (semiLattice instanceof InPlaceSemiLattice<T> inPlace) {
+            return executeInPlace(inPlace, instructionNode, instructionNode.getInstruction(), results);
+        }
+
         T newValue = semiLattice.execute(results.in.get(instructionNode), instructionNode.getInstruction());
 
         if (!newValue.equals(results.out.get(instructionNode))) {
@@ -105,6 +115,15 @@ public class ASTAnalysis {
         return false;
     }
 
+    /**
+     * Executes the instruction into the value the node already holds. Each node owns its out value (the results give every
+     * node its own) so updating it in place is safe.
+     */
+    private static <T extends Value> boolean executeInPlace(InPlaceSemiLattice<T> semiLattice, ASTNode node, Instruction instruction, ASTAnalysisResults<T> results) {
+        semiLattice.executeInto(results.in.get(node), instruction, results.scratch);
+        return semiLattice.copyInto(results.scratch, results.out.get(node));
+    }
+
     private static <T extends Value> boolean analyseIf(SemiLattice<T> semiLattice, IfASTNode ifNode, ASTAnalysisResults<T> results) {
         List<ASTNode> body = ifNode.getBody();
         boolean changed = false;
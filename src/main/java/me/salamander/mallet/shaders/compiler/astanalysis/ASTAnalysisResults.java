@@ -12,6 +12,11 @@ public class ASTAnalysisResults<T extends Value> {
     public final Map<ASTNode, T> in = new Object2ObjectOpenCustomHashMap<>(Util.IDENTITY_HASH_STRATEGY);
     public final Map<ASTNode, T> out = new Object2ObjectOpenCustomHashMap<>(Util.IDENTITY_HASH_STRATEGY);
 
+    //Temporary value for in-place lattices
+    final T scratch;
+
+    int passes;
+
     public ASTAnalysisResults(SemiLattice<T> semiLattice, ASTNode root) {
         if (semiLattice.getOrder() != SemiLattice.Order.FORWARDS) {
             throw new IllegalArgumentException("SemiLattice must be FORWARDS");
@@ -23,5 +28,14 @@ public class ASTAnalysisResults<T extends Value> {
         });
 
         in.put(root, semiLattice.getHeadValue());
+
+        scratch = semiLattice.getTop();
+    }
+
+    /**
+     * @return How many passes over the tree it took to reach the fixpoint
+     */
+    public int getIterations() {
+        return passes;
     }
 }
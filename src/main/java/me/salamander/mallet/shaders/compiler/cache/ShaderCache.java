@@ -0,0 +1,284 @@
+package me.salamander.mallet.shaders.compiler.cache;
+
+import me.salamander.mallet.MalletContext;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Persistent on-disk cache of compiled GLSL.
+ * <br><br>
+ * Entries are keyed by a SHA-256 hash of the bytecode of every class reachable from the shader class (as resolved by
+ * {@link MalletContext#findClass(String)}), the values of every static field those classes read, the arguments
+ * passed to the shader's main method and the compiler options that change the output. Changing any class in that set
+ * produces a new key, so stale entries are never returned.
+ * <br><br>
+ * Values are keyed by their fields. If one of them can't be read (for example because it belongs to a JDK class that isn't
+ * open to reflection) there is no stable key for the shader, so it gets compiled every time and never stored.
+ */
+public class ShaderCache {
+    /**
+     * Bump this whenever the compiler output changes for the same input so old entries get ignored
+     */
+    private static final int CACHE_VERSION = 6;
+
+    private final Path directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ShaderCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the GLSL for a shader from the cache or compiles and stores it if it is not present
+     * @param context The context used to resolve classes
+     * @param shaderClass The main shader class
+     * @param mainArgs The arguments that will be inlined into the shader's main method
+     * @param options Describes the compiler options that change the GLSL (see
+     *                {@link me.salamander.mallet.shaders.compiler.ShaderCompiler#describeOptions()})
+     * @param compiler Produces the GLSL on a cache miss
+     * @return The GLSL source
+     */
+    public String getOrCompile(MalletContext context, Type shaderClass, Object[] mainArgs, String options, Supplier<String> compiler) {
+        String key = computeKey(context, shaderClass, mainArgs, options);
+        if (key == null) {
+            misses.incrementAndGet();
+            return compiler.get();
+        }
+
+        Path file = directory.resolve(key + ".glsl");
+
+        if (Files.isRegularFile(file)) {
+            try {
+                String glsl = Files.readString(file, StandardCharsets.UTF_8);
+                hits.incrementAndGet();
+                return glsl;
+            } catch (IOException e) {
+                //Treat unreadable entries as a miss
+                e.printStackTrace();
+            }
+        }
+
+        misses.incrementAndGet();
+        String glsl = compiler.get();
+        store(file, glsl);
+
+        return glsl;
+    }
+
+    private void store(Path file, String glsl) {
+        try {
+            Files.createDirectories(directory);
+
+            //Write to a temporary file first so that a concurrent reader never sees a half-written entry
+            Path temp = Files.createTempFile(directory, "shader", ".tmp");
+            Files.writeString(temp, glsl, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes every entry in the cache directory
+     */
+    public void clear() {
+        if (!Files.isDirectory(directory)) return;
+
+        try (var files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (path.toString().endsWith(".glsl")) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The name of the cache entry for the shader, or null if one of the values it depends on can't be keyed
+     */
+    public @Nullable String computeKey(MalletContext context, Type shaderClass, Object[] mainArgs, String options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        StringBuilder header = new StringBuilder();
+        header.append(CACHE_VERSION).append(';');
+        header.append(System.getProperty("java.version")).append(';');
+        header.append(shaderClass.getInternalName()).append(';');
+        header.append(options).append(';');
+        digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+
+        //Sorted so that the key doesn't depend on traversal order
+        SortedMap<String, ClassNode> classes = findReachableClasses(context, shaderClass);
+
+        for (Map.Entry<String, ClassNode> entry : classes.entrySet()) {
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+
+            ClassWriter cw = new ClassWriter(0);
+            entry.getValue().accept(cw);
+            digest.update(cw.toByteArray());
+        }
+
+        StringBuilder values = new StringBuilder();
+        try {
+            for (ClassNode classNode : classes.values()) {
+                appendStaticValues(context, values, classNode);
+            }
+
+            values.append("args:");
+            for (Object arg : mainArgs) {
+                ValueKeys.append(values, arg);
+                values.append(';');
+            }
+        } catch (ValueKeys.UnkeyableValueException e) {
+            return null;
+        }
+        digest.update(values.toString().getBytes(StandardCharsets.UTF_8));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private SortedMap<String, ClassNode> findReachableClasses(MalletContext context, Type shaderClass) {
+        SortedMap<String, ClassNode> classes = new TreeMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(shaderClass.getInternalName());
+
+        Remapper collector = new Remapper() {
+            @Override
+            public String map(String internalName) {
+                if (!classes.containsKey(internalName) && isTracked(internalName)) {
+                    queue.add(internalName);
+                }
+                return internalName;
+            }
+        };
+
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (classes.containsKey(name)) continue;
+
+            ClassNode classNode = context.findClass(name.replace('/', '.'));
+            classes.put(name, classNode);
+
+            //Only used to visit every type referenced by the class. Enclosing and nest classes aren't followed, since the
+            //code of a nested class that uses them references them directly
+            classNode.accept(new ClassVisitor(Opcodes.ASM9, new ClassRemapper(new ClassNode(), collector)) {
+                @Override
+                public void visitOuterClass(String owner, String name, String descriptor) {
+                }
+
+                @Override
+                public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                }
+
+                @Override
+                public void visitNestHost(String nestHost) {
+                }
+
+                @Override
+                public void visitNestMember(String nestMember) {
+                }
+            });
+        }
+
+        return classes;
+    }
+
+    private static boolean isTracked(String internalName) {
+        //JDK classes are covered by the java version in the key
+        return !internalName.startsWith("java/") && !internalName.startsWith("javax/") && !internalName.startsWith("jdk/") && !internalName.startsWith("sun/");
+    }
+
+    /**
+     * Static fields that aren't shader state get inlined as constants, so their current values are part of the key
+     * @throws ValueKeys.UnkeyableValueException If one of the fields can't be read
+     */
+    private static void appendStaticValues(MalletContext context, StringBuilder sb, ClassNode classNode) {
+        Set<String> seen = new HashSet<>();
+
+        for (MethodNode method : classNode.methods) {
+            for (AbstractInsnNode insn : method.instructions) {
+                if (insn.getOpcode() != Opcodes.GETSTATIC) continue;
+
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                String id = fieldInsn.owner + "." + fieldInsn.name;
+                if (!seen.add(id) || !isTracked(fieldInsn.owner)) continue;
+
+                sb.append(id).append('=');
+
+                Object value;
+                try {
+                    //Loading doesn't run static initializers. Reading the field initializes the class declaring it, which the
+                    //compiler does anyway when it inlines the value
+                    Class<?> owner = context.loadClass(fieldInsn.owner.replace('/', '.'));
+                    Field field = findField(owner, fieldInsn.name);
+                    field.setAccessible(true);
+                    value = field.get(null);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    //Without the value the key would match whatever it is by the time the entry is looked up
+                    throw new ValueKeys.UnkeyableValueException();
+                }
+
+                ValueKeys.append(sb, value);
+
+                sb.append(';');
+            }
+        }
+    }
+
+    private static Field findField(Class<?> clazz, String name) throws NoSuchFieldException {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+
+        throw new NoSuchFieldException(name);
+    }
+}
@@ -0,0 +1,101 @@
+package me.salamander.mallet.shaders.compiler.cache;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+
+/**
+ * Describes values by their contents so they can be used in cache keys. Two values with the same description were equal
+ * when they were described, no matter whether they are the same object or whether their class implements equals.
+ */
+public class ValueKeys {
+    /**
+     * @return A description of the value and everything it references, or null if one of its fields can't be read
+     */
+    public static @Nullable String describe(Object value) {
+        StringBuilder sb = new StringBuilder();
+
+        try {
+            append(sb, value);
+        } catch (UnkeyableValueException e) {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @throws UnkeyableValueException If one of the fields of the value can't be read
+     */
+    static void append(StringBuilder sb, Object value) {
+        append(sb, value, new IdentityHashMap<>());
+    }
+
+    private static void append(StringBuilder sb, Object value, IdentityHashMap<Object, Integer> visited) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+
+        Class<?> clazz = value.getClass();
+
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof String) {
+            sb.append(clazz.getSimpleName()).append(':').append(value);
+            return;
+        }
+
+        if (value instanceof Enum<?> e) {
+            sb.append(e.getDeclaringClass().getName()).append('.').append(e.name());
+            return;
+        }
+
+        if (value instanceof Class<?> c) {
+            sb.append("class:").append(c.getName());
+            return;
+        }
+
+        Integer seenIndex = visited.get(value);
+        if (seenIndex != null) {
+            sb.append('@').append(seenIndex);
+            return;
+        }
+        visited.put(value, visited.size());
+
+        sb.append(clazz.getName());
+
+        if (clazz.isArray()) {
+            int length = Array.getLength(value);
+            sb.append('[');
+            for (int i = 0; i < length; i++) {
+                if (i != 0) sb.append(',');
+                append(sb, Array.get(value, i), visited);
+            }
+            sb.append(']');
+            return;
+        }
+
+        sb.append('{');
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+
+                sb.append(field.getName()).append('=');
+                try {
+                    field.setAccessible(true);
+                    append(sb, field.get(value), visited);
+                } catch (RuntimeException | IllegalAccessException e) {
+                    //Inaccessible JDK internals. The object's hash code is usually its identity, which changes every run
+                    throw new UnkeyableValueException();
+                }
+                sb.append(',');
+            }
+        }
+        sb.append('}');
+    }
+
+    static class UnkeyableValueException extends RuntimeException {
+    }
+}
@@ -85,7 +85,10 @@ public class Constant implements Value {
         }
     }
 
-    private PrimitiveConstant toPrimitiveConstant() {
+    /**
+     * @return The key this constant's name is looked up with in {@link ShaderCompiler#getConstantNames()}
+     */
+    public PrimitiveConstant toPrimitiveConstant() {
         return new PrimitiveConstant(
                 this.value,
                 ASMUtil.isPrimitive(this.getType())
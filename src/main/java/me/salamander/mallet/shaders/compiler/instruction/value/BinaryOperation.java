@@ -317,15 +317,9 @@ public class BinaryOperation implements Value {
                 Number leftNum = (Number) left;
                 Number rightNum = (Number) right;
 
-                if (leftNum instanceof Long || rightNum instanceof Long) {
-                    return Long.compare(leftNum.longValue(), rightNum.longValue());
-                } else if (leftNum instanceof Float || rightNum instanceof Float) {
-                    return Float.compare(leftNum.floatValue(), rightNum.floatValue());
-                } else if (leftNum instanceof Double || rightNum instanceof Double) {
-                    return Double.compare(leftNum.doubleValue(), rightNum.doubleValue());
-                } else {
-                    return Integer.compare(leftNum.intValue(), rightNum.intValue());
-                }
+                //Like lcmp and fcmpg/dcmpg, so NaN compares greater and -0.0 is equal to 0.0
+                int result = compare(leftNum, rightNum);
+                return result == UNORDERED ? 1 : result;
             }
 
             @Override
@@ -346,49 +340,45 @@ public class BinaryOperation implements Value {
         Op LT = new ComparisonOp("<"){
             @Override
             public Object apply(Object left, Object right) {
-                Number leftNum = (Number) left;
-                Number rightNum = (Number) right;
-
-                return leftNum.doubleValue() < rightNum.doubleValue();
+                int result = compare((Number) left, (Number) right);
+                return result < 0;
             }
         };
         Op LE = new ComparisonOp("<="){
             @Override
             public Object apply(Object left, Object right) {
-                Number leftNum = (Number) left;
-                Number rightNum = (Number) right;
-
-                return leftNum.doubleValue() <= rightNum.doubleValue();
+                int result = compare((Number) left, (Number) right);
+                return result <= 0;
             }
         };
         Op GT = new ComparisonOp(">"){
             @Override
             public Object apply(Object left, Object right) {
-                Number leftNum = (Number) left;
-                Number rightNum = (Number) right;
-
-                return leftNum.doubleValue() > rightNum.doubleValue();
+                int result = compare((Number) left, (Number) right);
+                return result > 0 && result != UNORDERED;
             }
         };
         Op GE = new ComparisonOp(">="){
             @Override
             public Object apply(Object left, Object right) {
-                Number leftNum = (Number) left;
-                Number rightNum = (Number) right;
-
-                return leftNum.doubleValue() >= rightNum.doubleValue();
+                int result = compare((Number) left, (Number) right);
+                return result >= 0 && result != UNORDERED;
             }
         };
         Op EQ = new ComparisonOp("=="){
             @Override
             public Object apply(Object left, Object right) {
+                if (left instanceof Number leftNum && right instanceof Number rightNum) {
+                    return compare(leftNum, rightNum) == 0;
+                }
+
                 return left.equals(right);
             }
         };
         Op NE = new ComparisonOp("!="){
             @Override
             public Object apply(Object left, Object right) {
-                return !left.equals(right);
+                return !((Boolean) EQ.apply(left, right));
             }
         };
 
@@ -418,6 +408,30 @@ public class BinaryOperation implements Value {
         void writeGLSL(StringBuilder sb, Value left, Value right, MalletContext ctx, ShaderCompiler shaderCompiler);
     }
 
+    /**
+     * Returned by {@link #compare(Number, Number)} if either number is NaN
+     */
+    private static final int UNORDERED = 2;
+
+    /**
+     * Compares two numbers of the same type the way the JVM does, so longs are compared exactly and -0.0 is equal to 0.0
+     * @return -1, 0 or 1, or {@link #UNORDERED} if either number is NaN
+     */
+    private static int compare(Number left, Number right) {
+        if (left instanceof Double || left instanceof Float) {
+            double leftDouble = left.doubleValue();
+            double rightDouble = right.doubleValue();
+
+            if (Double.isNaN(leftDouble) || Double.isNaN(rightDouble)) {
+                return UNORDERED;
+            }
+
+            return leftDouble < rightDouble ? -1 : (leftDouble > rightDouble ? 1 : 0);
+        }
+
+        return Long.compare(left.longValue(), right.longValue());
+    }
+
     private abstract static class NumberOp implements Op{
         private final String name;
 
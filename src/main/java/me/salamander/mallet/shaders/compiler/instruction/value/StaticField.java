@@ -125,7 +125,7 @@ public class StaticField implements Location, Value {
     private void getField() {
         if (cachedField == null) {
             try {
-                Class<?> clazz = Class.forName(fieldOwner.getClassName());
+                Class<?> clazz = shaderCompiler.getGlobalContext().loadClass(fieldOwner.getClassName());
                 Field field = null;
                 while (field == null && clazz != null) {
                     try {
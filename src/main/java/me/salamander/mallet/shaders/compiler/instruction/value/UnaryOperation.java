@@ -9,6 +9,7 @@ import me.salamander.mallet.util.ASMUtil;
 import me.salamander.mallet.util.Util;
 import org.objectweb.asm.Type;
 
+import java.lang.reflect.Array;
 import java.util.List;
 import java.util.function.Function;
 
@@ -109,6 +110,11 @@ public class UnaryOperation implements Value{
                 return Type.INT_TYPE;
             }
 
+            @Override
+            public Object apply(Object value) {
+                return Array.getLength(value);
+            }
+
             @Override
             public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
                 if (value instanceof Constant cst) {
@@ -132,6 +138,11 @@ public class UnaryOperation implements Value{
                 return type;
             }
 
+            @Override
+            public Object apply(Object value) {
+                return !((Boolean) value);
+            }
+
             @Override
             public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
                 sb.append("!");
@@ -156,6 +167,26 @@ public class UnaryOperation implements Value{
         Type getResultingType(Type type);
         void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler);
 
+        /**
+         * Evaluates the operation on a known value with the same semantics as Java
+         * @throws ClassCastException If the operation is a cast that fails
+         */
+        Object apply(Object value);
+
+        /**
+         * Loads the class of an object or array type for evaluating casts and instanceof
+         */
+        private static Class<?> loadClass(Type type) {
+            //Class.forName wants array types in their descriptor form
+            String name = type.getSort() == Type.ARRAY ? type.getDescriptor().replace('/', '.') : type.getClassName();
+
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Could not load " + type.getClassName(), e);
+            }
+        }
+
         public class CheckCastOp implements Op {
             private final Type type;
 
@@ -173,6 +204,12 @@ public class UnaryOperation implements Value{
                 return type;
             }
 
+            @Override
+            public Object apply(Object value) {
+                //Like Java, null can be cast to anything
+                return value == null ? null : loadClass(type).cast(value);
+            }
+
             @Override
             public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
                 sb.append("make_cast_").append(Util.removeSpecial(type.getClassName())).append("(");
@@ -211,6 +248,11 @@ public class UnaryOperation implements Value{
                 return Type.BOOLEAN_TYPE;
             }
 
+            @Override
+            public Object apply(Object value) {
+                return loadClass(type).isInstance(value);
+            }
+
             @Override
             public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
                 sb.append("instanceof_").append(Util.removeSpecial(type.getClassName())).append("(");
@@ -242,6 +284,19 @@ public class UnaryOperation implements Value{
             return type;
         }
 
+        @Override
+        public Object apply(Object value) {
+            if (value instanceof Double d) {
+                return -d;
+            } else if (value instanceof Float f) {
+                return -f;
+            } else if (value instanceof Long l) {
+                return -l;
+            } else {
+                return -((Number) value).intValue();
+            }
+        }
+
         @Override
         public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
             sb.append(name);
@@ -273,6 +328,19 @@ public class UnaryOperation implements Value{
             return resultType;
         }
 
+        @Override
+        public Object apply(Object value) {
+            Number number = (Number) value;
+
+            return switch (resultType.getSort()) {
+                case Type.INT -> number.intValue();
+                case Type.LONG -> number.longValue();
+                case Type.FLOAT -> number.floatValue();
+                case Type.DOUBLE -> number.doubleValue();
+                default -> throw new IllegalStateException("Unknown number type: " + resultType);
+            };
+        }
+
         @Override
         public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
             sb.append(name);
@@ -307,6 +375,11 @@ public class UnaryOperation implements Value{
             return Type.BOOLEAN_TYPE;
         }
 
+        @Override
+        public Object apply(Object value) {
+            return (value == null) != inverted;
+        }
+
         @Override
         public void writeGLSL(StringBuilder sb, Value value, MalletContext context, ShaderCompiler shaderCompiler) {
             if (inverted) {
@@ -0,0 +1,58 @@
+package me.salamander.mallet.shaders.compiler.metrics;
+
+import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+/**
+ * Gets notified about what the {@link me.salamander.mallet.shaders.compiler.ShaderCompiler} is doing. All methods do
+ * nothing by default.
+ * <br><br>
+ * Methods may be compiled in parallel, so implementations must be thread-safe. Allocations are measured on the thread
+ * that ran the phase.
+ */
+public interface CompilerListener {
+    CompilerListener NONE = new CompilerListener() {
+    };
+
+    /**
+     * @param shader The main class of the shader being compiled
+     * @param method The method the phase ran on, or null if it ran on the whole shader
+     * @param nanos The wall time the phase took
+     * @param allocatedBytes The bytes allocated during the phase, or 0 if the JVM can't measure it
+     */
+    default void phaseFinished(Type shader, @Nullable MethodInvocation method, CompilerPhase phase, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * Called when a dataflow analysis reached its fixpoint
+     * @param analysis The name of the analysis
+     * @param iterations How many times blocks (or AST nodes) were evaluated before the fixpoint was reached
+     */
+    default void fixpointFinished(Type shader, MethodInvocation method, String analysis, int iterations, long nanos, long allocatedBytes) {
+    }
+
+    /**
+     * Called after a method has been decompiled, before any constants get inlined into it. The AST must not be modified.
+     */
+    default void methodDecompiled(Type shader, MethodInvocation method, ASTNode ast) {
+    }
+
+    /**
+     * Called after calls to small methods have been inlined. Sizes are measured with
+     * {@link me.salamander.mallet.shaders.compiler.optimize.MethodInliner#size(ASTNode)} and include main
+     * @param inlinedCalls How many calls were replaced by the body of the method they call
+     * @param methodsBefore How many methods (not counting main) were reachable before inlining
+     * @param methodsAfter How many methods are still reachable and get emitted
+     */
+    default void methodsInlined(Type shader, int inlinedCalls, int methodsBefore, int methodsAfter, int sizeBefore, int sizeAfter) {
+    }
+
+    /**
+     * Called once the GLSL of a shader has been produced. This isn't called when the GLSL came from the
+     * {@link me.salamander.mallet.shaders.compiler.cache.ShaderCache}
+     */
+    default void shaderCompiled(Type shader, long nanos, long allocatedBytes) {
+    }
+}
@@ -0,0 +1,243 @@
+package me.salamander.mallet.shaders.compiler.metrics;
+
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link CompilerListener} that adds up everything it is told about, per shader and per method, and can print a summary.
+ * One instance can be shared by every compiler of a context.
+ */
+public class CompilerMetrics implements CompilerListener {
+    private final Map<Type, ShaderMetrics> shaders = new ConcurrentHashMap<>();
+
+    @Override
+    public void phaseFinished(Type shader, @Nullable MethodInvocation method, CompilerPhase phase, long nanos, long allocatedBytes) {
+        ShaderMetrics shaderMetrics = getShader(shader);
+        shaderMetrics.getPhase(phase).add(nanos, allocatedBytes);
+
+        if (method != null) {
+            shaderMetrics.getMethod(method).getPhase(phase).add(nanos, allocatedBytes);
+        }
+    }
+
+    @Override
+    public void fixpointFinished(Type shader, MethodInvocation method, String analysis, int iterations, long nanos, long allocatedBytes) {
+        getShader(shader).getMethod(method).getFixpoint(analysis).add(iterations, nanos, allocatedBytes);
+    }
+
+    @Override
+    public void shaderCompiled(Type shader, long nanos, long allocatedBytes) {
+        getShader(shader).total.add(nanos, allocatedBytes);
+    }
+
+    private ShaderMetrics getShader(Type shader) {
+        return shaders.computeIfAbsent(shader, k -> new ShaderMetrics());
+    }
+
+    public Map<Type, ShaderMetrics> getShaders() {
+        return Collections.unmodifiableMap(shaders);
+    }
+
+    public void clear() {
+        shaders.clear();
+    }
+
+    /**
+     * @return A human-readable summary of where compile time went
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+
+        List<Type> sortedShaders = new ArrayList<>(shaders.keySet());
+        sortedShaders.sort(Comparator.comparing(Type::getClassName));
+
+        for (Type shader : sortedShaders) {
+            ShaderMetrics shaderMetrics = shaders.get(shader);
+
+            sb.append("Shader ").append(shader.getClassName()).append(": ");
+            shaderMetrics.total.append(sb);
+            sb.append("\n");
+
+            appendPhases(sb, shaderMetrics.phases, "  ");
+
+            //Slowest methods first
+            List<Map.Entry<MethodInvocation, MethodMetrics>> methods = new ArrayList<>(shaderMetrics.methods.entrySet());
+            methods.sort(Comparator.comparingLong((Map.Entry<MethodInvocation, MethodMetrics> e) -> e.getValue().getTotalNanos()).reversed());
+
+            for (Map.Entry<MethodInvocation, MethodMetrics> entry : methods) {
+                MethodInvocation method = entry.getKey();
+                MethodMetrics methodMetrics = entry.getValue();
+
+                sb.append("  Method ").append(method.methodOwner().getClassName()).append('.').append(method.methodName()).append(method.methodDesc());
+                sb.append(": ").append(formatNanos(methodMetrics.getTotalNanos())).append("\n");
+
+                appendPhases(sb, methodMetrics.phases, "    ");
+
+                for (Map.Entry<String, FixpointStats> fixpoint : new TreeMap<>(methodMetrics.fixpoints).entrySet()) {
+                    sb.append("    fixpoint ").append(fixpoint.getKey()).append(": ");
+                    fixpoint.getValue().append(sb);
+                    sb.append("\n");
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendPhases(StringBuilder sb, Map<CompilerPhase, PhaseStats> phases, String indent) {
+        for (CompilerPhase phase : CompilerPhase.values()) {
+            PhaseStats stats = phases.get(phase);
+            if (stats == null) continue;
+
+            sb.append(indent).append(phase).append(": ");
+            stats.append(sb);
+            sb.append("\n");
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + "B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1fKiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1fMiB", bytes / (1024.0 * 1024.0));
+    }
+
+    public static class ShaderMetrics {
+        private final PhaseStats total = new PhaseStats();
+        private final Map<CompilerPhase, PhaseStats> phases = Collections.synchronizedMap(new EnumMap<>(CompilerPhase.class));
+        private final Map<MethodInvocation, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+        private PhaseStats getPhase(CompilerPhase phase) {
+            return phases.computeIfAbsent(phase, k -> new PhaseStats());
+        }
+
+        private MethodMetrics getMethod(MethodInvocation method) {
+            return methods.computeIfAbsent(method, k -> new MethodMetrics());
+        }
+
+        /**
+         * @return The totals of every compilation of the shader
+         */
+        public PhaseStats getTotal() {
+            return total;
+        }
+
+        public Map<CompilerPhase, PhaseStats> getPhases() {
+            return phases;
+        }
+
+        public Map<MethodInvocation, MethodMetrics> getMethods() {
+            return methods;
+        }
+    }
+
+    public static class MethodMetrics {
+        private final Map<CompilerPhase, PhaseStats> phases = Collections.synchronizedMap(new EnumMap<>(CompilerPhase.class));
+        private final Map<String, FixpointStats> fixpoints = new ConcurrentHashMap<>();
+
+        private PhaseStats getPhase(CompilerPhase phase) {
+            return phases.computeIfAbsent(phase, k -> new PhaseStats());
+        }
+
+        private FixpointStats getFixpoint(String analysis) {
+            return fixpoints.computeIfAbsent(analysis, k -> new FixpointStats());
+        }
+
+        public Map<CompilerPhase, PhaseStats> getPhases() {
+            return phases;
+        }
+
+        public Map<String, FixpointStats> getFixpoints() {
+            return fixpoints;
+        }
+
+        public long getTotalNanos() {
+            synchronized (phases) {
+                long total = 0;
+                for (PhaseStats stats : phases.values()) {
+                    total += stats.getNanos();
+                }
+                return total;
+            }
+        }
+    }
+
+    public static class PhaseStats {
+        private long count;
+        private long nanos;
+        private long allocatedBytes;
+
+        private synchronized void add(long nanos, long allocatedBytes) {
+            this.count++;
+            this.nanos += nanos;
+            this.allocatedBytes += allocatedBytes;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getNanos() {
+            return nanos;
+        }
+
+        public synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        private synchronized void append(StringBuilder sb) {
+            sb.append(formatNanos(nanos)).append(", ").append(formatBytes(allocatedBytes)).append(" allocated");
+            if (count != 1) {
+                sb.append(" (").append(count).append(" runs)");
+            }
+        }
+    }
+
+    public static class FixpointStats {
+        private long count;
+        private long iterations;
+        private int maxIterations;
+        private long nanos;
+        private long allocatedBytes;
+
+        private synchronized void add(int iterations, long nanos, long allocatedBytes) {
+            this.count++;
+            this.iterations += iterations;
+            this.maxIterations = Math.max(this.maxIterations, iterations);
+            this.nanos += nanos;
+            this.allocatedBytes += allocatedBytes;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getIterations() {
+            return iterations;
+        }
+
+        public synchronized int getMaxIterations() {
+            return maxIterations;
+        }
+
+        public synchronized long getNanos() {
+            return nanos;
+        }
+
+        public synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        private synchronized void append(StringBuilder sb) {
+            sb.append(count).append(" solves, ").append(iterations).append(" iterations (max ").append(maxIterations).append("), ");
+            sb.append(formatNanos(nanos)).append(", ").append(formatBytes(allocatedBytes)).append(" allocated");
+        }
+    }
+}
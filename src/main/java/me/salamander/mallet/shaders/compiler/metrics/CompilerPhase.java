@@ -0,0 +1,57 @@
+package me.salamander.mallet.shaders.compiler.metrics;
+
+/**
+ * The parts of shader compilation that get measured. Phases that run once per method are reported along with that method.
+ */
+public enum CompilerPhase {
+    /**
+     * Computing the stack frames of the bytecode
+     */
+    BYTECODE_ANALYSIS,
+    /**
+     * Turning the bytecode into intermediary instructions and building the control flow graph
+     */
+    IR_CONSTRUCTION,
+    /**
+     * Inlining values into the instructions that use them (this includes the dataflow analyses it needs)
+     */
+    VALUE_INLINING,
+    /**
+     * Storing expressions that are computed more than once in temporaries (this includes the dataflow analysis it needs)
+     */
+    COMMON_SUBEXPRESSION_ELIMINATION,
+    /**
+     * Removing assignments to variables that are never read
+     */
+    DEAD_ASSIGNMENT_REMOVAL,
+    MUTABILITY_CHECK,
+    /**
+     * Turning the control flow graph into an AST
+     */
+    AST_CONSTRUCTION,
+    CONSTANT_INLINING,
+    /**
+     * Evaluating operations on constants and removing branches that are never taken
+     */
+    CONSTANT_FOLDING,
+    /**
+     * Moving values that don't change between iterations of a loop in front of it
+     */
+    LOOP_INVARIANT_CODE_MOTION,
+    /**
+     * Copying the AST of a method and resolving the types of its arguments
+     */
+    METHOD_PREPARATION,
+    /**
+     * Replacing calls to small methods with their bodies, once every method of the shader has been compiled
+     */
+    METHOD_INLINING,
+    /**
+     * Removing unread assignments, methods that are no longer called and unused globals and constants from the whole shader
+     */
+    DEAD_CODE_ELIMINATION,
+    /**
+     * Writing the GLSL of the whole shader
+     */
+    GLSL_EMISSION
+}
@@ -0,0 +1,50 @@
+package me.salamander.mallet.shaders.compiler.metrics;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the wall time and the memory allocated by the current thread since it was started.
+ */
+public final class PhaseTimer {
+    private static final com.sun.management.ThreadMXBean THREADS = findThreadBean();
+
+    private final long startNanos;
+    private final long startBytes;
+
+    private PhaseTimer() {
+        this.startBytes = currentAllocatedBytes();
+        this.startNanos = System.nanoTime();
+    }
+
+    public static PhaseTimer start() {
+        return new PhaseTimer();
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The bytes allocated by this thread since the timer was started, or 0 if the JVM can't measure it
+     */
+    public long allocatedBytes() {
+        return THREADS == null ? 0 : currentAllocatedBytes() - startBytes;
+    }
+
+    private static long currentAllocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean findThreadBean() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        } catch (UnsupportedOperationException | LinkageError e) {
+            //Not a HotSpot JVM
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import me.salamander.mallet.shaders.compiler.analysis.AnalysisInfo;
+import me.salamander.mallet.shaders.compiler.analysis.AnalysisResults;
+import me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressionsValue;
+import me.salamander.mallet.shaders.compiler.analysis.available.ExpressionNumbering;
+import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
+import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+
+import java.util.*;
+import java.util.function.IntSupplier;
+
+/**
+ * Stores expressions that are computed more than once in temporary variables and reads the variable instead of computing them
+ * again. An expression is only reused where {@link me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressions}
+ * proves that it was computed on every path and that nothing it reads has changed since.
+ * <br><br>
+ * Every place that computes a reused expression first assigns it to the temporary, so the temporary holds the right value no
+ * matter which path was taken. Expressions that are only evaluated conditionally (the right side of {@code &&} and {@code ||})
+ * are replaced when they are available but never stored.
+ */
+public class CommonSubexpressionEliminator {
+    private final ExpressionNumbering numbering;
+    private final AnalysisResults<AvailableExpressionsValue> available;
+    private final Set<BasicBlock> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final int[] temporaries;
+
+    //State for the instruction being rewritten
+    private AvailableExpressionsValue availableBefore;
+    private boolean callsMethod;
+    private final BitSet stored = new BitSet();
+    private final List<Instruction> stores = new ArrayList<>();
+    private int replaced;
+
+    private CommonSubexpressionEliminator(IntermediaryCFG cfg, ExpressionNumbering numbering, AnalysisResults<AvailableExpressionsValue> available) {
+        this.numbering = numbering;
+        this.available = available;
+        this.temporaries = new int[numbering.size()];
+        Arrays.fill(temporaries, -1);
+
+        //Everything is available in unreachable blocks, but no temporary has been assigned there
+        cfg.getStartBlock().getAll(reachable);
+    }
+
+    /**
+     * @param available The results of {@link me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressions}
+     *                  over {@code cfg}
+     * @param tempVars Gives the index of each new temporary variable
+     * @return How many times an expression was replaced by a temporary instead of being computed
+     */
+    public static int eliminate(IntermediaryCFG cfg, ExpressionNumbering numbering, AnalysisResults<AvailableExpressionsValue> available, IntSupplier tempVars) {
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(cfg, numbering, available);
+
+        if (!eliminator.findReused(cfg, tempVars)) {
+            return 0;
+        }
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (eliminator.shouldRewrite(block)) {
+                eliminator.rewrite(block);
+            }
+        }
+
+        return eliminator.replaced;
+    }
+
+    private boolean shouldRewrite(BasicBlock block) {
+        return !block.getInstructions().isEmpty() && reachable.contains(block);
+    }
+
+    /**
+     * Gives a temporary to every expression that is either available somewhere it is used or used twice by one instruction
+     * @return Whether any expression is reused
+     */
+    private boolean findReused(IntermediaryCFG cfg, IntSupplier tempVars) {
+        BitSet reused = new BitSet();
+        int[] uses = new int[numbering.size()];
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (!shouldRewrite(block)) continue;
+
+            AnalysisInfo<AvailableExpressionsValue> info = available.getBlocks().get(block);
+            List<Instruction> instructions = block.getInstructions();
+
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                AvailableExpressionsValue availableHere = info.in[i];
+                boolean callsMethodHere = ExpressionNumbering.callsMethod(instruction);
+                Arrays.fill(uses, 0);
+
+                ExpressionNumbering.visitExpressions(instruction, (value, conditional) -> {
+                    int index = numbering.indexOf(value);
+                    if (index == -1 || !numbering.isUsable(index, callsMethodHere)) return;
+
+                    if (availableHere.contains(index) || (!conditional && ++uses[index] == 2)) {
+                        reused.set(index);
+                    }
+                });
+            }
+        }
+
+        for (int index = reused.nextSetBit(0); index != -1; index = reused.nextSetBit(index + 1)) {
+            temporaries[index] = tempVars.getAsInt();
+        }
+
+        return !reused.isEmpty();
+    }
+
+    private void rewrite(BasicBlock block) {
+        AnalysisInfo<AvailableExpressionsValue> info = available.getBlocks().get(block);
+        List<Instruction> instructions = block.getInstructions();
+        List<Instruction> newInstructions = new ArrayList<>(instructions.size());
+
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+
+            availableBefore = info.in[i];
+            callsMethod = ExpressionNumbering.callsMethod(instruction);
+            stored.clear();
+            stores.clear();
+            int replacedBefore = replaced;
+
+            Instruction newInstruction = instruction.visitAndReplace(value -> rewrite(value, false), loc -> loc);
+
+            newInstructions.addAll(stores);
+            newInstructions.add(replaced == replacedBefore && stores.isEmpty() ? instruction : newInstruction);
+        }
+
+        block.setInstructions(newInstructions);
+    }
+
+    private Value rewrite(Value value, boolean conditional) {
+        int index = numbering.indexOf(value);
+
+        if (index != -1 && temporaries[index] != -1 && numbering.isUsable(index, callsMethod)) {
+            if (availableBefore.contains(index) || stored.get(index)) {
+                replaced++;
+                return temporary(index);
+            }
+
+            if (!conditional) {
+                stores.add(new AssignmentInstruction(temporary(index), rewriteInner(value, false)));
+                stored.set(index);
+                return temporary(index);
+            }
+        }
+
+        return rewriteInner(value, conditional);
+    }
+
+    private Value rewriteInner(Value value, boolean conditional) {
+        if (value instanceof UnaryOperation unary) {
+            return new UnaryOperation(rewrite(unary.getArg(), conditional), unary.getOp());
+        } else if (value instanceof BinaryOperation binary) {
+            boolean shortCircuit = binary.getOp() == BinaryOperation.Op.BOOLEAN_AND || binary.getOp() == BinaryOperation.Op.BOOLEAN_OR;
+            return new BinaryOperation(rewrite(binary.getLeft(), conditional), rewrite(binary.getRight(), conditional || shortCircuit), binary.getOp());
+        }
+
+        return value.copyValue(inner -> rewrite(inner, conditional));
+    }
+
+    private Variable temporary(int index) {
+        return new Variable(numbering.get(index).getType(), temporaries[index], VariableType.SYNTHETIC);
+    }
+}
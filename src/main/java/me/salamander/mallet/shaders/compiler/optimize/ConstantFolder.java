@@ -0,0 +1,403 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.constant.Constant;
+import me.salamander.mallet.shaders.compiler.instruction.Conditions;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evaluates operations whose operands are known at compile time and removes operations that don't change their operand (like
+ * {@code x * 1}). Branches whose condition becomes a literal are replaced by the branch that is taken.
+ * <br><br>
+ * Everything is evaluated with the semantics of Java, so integer arithmetic wraps and shift distances are masked. Operations are
+ * left alone if folding them would throw (integer division by zero) or produce a value that can't be written as a literal (NaN or
+ * infinity). Operands are only dropped if they don't call a method.
+ */
+public class ConstantFolder {
+    /**
+     * @return A folded copy of the tree. The given tree isn't modified
+     */
+    public static ASTNode fold(ASTNode node) {
+        if (node instanceof MethodASTNode method) {
+            return new MethodASTNode(foldBody(method.getBody()));
+        } else if (node instanceof IfASTNode ifNode) {
+            return new IfASTNode(foldBody(ifNode.getBody()), fold(ifNode.getCondition()));
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            return new IfElseASTNode(foldBody(ifElseNode.getIfTrue()), foldBody(ifElseNode.getIfFalse()), fold(ifElseNode.getCondition()));
+        } else if (node instanceof LoopASTNode loop) {
+            LoopASTNode copy = new LoopASTNode(loop.getLabel(), foldBody(loop.getBody()), fold(loop.getCondition()));
+            copy.setNeedsLabel(loop.needsLabel());
+            return copy;
+        } else if (node instanceof LabelledBlockASTNode block) {
+            LabelledBlockASTNode copy = new LabelledBlockASTNode(block.getLabel(), foldBody(block.getBody()));
+            copy.setNeedsLabel(block.needsLabel());
+            return copy;
+        } else if (node instanceof InstructionASTNode insnNode) {
+            return new InstructionASTNode(fold(insnNode.getInstruction()));
+        } else if (node instanceof ReturnASTNode returnNode) {
+            return new ReturnASTNode(returnNode.getReturnValue() == null ? null : fold(returnNode.getReturnValue()));
+        }
+
+        //Break and continue don't hold any values
+        return node;
+    }
+
+    public static Instruction fold(Instruction instruction) {
+        return instruction.visitAndReplace(ConstantFolder::fold, loc -> (Location) loc.copyValue(ConstantFolder::fold));
+    }
+
+    /**
+     * Folds a value bottom-up
+     * @return A folded copy of the value
+     */
+    public static Value fold(Value value) {
+        if (value instanceof Constant) {
+            //The original value of a constant is only kept for its type
+            return value;
+        } else if (value instanceof UnaryOperation unary) {
+            //UnaryOperation.copyValue doesn't pass its argument itself to the copier
+            return foldUnary(new UnaryOperation(fold(unary.getArg()), unary.getOp()));
+        } else if (value instanceof BinaryOperation binary) {
+            return foldBinary(new BinaryOperation(fold(binary.getLeft()), fold(binary.getRight()), binary.getOp()));
+        }
+
+        return value.copyValue(ConstantFolder::fold);
+    }
+
+    /**
+     * Folds every node in a body and splices in the taken branch of ifs with a literal condition. Branches that end up empty
+     * because of that are removed too
+     */
+    private static List<ASTNode> foldBody(List<ASTNode> body) {
+        List<ASTNode> folded = new ArrayList<>(body.size());
+
+        for (ASTNode node : body) {
+            ASTNode foldedNode = fold(node);
+
+            if (foldedNode instanceof IfASTNode ifNode && ifNode.getCondition() instanceof LiteralValue condition) {
+                if ((boolean) condition.getValue()) {
+                    folded.addAll(ifNode.getBody());
+                }
+            } else if (foldedNode instanceof IfElseASTNode ifElseNode && ifElseNode.getCondition() instanceof LiteralValue condition) {
+                folded.addAll((boolean) condition.getValue() ? ifElseNode.getIfTrue() : ifElseNode.getIfFalse());
+            } else if (foldedNode instanceof LoopASTNode loop && loop.getCondition() instanceof LiteralValue condition && !((boolean) condition.getValue())) {
+                //The condition is checked before the first iteration so the body never runs
+            } else {
+                ASTNode pruned = removeEmptyBranches(foldedNode);
+                if (pruned != null) {
+                    folded.add(pruned);
+                }
+            }
+        }
+
+        return folded;
+    }
+
+    /**
+     * The analyses don't allow empty bodies, which are left behind when every node of a branch was removed
+     * @return The node without its empty branches, or null if nothing of it is left
+     */
+    private static @Nullable ASTNode removeEmptyBranches(ASTNode node) {
+        if (node instanceof IfASTNode ifNode && ifNode.getBody().isEmpty()) {
+            return dropBranch(ifNode.getCondition(), node);
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            boolean trueEmpty = ifElseNode.getIfTrue().isEmpty();
+            boolean falseEmpty = ifElseNode.getIfFalse().isEmpty();
+
+            if (trueEmpty && falseEmpty) {
+                return dropBranch(ifElseNode.getCondition(), node);
+            } else if (falseEmpty) {
+                return new IfASTNode(ifElseNode.getIfTrue(), ifElseNode.getCondition());
+            } else if (trueEmpty) {
+                return new IfASTNode(ifElseNode.getIfFalse(), Conditions.invert(ifElseNode.getCondition()));
+            }
+        } else if (node instanceof LabelledBlockASTNode block && block.getBody().isEmpty()) {
+            //Nothing can break out of an empty block
+            return null;
+        }
+
+        return node;
+    }
+
+    /**
+     * @return What is left of a branch with nothing in it. The condition still has to be evaluated if it calls a method
+     */
+    private static @Nullable ASTNode dropBranch(Value condition, ASTNode node) {
+        if (hasNoSideEffects(condition)) {
+            return null;
+        } else if (condition instanceof MethodCallValue call) {
+            return new InstructionASTNode(new MethodCallInstruction(call.getMethodCall()));
+        }
+
+        return node;
+    }
+
+    private static Value foldUnary(UnaryOperation operation) {
+        UnaryOperation.Op op = operation.getOp();
+        Value arg = operation.getArg();
+
+        Object value = getLiteral(arg);
+        if (value != null && (op == UnaryOperation.Op.NOT || isArithmetic(op))) {
+            Value literal = makeLiteral(operation.getType(), op.apply(value));
+            if (literal != null) {
+                return literal;
+            }
+        }
+
+        if ((op == UnaryOperation.Op.NOT || op == UnaryOperation.Op.NEG) && arg instanceof UnaryOperation inner && inner.getOp() == op) {
+            return inner.getArg();
+        }
+
+        if (isConversion(op) && arg.getType().equals(operation.getType())) {
+            return arg;
+        }
+
+        return operation;
+    }
+
+    private static Value foldBinary(BinaryOperation operation) {
+        BinaryOperation.Op op = operation.getOp();
+        Value left = operation.getLeft();
+        Value right = operation.getRight();
+
+        Object leftValue = getLiteral(left);
+        Object rightValue = getLiteral(right);
+
+        if (leftValue != null && rightValue != null && canEvaluate(op, leftValue, rightValue)) {
+            Value literal = makeLiteral(operation.getType(), op.apply(leftValue, rightValue));
+            if (literal != null) {
+                return literal;
+            }
+        }
+
+        Value simplified = null;
+        if (op == BinaryOperation.Op.BOOLEAN_AND || op == BinaryOperation.Op.BOOLEAN_OR) {
+            simplified = simplifyBoolean(op, left, leftValue, right, rightValue);
+        } else if (isIntegral(operation.getType())) {
+            simplified = simplifyIntegral(operation, leftValue, rightValue);
+        } else if (isFloating(operation.getType())) {
+            simplified = simplifyFloating(operation, leftValue, rightValue);
+        }
+
+        if (simplified != null) {
+            return simplified;
+        }
+
+        //Still turn cmp(a, b) < 0 into a < b
+        Value cmpSimplified = operation.trySimplify();
+        return cmpSimplified == null ? operation : cmpSimplified;
+    }
+
+    private static boolean canEvaluate(BinaryOperation.Op op, Object left, Object right) {
+        if (op == BinaryOperation.Op.BOOLEAN_AND || op == BinaryOperation.Op.BOOLEAN_OR) {
+            return left instanceof Boolean && right instanceof Boolean;
+        } else if (op == BinaryOperation.Op.EQ || op == BinaryOperation.Op.NE) {
+            return left.getClass() == right.getClass();
+        } else if (!(left instanceof Number) || !(right instanceof Number)) {
+            return false;
+        } else if (op == BinaryOperation.Op.DIV || op == BinaryOperation.Op.REM) {
+            //Throws an ArithmeticException at runtime in Java
+            return !((left instanceof Integer || left instanceof Long) && ((Number) right).longValue() == 0);
+        } else if (op == BinaryOperation.Op.CMP) {
+            //Whether NaN compares as greater or less depends on the instruction the comparison came from, which isn't kept
+            return !isNaN(left) && !isNaN(right);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes identities on ints and longs. Operations that make their other operand irrelevant (like {@code x * 0}) only fold if
+     * that operand has no side effects.
+     */
+    private static @Nullable Value simplifyIntegral(BinaryOperation operation, @Nullable Object leftValue, @Nullable Object rightValue) {
+        BinaryOperation.Op op = operation.getOp();
+        Value left = operation.getLeft();
+        Value right = operation.getRight();
+        Type type = operation.getType();
+
+        if (op == BinaryOperation.Op.ADD || op == BinaryOperation.Op.OR || op == BinaryOperation.Op.XOR) {
+            if (isInteger(leftValue, 0)) return right;
+            if (isInteger(rightValue, 0)) return left;
+        } else if (op == BinaryOperation.Op.SUB) {
+            if (isInteger(rightValue, 0)) return left;
+        } else if (op == BinaryOperation.Op.MUL) {
+            if (isInteger(leftValue, 1)) return right;
+            if (isInteger(rightValue, 1)) return left;
+            if (isInteger(leftValue, 0) && hasNoSideEffects(right)) return left;
+            if (isInteger(rightValue, 0) && hasNoSideEffects(left)) return right;
+        } else if (op == BinaryOperation.Op.DIV) {
+            if (isInteger(rightValue, 1)) return left;
+        } else if (op == BinaryOperation.Op.REM) {
+            if (isInteger(rightValue, 1) && hasNoSideEffects(left)) return makeLiteral(type, type.getSort() == Type.LONG ? (Object) 0L : (Object) 0);
+        } else if (op == BinaryOperation.Op.AND) {
+            if (isInteger(leftValue, -1)) return right;
+            if (isInteger(rightValue, -1)) return left;
+            if (isInteger(leftValue, 0) && hasNoSideEffects(right)) return left;
+            if (isInteger(rightValue, 0) && hasNoSideEffects(left)) return right;
+        } else if (op == BinaryOperation.Op.SHL || op == BinaryOperation.Op.SHR || op == BinaryOperation.Op.USHR) {
+            //Only the low bits of the distance are used
+            long mask = type.getSort() == Type.LONG ? 0x3F : 0x1F;
+            if (rightValue instanceof Number distance && (distance.longValue() & mask) == 0) return left;
+            if (isInteger(leftValue, 0) && hasNoSideEffects(right)) return left;
+        }
+
+        return null;
+    }
+
+    /**
+     * Only removes identities that hold for every float including NaN and -0.0, so {@code x + 0.0} and {@code x * 0.0} are kept
+     */
+    private static @Nullable Value simplifyFloating(BinaryOperation operation, @Nullable Object leftValue, @Nullable Object rightValue) {
+        BinaryOperation.Op op = operation.getOp();
+        Value left = operation.getLeft();
+        Value right = operation.getRight();
+
+        if (op == BinaryOperation.Op.MUL) {
+            if (isExactly(leftValue, 1.0)) return right;
+            if (isExactly(rightValue, 1.0)) return left;
+        } else if (op == BinaryOperation.Op.DIV) {
+            if (isExactly(rightValue, 1.0)) return left;
+        } else if (op == BinaryOperation.Op.ADD) {
+            if (isExactly(leftValue, -0.0)) return right;
+            if (isExactly(rightValue, -0.0)) return left;
+        } else if (op == BinaryOperation.Op.SUB) {
+            if (isExactly(rightValue, 0.0)) return left;
+        }
+
+        return null;
+    }
+
+    private static @Nullable Value simplifyBoolean(BinaryOperation.Op op, Value left, @Nullable Object leftValue, Value right, @Nullable Object rightValue) {
+        //The value that makes the other operand irrelevant
+        boolean absorbing = op == BinaryOperation.Op.BOOLEAN_OR;
+
+        if (leftValue instanceof Boolean b) {
+            //The right operand isn't evaluated in this case so it can be dropped even if it has side effects
+            return b == absorbing ? left : right;
+        }
+
+        if (rightValue instanceof Boolean b) {
+            if (b != absorbing) {
+                return left;
+            } else if (hasNoSideEffects(left)) {
+                return right;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The value of a literal or a primitive constant, as a Boolean, Integer, Long, Float or Double depending on its type.
+     * {@code null} if the value isn't known
+     */
+    private static @Nullable Object getLiteral(Value value) {
+        Object raw;
+        if (value instanceof LiteralValue literal) {
+            raw = literal.getValue();
+        } else if (value instanceof Constant cst && cst.getType().getSort() <= Type.DOUBLE) {
+            raw = cst.getValue();
+        } else {
+            return null;
+        }
+
+        if (raw instanceof Character c) {
+            raw = (int) c;
+        }
+
+        return switch (value.getType().getSort()) {
+            case Type.BOOLEAN -> raw instanceof Boolean b ? b : (raw instanceof Number n ? n.intValue() != 0 : null);
+            case Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> raw instanceof Boolean b ? (b ? 1 : 0) : (raw instanceof Number n ? n.intValue() : null);
+            case Type.LONG -> raw instanceof Number n ? n.longValue() : null;
+            case Type.FLOAT -> raw instanceof Number n ? n.floatValue() : null;
+            case Type.DOUBLE -> raw instanceof Number n ? n.doubleValue() : null;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return A literal holding {@code value}, or {@code null} if it can't be written in GLSL
+     */
+    private static @Nullable LiteralValue makeLiteral(Type type, Object value) {
+        if (value instanceof Float f && (f.isNaN() || f.isInfinite())) {
+            return null;
+        } else if (value instanceof Double d && (d.isNaN() || d.isInfinite())) {
+            return null;
+        }
+
+        return switch (type.getSort()) {
+            case Type.BOOLEAN -> new LiteralValue(Type.BOOLEAN_TYPE, value);
+            case Type.INT -> new LiteralValue(Type.INT_TYPE, value);
+            case Type.LONG -> new LiteralValue(Type.LONG_TYPE, value);
+            case Type.FLOAT -> new LiteralValue(Type.FLOAT_TYPE, value);
+            case Type.DOUBLE -> new LiteralValue(Type.DOUBLE_TYPE, value);
+            default -> null;
+        };
+    }
+
+    /**
+     * @return Whether {@code value} doesn't call any methods. Reading variables, fields and array elements is fine
+     */
+    private static boolean hasNoSideEffects(Value value) {
+        if (value instanceof MethodCallValue) {
+            return false;
+        } else if (value instanceof Constant || value instanceof LiteralValue) {
+            return true;
+        } else if (value instanceof UnaryOperation unary) {
+            return hasNoSideEffects(unary.getArg());
+        }
+
+        boolean[] pure = {true};
+        value.copyValue(inner -> {
+            pure[0] &= hasNoSideEffects(inner);
+            return inner;
+        });
+
+        return pure[0];
+    }
+
+    private static boolean isArithmetic(UnaryOperation.Op op) {
+        return op == UnaryOperation.Op.NEG || isConversion(op);
+    }
+
+    private static boolean isConversion(UnaryOperation.Op op) {
+        return op == UnaryOperation.Op.TO_INT || op == UnaryOperation.Op.TO_LONG || op == UnaryOperation.Op.TO_FLOAT || op == UnaryOperation.Op.TO_DOUBLE;
+    }
+
+    private static boolean isIntegral(Type type) {
+        return type.getSort() == Type.INT || type.getSort() == Type.LONG;
+    }
+
+    private static boolean isFloating(Type type) {
+        return type.getSort() == Type.FLOAT || type.getSort() == Type.DOUBLE;
+    }
+
+    private static boolean isNaN(Object value) {
+        return (value instanceof Float f && f.isNaN()) || (value instanceof Double d && d.isNaN());
+    }
+
+    /**
+     * Compares bit patterns so that 0.0 and -0.0 are told apart
+     */
+    private static boolean isExactly(@Nullable Object value, double expected) {
+        if (value instanceof Float f) {
+            return Float.floatToIntBits(f) == Float.floatToIntBits((float) expected);
+        } else if (value instanceof Double d) {
+            return Double.doubleToLongBits(d) == Double.doubleToLongBits(expected);
+        }
+
+        return false;
+    }
+
+    private static boolean isInteger(@Nullable Object value, long expected) {
+        return (value instanceof Integer || value instanceof Long) && ((Number) value).longValue() == expected;
+    }
+}
@@ -0,0 +1,222 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import me.salamander.mallet.shaders.compiler.CompiledMethod;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.constant.Constant;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Conditions;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Removes assignments to variables that are never read anywhere in a method. This runs once every method of the shader has been
+ * compiled and inlined, since inlining and constant folding leave behind assignments (to argument temporaries for example) that the
+ * decompiler's dead assignment removal never saw.
+ * <br><br>
+ * Unlike the decompiler's pass this doesn't look at control flow, so a variable that is read somewhere keeps all of its
+ * assignments. Removing an assignment can leave the variables it read unread, so this is repeated until nothing changes.
+ * Assignments whose value calls a method that mutates something (according to
+ * {@link ShaderCompiler#getMutatedArgs(MethodInvocation)}) and assignments to {@code out} arguments are always kept.
+ * Branches that end up empty are removed along with their condition, unless evaluating it mutates something.
+ */
+public class DeadCodeEliminator {
+    private final ShaderCompiler shaderCompiler;
+    private final Map<MethodInvocation, IntList> mutatedArgs = new HashMap<>();
+
+    private final Set<Variable> protectedVars = new HashSet<>();
+    private final Set<Variable> read = new HashSet<>();
+    private int removed;
+
+    private DeadCodeEliminator(ShaderCompiler shaderCompiler) {
+        this.shaderCompiler = shaderCompiler;
+    }
+
+    /**
+     * Replaces the root of {@code method} if anything was removed
+     * @return How many assignments were removed
+     */
+    public static int eliminate(CompiledMethod method, ShaderCompiler shaderCompiler) {
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(shaderCompiler);
+
+        boolean[] outArguments = method.getOutArguments();
+        for (int i = 0; i < outArguments.length; i++) {
+            if (outArguments[i]) {
+                eliminator.protectedVars.add(new Variable(method.getArgumentTypes()[i], method.getArgumentIndices()[i], VariableType.LOCAL));
+            }
+        }
+
+        ASTNode root = method.getRoot();
+        while (true) {
+            int removedBefore = eliminator.removed;
+
+            eliminator.read.clear();
+            root.visitTree(eliminator::findReads);
+
+            ASTNode newRoot = eliminator.rebuild(root);
+            if (eliminator.removed == removedBefore) break;
+
+            root = newRoot;
+        }
+
+        if (eliminator.removed > 0) {
+            method.setRoot(root);
+        }
+
+        return eliminator.removed;
+    }
+
+    private void findReads(ASTNode node) {
+        Consumer<Value> reader = value -> forEachValue(value, inner -> {
+            if (inner instanceof Variable var) {
+                read.add(var);
+            }
+        });
+
+        node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(value -> {
+                    reader.accept(value);
+                    return value;
+                }, loc -> {
+                    //Writing a field or an element reads the object or array it belongs to
+                    if (!(loc instanceof Variable)) {
+                        reader.accept(loc);
+                    }
+                    return loc;
+                }),
+                value -> {
+                    reader.accept(value);
+                    return value;
+                }
+        );
+    }
+
+    private ASTNode rebuild(ASTNode node) {
+        if (node instanceof MethodASTNode method) {
+            return new MethodASTNode(rebuildAll(method.getBody()));
+        } else if (node instanceof IfASTNode ifNode) {
+            return new IfASTNode(rebuildAll(ifNode.getBody()), ifNode.getCondition());
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            return new IfElseASTNode(rebuildAll(ifElseNode.getIfTrue()), rebuildAll(ifElseNode.getIfFalse()), ifElseNode.getCondition());
+        } else if (node instanceof LoopASTNode loop) {
+            LoopASTNode copy = new LoopASTNode(loop.getLabel(), rebuildAll(loop.getBody()), loop.getCondition());
+            copy.setNeedsLabel(loop.needsLabel());
+            return copy;
+        } else if (node instanceof LabelledBlockASTNode block) {
+            LabelledBlockASTNode copy = new LabelledBlockASTNode(block.getLabel(), rebuildAll(block.getBody()));
+            copy.setNeedsLabel(block.needsLabel());
+            return copy;
+        }
+
+        return node;
+    }
+
+    private List<ASTNode> rebuildAll(List<ASTNode> body) {
+        List<ASTNode> rebuilt = new ArrayList<>(body.size());
+
+        for (ASTNode node : body) {
+            if (node instanceof InstructionASTNode insnNode && isDead(insnNode.getInstruction())) {
+                removed++;
+                continue;
+            }
+
+            ASTNode rebuiltNode = removeEmptyBranches(rebuild(node));
+            if (rebuiltNode != null) {
+                rebuilt.add(rebuiltNode);
+            }
+        }
+
+        return rebuilt;
+    }
+
+    /**
+     * Removing every assignment in a branch leaves it empty, which the analyses don't allow
+     * @return The node without its empty branches, or null if nothing of it is left
+     */
+    private @Nullable ASTNode removeEmptyBranches(ASTNode node) {
+        if (node instanceof IfASTNode ifNode && ifNode.getBody().isEmpty()) {
+            return dropBranch(ifNode.getCondition(), node);
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            boolean trueEmpty = ifElseNode.getIfTrue().isEmpty();
+            boolean falseEmpty = ifElseNode.getIfFalse().isEmpty();
+
+            if (trueEmpty && falseEmpty) {
+                return dropBranch(ifElseNode.getCondition(), node);
+            } else if (falseEmpty) {
+                return new IfASTNode(ifElseNode.getIfTrue(), ifElseNode.getCondition());
+            } else if (trueEmpty) {
+                return new IfASTNode(ifElseNode.getIfFalse(), Conditions.invert(ifElseNode.getCondition()));
+            }
+        } else if (node instanceof LabelledBlockASTNode block && block.getBody().isEmpty()) {
+            //Nothing can break out of an empty block
+            return null;
+        }
+
+        return node;
+    }
+
+    /**
+     * @return What is left of a branch with nothing in it. The condition is still evaluated if it calls a method that mutates
+     * something
+     */
+    private @Nullable ASTNode dropBranch(Value condition, ASTNode node) {
+        if (!mutates(condition)) {
+            return null;
+        } else if (condition instanceof MethodCallValue call) {
+            return new InstructionASTNode(new MethodCallInstruction(call.getMethodCall()));
+        }
+
+        return node;
+    }
+
+    private boolean isDead(Instruction instruction) {
+        if (!(instruction instanceof AssignmentInstruction assign) || !(assign.getLocation() instanceof Variable var)) {
+            return false;
+        }
+
+        if (read.contains(var) || protectedVars.contains(var)) {
+            return false;
+        }
+
+        return !mutates(assign.getValue());
+    }
+
+    /**
+     * @return Whether evaluating {@code value} calls a method that mutates one of its arguments
+     */
+    private boolean mutates(Value value) {
+        boolean[] mutates = {false};
+        forEachValue(value, inner -> {
+            if (inner instanceof MethodCallValue call) {
+                mutates[0] |= !getMutatedArgs(call.getMethodCall().getInvocation()).isEmpty();
+            }
+        });
+
+        return mutates[0];
+    }
+
+    private IntList getMutatedArgs(MethodInvocation invocation) {
+        return mutatedArgs.computeIfAbsent(invocation, shaderCompiler::getMutatedArgs);
+    }
+
+    private static void forEachValue(Value value, Consumer<Value> consumer) {
+        consumer.accept(value);
+
+        if (value instanceof UnaryOperation unary) {
+            forEachValue(unary.getArg(), consumer);
+        } else if (!(value instanceof Constant)) {
+            value.copyValue(inner -> {
+                forEachValue(inner, consumer);
+                return inner;
+            });
+        }
+    }
+}
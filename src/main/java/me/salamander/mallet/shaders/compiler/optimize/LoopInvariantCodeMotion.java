@@ -0,0 +1,349 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.constant.Constant;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.util.MethodCall;
+import me.salamander.mallet.util.MethodInvocation;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Moves computations whose result is the same on every iteration of a loop in front of the loop. The result is assigned to a
+ * temporary variable which the loop reads instead.
+ * <br><br>
+ * A value is invariant if every variable it reads isn't assigned anywhere in the loop. Field, array and static field reads and
+ * method calls are only invariant if nothing in the loop writes to memory, which includes calling a method that mutates one of
+ * its arguments or the shader's global state according to {@link ShaderCompiler#getMutatedArgs(MethodInvocation)}. Method
+ * calls must not mutate anything themselves.
+ * <br><br>
+ * Moving a value in front of the loop evaluates it even if the loop never runs it. That is harmless for arithmetic, so
+ * arithmetic is moved from anywhere in the loop. Memory reads and method calls could read outside of an array or buffer that
+ * the loop or a branch guards, so they are only moved if they would have been evaluated anyway: from the loop condition (but
+ * not the right side of {@code &&} and {@code ||}), and from the statements at the start of a {@code while (true)} loop
+ * that come before any branch, nested loop or block.
+ * <br><br>
+ * Outer loops are handled first so that a value is moved out of every loop it is invariant in.
+ */
+public class LoopInvariantCodeMotion {
+    private final ShaderCompiler shaderCompiler;
+    private final Map<MethodInvocation, IntList> mutatedArgs = new HashMap<>();
+    private int nextTempVar;
+
+    private LoopInvariantCodeMotion(ShaderCompiler shaderCompiler, int nextTempVar) {
+        this.shaderCompiler = shaderCompiler;
+        this.nextTempVar = nextTempVar;
+    }
+
+    /**
+     * @param root The method to optimize. It isn't modified
+     * @return A copy of the method with invariant values moved out of its loops
+     */
+    public static ASTNode hoist(ASTNode root, ShaderCompiler shaderCompiler) {
+        int[] maxTempVar = {-1};
+        root.visitTree(node -> forEachValue(node, value -> {
+            if (value instanceof Variable var && var.isTemp()) {
+                maxTempVar[0] = Math.max(maxTempVar[0], var.getIndex());
+            }
+        }));
+
+        LoopInvariantCodeMotion motion = new LoopInvariantCodeMotion(shaderCompiler, maxTempVar[0] + 1);
+        return motion.rebuild(root, motion::hoistBody, Function.identity());
+    }
+
+    private List<ASTNode> hoistBody(List<ASTNode> body) {
+        List<ASTNode> hoisted = new ArrayList<>(body.size());
+
+        for (ASTNode node : body) {
+            if (node instanceof LoopASTNode loop) {
+                LoopInfo info = scan(loop);
+
+                //The preheader ends up in front of the loop because the loop is only added once everything has been hoisted.
+                //The condition is always evaluated before the first iteration
+                Value condition = hoist(loop.getCondition(), info, hoisted, true);
+                List<ASTNode> loopBody = hoistFromLoop(loop.getBody(), info, hoisted, runsAtLeastOnce(loop));
+
+                LoopASTNode withoutInvariants = new LoopASTNode(loop.getLabel(), loopBody, condition);
+                withoutInvariants.setNeedsLabel(loop.needsLabel());
+                hoisted.add(rebuild(withoutInvariants, this::hoistBody, Function.identity()));
+            } else {
+                hoisted.add(rebuild(node, this::hoistBody, Function.identity()));
+            }
+        }
+
+        return hoisted;
+    }
+
+    /**
+     * @param runsOnce Whether the body runs at least once whenever the loop is reached
+     */
+    private List<ASTNode> hoistFromLoop(List<ASTNode> body, LoopInfo info, List<ASTNode> preheader, boolean runsOnce) {
+        List<ASTNode> rebuilt = new ArrayList<>(body.size());
+        Function<Value, Value> mightNotRun = value -> hoist(value, info, preheader, false);
+
+        boolean evaluated = runsOnce;
+        for (ASTNode node : body) {
+            boolean nodeEvaluated = evaluated;
+            rebuilt.add(rebuild(node, b -> rebuildAll(b, mightNotRun), value -> hoist(value, info, preheader, nodeEvaluated)));
+
+            //Anything after a branch, loop or block might be skipped by a break or continue inside it
+            if (!(node instanceof InstructionASTNode)) {
+                evaluated = false;
+            }
+        }
+
+        return rebuilt;
+    }
+
+    private static boolean runsAtLeastOnce(LoopASTNode loop) {
+        return loop.getCondition() instanceof LiteralValue literal && Boolean.TRUE.equals(literal.getValue());
+    }
+
+    private List<ASTNode> rebuildAll(List<ASTNode> body, Function<Value, Value> valueCopier) {
+        List<ASTNode> rebuilt = new ArrayList<>(body.size());
+
+        for (ASTNode node : body) {
+            rebuilt.add(rebuild(node, b -> rebuildAll(b, valueCopier), valueCopier));
+        }
+
+        return rebuilt;
+    }
+
+    /**
+     * Copies a node, keeping the labels of loops and blocks. Locations aren't passed to {@code valueCopier}
+     */
+    private ASTNode rebuild(ASTNode node, Function<List<ASTNode>, List<ASTNode>> bodyCopier, Function<Value, Value> valueCopier) {
+        if (node instanceof MethodASTNode method) {
+            return new MethodASTNode(bodyCopier.apply(method.getBody()));
+        } else if (node instanceof IfASTNode ifNode) {
+            return new IfASTNode(bodyCopier.apply(ifNode.getBody()), valueCopier.apply(ifNode.getCondition()));
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            return new IfElseASTNode(bodyCopier.apply(ifElseNode.getIfTrue()), bodyCopier.apply(ifElseNode.getIfFalse()), valueCopier.apply(ifElseNode.getCondition()));
+        } else if (node instanceof LoopASTNode loop) {
+            LoopASTNode copy = new LoopASTNode(loop.getLabel(), bodyCopier.apply(loop.getBody()), valueCopier.apply(loop.getCondition()));
+            copy.setNeedsLabel(loop.needsLabel());
+            return copy;
+        } else if (node instanceof LabelledBlockASTNode block) {
+            LabelledBlockASTNode copy = new LabelledBlockASTNode(block.getLabel(), bodyCopier.apply(block.getBody()));
+            copy.setNeedsLabel(block.needsLabel());
+            return copy;
+        } else if (node instanceof InstructionASTNode insnNode) {
+            return new InstructionASTNode(insnNode.getInstruction().visitAndReplace(valueCopier, loc -> loc));
+        } else if (node instanceof ReturnASTNode returnNode) {
+            return new ReturnASTNode(returnNode.getReturnValue() == null ? null : valueCopier.apply(returnNode.getReturnValue()));
+        }
+
+        //Break and continue don't hold any values
+        return node;
+    }
+
+    /**
+     * Replaces the largest invariant parts of a value with temporaries and adds their assignments to {@code preheader}
+     * @param evaluated Whether the loop would have evaluated the value before its first iteration ended
+     */
+    private Value hoist(Value value, LoopInfo info, List<ASTNode> preheader, boolean evaluated) {
+        if (isWorthHoisting(value) && isInvariant(value, info) && (evaluated || isSafeToSpeculate(value))) {
+            Variable temp = new Variable(value.getType(), nextTempVar++, VariableType.SYNTHETIC);
+            preheader.add(new InstructionASTNode(new AssignmentInstruction(temp, value)));
+            return new Variable(temp.getType(), temp.getIndex(), temp.getVariableType());
+        }
+
+        if (value instanceof Constant) {
+            return value;
+        } else if (value instanceof UnaryOperation unary) {
+            //UnaryOperation.copyValue doesn't pass its argument itself to the copier
+            return new UnaryOperation(hoist(unary.getArg(), info, preheader, evaluated), unary.getOp());
+        } else if (value instanceof BinaryOperation binary && isShortCircuit(binary.getOp())) {
+            return new BinaryOperation(hoist(binary.getLeft(), info, preheader, evaluated), hoist(binary.getRight(), info, preheader, false), binary.getOp());
+        }
+
+        return value.copyValue(inner -> hoist(inner, info, preheader, evaluated));
+    }
+
+    private static boolean isShortCircuit(BinaryOperation.Op op) {
+        return op == BinaryOperation.Op.BOOLEAN_AND || op == BinaryOperation.Op.BOOLEAN_OR;
+    }
+
+    /**
+     * @return Whether evaluating the value where the loop wouldn't have can't read anything it shouldn't. Integer division is
+     * excluded since the loop might be guarding against a zero divisor
+     */
+    private static boolean isSafeToSpeculate(Value value) {
+        if (value instanceof Variable || value instanceof LiteralValue || value instanceof Constant) {
+            return true;
+        } else if (value instanceof UnaryOperation unary) {
+            return isSafeToSpeculate(unary.getArg());
+        } else if (value instanceof BinaryOperation binary) {
+            BinaryOperation.Op op = binary.getOp();
+            int sort = binary.getType().getSort();
+            if ((op == BinaryOperation.Op.DIV || op == BinaryOperation.Op.REM) && sort != Type.FLOAT && sort != Type.DOUBLE) {
+                return false;
+            }
+
+            return isSafeToSpeculate(binary.getLeft()) && isSafeToSpeculate(binary.getRight());
+        }
+
+        return false;
+    }
+
+    /**
+     * Only values that do some work are moved. Values that are built from nothing but literals and constants are left for the
+     * GLSL compiler to fold, and struct loads would only be copied
+     */
+    private static boolean isWorthHoisting(Value value) {
+        if (value instanceof MethodCallValue) {
+            return value.getType().getSort() != Type.VOID && value.getType().getSort() != Type.ARRAY;
+        }
+
+        if (!(value instanceof BinaryOperation || value instanceof UnaryOperation || value instanceof ObjectField || value instanceof ArrayElement)) {
+            return false;
+        }
+
+        int sort = value.getType().getSort();
+        return sort >= Type.BOOLEAN && sort <= Type.DOUBLE && readsState(value);
+    }
+
+    private static boolean readsState(Value value) {
+        if (value instanceof Variable || value instanceof StaticField || value instanceof MethodCallValue) {
+            return true;
+        } else if (value instanceof Constant) {
+            return false;
+        } else if (value instanceof UnaryOperation unary) {
+            return readsState(unary.getArg());
+        }
+
+        boolean[] reads = {false};
+        value.copyValue(inner -> {
+            reads[0] |= readsState(inner);
+            return inner;
+        });
+
+        return reads[0];
+    }
+
+    private boolean isInvariant(Value value, LoopInfo info) {
+        if (value instanceof Constant || value instanceof LiteralValue) {
+            return true;
+        } else if (value instanceof Variable var) {
+            return !info.assigned.contains(var);
+        } else if (value instanceof StaticField) {
+            return !info.writesMemory;
+        } else if (value instanceof ObjectField field) {
+            return !info.writesMemory && isInvariant(field.getObject(), info);
+        } else if (value instanceof ArrayElement element) {
+            return !info.writesMemory && isInvariant(element.getArray(), info) && isInvariant(element.getIndex(), info);
+        } else if (value instanceof UnaryOperation unary) {
+            UnaryOperation.Op op = unary.getOp();
+            boolean pure = op == UnaryOperation.Op.NEG || op == UnaryOperation.Op.NOT || op == UnaryOperation.Op.TO_INT
+                    || op == UnaryOperation.Op.TO_LONG || op == UnaryOperation.Op.TO_FLOAT || op == UnaryOperation.Op.TO_DOUBLE;
+
+            return pure && isInvariant(unary.getArg(), info);
+        } else if (value instanceof BinaryOperation binary) {
+            //cmp only disappears once it is compared with 0, so it must stay next to the comparison
+            return binary.getOp() != BinaryOperation.Op.CMP && isInvariant(binary.getLeft(), info) && isInvariant(binary.getRight(), info);
+        } else if (value instanceof MethodCallValue call) {
+            if (info.writesMemory || !getMutatedArgs(call.getMethodCall().getInvocation()).isEmpty()) {
+                return false;
+            }
+
+            for (Value arg : call.getMethodCall().getArgs()) {
+                if (!isInvariant(arg, info)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        //Allocations and copies give a new object every time
+        return false;
+    }
+
+    /**
+     * Finds the variables assigned in the loop and whether it writes to memory
+     */
+    private LoopInfo scan(LoopASTNode loop) {
+        LoopInfo info = new LoopInfo();
+
+        loop.visitTree(node -> {
+            if (node instanceof InstructionASTNode insnNode) {
+                Instruction instruction = insnNode.getInstruction();
+
+                if (instruction instanceof AssignmentInstruction assign) {
+                    if (assign.getLocation() instanceof Variable var) {
+                        info.assigned.add(var);
+                    } else {
+                        info.writesMemory = true;
+                    }
+                } else if (instruction instanceof MethodCallInstruction callInstruction) {
+                    scanCall(callInstruction.getMethodCall(), info);
+                }
+            }
+
+            forEachValue(node, value -> {
+                if (value instanceof MethodCallValue call) {
+                    scanCall(call.getMethodCall(), info);
+                }
+            });
+        });
+
+        return info;
+    }
+
+    private void scanCall(MethodCall call, LoopInfo info) {
+        for (int arg : getMutatedArgs(call.getInvocation())) {
+            info.writesMemory = true;
+
+            //Mutated arguments are out parameters in GLSL, so the variable itself gets assigned
+            if (arg != -1 && call.getArgs()[arg] instanceof Variable var) {
+                info.assigned.add(var);
+            }
+        }
+    }
+
+    private IntList getMutatedArgs(MethodInvocation invocation) {
+        return mutatedArgs.computeIfAbsent(invocation, shaderCompiler::getMutatedArgs);
+    }
+
+    /**
+     * Calls {@code consumer} with every value held by the node itself (not its children), including nested values and locations
+     */
+    private static void forEachValue(ASTNode node, Consumer<Value> consumer) {
+        Function<Value, Value> visitor = new Function<>() {
+            @Override
+            public Value apply(Value value) {
+                consumer.accept(value);
+
+                if (value instanceof UnaryOperation unary) {
+                    apply(unary.getArg());
+                } else if (!(value instanceof Constant)) {
+                    value.copyValue(this);
+                }
+
+                return value;
+            }
+        };
+
+        node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(visitor, loc -> {
+                    visitor.apply(loc);
+                    return loc;
+                }),
+                visitor
+        );
+    }
+
+    private static class LoopInfo {
+        private final Set<Variable> assigned = new HashSet<>();
+        private boolean writesMemory = false;
+    }
+}
@@ -0,0 +1,581 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenCustomHashSet;
+import me.salamander.mallet.shaders.compiler.CompiledMethod;
+import me.salamander.mallet.shaders.compiler.MethodInvocationWithConstants;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.constant.Constant;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.util.MethodCall;
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Replaces calls to small methods with the body of the method they call, so that they don't need to be emitted as separate GLSL
+ * functions.
+ * <br><br>
+ * A method can be inlined if its body only contains instructions and ifs followed by an optional return, and its
+ * {@link #size(ASTNode) size} is at most the threshold. Arguments that are variables are used directly, other arguments are
+ * first assigned to a temporary. So are arguments whose parameter the callee assigns to or writes a field or element of, since
+ * GLSL passes them by value and the caller mustn't see those writes. Every other variable of the callee is renamed to a new
+ * temporary of the caller.
+ * <br><br>
+ * The body of the callee ends up in front of the statement containing the call, so the call is only inlined if that doesn't change
+ * what the statement sees:
+ * <ul>
+ *     <li>No other call in the statement may mutate anything (according to {@link ShaderCompiler#getMutatedArgs(MethodInvocation)})</li>
+ *     <li>If the callee mutates anything, the call must be the whole statement, the value assigned to a variable, the value
+ *     returned or the whole condition of an if</li>
+ *     <li>Arguments the callee mutates (arguments annotated with {@code @Out} and the receiver of {@code @MutatesSelf} methods)
+ *     must be variables that the callee doesn't reassign, so that the mutation is visible to the caller</li>
+ *     <li>The call isn't on the right side of {@code &&} or {@code ||}, since that side might not be evaluated</li>
+ * </ul>
+ * Inlining is repeated so that calls that were inside an inlined body can be inlined too. Every round only looks at the
+ * bodies from the end of the previous round, so the result doesn't depend on the order the methods are visited in.
+ */
+public class MethodInliner {
+    public static final int DEFAULT_THRESHOLD = 12;
+
+    private static final int MAX_ROUNDS = 8;
+    private static final int MAX_INLINES_PER_STATEMENT = 16;
+
+    private final ShaderCompiler shaderCompiler;
+    private final Map<MethodInvocationWithConstants, CompiledMethod> methods;
+    private final int threshold;
+    private final Map<MethodInvocation, IntList> mutatedArgs = new HashMap<>();
+
+    //The roots at the start of the current round and what is known about them
+    private final Map<CompiledMethod, ASTNode> roots = new IdentityHashMap<>();
+    private final Map<CompiledMethod, Writes> inlinable = new IdentityHashMap<>();
+
+    //State for the method being inlined into
+    private CompiledMethod caller;
+    private int nextTempVar;
+
+    private int inlinedCalls;
+
+    private MethodInliner(ShaderCompiler shaderCompiler, Map<MethodInvocationWithConstants, CompiledMethod> methods, int threshold) {
+        this.shaderCompiler = shaderCompiler;
+        this.methods = methods;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Inlines calls in {@code main} and every compiled method, replacing their roots
+     * @param methods Every compiled method of the shader. Methods that are no longer called are left in it
+     * @param threshold The largest {@link #size(ASTNode) size} of a method that gets inlined
+     * @return How many calls were inlined
+     */
+    public static int inline(CompiledMethod main, Map<MethodInvocationWithConstants, CompiledMethod> methods, ShaderCompiler shaderCompiler, int threshold) {
+        MethodInliner inliner = new MethodInliner(shaderCompiler, methods, threshold);
+
+        List<CompiledMethod> all = new ArrayList<>();
+        all.add(main);
+        all.addAll(methods.values());
+
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            int inlinedBefore = inliner.inlinedCalls;
+
+            inliner.roots.clear();
+            inliner.inlinable.clear();
+            for (CompiledMethod method : all) {
+                inliner.roots.put(method, method.getRoot());
+            }
+
+            Map<CompiledMethod, ASTNode> newRoots = new IdentityHashMap<>();
+            for (CompiledMethod method : all) {
+                newRoots.put(method, inliner.inlineInto(method));
+            }
+            newRoots.forEach(CompiledMethod::setRoot);
+
+            if (inliner.inlinedCalls == inlinedBefore) break;
+        }
+
+        return inliner.inlinedCalls;
+    }
+
+    /**
+     * The cost used to decide whether a method is worth inlining. Every node counts as 1, as does every operation, field or
+     * array access and call in the values it holds
+     */
+    public static int size(ASTNode root) {
+        int[] size = {0};
+
+        root.visitTree(node -> {
+            if (!(node instanceof MethodASTNode)) {
+                size[0]++;
+            }
+
+            forEachValue(node, value -> {
+                if (value instanceof BinaryOperation || value instanceof UnaryOperation || value instanceof ObjectField
+                        || value instanceof ArrayElement || value instanceof MethodCallValue) {
+                    size[0]++;
+                }
+            });
+
+            if (node instanceof InstructionASTNode insnNode && insnNode.getInstruction() instanceof MethodCallInstruction) {
+                size[0]++;
+            }
+        });
+
+        return size[0];
+    }
+
+    private ASTNode inlineInto(CompiledMethod method) {
+        ASTNode root = roots.get(method);
+
+        int[] maxTempVar = {-1};
+        root.visitTree(node -> forEachValue(node, value -> {
+            if (value instanceof Variable var && var.isTemp()) {
+                maxTempVar[0] = Math.max(maxTempVar[0], var.getIndex());
+            }
+        }));
+
+        this.caller = method;
+        this.nextTempVar = maxTempVar[0] + 1;
+
+        return new MethodASTNode(inlineBody(((MethodASTNode) root).getBody()));
+    }
+
+    private List<ASTNode> inlineBody(List<ASTNode> body) {
+        List<ASTNode> inlined = new ArrayList<>(body.size());
+
+        for (ASTNode node : body) {
+            if (node instanceof InstructionASTNode insnNode) {
+                inlineStatement(insnNode.getInstruction(), inlined);
+            } else if (node instanceof IfASTNode ifNode) {
+                Value condition = inlineValue(ifNode.getCondition(), inlined);
+                inlined.add(new IfASTNode(inlineBody(ifNode.getBody()), condition));
+            } else if (node instanceof IfElseASTNode ifElseNode) {
+                Value condition = inlineValue(ifElseNode.getCondition(), inlined);
+                inlined.add(new IfElseASTNode(inlineBody(ifElseNode.getIfTrue()), inlineBody(ifElseNode.getIfFalse()), condition));
+            } else if (node instanceof ReturnASTNode returnNode) {
+                Value value = returnNode.getReturnValue() == null ? null : inlineValue(returnNode.getReturnValue(), inlined);
+                inlined.add(new ReturnASTNode(value));
+            } else if (node instanceof LoopASTNode loop) {
+                //The condition is evaluated on every iteration so nothing can be put in front of it
+                LoopASTNode copy = new LoopASTNode(loop.getLabel(), inlineBody(loop.getBody()), loop.getCondition());
+                copy.setNeedsLabel(loop.needsLabel());
+                inlined.add(copy);
+            } else if (node instanceof LabelledBlockASTNode block) {
+                LabelledBlockASTNode copy = new LabelledBlockASTNode(block.getLabel(), inlineBody(block.getBody()));
+                copy.setNeedsLabel(block.needsLabel());
+                inlined.add(copy);
+            } else {
+                inlined.add(node);
+            }
+        }
+
+        return inlined;
+    }
+
+    /**
+     * Inlines the calls of an instruction and adds the result to {@code out}
+     */
+    private void inlineStatement(Instruction instruction, List<ASTNode> out) {
+        for (int i = 0; i < MAX_INLINES_PER_STATEMENT; i++) {
+            int mutatingCalls = countMutatingCalls(instruction);
+            Value wholeValue = instruction instanceof AssignmentInstruction assign && assign.getLocation() instanceof Variable ? assign.getValue() : null;
+
+            Site site = new Site(wholeValue, mutatingCalls);
+            Instruction replaced = instruction.visitAndReplace(value -> site.inline(value), loc -> loc);
+
+            if (site.inlined != null) {
+                out.addAll(site.inlined.statements);
+                instruction = replaced;
+                continue;
+            }
+
+            if (instruction instanceof MethodCallInstruction callInstruction) {
+                MethodCall call = callInstruction.getMethodCall();
+                Inlined inlined = tryInline(call, true, mutatingCalls - (isMutating(call) ? 1 : 0), true);
+
+                if (inlined != null) {
+                    out.addAll(inlined.statements);
+
+                    if (inlined.result instanceof MethodCallValue resultCall) {
+                        //The result isn't used but the call still has to happen
+                        instruction = new MethodCallInstruction(resultCall.getMethodCall());
+                        continue;
+                    }
+
+                    return;
+                }
+            }
+
+            break;
+        }
+
+        out.add(new InstructionASTNode(instruction));
+    }
+
+    /**
+     * Inlines the calls of a value that is evaluated on its own (a condition or a returned value), adding the inlined bodies to
+     * {@code out}
+     */
+    private Value inlineValue(Value value, List<ASTNode> out) {
+        for (int i = 0; i < MAX_INLINES_PER_STATEMENT; i++) {
+            Site site = new Site(value, countMutatingCalls(value));
+            Value replaced = site.inline(value);
+
+            if (site.inlined == null) break;
+
+            out.addAll(site.inlined.statements);
+            value = replaced;
+        }
+
+        return value;
+    }
+
+    /**
+     * Replaces the body of the callee with its body
+     * @param wholeStatement Whether nothing else gets evaluated in the statement containing the call
+     * @param otherMutatingCalls How many other calls in the statement mutate something
+     * @param resultUnused Whether the value returned by the call is discarded
+     * @return The statements that have to run before the statement and the value that replaces the call, or null if the call can't
+     * be inlined
+     */
+    private @Nullable Inlined tryInline(MethodCall call, boolean wholeStatement, int otherMutatingCalls, boolean resultUnused) {
+        MethodInvocationWithConstants invocation = call.toMethodInvocationWithConstants();
+        CompiledMethod callee = methods.get(invocation);
+
+        if (callee == null || callee == caller || otherMutatingCalls > 0) return null;
+
+        Writes writes = getWritesIfInlinable(callee);
+        if (writes == null) return null;
+
+        IntList mutated = getMutatedArgs(invocation.getMethodInvocation());
+        if (!mutated.isEmpty() && !wholeStatement) return null;
+
+        //Bind the arguments
+        List<ASTNode> statements = new ArrayList<>();
+        Map<Variable, Variable> substitutions = new Object2ObjectOpenCustomHashMap<>(Variable.TYPED_STRATEGY);
+
+        Value[] args = call.getArgs();
+        int[] argIndices = callee.getArgumentIndices();
+        Type[] argTypes = callee.getArgumentTypes();
+
+        int param = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (invocation.getParamIndexToConstant().containsKey(i)) continue;
+
+            Variable paramVar = new Variable(argTypes[param], argIndices[param], VariableType.LOCAL);
+            param++;
+
+            if (mutated.contains(i)) {
+                //Writes to the fields of a mutated argument are meant to be seen by the caller
+                if (!(args[i] instanceof Variable argVar) || writes.reassigned().contains(paramVar)) return null;
+                substitutions.put(paramVar, argVar);
+            } else if (args[i] instanceof Variable argVar && !writes.written().contains(paramVar)) {
+                substitutions.put(paramVar, argVar);
+            } else {
+                Variable temp = new Variable(paramVar.getType(), nextTempVar++, VariableType.SYNTHETIC);
+                statements.add(new InstructionASTNode(new AssignmentInstruction(temp, args[i])));
+                substitutions.put(paramVar, temp);
+            }
+        }
+
+        //Copy the body
+        Map<Variable, Integer> renamed = new Object2ObjectOpenCustomHashMap<>(Variable.TYPED_STRATEGY);
+        Function<Value, Value> renamer = new Function<>() {
+            @Override
+            public Value apply(Value value) {
+                if (value instanceof Variable var) {
+                    Variable substitute = substitutions.get(var);
+                    if (substitute != null) {
+                        return new Variable(substitute.getType(), substitute.getIndex(), substitute.getVariableType());
+                    }
+
+                    int index = renamed.computeIfAbsent(var, v -> nextTempVar++);
+                    return new Variable(var.getType(), index, VariableType.SYNTHETIC);
+                } else if (value instanceof Constant) {
+                    return value;
+                } else if (value instanceof UnaryOperation unary) {
+                    //UnaryOperation.copyValue doesn't pass its argument itself to the copier
+                    return new UnaryOperation(apply(unary.getArg()), unary.getOp());
+                }
+
+                return value.copyValue(this);
+            }
+        };
+
+        List<ASTNode> body = ((MethodASTNode) roots.get(callee)).getBody();
+        Value result = null;
+
+        for (ASTNode node : body) {
+            if (node instanceof ReturnASTNode returnNode) {
+                result = returnNode.getReturnValue() == null ? null : renamer.apply(returnNode.getReturnValue());
+            } else {
+                statements.add(copy(node, renamer));
+            }
+        }
+
+        if (resultUnused && result != null && !(result instanceof MethodCallValue) && containsCall(result)) {
+            return null;
+        }
+
+        //Calls in the callee must still refer to compiled methods once its variables are replaced
+        for (ASTNode statement : statements) {
+            if (!allCallsCompiled(statement)) return null;
+        }
+
+        if (result != null && !allCallsCompiled(new ReturnASTNode(result))) {
+            return null;
+        }
+
+        inlinedCalls++;
+        return new Inlined(statements, result);
+    }
+
+    /**
+     * @return The variables the callee writes to, or null if it can't be inlined
+     */
+    private @Nullable Writes getWritesIfInlinable(CompiledMethod callee) {
+        if (inlinable.containsKey(callee)) {
+            return inlinable.get(callee);
+        }
+
+        ASTNode root = roots.get(callee);
+        Writes writes = null;
+
+        if (root instanceof MethodASTNode method && hasInlinableShape(method.getBody(), true) && size(root) <= threshold) {
+            writes = new Writes(new ObjectOpenCustomHashSet<>(Variable.TYPED_STRATEGY), new ObjectOpenCustomHashSet<>(Variable.TYPED_STRATEGY));
+
+            Writes finalWrites = writes;
+            root.visitTree(node -> {
+                if (node instanceof InstructionASTNode insnNode && insnNode.getInstruction() instanceof AssignmentInstruction assign) {
+                    Value location = assign.getLocation();
+                    if (location instanceof Variable var) {
+                        finalWrites.reassigned().add(var);
+                    }
+
+                    Variable base = getBaseVariable(location);
+                    if (base != null) {
+                        finalWrites.written().add(base);
+                    }
+                }
+            });
+        }
+
+        inlinable.put(callee, writes);
+        return writes;
+    }
+
+    /**
+     * @return The variable a location is part of, e.g. {@code a} for {@code a.b[i].c}, or null if it isn't part of a variable
+     */
+    private static @Nullable Variable getBaseVariable(Value location) {
+        while (true) {
+            if (location instanceof Variable var) {
+                return var;
+            } else if (location instanceof ObjectField field) {
+                location = field.getObject();
+            } else if (location instanceof ArrayElement element) {
+                location = element.getArray();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Only straight-line code with ifs can be inlined, since loops, labelled blocks and early returns would need labels
+     */
+    private static boolean hasInlinableShape(List<ASTNode> body, boolean top) {
+        for (int i = 0; i < body.size(); i++) {
+            ASTNode node = body.get(i);
+
+            if (node instanceof IfASTNode ifNode) {
+                if (!hasInlinableShape(ifNode.getBody(), false)) return false;
+            } else if (node instanceof IfElseASTNode ifElseNode) {
+                if (!hasInlinableShape(ifElseNode.getIfTrue(), false) || !hasInlinableShape(ifElseNode.getIfFalse(), false)) return false;
+            } else if (node instanceof ReturnASTNode) {
+                if (!top || i != body.size() - 1) return false;
+            } else if (!(node instanceof InstructionASTNode)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static ASTNode copy(ASTNode node, Function<Value, Value> valueCopier) {
+        if (node instanceof IfASTNode ifNode) {
+            return new IfASTNode(copyAll(ifNode.getBody(), valueCopier), valueCopier.apply(ifNode.getCondition()));
+        } else if (node instanceof IfElseASTNode ifElseNode) {
+            return new IfElseASTNode(copyAll(ifElseNode.getIfTrue(), valueCopier), copyAll(ifElseNode.getIfFalse(), valueCopier), valueCopier.apply(ifElseNode.getCondition()));
+        }
+
+        Instruction instruction = ((InstructionASTNode) node).getInstruction();
+        return new InstructionASTNode(instruction.visitAndReplace(valueCopier, loc -> (Location) valueCopier.apply(loc)));
+    }
+
+    private static List<ASTNode> copyAll(List<ASTNode> body, Function<Value, Value> valueCopier) {
+        List<ASTNode> copy = new ArrayList<>(body.size());
+        for (ASTNode node : body) {
+            copy.add(copy(node, valueCopier));
+        }
+        return copy;
+    }
+
+    private boolean allCallsCompiled(ASTNode node) {
+        boolean[] compiled = {true};
+
+        node.visitTree(n -> {
+            if (n instanceof InstructionASTNode insnNode && insnNode.getInstruction() instanceof MethodCallInstruction call) {
+                compiled[0] &= methods.containsKey(call.getMethodCall().toMethodInvocationWithConstants());
+            }
+
+            forEachValue(n, value -> {
+                if (value instanceof MethodCallValue call) {
+                    compiled[0] &= methods.containsKey(call.getMethodCall().toMethodInvocationWithConstants());
+                }
+            });
+        });
+
+        return compiled[0];
+    }
+
+    private int countMutatingCalls(Instruction instruction) {
+        int[] count = {0};
+
+        if (instruction instanceof MethodCallInstruction call && isMutating(call.getMethodCall())) {
+            count[0]++;
+        }
+
+        instruction.visitAndReplace(value -> {
+            count[0] += countMutatingCalls(value);
+            return value;
+        }, loc -> {
+            count[0] += countMutatingCalls(loc);
+            return loc;
+        });
+
+        return count[0];
+    }
+
+    private int countMutatingCalls(Value value) {
+        int[] count = {0};
+
+        forEachValue(value, v -> {
+            if (v instanceof MethodCallValue call && isMutating(call.getMethodCall())) {
+                count[0]++;
+            }
+        });
+
+        return count[0];
+    }
+
+    private static boolean containsCall(Value value) {
+        boolean[] found = {false};
+        forEachValue(value, v -> found[0] |= v instanceof MethodCallValue);
+        return found[0];
+    }
+
+    private boolean isMutating(MethodCall call) {
+        return !getMutatedArgs(call.getInvocation()).isEmpty();
+    }
+
+    private IntList getMutatedArgs(MethodInvocation invocation) {
+        return mutatedArgs.computeIfAbsent(invocation, shaderCompiler::getMutatedArgs);
+    }
+
+    /**
+     * Calls {@code consumer} with every value held by the node itself (not its children), including nested values and locations
+     */
+    private static void forEachValue(ASTNode node, Consumer<Value> consumer) {
+        node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(value -> {
+                    forEachValue(value, consumer);
+                    return value;
+                }, loc -> {
+                    forEachValue(loc, consumer);
+                    return loc;
+                }),
+                value -> {
+                    forEachValue(value, consumer);
+                    return value;
+                }
+        );
+    }
+
+    private static void forEachValue(Value value, Consumer<Value> consumer) {
+        consumer.accept(value);
+
+        if (value instanceof UnaryOperation unary) {
+            forEachValue(unary.getArg(), consumer);
+        } else if (!(value instanceof Constant)) {
+            value.copyValue(inner -> {
+                forEachValue(inner, consumer);
+                return inner;
+            });
+        }
+    }
+
+    /**
+     * Inlines the first call of a value that can be inlined. Calls are tried innermost first
+     */
+    private class Site {
+        private final @Nullable Value wholeValue;
+        private final int mutatingCalls;
+        private @Nullable Inlined inlined;
+
+        private Site(@Nullable Value wholeValue, int mutatingCalls) {
+            this.wholeValue = wholeValue;
+            this.mutatingCalls = mutatingCalls;
+        }
+
+        private Value inline(Value value) {
+            if (inlined != null || value instanceof Constant) {
+                return value;
+            }
+
+            Value copy;
+            if (value instanceof UnaryOperation unary) {
+                copy = new UnaryOperation(inline(unary.getArg()), unary.getOp());
+            } else if (value instanceof BinaryOperation binary && isShortCircuit(binary.getOp())) {
+                //The right side is only evaluated depending on the left side, so nothing from it can run before the statement
+                copy = new BinaryOperation(inline(binary.getLeft()), binary.getRight(), binary.getOp());
+            } else {
+                copy = value.copyValue(this::inline);
+            }
+
+            if (inlined == null && copy instanceof MethodCallValue call) {
+                MethodCall methodCall = call.getMethodCall();
+                inlined = tryInline(methodCall, value == wholeValue, mutatingCalls - (isMutating(methodCall) ? 1 : 0), false);
+
+                if (inlined != null) {
+                    return inlined.result;
+                }
+            }
+
+            return copy;
+        }
+    }
+
+    private static boolean isShortCircuit(BinaryOperation.Op op) {
+        return op == BinaryOperation.Op.BOOLEAN_AND || op == BinaryOperation.Op.BOOLEAN_OR;
+    }
+
+    private record Inlined(List<ASTNode> statements, @Nullable Value result) {
+    }
+
+    /**
+     * @param reassigned The variables the method assigns a new value to
+     * @param written The variables the method assigns to or writes a field or element of. Contains every reassigned variable
+     */
+    private record Writes(Set<Variable> reassigned, Set<Variable> written) {
+    }
+}
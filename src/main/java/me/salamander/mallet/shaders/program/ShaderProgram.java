@@ -3,6 +3,7 @@ package me.salamander.mallet.shaders.program;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.globject.backend.GLBackend;
 import me.salamander.mallet.globject.buffer.BufferObject;
 import me.salamander.mallet.shaders.compiler.ShaderCompiler;
 import me.salamander.mallet.shaders.glsltypes.Vec2;
@@ -45,26 +46,31 @@ public class ShaderProgram {
     public static final String TESS_EVALUATION_SHADER = "tess_evaluation";
     public static final String COMPUTE_SHADER = "compute";
 
+    private static final String SHADER_PROGRAM = Type.getInternalName(ShaderProgram.class);
+    private static final Type GL_BACKEND = Type.getType(GLBackend.class);
+
     private static final Object2IntMap<String> shaderNameToGLEnum = new Object2IntOpenHashMap<>();
 
+    protected final GLBackend backend;
     private final int program;
     private final boolean isCompute;
 
     protected ShaderProgram(int program) {
+        this.backend = GLBackend.get();
         this.program = program;
 
         //Check is this program is on the compute shader pipeline
-        isCompute = glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE && glGetProgrami(program, GL_COMPUTE_WORK_GROUP_SIZE) != 0;
+        isCompute = backend.getProgrami(program, GL_LINK_STATUS) == GL_TRUE && backend.getProgrami(program, GL_COMPUTE_WORK_GROUP_SIZE) != 0;
     }
 
     public void bind() {
-        glUseProgram(program);
+        backend.useProgram(program);
     }
 
     public void dispatch(int numWorkGroupsX, int numWorkGroupsY, int numWorkGroupsZ) {
         if (!isCompute) throw new IllegalStateException("This shader program is not a compute shader program");
 
-        glDispatchCompute(numWorkGroupsX, numWorkGroupsY, numWorkGroupsZ);
+        backend.dispatchCompute(numWorkGroupsX, numWorkGroupsY, numWorkGroupsZ);
     }
 
     private void introspect() {
@@ -74,15 +80,15 @@ public class ShaderProgram {
     }
 
     private void introspectUniforms() {
-        int numUniforms = glGetProgrami(program, GL_ACTIVE_UNIFORMS);
+        int numUniforms = backend.getProgrami(program, GL_ACTIVE_UNIFORMS);
 
         try (MemoryStack stack = stackPush()) {
             IntBuffer b_size = stack.mallocInt(1);
             IntBuffer b_type = stack.mallocInt(1);
 
             for (int i = 0; i < numUniforms; i++) {
-                String name = glGetActiveUniform(program, i, b_size, b_type);
-                int location = glGetUniformLocation(program, name);
+                String name = backend.getActiveUniform(program, i, b_size, b_type);
+                int location = backend.getUniformLocation(program, name);
                 System.out.println(name + ": " + location);
             }
         }
@@ -93,7 +99,9 @@ public class ShaderProgram {
             throw new IllegalArgumentException("Sources must be in pairs of (shader type, source)");
         }
 
-        int program = glCreateProgram();
+        GLBackend backend = GLBackend.get();
+
+        int program = backend.createProgram();
         boolean success = true;
 
         int[] shaders = new int[sources.length / 2];
@@ -103,15 +111,15 @@ public class ShaderProgram {
             int shaderType = shaderNameToGLEnum.getInt(sources[i]);
             String shaderSource = sources[i + 1];
 
-            int shader = glCreateShader(shaderType);
-            glShaderSource(shader, shaderSource);
-            glCompileShader(shader);
+            int shader = backend.createShader(shaderType);
+            backend.shaderSource(shader, shaderSource);
+            backend.compileShader(shader);
 
-            int status = glGetShaderi(shader, GL_COMPILE_STATUS);
+            int status = backend.getShaderi(shader, GL_COMPILE_STATUS);
             if (status == GL_FALSE) {
                 success = false;
                 System.err.println("Failed to compile shader: " + sources[i]);
-                System.err.println(glGetShaderInfoLog(shader));
+                System.err.println(backend.getShaderInfoLog(shader));
                 System.err.println("Source: \n");
 
                 String[] lines = shaderSource.split("\n");
@@ -129,28 +137,28 @@ public class ShaderProgram {
         }
 
         if (!success) {
-            glDeleteProgram(program);
+            backend.deleteProgram(program);
             for (int shader : shaders) {
-                glDeleteShader(shader);
+                backend.deleteShader(shader);
             }
             throw new IllegalArgumentException("Failed to compile shader");
         }
 
         for (int shader : shaders) {
-            glAttachShader(program, shader);
+            backend.attachShader(program, shader);
         }
 
-        glLinkProgram(program);
+        backend.linkProgram(program);
 
         for (int shader : shaders) {
-            glDeleteShader(shader);
+            backend.deleteShader(shader);
         }
 
-        int status = glGetProgrami(program, GL_LINK_STATUS);
+        int status = backend.getProgrami(program, GL_LINK_STATUS);
         if (status == GL_FALSE) {
             System.err.println("Failed to link shader program");
-            System.err.println(glGetProgramInfoLog(program));
-            glDeleteProgram(program);
+            System.err.println(backend.getProgramInfoLog(program));
+            backend.deleteProgram(program);
             throw new IllegalArgumentException("Failed to link shader program");
         }
 
@@ -184,6 +192,7 @@ public class ShaderProgram {
     }
 
     public static <T extends ShaderProgram> T create(Class<T> template, MalletContext context, String... args) {
+        GLBackend backend = GLBackend.get();
         int program = compileSources(args);
 
         String implName = "me/salamander/mallet/generated/ProgramImpl_" + ID_COUNTER.getAndIncrement();
@@ -196,7 +205,7 @@ public class ShaderProgram {
         //Get all SSBOs
         try (MemoryStack stack = stackPush()) {
             IntBuffer ssboCount = stack.mallocInt(1);
-            glGetProgramInterfaceiv(program, GL_SHADER_STORAGE_BLOCK, GL_ACTIVE_RESOURCES, ssboCount);
+            backend.getProgramInterfaceiv(program, GL_SHADER_STORAGE_BLOCK, GL_ACTIVE_RESOURCES, ssboCount);
             int ssbos = ssboCount.get(0);
             System.out.println("Found " + ssbos + " SSBOs");
 
@@ -207,7 +216,7 @@ public class ShaderProgram {
                 properties.put(GL_NUM_ACTIVE_VARIABLES);
                 properties.flip();
                 IntBuffer numActiveVariables = stack.mallocInt(1);
-                glGetProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, blockIndex, properties, length, numActiveVariables);
+                backend.getProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, blockIndex, properties, length, numActiveVariables);
 
                 int numActiveVariablesValue = numActiveVariables.get(0);
                 System.out.println("Found " + numActiveVariablesValue + " SSBO variables");
@@ -215,10 +224,10 @@ public class ShaderProgram {
                 properties.put(GL_ACTIVE_VARIABLES);
                 properties.flip();
                 IntBuffer blockVars = stack.mallocInt(numActiveVariablesValue);
-                glGetProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, blockIndex, properties, length, blockVars);
+                backend.getProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, blockIndex, properties, length, blockVars);
 
                 for (int i = 0; i < numActiveVariablesValue; i++) {
-                    String name = glGetProgramResourceName(program, GL_SHADER_STORAGE_BLOCK, blockVars.get(i));
+                    String name = backend.getProgramResourceName(program, GL_SHADER_STORAGE_BLOCK, blockVars.get(i));
                     System.out.println(" - " + name);
                 }
             }
@@ -267,8 +276,10 @@ public class ShaderProgram {
             throw new IllegalArgumentException("Uniform setter methods must have exactly one parameter");
         }
 
+        GLBackend backend = GLBackend.get();
+
         //Get location TODO: Struct/Array types
-        int location = glGetUniformLocation(program, uName);
+        int location = backend.getUniformLocation(program, uName);
 
         if (location == -1) {
             throw new IllegalArgumentException("Uniform " + uName + " not found in program");
@@ -281,7 +292,7 @@ public class ShaderProgram {
 
             uniformIndices.put(0, location);
 
-            glGetActiveUniformsiv(program, uniformIndices, GL_UNIFORM_TYPE, params);
+            backend.getActiveUniformsiv(program, uniformIndices, GL_UNIFORM_TYPE, params);
 
             Type uniformType = GLUtil.getType(params.get(0));
             Class<?> uniformClass = Util.getClass(uniformType);
@@ -300,48 +311,50 @@ public class ShaderProgram {
     }
 
     private static void makePrimitiveUniformSetter(MethodVisitor mv, Class<?> uniformClass, Consumer<MethodVisitor> objectLoader, int location) {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, SHADER_PROGRAM, "backend", GL_BACKEND.getDescriptor());
         ASMUtil.visitIntConstant(mv, location);
         objectLoader.accept(mv);
 
         if (uniformClass == int.class) {
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform1i", "(II)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform1i", "(II)V", true);
         } else if (uniformClass == float.class) {
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform1f", "(IF)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform1f", "(IF)V", true);
         } else if (uniformClass == boolean.class) {
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform1i", "(II)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform1i", "(II)V", true);
         } else if (uniformClass == double.class) {
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform1d", "(ID)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform1d", "(ID)V", true);
         } else if (uniformClass == Vec2.class) {
             mv.visitInsn(Opcodes.DUP);
-            //Stack: [location, vec, vec]
+            //Stack: [backend, location, vec, vec]
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec2", "x", "()F", false);
-            //Stack: [location, vec, x]
+            //Stack: [backend, location, vec, x]
             mv.visitInsn(Opcodes.SWAP);
-            //Stack: [location, x, vec]
+            //Stack: [backend, location, x, vec]
 
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec2", "y", "()F", false);
-            //Stack: [location, x, y]
+            //Stack: [backend, location, x, y]
 
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform2f", "(IFF)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform2f", "(IFF)V", true);
         } else if (uniformClass == Vec3.class) {
             mv.visitInsn(Opcodes.DUP);
-            //Stack: [location, vec, vec]
+            //Stack: [backend, location, vec, vec]
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec3", "x", "()F", false);
-            //Stack: [location, vec, x]
+            //Stack: [backend, location, vec, x]
             mv.visitInsn(Opcodes.SWAP);
-            //Stack: [location, x, vec]
+            //Stack: [backend, location, x, vec]
 
             mv.visitInsn(Opcodes.DUP);
-            //Stack: [location, x, vec, vec]
+            //Stack: [backend, location, x, vec, vec]
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec3", "y", "()F", false);
-            //Stack: [location, x, vec, y]
+            //Stack: [backend, location, x, vec, y]
             mv.visitInsn(Opcodes.SWAP);
-            //Stack: [location, x, y, vec]
+            //Stack: [backend, location, x, y, vec]
 
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec3", "z", "()F", false);
-            //Stack: [location, x, y, z]
+            //Stack: [backend, location, x, y, z]
 
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform3f", "(IFFF)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform3f", "(IFFF)V", true);
         } else if (uniformClass == Vec4.class) {
             mv.visitInsn(Opcodes.DUP);
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec4", "x", "()F", false);
@@ -356,7 +369,7 @@ public class ShaderProgram {
             mv.visitInsn(Opcodes.SWAP);
 
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec4", "w", "()F", false);
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform4f", "(IFFFF)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform4f", "(IFFFF)V", true);
         } else if (uniformClass == Vec3i.class) {
             mv.visitInsn(Opcodes.DUP);
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec3i", "x", "()I", false);
@@ -367,7 +380,7 @@ public class ShaderProgram {
             mv.visitInsn(Opcodes.SWAP);
 
             mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "me/salamander/mallet/shaders/glsltypes/Vec3i", "z", "()I", false);
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/opengl/GL20", "glUniform3i", "(IIII)V", false);
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, GL_BACKEND.getInternalName(), "uniform3i", "(IIII)V", true);
         } else {
             throw new RuntimeException("Unsupported uniform type: " + uniformClass.getName());
         }
@@ -380,8 +393,10 @@ public class ShaderProgram {
             throw new RuntimeException("ShaderStorageBufferBinder methods must have a parameter of type BufferObject");
         }
 
+        GLBackend backend = GLBackend.get();
+
         //Get location
-        int index = glGetProgramResourceIndex(program, GL_SHADER_STORAGE_BLOCK, annotation.value());
+        int index = backend.getProgramResourceIndex(program, GL_SHADER_STORAGE_BLOCK, annotation.value());
         if (index == -1) {
             throw new RuntimeException("Could not find shader storage block: " + annotation.value());
         }
@@ -395,7 +410,7 @@ public class ShaderProgram {
             IntBuffer length = stack.mallocInt(1);
             props.put(0, GL_BUFFER_BINDING);
 
-            glGetProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, index, props, length, bindingBuffer);
+            backend.getProgramResourceiv(program, GL_SHADER_STORAGE_BLOCK, index, props, length, bindingBuffer);
 
             binding = bindingBuffer.get(0);
 
@@ -0,0 +1,127 @@
+package me.salamander.mallet.type;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Writes whole arrays of a {@link MalletType} with the std430 array stride. Obtained through {@link MalletType#makeArrayWriter()}.
+ * <br><br>
+ * Element {@code i} of the written range always starts at {@code base + (i - from) * getStride()}, so disjoint ranges of an array
+ * write disjoint ranges of the buffer and can be written from different threads.
+ */
+public interface ArrayWriter {
+    /**
+     * Number of elements each thread writes in {@link #writeParallel(ByteBuffer, Object[])}
+     */
+    int DEFAULT_CHUNK_SIZE = 1 << 14;
+
+    /**
+     * Writes {@code data[from]} to {@code data[to - 1]}. The position of the buffer is left in an unspecified state.
+     * @param base Where the first element is written. Should be aligned to the alignment of the type
+     */
+    void write(ByteBuffer buffer, int base, Object[] data, int from, int to);
+
+    /**
+     * Same as {@link #write(ByteBuffer, int, Object[], int, int)} but for lists. The list should support fast random access
+     */
+    void write(ByteBuffer buffer, int base, List<?> data, int from, int to);
+
+    /**
+     * @return The distance in bytes between the start of two consecutive elements
+     */
+    int getStride();
+
+    /**
+     * @return The size in bytes of a single element
+     */
+    int getElementSize();
+
+    /**
+     * @return The amount of bytes needed to write {@code count} elements. The padding after the last element isn't counted
+     */
+    default int getSizeOf(int count) {
+        return count == 0 ? 0 : (count - 1) * getStride() + getElementSize();
+    }
+
+    /**
+     * Writes the whole array at the position of the buffer and moves the position past the last element
+     */
+    default void write(ByteBuffer buffer, Object[] data) {
+        int base = buffer.position();
+        checkRemaining(buffer, base, data.length);
+
+        write(buffer, base, data, 0, data.length);
+        buffer.position(base + getSizeOf(data.length));
+    }
+
+    default void write(ByteBuffer buffer, List<?> data) {
+        int base = buffer.position();
+        checkRemaining(buffer, base, data.size());
+
+        write(buffer, base, data, 0, data.size());
+        buffer.position(base + getSizeOf(data.size()));
+    }
+
+    default void writeParallel(ByteBuffer buffer, Object[] data) {
+        writeParallel(buffer, data, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Same as {@link #write(ByteBuffer, Object[])} but splits the array into chunks which are written concurrently into disjoint
+     * slices of the buffer. This is only worth it for large arrays and works best with direct buffers.
+     * @param chunkSize The number of elements written by each task
+     */
+    default void writeParallel(ByteBuffer buffer, Object[] data, int chunkSize) {
+        int base = buffer.position();
+        checkRemaining(buffer, base, data.length);
+
+        forEachChunk(data.length, chunkSize, from -> {
+            int to = Math.min(from + chunkSize, data.length);
+            write(buffer.duplicate().order(buffer.order()), base + from * getStride(), data, from, to);
+        });
+
+        buffer.position(base + getSizeOf(data.length));
+    }
+
+    default void writeParallel(ByteBuffer buffer, List<?> data) {
+        writeParallel(buffer, data, DEFAULT_CHUNK_SIZE);
+    }
+
+    default void writeParallel(ByteBuffer buffer, List<?> data, int chunkSize) {
+        int base = buffer.position();
+        int length = data.size();
+        checkRemaining(buffer, base, length);
+
+        forEachChunk(length, chunkSize, from -> {
+            int to = Math.min(from + chunkSize, length);
+            write(buffer.duplicate().order(buffer.order()), base + from * getStride(), data, from, to);
+        });
+
+        buffer.position(base + getSizeOf(length));
+    }
+
+    private void checkRemaining(ByteBuffer buffer, int base, int count) {
+        //Checked up front so that a parallel write can't fail half way through
+        if (base + getSizeOf(count) > buffer.limit()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private static void forEachChunk(int length, int chunkSize, IntConsumer chunkWriter) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        int chunks = (length + chunkSize - 1) / chunkSize;
+
+        if (chunks <= 1) {
+            if (length > 0) chunkWriter.accept(0);
+            return;
+        }
+
+        IntStream.range(0, chunks).parallel().forEach(chunk -> chunkWriter.accept(chunk * chunkSize));
+    }
+}
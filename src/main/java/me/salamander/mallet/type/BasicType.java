@@ -16,6 +16,7 @@ import org.objectweb.asm.tree.FieldNode;
 import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -29,6 +30,7 @@ public abstract class BasicType extends MalletType {
     private final int alignment;
     private final Object writer;
     private final boolean isMalletPrimitive;
+    private final Map<Class<?>, Object> writers = new ConcurrentHashMap<>();
 
     protected BasicType(Type javaType, String glslName, String postfix, String defaultValue, MalletContext context, int size, int alignment, Object writer, boolean isMalletPrimitive) {
         super(javaType, glslName, context);
@@ -79,15 +81,24 @@ public abstract class BasicType extends MalletType {
         sb.append(" Alignment: ").append(getAlignment());
     }
 
+    /**
+     * The writer is always the same for a given interface, so it is only made once. Boxing wrappers would otherwise be
+     * allocated on every call.
+     */
     @Override
-    public  <T> T makeWriter(Class<T> itf) {
+    @SuppressWarnings("unchecked")
+    public <T> T makeWriter(Class<T> itf) {
+        return (T) writers.computeIfAbsent(itf, this::createWriter);
+    }
+
+    private Object createWriter(Class<?> itf) {
         if (itf.equals(BiConsumer.class)) {
             if (writer instanceof Boxable boxable) {
-                return (T) boxable.box();
+                return boxable.box();
             }
         }
 
-        return (T) writer;
+        return writer;
     }
 
     @Override
@@ -17,6 +17,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -24,6 +25,7 @@ public class EnumType extends MalletType{
     private final List<Field> fields = new ArrayList<>();
     private final Class<?> clazz;
     private final Object[] values;
+    private final Map<Class<?>, Object> writers = new ConcurrentHashMap<>();
 
     public EnumType(Type type, Object[] values, MalletContext context) {
         super(type, context);
@@ -124,10 +126,10 @@ public class EnumType extends MalletType{
     @Override
     @SuppressWarnings("unchecked")
     public  <T> T makeWriter(Class<T> itf) {
-        return (T) (BiConsumer<ByteBuffer, Enum<?>>) (buffer, value) -> {
+        return (T) writers.computeIfAbsent(itf, (k) -> (BiConsumer<ByteBuffer, Enum<?>>) (buffer, value) -> {
             Util.align(buffer, getAlignment());
             buffer.putInt(value == null ? -1 : value.ordinal());
-        };
+        });
     }
 
     @Override
@@ -0,0 +1,57 @@
+package me.salamander.mallet.type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link MalletType} back into objects that already exist instead of constructing new ones. Obtained through
+ * {@link MalletType#makeInstanceReader()}.
+ * <br><br>
+ * Every field is overwritten, including final ones. Object fields are decoded into the object they already hold when their type
+ * supports it, otherwise a new value is stored. Once the targets have been filled once, reading the same data again doesn't
+ * allocate apart from fields whose types can't be updated in place (records and the GLSL vector types).
+ * @param <T> The Java type of the {@link MalletType}
+ */
+public interface InstanceReader<T> {
+    /**
+     * Reads the element starting at {@code base} into {@code target}. The position of the buffer isn't used or changed.
+     * @param target The object to read into. If it is {@code null}, a new object is created
+     * @return {@code target}, the new object if {@code target} was {@code null}, or {@code null} if a nullable type stored null
+     */
+    T read(ByteBuffer buffer, int base, T target);
+
+    /**
+     * Reads consecutive elements with the std430 array stride into {@code targets[from]} to {@code targets[to - 1]}. Each slot is
+     * replaced with what {@link #read(ByteBuffer, int, Object)} returns for it, so {@code null} slots are filled with new objects
+     * @param base Where the first element starts
+     */
+    void read(ByteBuffer buffer, int base, T[] targets, int from, int to);
+
+    /**
+     * @return The distance in bytes between the start of two consecutive elements
+     */
+    int getStride();
+
+    /**
+     * @return The size in bytes of a single element
+     */
+    int getElementSize();
+
+    /**
+     * Reads one element at the position of the buffer into {@code target} and moves the position past it
+     */
+    default T read(ByteBuffer buffer, T target) {
+        int base = buffer.position();
+        T result = read(buffer, base, target);
+        buffer.position(base + getElementSize());
+        return result;
+    }
+
+    /**
+     * Fills the whole array from the position of the buffer and moves the position past the last element
+     */
+    default void read(ByteBuffer buffer, T[] targets) {
+        int base = buffer.position();
+        read(buffer, base, targets, 0, targets.length);
+        buffer.position(base + (targets.length == 0 ? 0 : (targets.length - 1) * getStride() + getElementSize()));
+    }
+}
@@ -8,6 +8,7 @@ import me.salamander.mallet.shaders.compiler.instruction.value.Value;
 import me.salamander.mallet.util.ASMUtil;
 import me.salamander.mallet.util.MathHelper;
 import me.salamander.mallet.util.Util;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -18,6 +19,8 @@ import java.lang.reflect.*;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -26,11 +29,36 @@ import java.util.function.Consumer;
 
 public abstract class MalletType {
     protected static final AtomicLong ID_COUNTER = new AtomicLong();
+    private static final int MAX_CACHED_READERS_PER_INTERFACE = 64;
+
+    /**
+     * Marks the cache keys of raw readers. Field paths always start with "this" so this can't clash with them
+     */
+    private static final String RAW_READER_KEY = "<raw>";
+
+    /**
+     * Readers made by {@link #makeReader(Class, String...)} and {@link #makeRawReader(Class, String...)}, per callback interface
+     * and then per list of fields. The maps are stored on the interface classes themselves so they don't keep the class loaders
+     * of the interfaces alive. Each map only keeps the most recently used readers.
+     */
+    private final ClassValue<Map<List<String>, Object>> readerCache = new ClassValue<>() {
+        @Override
+        protected Map<List<String>, Object> computeValue(Class<?> type) {
+            return new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, Object> eldest) {
+                    return size() > MAX_CACHED_READERS_PER_INTERFACE;
+                }
+            };
+        }
+    };
 
     private final Type javaType;
     private final String glslName;
     protected final MalletContext context;
 
+    private volatile RawWriter cachedRawWriter;
+
     protected MalletType(Type javaType, MalletContext context) {
         this(javaType, Util.removeSpecial(javaType.getClassName()), context);
     }
@@ -73,6 +101,54 @@ public abstract class MalletType {
      */
     public abstract <T> T makeWriter(Class<T> itf);
 
+    /**
+     * @return The distance between two elements of an array of this type
+     */
+    public int getArrayStride() {
+        return MathHelper.align(getSize(), getAlignment());
+    }
+
+    /**
+     * Returns a writer for whole arrays of this type. The default implementation just calls the {@link BiConsumer} writer
+     * for every element; types that generate their writers should override this to generate the loop as well.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayWriter makeArrayWriter() {
+        BiConsumer<ByteBuffer, Object> writer = makeWriter(BiConsumer.class);
+        int stride = getArrayStride();
+        int size = getSize();
+
+        return new ArrayWriter() {
+            @Override
+            public void write(ByteBuffer buffer, int base, Object[] data, int from, int to) {
+                for (int i = from; i < to; i++) {
+                    buffer.position(base);
+                    writer.accept(buffer, data[i]);
+                    base += stride;
+                }
+            }
+
+            @Override
+            public void write(ByteBuffer buffer, int base, List<?> data, int from, int to) {
+                for (int i = from; i < to; i++) {
+                    buffer.position(base);
+                    writer.accept(buffer, data.get(i));
+                    base += stride;
+                }
+            }
+
+            @Override
+            public int getStride() {
+                return stride;
+            }
+
+            @Override
+            public int getElementSize() {
+                return size;
+            }
+        };
+    }
+
     protected abstract void makeWriterCode(MethodVisitor mv, Consumer<MethodVisitor> bufferLoader, Consumer<MethodVisitor> objectLoader, int baseVarIndex);
 
     /**
@@ -81,9 +157,161 @@ public abstract class MalletType {
      * @param args The arguments to pass to the functional interface. "this" will make it pass the whole object to the "this.x", "this.y" will make it pass the x and y.
      *             If x and y are integers then the functional interface should accept {@code int}s.
      * @param <T> A consumer-type interface that matches exactly the types of the arguments.
-     * @return A function that can be used to read an object of this type.
+     * @return A function that can be used to read an object of this type. Readers are cached, so calling this again with the same
+     * arguments returns the same instance.
      */
+    @SuppressWarnings("unchecked")
     public <T> BiConsumer<ByteBuffer, T> makeReader(Class<T> itf, String... args) {
+        return (BiConsumer<ByteBuffer, T>) getReader(itf, false, args);
+    }
+
+    /**
+     * Same as {@link #makeReader(Class, String...)} but the reader loads from a raw address with unchecked loads. Bounds are
+     * checked once per read.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RawReader<T> makeRawReader(Class<T> itf, String... args) {
+        return (RawReader<T>) getReader(itf, true, args);
+    }
+
+    private Object getReader(Class<?> itf, boolean raw, String... args) {
+        Map<List<String>, Object> readers = readerCache.get(itf);
+        List<String> key;
+
+        if (raw) {
+            String[] rawKey = new String[args.length + 1];
+            rawKey[0] = RAW_READER_KEY;
+            System.arraycopy(args, 0, rawKey, 1, args.length);
+            key = List.of(rawKey);
+        } else {
+            key = List.of(args);
+        }
+
+        synchronized (readers) {
+            Object reader = readers.get(key);
+            if (reader != null) {
+                return reader;
+            }
+        }
+
+        //Generated outside the lock. If another thread made the same reader in the meantime, theirs is used
+        Object reader = generateReader(itf, raw, args);
+
+        synchronized (readers) {
+            return readers.computeIfAbsent(key, k -> reader);
+        }
+    }
+
+    /**
+     * Returns a writer that stores values of this type at a raw address with unchecked stores. Bounds are checked once per value
+     * or array instead of on every field. Only types represented by Java objects have raw writers.
+     */
+    public RawWriter makeRawWriter() {
+        RawWriter writer = cachedRawWriter;
+
+        if (writer == null) {
+            synchronized (this) {
+                if (cachedRawWriter == null) {
+                    cachedRawWriter = generateRawWriter();
+                }
+
+                writer = cachedRawWriter;
+            }
+        }
+
+        return writer;
+    }
+
+    private RawWriter generateRawWriter() {
+        if (javaType.getSort() != Type.OBJECT) {
+            throw new UnsupportedOperationException("Raw writers can only be made for object types, not " + getName());
+        }
+
+        String name = "me/salamander/mallet/generated/MalletRawWriter_" + ID_COUNTER.getAndIncrement();
+        String superName = Type.getInternalName(RawWriter.class);
+        String storeDesc = "(J" + javaType.getDescriptor() + ")V";
+
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, name, null, superName, null);
+
+        MethodVisitor mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        ASMUtil.visitIntConstant(mv, getArrayStride());
+        ASMUtil.visitIntConstant(mv, getSize());
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "(II)V", false);
+        mv.visitInsn(Opcodes.RETURN);
+
+        //private static void store(long address, T value). Var 3 is the cursor
+        mv = classNode.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "store", storeDesc, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 0);
+        mv.visitVarInsn(Opcodes.LSTORE, 3);
+        makeWriterCode(
+                new RawMemoryMethodVisitor(mv, 0, 3),
+                (mv1) -> mv1.visitInsn(Opcodes.ACONST_NULL),
+                (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 2),
+                5
+        );
+        mv.visitInsn(Opcodes.RETURN);
+
+        //protected void writeElement(long address, Object value)
+        mv = classNode.visitMethod(Opcodes.ACC_PROTECTED, "writeElement", "(JLjava/lang/Object;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, javaType.getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, "store", storeDesc, false);
+        mv.visitInsn(Opcodes.RETURN);
+
+        /*
+         * protected void writeElements(long address, Object[] data, int from, int to) {
+         *     for (; from < to; from++) {
+         *         store(address, (T) data[from]);
+         *         address += STRIDE;
+         *     }
+         * }
+         */
+        mv = classNode.visitMethod(Opcodes.ACC_PROTECTED, "writeElements", "(J[Ljava/lang/Object;II)V", null, null);
+        mv.visitCode();
+
+        Label loopStart = new Label();
+        Label loopEnd = new Label();
+
+        mv.visitLabel(loopStart);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitVarInsn(Opcodes.ILOAD, 5);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, javaType.getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, "store", storeDesc, false);
+
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitLdcInsn((long) getArrayStride());
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitIincInsn(4, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loopStart);
+
+        mv.visitLabel(loopEnd);
+        mv.visitInsn(Opcodes.RETURN);
+
+        classNode.visitEnd();
+
+        Class<?> clazz = ASMUtil.load(this.getClass().getClassLoader(), classNode)[0];
+
+        try {
+            return (RawWriter) clazz.getConstructors()[0].newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Object generateReader(Class<?> itf, boolean raw, String... args) {
         if (!itf.isInterface()) {
             throw new IllegalArgumentException("itf must be an interface");
         }
@@ -138,7 +366,7 @@ public abstract class MalletType {
         //Get class signature's type arguments
         Map<String, Class<?>> classSignatureTypes = new HashMap<>();
         Map<String, MalletType> classSignatureMalletTypes = new HashMap<>();
-        for (TypeVariable<Class<T>> typeParameter : itf.getTypeParameters()) {
+        for (TypeVariable<?> typeParameter : itf.getTypeParameters()) {
             if (typeParameter.getBounds().length > 1) {
                 throw new IllegalArgumentException("Type parameter " + typeParameter.getName() + " has more than one bound");
             }
@@ -162,8 +390,7 @@ public abstract class MalletType {
             var actualType = method.getGenericParameterTypes()[i];
 
             if (actualType instanceof TypeVariable) {
-                @SuppressWarnings("unchecked")
-                TypeVariable<Class<T>> typeVariable = (TypeVariable<Class<T>>) actualType;
+                TypeVariable<?> typeVariable = (TypeVariable<?>) actualType;
                 String name = typeVariable.getName();
 
                 if (classSignatureMalletTypes.containsKey(name)) {
@@ -191,7 +418,8 @@ public abstract class MalletType {
             }
         }
 
-        String name = "me/salamander/mallet/generated/MalletStructReader_" + ID_COUNTER.getAndIncrement();
+        String name = "me/salamander/mallet/generated/" + (raw ? "MalletRawReader_" : "MalletStructReader_") + ID_COUNTER.getAndIncrement();
+        String superName = raw ? Type.getInternalName(RawReader.class) : "java/lang/Object";
 
         StringBuilder callbackSignature = new StringBuilder();
         callbackSignature.append("L");
@@ -199,7 +427,7 @@ public abstract class MalletType {
 
         if (classSignatureTypes.size() > 0) {
             callbackSignature.append("<");
-            for (TypeVariable<Class<T>> typeParameter : itf.getTypeParameters()) {
+            for (TypeVariable<?> typeParameter : itf.getTypeParameters()) {
                 String typeParameterName = typeParameter.getName();
                 MalletType type = classSignatureMalletTypes.get(typeParameterName);
                 callbackSignature.append(type.getJavaType().getDescriptor());
@@ -209,62 +437,91 @@ public abstract class MalletType {
 
         callbackSignature.append(";");
 
-        String signature = "Ljava/lang/Object;Ljava/util/function/BiConsumer<Ljava/nio/ByteBuffer;" + callbackSignature + ">;";
-
         ClassNode classNode = new ClassNode();
-        classNode.visit(
-                Opcodes.V17,
-                Opcodes.ACC_PUBLIC,
-                name,
-                signature,
-                "java/lang/Object",
-                new String[]{"java/util/function/BiConsumer"}
-        );
-
-
-        //Reader delegator
-        createReaderDelegator(itf, name, classNode);
-
-        //Actual reader
-        MethodVisitor mv = classNode.visitMethod(
-                Opcodes.ACC_PUBLIC,
-                "accept",
-                "(Ljava/nio/ByteBuffer;L" + itf.getName().replace('.', '/') + ";)V",
-                null,
-                null
-        );
-
-        mv.visitCode();
+        MethodVisitor mv;
+        Map<Object, FieldNode> constants = new HashMap<>();
 
-        //Align
-        mv.visitVarInsn(Opcodes.ALOAD, 1);
-        mv.visitIntInsn(Opcodes.BIPUSH, getAlignment());
-        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "me/salamander/mallet/util/Util", "align", "(Ljava/nio/ByteBuffer;I)V", false);
+        if (raw) {
+            String signature = "L" + superName + "<" + callbackSignature + ">;";
+            classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, signature, superName, null);
+
+            //protected void readElement(long address, Object callback). Fields are loaded at absolute offsets from the address
+            mv = classNode.visitMethod(Opcodes.ACC_PROTECTED, "readElement", "(JLjava/lang/Object;)V", null, null);
+            mv.visitCode();
+
+            //Load callback
+            mv.visitVarInsn(Opcodes.ALOAD, 3);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, itf.getName().replace('.', '/'));
+
+            MethodVisitor rawMv = new RawMemoryMethodVisitor(mv, 1, -1);
+
+            //Create params
+            for (int i = 0; i < args.length; i++) {
+                types[i].makeReaderCode(
+                        rawMv,
+                        offsets[i],
+                        (mv1) -> mv1.visitInsn(Opcodes.ACONST_NULL),
+                        (mv1) -> mv1.visitInsn(Opcodes.ICONST_0),
+                        4,
+                        constants,
+                        name
+                );
+            }
+        } else {
+            String signature = "Ljava/lang/Object;Ljava/util/function/BiConsumer<Ljava/nio/ByteBuffer;" + callbackSignature + ">;";
+
+            classNode.visit(
+                    Opcodes.V17,
+                    Opcodes.ACC_PUBLIC,
+                    name,
+                    signature,
+                    superName,
+                    new String[]{"java/util/function/BiConsumer"}
+            );
 
-        //Store start position
-        mv.visitVarInsn(Opcodes.ALOAD, 1);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "position", "()I", false);
-        mv.visitVarInsn(Opcodes.ISTORE, 3);
 
-        //Load callback
-        mv.visitVarInsn(Opcodes.ALOAD, 2);
+            //Reader delegator
+            createReaderDelegator(itf, name, classNode);
 
-        Map<Object, FieldNode> constants = new HashMap<>();
-
-        //Create params
-        for (int i = 0; i < args.length; i++) {
-            MalletType type = types[i];
-            int offset = offsets[i];
-
-            type.makeReaderCode(
-                    mv,
-                    offset,
-                    (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1),
-                    (mv1) -> mv1.visitVarInsn(Opcodes.ILOAD, 3),
-                    4,
-                    constants,
-                    name
+            //Actual reader
+            mv = classNode.visitMethod(
+                    Opcodes.ACC_PUBLIC,
+                    "accept",
+                    "(Ljava/nio/ByteBuffer;L" + itf.getName().replace('.', '/') + ";)V",
+                    null,
+                    null
             );
+
+            mv.visitCode();
+
+            //Align
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitIntInsn(Opcodes.BIPUSH, getAlignment());
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "me/salamander/mallet/util/Util", "align", "(Ljava/nio/ByteBuffer;I)V", false);
+
+            //Store start position
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "position", "()I", false);
+            mv.visitVarInsn(Opcodes.ISTORE, 3);
+
+            //Load callback
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+
+            //Create params
+            for (int i = 0; i < args.length; i++) {
+                MalletType type = types[i];
+                int offset = offsets[i];
+
+                type.makeReaderCode(
+                        mv,
+                        offset,
+                        (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1),
+                        (mv1) -> mv1.visitVarInsn(Opcodes.ILOAD, 3),
+                        4,
+                        constants,
+                        name
+                );
+            }
         }
 
         Type[] argTypes = new Type[args.length];
@@ -277,11 +534,13 @@ public abstract class MalletType {
         mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, itf.getName().replace('.', '/'), method.getName(), methodDesc, true);
 
         //Set position
-        mv.visitVarInsn(Opcodes.ALOAD, 1);
-        mv.visitVarInsn(Opcodes.ILOAD, 3);
-        ASMUtil.visitIntConstant(mv, getSize());
-        mv.visitInsn(Opcodes.IADD);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "position", "(I)Ljava/nio/Buffer;", false);
+        if (!raw) {
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            ASMUtil.visitIntConstant(mv, getSize());
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "position", "(I)Ljava/nio/Buffer;", false);
+        }
 
         mv.visitInsn(Opcodes.RETURN);
 
@@ -308,7 +567,12 @@ public abstract class MalletType {
 
         constructor.visitCode();
         constructor.visitVarInsn(Opcodes.ALOAD, 0);
-        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        if (raw) {
+            ASMUtil.visitIntConstant(constructor, getSize());
+            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "(I)V", false);
+        } else {
+            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        }
 
         int varIndex = 1;
         for (int i = 0; i < entries.length; i++) {
@@ -331,7 +595,7 @@ public abstract class MalletType {
         Class<?> clazz = ASMUtil.load(this.getClass().getClassLoader(), classNode)[0];
         try {
             Constructor<?> reflectionConstructor = clazz.getConstructors()[0];
-            return (BiConsumer<ByteBuffer, T>) reflectionConstructor.newInstance(constructorArgs);
+            return reflectionConstructor.newInstance(constructorArgs);
         } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
             throw new RuntimeException(e);
         }
@@ -360,6 +624,29 @@ public abstract class MalletType {
         mv.visitInsn(Opcodes.RETURN);
     }
 
+    /**
+     * Returns a reader that decodes into objects that already exist instead of constructing new ones, which makes reading the
+     * same buffer over and over allocation free. Only struct types that aren't records support this.
+     */
+    public <T> InstanceReader<T> makeInstanceReader() {
+        throw new UnsupportedOperationException(getName() + " can't be read into existing instances");
+    }
+
+    /**
+     * @return Whether {@link #makeInPlaceReaderCode} is supported by this type
+     */
+    protected boolean canReadInPlace() {
+        return false;
+    }
+
+    /**
+     * Should read the object from the buffer into the object pushed by {@code targetLoader}, overwriting every field. The
+     * caller has already checked that neither the target nor the stored value are null. Nothing is left on the stack.
+     */
+    protected void makeInPlaceReaderCode(MethodVisitor mv, int baseOffset, Consumer<MethodVisitor> bufferLoader, Consumer<MethodVisitor> startPosLoader, Consumer<MethodVisitor> targetLoader, int baseVarIndex, Map<Object, FieldNode> constants, String className) {
+        throw new UnsupportedOperationException(getName() + " can't be read into existing instances");
+    }
+
     /**
      * Should read the object from the buffer and push the read value onto the stack.
      * @param mv
@@ -0,0 +1,107 @@
+package me.salamander.mallet.type;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Turns writer and reader code that works on a {@link java.nio.ByteBuffer} into code that works on a raw address. The buffer
+ * loaders should push {@code null}; the buffer position becomes a {@code long} local holding an address.
+ * <ul>
+ *     <li>Relative puts store at the cursor and move it forward</li>
+ *     <li>{@code position()} and {@code position(int)} are relative to the base address</li>
+ *     <li>Absolute gets load from the base address plus the index</li>
+ * </ul>
+ * No bounds are checked, so the generated method must check them once before running this code. Any other buffer access
+ * can't be translated and throws when the code is generated.
+ */
+class RawMemoryMethodVisitor extends MethodVisitor {
+    private static final String BYTE_BUFFER = "java/nio/ByteBuffer";
+    private static final String RAW_MEMORY = "me/salamander/mallet/util/RawMemory";
+
+    private final int baseVar;
+    private final int cursorVar;
+
+    /**
+     * @param baseVar The local holding the base address
+     * @param cursorVar The local holding the write cursor, or -1 for reader code
+     */
+    RawMemoryMethodVisitor(MethodVisitor mv, int baseVar, int cursorVar) {
+        super(Opcodes.ASM9, mv);
+        this.baseVar = baseVar;
+        this.cursorVar = cursorVar;
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        if (owner.equals("me/salamander/mallet/util/Util") && name.equals("align")) {
+            throw new UnsupportedOperationException("Raw memory code can't align at runtime. Offsets must be known in advance");
+        }
+
+        if (!owner.equals(BYTE_BUFFER)) {
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            return;
+        }
+
+        Type[] args = Type.getArgumentTypes(descriptor);
+        Type returnType = Type.getReturnType(descriptor);
+
+        if (name.equals("position") && args.length == 0) {
+            //Stack: [buffer] -> [cursor - base]
+            super.visitInsn(Opcodes.POP);
+            loadCursor();
+            super.visitVarInsn(Opcodes.LLOAD, baseVar);
+            super.visitInsn(Opcodes.LSUB);
+            super.visitInsn(Opcodes.L2I);
+        } else if (name.equals("position") && args.length == 1) {
+            //Stack: [buffer, position] -> [buffer]
+            super.visitInsn(Opcodes.I2L);
+            super.visitVarInsn(Opcodes.LLOAD, baseVar);
+            super.visitInsn(Opcodes.LADD);
+            storeCursor();
+        } else if (name.startsWith("put") && args.length == 1) {
+            //Stack: [buffer, value] -> [buffer]
+            loadCursor();
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, RAW_MEMORY, name, Type.getMethodDescriptor(Type.VOID_TYPE, args[0], Type.LONG_TYPE), false);
+
+            loadCursor();
+            super.visitLdcInsn((long) sizeOf(args[0]));
+            super.visitInsn(Opcodes.LADD);
+            storeCursor();
+        } else if (name.startsWith("get") && args.length == 1 && args[0] == Type.INT_TYPE) {
+            //Stack: [buffer, index] -> [value]
+            super.visitInsn(Opcodes.I2L);
+            super.visitVarInsn(Opcodes.LLOAD, baseVar);
+            super.visitInsn(Opcodes.LADD);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, RAW_MEMORY, name, Type.getMethodDescriptor(returnType, Type.getType(Object.class), Type.LONG_TYPE), false);
+        } else {
+            throw new UnsupportedOperationException("Cannot translate ByteBuffer." + name + descriptor + " to raw memory access");
+        }
+    }
+
+    private void loadCursor() {
+        checkWriter();
+        super.visitVarInsn(Opcodes.LLOAD, cursorVar);
+    }
+
+    private void storeCursor() {
+        checkWriter();
+        super.visitVarInsn(Opcodes.LSTORE, cursorVar);
+    }
+
+    private void checkWriter() {
+        if (cursorVar < 0) {
+            throw new UnsupportedOperationException("Reader code can only use absolute gets");
+        }
+    }
+
+    private static int sizeOf(Type type) {
+        return switch (type.getSort()) {
+            case Type.BYTE, Type.BOOLEAN -> 1;
+            case Type.SHORT, Type.CHAR -> 2;
+            case Type.INT, Type.FLOAT -> 4;
+            case Type.LONG, Type.DOUBLE -> 8;
+            default -> throw new UnsupportedOperationException("Cannot store " + type + " in raw memory");
+        };
+    }
+}
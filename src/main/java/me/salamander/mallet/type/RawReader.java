@@ -0,0 +1,43 @@
+package me.salamander.mallet.type;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a {@link MalletType} straight from memory at a raw address, in native byte order, and passes the requested fields to a
+ * callback. Obtained through {@link MalletType#makeRawReader(Class, String...)}.
+ * <br><br>
+ * Bounds are checked once per call, after which every field is loaded with an unchecked load at its std430 offset.
+ */
+public abstract class RawReader<T> {
+    private final int size;
+
+    protected RawReader(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param length The number of bytes available at {@code address}
+     */
+    public final void read(long address, long length, T callback) {
+        if (length < size) {
+            throw new IndexOutOfBoundsException("Need " + size + " bytes but only " + length + " are available");
+        }
+
+        readElement(address, callback);
+    }
+
+    /**
+     * Reads one value at the position of a direct buffer and moves the position past it
+     * @throws IllegalArgumentException If the buffer isn't direct
+     */
+    public void read(ByteBuffer buffer, T callback) {
+        read(RawWriter.addressOf(buffer), buffer.remaining(), callback);
+        buffer.position(buffer.position() + size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    protected abstract void readElement(long address, Object callback);
+}
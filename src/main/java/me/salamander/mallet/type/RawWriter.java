@@ -0,0 +1,100 @@
+package me.salamander.mallet.type;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a {@link MalletType} straight to memory at a raw address, in native byte order. Obtained through
+ * {@link MalletType#makeRawWriter()}.
+ * <br><br>
+ * Bounds are checked once per call against the given length, after which every field is stored with an unchecked store at
+ * its std430 offset. This avoids the bounds and position bookkeeping of the {@link ByteBuffer} writers. The caller is
+ * responsible for the address actually pointing to {@code length} writable bytes.
+ */
+public abstract class RawWriter {
+    private final int stride;
+    private final int elementSize;
+
+    protected RawWriter(int stride, int elementSize) {
+        this.stride = stride;
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Writes one value at {@code address}
+     * @param length The number of bytes available at {@code address}
+     */
+    public final void write(long address, long length, Object value) {
+        if (length < elementSize) {
+            throw new IndexOutOfBoundsException("Need " + elementSize + " bytes but only " + length + " are available");
+        }
+
+        writeElement(address, value);
+    }
+
+    /**
+     * Writes {@code data[from]} to {@code data[to - 1]} with the std430 array stride, starting at {@code address}
+     * @param length The number of bytes available at {@code address}
+     */
+    public final void write(long address, long length, Object[] data, int from, int to) {
+        if (from < 0 || to > data.length || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") of array of length " + data.length);
+        }
+
+        long needed = to == from ? 0 : (long) (to - from - 1) * stride + elementSize;
+        if (length < needed) {
+            throw new IndexOutOfBoundsException("Need " + needed + " bytes but only " + length + " are available");
+        }
+
+        writeElements(address, data, from, to);
+    }
+
+    /**
+     * Writes one value at the position of a direct buffer and moves the position past it
+     * @throws IllegalArgumentException If the buffer isn't direct
+     */
+    public void write(ByteBuffer buffer, Object value) {
+        write(addressOf(buffer), buffer.remaining(), value);
+        buffer.position(buffer.position() + elementSize);
+    }
+
+    /**
+     * Writes the whole array at the position of a direct buffer and moves the position past the last element
+     * @throws IllegalArgumentException If the buffer isn't direct
+     */
+    public void write(ByteBuffer buffer, Object[] data) {
+        write(addressOf(buffer), buffer.remaining(), data, 0, data.length);
+        buffer.position(buffer.position() + getSizeOf(data.length));
+    }
+
+    /**
+     * @return The amount of bytes needed to write {@code count} elements. The padding after the last element isn't counted
+     */
+    public int getSizeOf(int count) {
+        return count == 0 ? 0 : (count - 1) * stride + elementSize;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getElementSize() {
+        return elementSize;
+    }
+
+    /**
+     * @return The address of the position of {@code buffer}. Heap buffers have no stable address, so they are rejected
+     */
+    static long addressOf(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Raw writers and readers need a direct buffer");
+        }
+
+        return MemoryUtil.memAddress(buffer);
+    }
+
+    protected abstract void writeElement(long address, Object value);
+
+    protected abstract void writeElements(long address, Object[] data, int from, int to);
+}
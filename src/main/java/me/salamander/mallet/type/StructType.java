@@ -37,6 +37,8 @@ public class StructType extends MalletType {
     public ObjectConstructor constructor;
 
     private BiConsumer<ByteBuffer, Object> cachedWriter = null;
+    private ArrayWriter cachedArrayWriter = null;
+    private InstanceReader<?> cachedInstanceReader = null;
 
     public StructType(Type type, MalletContext ctx) {
         super(type, ctx);
@@ -327,6 +329,121 @@ public class StructType extends MalletType {
         return (T) cachedWriter;
     }
 
+    /**
+     * Generates a class whose loops write every element through a static method containing the same code as the writer from
+     * {@link #makeWriter(Class)}. This lets the JIT inline the element writer into the loop instead of going through an
+     * interface call for every element.
+     */
+    @Override
+    public ArrayWriter makeArrayWriter() {
+        if (cachedArrayWriter != null) {
+            return cachedArrayWriter;
+        }
+
+        ClassNode classNode = new ClassNode();
+
+        String name = "me/salamander/mallet/generated/MalletStructArrayWriter_" + ID_GENERATOR.getAndIncrement();
+
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, name, null, "java/lang/Object", new String[]{Type.getInternalName(ArrayWriter.class)});
+
+        ASMUtil.createDefaultConstructor(classNode);
+
+        createElementWriter(classNode);
+        createArrayLoop(classNode, "[Ljava/lang/Object;", (mv) -> mv.visitInsn(Opcodes.AALOAD));
+        createArrayLoop(classNode, "Ljava/util/List;", (mv) -> mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;", true));
+        createIntGetter(classNode, "getStride", getArrayStride());
+        createIntGetter(classNode, "getElementSize", getSize());
+
+        Class<?> clazz = ASMUtil.load(this.getClass().getClassLoader(), classNode)[0];
+
+        try {
+            cachedArrayWriter = (ArrayWriter) clazz.getConstructors()[0].newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+
+        return cachedArrayWriter;
+    }
+
+    /**
+     * Creates {@code private static void writeElement(ByteBuffer buffer, T value)} which writes the value at the position of the buffer
+     */
+    private void createElementWriter(ClassNode classNode) {
+        MethodVisitor mv = classNode.visitMethod(
+                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
+                "writeElement",
+                "(Ljava/nio/ByteBuffer;" + this.getJavaType().getDescriptor() + ")V",
+                null,
+                null
+        );
+
+        mv.visitCode();
+
+        makeWriterCode(mv, (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 0), (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1), 2);
+
+        mv.visitInsn(Opcodes.RETURN);
+    }
+
+    /**
+     * Creates {@code public void write(ByteBuffer buffer, int base, <collection> data, int from, int to)}
+     * @param elementLoader Takes the collection and the index and pushes the element
+     */
+    private void createArrayLoop(ClassNode classNode, String collectionDesc, Consumer<MethodVisitor> elementLoader) {
+        MethodVisitor mv = classNode.visitMethod(
+                Opcodes.ACC_PUBLIC,
+                "write",
+                "(Ljava/nio/ByteBuffer;I" + collectionDesc + "II)V",
+                null,
+                null
+        );
+
+        mv.visitCode();
+
+        /*
+         * for (; from < to; from++) {
+         *     buffer.position(base);
+         *     writeElement(buffer, (T) data[from]);
+         *     base += STRIDE;
+         * }
+         */
+        Label loopStart = new Label();
+        Label loopEnd = new Label();
+
+        mv.visitLabel(loopStart);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitVarInsn(Opcodes.ILOAD, 5);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "position", "(I)Ljava/nio/ByteBuffer;", false);
+        mv.visitInsn(Opcodes.POP);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        elementLoader.accept(mv);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, this.getJavaType().getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, classNode.name, "writeElement", "(Ljava/nio/ByteBuffer;" + this.getJavaType().getDescriptor() + ")V", false);
+
+        mv.visitIincInsn(4, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        ASMUtil.visitIntConstant(mv, getArrayStride());
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitJumpInsn(Opcodes.GOTO, loopStart);
+
+        mv.visitLabel(loopEnd);
+        mv.visitInsn(Opcodes.RETURN);
+    }
+
+    private static void createIntGetter(ClassNode classNode, String name, int value) {
+        MethodVisitor mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, name, "()I", null, null);
+        mv.visitCode();
+        ASMUtil.visitIntConstant(mv, value);
+        mv.visitInsn(Opcodes.IRETURN);
+    }
+
     private void createGenericDelegate(ClassNode classNode, Method method) {
         MethodVisitor mv = classNode.visitMethod(
                 Opcodes.ACC_PUBLIC,
@@ -517,10 +634,7 @@ public class StructType extends MalletType {
         if (nullable) {
             Label isNotNull = new Label();
 
-            bufferLoader.accept(mv);
-            startPosLoader.accept(mv);
-
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "get", "(I)B", false);
+            makeNullFlagCode(mv, baseOffset, bufferLoader, startPosLoader);
             mv.visitJumpInsn(Opcodes.IFEQ, isNotNull);
 
             mv.visitInsn(Opcodes.ACONST_NULL);
@@ -555,6 +669,245 @@ public class StructType extends MalletType {
         mv.visitLabel(end);
     }
 
+    /**
+     * Pushes the byte that is non-zero if a nullable struct at {@code baseOffset} is null
+     */
+    private static void makeNullFlagCode(MethodVisitor mv, int baseOffset, Consumer<MethodVisitor> bufferLoader, Consumer<MethodVisitor> startPosLoader) {
+        bufferLoader.accept(mv);
+        startPosLoader.accept(mv);
+        ASMUtil.visitIntConstant(mv, baseOffset);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/nio/ByteBuffer", "get", "(I)B", false);
+    }
+
+    /**
+     * Records can't be changed after they are constructed, not even through Unsafe
+     */
+    @Override
+    protected boolean canReadInPlace() {
+        return !Record.class.isAssignableFrom(Util.getClass(getJavaType()));
+    }
+
+    /**
+     * Generates a class like the one from {@link #makeArrayWriter()}, whose loop reads every element through a private method.
+     * Primitive fields are stored with Unsafe so that final fields can be updated as well.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T> InstanceReader<T> makeInstanceReader() {
+        if (!canReadInPlace()) {
+            throw new UnsupportedOperationException(getName() + " is a record, so it can't be read into existing instances");
+        }
+
+        if (cachedInstanceReader != null) {
+            return (InstanceReader<T>) cachedInstanceReader;
+        }
+
+        ClassNode classNode = new ClassNode();
+
+        String name = "me/salamander/mallet/generated/MalletInstanceReader_" + ID_GENERATOR.getAndIncrement();
+        String elementDesc = "(Ljava/nio/ByteBuffer;I" + this.getJavaType().getDescriptor() + ")" + this.getJavaType().getDescriptor();
+
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, name, null, "java/lang/Object", new String[]{Type.getInternalName(InstanceReader.class)});
+
+        Map<Object, FieldNode> constants = new HashMap<>();
+        createInstanceElementReader(classNode, elementDesc, constants);
+
+        //public Object read(ByteBuffer buffer, int base, Object target)
+        MethodVisitor mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, "read", "(Ljava/nio/ByteBuffer;ILjava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, this.getJavaType().getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "readElement", elementDesc, false);
+        mv.visitInsn(Opcodes.ARETURN);
+
+        /*
+         * public void read(ByteBuffer buffer, int base, Object[] targets, int from, int to) {
+         *     for (; from < to; from++) {
+         *         targets[from] = readElement(buffer, base, (T) targets[from]);
+         *         base += STRIDE;
+         *     }
+         * }
+         */
+        mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, "read", "(Ljava/nio/ByteBuffer;I[Ljava/lang/Object;II)V", null, null);
+        mv.visitCode();
+
+        Label loopStart = new Label();
+        Label loopEnd = new Label();
+
+        mv.visitLabel(loopStart);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitVarInsn(Opcodes.ILOAD, 5);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, this.getJavaType().getInternalName());
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "readElement", elementDesc, false);
+        mv.visitInsn(Opcodes.AASTORE);
+
+        mv.visitIincInsn(4, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        ASMUtil.visitIntConstant(mv, getArrayStride());
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitJumpInsn(Opcodes.GOTO, loopStart);
+
+        mv.visitLabel(loopEnd);
+        mv.visitInsn(Opcodes.RETURN);
+
+        createIntGetter(classNode, "getStride", getArrayStride());
+        createIntGetter(classNode, "getElementSize", getSize());
+
+        //The constants used by the reader code are passed to the constructor
+        Map.Entry<Object, FieldNode>[] entries = constants.entrySet().toArray(new Map.Entry[0]);
+        StringBuilder constructorDesc = new StringBuilder("(");
+        Object[] constructorArgs = new Object[entries.length];
+
+        for (int i = 0; i < entries.length; i++) {
+            constructorDesc.append(entries[i].getValue().desc);
+            constructorArgs[i] = entries[i].getKey();
+            classNode.fields.add(entries[i].getValue());
+        }
+        constructorDesc.append(")V");
+
+        mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, "<init>", constructorDesc.toString(), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+
+        for (int i = 0; i < entries.length; i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, i + 1);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, name, entries[i].getValue().name, entries[i].getValue().desc);
+        }
+
+        mv.visitInsn(Opcodes.RETURN);
+
+        Class<?> clazz = ASMUtil.load(this.getClass().getClassLoader(), classNode)[0];
+
+        try {
+            cachedInstanceReader = (InstanceReader<?>) clazz.getConstructors()[0].newInstance(constructorArgs);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+
+        return (InstanceReader<T>) cachedInstanceReader;
+    }
+
+    /**
+     * Creates {@code private T readElement(ByteBuffer buffer, int start, T target)} which reads into the target, or into a new
+     * object if the target is null
+     */
+    private void createInstanceElementReader(ClassNode classNode, String elementDesc, Map<Object, FieldNode> constants) {
+        MethodVisitor mv = classNode.visitMethod(Opcodes.ACC_PRIVATE, "readElement", elementDesc, null, null);
+        mv.visitCode();
+
+        Label allocate = new Label();
+
+        if (nullable) {
+            Label isNotNull = new Label();
+
+            makeNullFlagCode(mv, 0, (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1), (mv1) -> mv1.visitVarInsn(Opcodes.ILOAD, 2));
+            mv.visitJumpInsn(Opcodes.IFEQ, isNotNull);
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitInsn(Opcodes.ARETURN);
+
+            mv.visitLabel(isNotNull);
+        }
+
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitJumpInsn(Opcodes.IFNULL, allocate);
+
+        makeInPlaceReaderCode(
+                mv,
+                0,
+                (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1),
+                (mv1) -> mv1.visitVarInsn(Opcodes.ILOAD, 2),
+                (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 3),
+                4,
+                constants,
+                classNode.name
+        );
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitInsn(Opcodes.ARETURN);
+
+        mv.visitLabel(allocate);
+        makeReaderCode(
+                mv,
+                0,
+                (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, 1),
+                (mv1) -> mv1.visitVarInsn(Opcodes.ILOAD, 2),
+                4,
+                constants,
+                classNode.name
+        );
+        mv.visitInsn(Opcodes.ARETURN);
+    }
+
+    @Override
+    protected void makeInPlaceReaderCode(MethodVisitor mv, int baseOffset, Consumer<MethodVisitor> bufferLoader, Consumer<MethodVisitor> startPosLoader, Consumer<MethodVisitor> targetLoader, int baseVarIndex, Map<Object, FieldNode> constants, String className) {
+        int existingVarIndex = baseVarIndex++;
+
+        for (Field field : fields) {
+            Type objectType = Type.getType(field.getType());
+            MalletType fieldType = context.getType(objectType);
+            int offset = baseOffset + getOffsetOfField(field.getName());
+
+            Label store = new Label();
+            Label next = new Label();
+
+            if (objectType.getSort() == Type.OBJECT && fieldType.canReadInPlace()) {
+                /*
+                 * T existing = target.field;
+                 * if (existing != null && !<stored value is null>) {
+                 *     <read into existing>
+                 * } else {
+                 *     target.field = <read new value>;
+                 * }
+                 */
+                targetLoader.accept(mv);
+                fieldReaders.get(field.getName()).accept(mv);
+                mv.visitVarInsn(Opcodes.ASTORE, existingVarIndex);
+                mv.visitVarInsn(Opcodes.ALOAD, existingVarIndex);
+                mv.visitJumpInsn(Opcodes.IFNULL, store);
+
+                if (fieldType.isNullable()) {
+                    makeNullFlagCode(mv, offset, bufferLoader, startPosLoader);
+                    mv.visitJumpInsn(Opcodes.IFNE, store);
+                }
+
+                fieldType.makeInPlaceReaderCode(mv, offset, bufferLoader, startPosLoader, (mv1) -> mv1.visitVarInsn(Opcodes.ALOAD, existingVarIndex), baseVarIndex, constants, className);
+                mv.visitJumpInsn(Opcodes.GOTO, next);
+            }
+
+            //Stored with Unsafe because the field may be final
+            mv.visitLabel(store);
+            mv.visitFieldInsn(Opcodes.GETSTATIC, Util.class.getName().replace('.', '/'), "UNSAFE", "Lsun/misc/Unsafe;");
+            targetLoader.accept(mv);
+            mv.visitLdcInsn(Util.UNSAFE.objectFieldOffset(field));
+            fieldType.makeReaderCode(mv, offset, bufferLoader, startPosLoader, baseVarIndex, constants, className);
+            UnsafeConstructor.visitUnsafePut(mv, objectType);
+
+            mv.visitLabel(next);
+        }
+    }
+
+    @Override
+    public boolean isNullable() {
+        return nullable;
+    }
+
     @Override
     public Set<Type> dependsOn() {
         Set<Type> dependsOn = new HashSet<>();
@@ -67,39 +67,47 @@ public class UnsafeConstructor implements ObjectConstructor {
             mv.visitLdcInsn(fieldOffsets[i]);
             mv.visitVarInsn(types[i].getOpcode(Opcodes.ILOAD), vars[i]);
 
-            String methodName, methodDesc;
-            if (types[i] == Type.BOOLEAN_TYPE) {
-                methodName = "putBoolean";
-                methodDesc = "(Ljava/lang/Object;JZ)V";
-            } else if (types[i] == Type.BYTE_TYPE) {
-                methodName = "putByte";
-                methodDesc = "(Ljava/lang/Object;JB)V";
-            } else if (types[i] == Type.CHAR_TYPE) {
-                methodName = "putChar";
-                methodDesc = "(Ljava/lang/Object;JC)V";
-            } else if (types[i] == Type.DOUBLE_TYPE) {
-                methodName = "putDouble";
-                methodDesc = "(Ljava/lang/Object;JD)V";
-            } else if (types[i] == Type.FLOAT_TYPE) {
-                methodName = "putFloat";
-                methodDesc = "(Ljava/lang/Object;JF)V";
-            } else if (types[i] == Type.INT_TYPE) {
-                methodName = "putInt";
-                methodDesc = "(Ljava/lang/Object;JI)V";
-            } else if (types[i] == Type.LONG_TYPE) {
-                methodName = "putLong";
-                methodDesc = "(Ljava/lang/Object;JJ)V";
-            } else if (types[i] == Type.SHORT_TYPE) {
-                methodName = "putShort";
-                methodDesc = "(Ljava/lang/Object;JS)V";
-            } else {
-                methodName = "putObject";
-                methodDesc = "(Ljava/lang/Object;JLjava/lang/Object;)V";
-            }
-
-            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sun/misc/Unsafe", methodName, methodDesc, false);
+            visitUnsafePut(mv, types[i]);
         }
 
         mv.visitVarInsn(Opcodes.ALOAD, objectVarIndex);
     }
+
+    /**
+     * Emits the {@code Unsafe.putX(Object, long, X)} call that stores a value of the given type.
+     * Stack: [unsafe, object, offset, value] -> []
+     */
+    public static void visitUnsafePut(MethodVisitor mv, Type type) {
+        String methodName, methodDesc;
+        if (type == Type.BOOLEAN_TYPE) {
+            methodName = "putBoolean";
+            methodDesc = "(Ljava/lang/Object;JZ)V";
+        } else if (type == Type.BYTE_TYPE) {
+            methodName = "putByte";
+            methodDesc = "(Ljava/lang/Object;JB)V";
+        } else if (type == Type.CHAR_TYPE) {
+            methodName = "putChar";
+            methodDesc = "(Ljava/lang/Object;JC)V";
+        } else if (type == Type.DOUBLE_TYPE) {
+            methodName = "putDouble";
+            methodDesc = "(Ljava/lang/Object;JD)V";
+        } else if (type == Type.FLOAT_TYPE) {
+            methodName = "putFloat";
+            methodDesc = "(Ljava/lang/Object;JF)V";
+        } else if (type == Type.INT_TYPE) {
+            methodName = "putInt";
+            methodDesc = "(Ljava/lang/Object;JI)V";
+        } else if (type == Type.LONG_TYPE) {
+            methodName = "putLong";
+            methodDesc = "(Ljava/lang/Object;JJ)V";
+        } else if (type == Type.SHORT_TYPE) {
+            methodName = "putShort";
+            methodDesc = "(Ljava/lang/Object;JS)V";
+        } else {
+            methodName = "putObject";
+            methodDesc = "(Ljava/lang/Object;JLjava/lang/Object;)V";
+        }
+
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "sun/misc/Unsafe", methodName, methodDesc, false);
+    }
 }
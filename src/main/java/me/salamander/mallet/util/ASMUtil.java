@@ -2,6 +2,7 @@ package me.salamander.mallet.util;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import me.salamander.mallet.generated.Marker;
 import org.lwjgl.opengl.GL45;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
@@ -11,14 +12,33 @@ import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ASMUtil {
     private static final Int2ObjectMap<String> glEnumMap = new Int2ObjectOpenHashMap<>();
 
+    /**
+     * Set this property to {@code true} to write every generated class to {@code run/generated-classes}
+     */
+    public static final String DUMP_CLASSES_PROPERTY = "mallet.dumpGeneratedClasses";
+    /**
+     * Set this property to {@code false} to load every generated class through the shared class loader instead of as hidden classes
+     */
+    public static final String HIDDEN_CLASSES_PROPERTY = "mallet.hiddenClasses";
+
+    private static final boolean DUMP_CLASSES = Boolean.getBoolean(DUMP_CLASSES_PROPERTY);
+    private static final boolean USE_HIDDEN_CLASSES = Boolean.parseBoolean(System.getProperty(HIDDEN_CLASSES_PROPERTY, "true"));
+
+    private static final String GENERATED_PACKAGE = "me/salamander/mallet/generated/";
+    private static final MethodHandles.Lookup GENERATED_LOOKUP = makeGeneratedLookup();
+    private static final GeneratedClassLoader SHARED_LOADER = new GeneratedClassLoader(ASMUtil.class.getClassLoader());
+
     public static Type getSingleType(Type arrayType){
         if(arrayType.getSort() != Type.ARRAY){
             throw new IllegalArgumentException("Type is not an array type");
@@ -73,17 +93,7 @@ public class ASMUtil {
                 for (ClassNode classNode : classNodes) {
                     if (classNode.name.equals(slashedName)) {
                         byte[] bytes = write(classNode);
-
-                        Path out = Path.of("run/generated-classes/" + slashedName + ".class");
-                        try {
-                            out.getParent().toFile().mkdirs();
-                            out.toFile().delete();
-                            out.toFile().createNewFile();
-
-                            Files.write(out, bytes);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
+                        dump(slashedName, bytes);
 
                         return defineClass(name, bytes, 0, bytes.length);
                     }
@@ -94,8 +104,32 @@ public class ASMUtil {
         };
     }
 
+    /**
+     * Loads generated classes. A single class in the {@code me.salamander.mallet.generated} package is defined as a hidden class
+     * so that it can be unloaded as soon as it isn't used anymore. Anything else is defined by a class loader shared by all
+     * generated classes, or by a new class loader if {@code parent} isn't the loader of Mallet.
+     */
     public static Class<?>[] load(ClassLoader parent, ClassNode... classNodes) {
-        ClassLoader classLoader = makeClassLoader(parent, classNodes);
+        return load(parent, USE_HIDDEN_CLASSES, classNodes);
+    }
+
+    /**
+     * @param hidden Whether a single class in the generated package is defined as a hidden class. The public overload reads
+     *               this from {@link #HIDDEN_CLASSES_PROPERTY}
+     */
+    static Class<?>[] load(ClassLoader parent, boolean hidden, ClassNode... classNodes) {
+        if (hidden && classNodes.length == 1 && canDefineHidden(parent, classNodes[0])) {
+            byte[] bytes = write(classNodes[0]);
+            dump(classNodes[0].name, bytes);
+
+            try {
+                return new Class<?>[]{ GENERATED_LOOKUP.defineHiddenClass(bytes, true).lookupClass() };
+            } catch (IllegalAccessException e) {
+                //Fall through to the shared loader
+            }
+        }
+
+        ClassLoader classLoader = parent == SHARED_LOADER.getParent() ? SHARED_LOADER.add(classNodes) : makeClassLoader(parent, classNodes);
 
         Class<?>[] classes = new Class<?>[classNodes.length];
 
@@ -111,6 +145,34 @@ public class ASMUtil {
         return classes;
     }
 
+    private static boolean canDefineHidden(ClassLoader parent, ClassNode classNode) {
+        //The hidden class resolves everything through the loader of the lookup class and has to be in the same package
+        return GENERATED_LOOKUP != null
+                && parent == GENERATED_LOOKUP.lookupClass().getClassLoader()
+                && classNode.name.startsWith(GENERATED_PACKAGE)
+                && classNode.name.indexOf('/', GENERATED_PACKAGE.length()) == -1;
+    }
+
+    private static MethodHandles.Lookup makeGeneratedLookup() {
+        try {
+            return MethodHandles.privateLookupIn(Marker.class, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static void dump(String name, byte[] bytes) {
+        if (!DUMP_CLASSES) return;
+
+        Path out = Path.of("run/generated-classes/" + name + ".class");
+        try {
+            Files.createDirectories(out.getParent());
+            Files.write(out, bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static byte[] write(ClassNode classNode) {
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
 
@@ -147,4 +209,42 @@ public class ASMUtil {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Class loader for generated classes which can't be hidden classes. Classes are only defined when they are first loaded so
+     * that classes added together can reference each other.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Map<String, ClassNode> pending = new ConcurrentHashMap<>();
+
+        private GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private GeneratedClassLoader add(ClassNode... classNodes) {
+            for (ClassNode classNode : classNodes) {
+                pending.put(classNode.name.replace('/', '.'), classNode);
+            }
+
+            return this;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ClassNode classNode = pending.remove(name);
+
+            if (classNode == null) {
+                return super.findClass(name);
+            }
+
+            byte[] bytes = write(classNode);
+            dump(classNode.name, bytes);
+
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
 }
@@ -0,0 +1,75 @@
+package me.salamander.mallet.util;
+
+import sun.misc.Unsafe;
+
+/**
+ * Unchecked memory accesses called by the raw writers and readers generated by
+ * {@link me.salamander.mallet.type.MalletType#makeRawWriter()} and {@link me.salamander.mallet.type.MalletType#makeRawReader(Class, String...)}.
+ * Everything is in native byte order.
+ * <br><br>
+ * Stores take the value before the address because that is the order they end up on the stack in. Loads take an ignored
+ * object, which is where the generated code had the buffer.
+ */
+public final class RawMemory {
+    private static final Unsafe UNSAFE = Util.UNSAFE;
+
+    private RawMemory() {
+
+    }
+
+    public static void put(byte value, long address) {
+        UNSAFE.putByte(address, value);
+    }
+
+    public static void putShort(short value, long address) {
+        UNSAFE.putShort(address, value);
+    }
+
+    public static void putChar(char value, long address) {
+        UNSAFE.putChar(address, value);
+    }
+
+    public static void putInt(int value, long address) {
+        UNSAFE.putInt(address, value);
+    }
+
+    public static void putLong(long value, long address) {
+        UNSAFE.putLong(address, value);
+    }
+
+    public static void putFloat(float value, long address) {
+        UNSAFE.putFloat(address, value);
+    }
+
+    public static void putDouble(double value, long address) {
+        UNSAFE.putDouble(address, value);
+    }
+
+    public static byte get(Object ignored, long address) {
+        return UNSAFE.getByte(address);
+    }
+
+    public static short getShort(Object ignored, long address) {
+        return UNSAFE.getShort(address);
+    }
+
+    public static char getChar(Object ignored, long address) {
+        return UNSAFE.getChar(address);
+    }
+
+    public static int getInt(Object ignored, long address) {
+        return UNSAFE.getInt(address);
+    }
+
+    public static long getLong(Object ignored, long address) {
+        return UNSAFE.getLong(address);
+    }
+
+    public static float getFloat(Object ignored, long address) {
+        return UNSAFE.getFloat(address);
+    }
+
+    public static double getDouble(Object ignored, long address) {
+        return UNSAFE.getDouble(address);
+    }
+}
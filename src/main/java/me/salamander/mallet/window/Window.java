@@ -1,15 +1,13 @@
 package me.salamander.mallet.window;
 
 import me.salamander.mallet.Mallet;
+import me.salamander.mallet.globject.backend.GLBackend;
 import org.joml.Matrix4f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.*;
-import org.lwjgl.opengl.GL;
-import org.lwjgl.system.MemoryStack;
 
 import java.awt.*;
-import java.nio.IntBuffer;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,6 +15,7 @@ import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL45.*;
 
 public class Window {
+    private final GLBackend backend = GLBackend.get();
     private final long windowHandle;
     private boolean destroyed = false;
 
@@ -54,7 +53,7 @@ public class Window {
         this.windowHandle = glfwCreateWindow(options.getWidth(), options.getHeight(), options.getTitle(), monitor, 0);
 
         makeCurrent();
-        GL.createCapabilities();
+        backend.createCapabilities();
 
         glfwSetWindowCloseCallback(windowHandle, this::onClose);
         glfwSetFramebufferSizeCallback(windowHandle, this::onResize);
@@ -72,17 +71,17 @@ public class Window {
             setPos(options.getX(), options.getY());
         }
 
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        backend.enable(GL_BLEND);
+        backend.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
         //Make wireframe
         //glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
 
         //Enable scissor
-        glEnable(GL_SCISSOR_TEST);
+        backend.enable(GL_SCISSOR_TEST);
 
         if (options.getSamples() != 1) {
-            glEnable(GL_MULTISAMPLE);
+            backend.enable(GL_MULTISAMPLE);
         }
     }
 
@@ -140,7 +139,7 @@ public class Window {
      * Clears the color and depth buffers of this window. The window must be the current context
      */
     public void clear(){
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        backend.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
     }
 
     /**
@@ -212,7 +211,7 @@ public class Window {
      */
     public void setClearColor(float r, float g, float b, float a) {
         makeCurrent();
-        glClearColor(r, g, b, a);
+        backend.clearColor(r, g, b, a);
     }
 
     /**
@@ -343,7 +342,7 @@ public class Window {
     }
 
     private void onResize(long windowHandle, int width, int height) {
-        glViewport(0, 0, width, height);
+        backend.viewport(0, 0, width, height);
 
         this.width = width;
         this.height = height;
@@ -382,8 +381,8 @@ public class Window {
     }
 
     public void beginFrame() {
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        glScissor(- (1 << 13), - (1 << 13), (1 << 13) * 2, (1 << 13) * 2);
+        backend.clear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        backend.scissor(- (1 << 13), - (1 << 13), (1 << 13) * 2, (1 << 13) * 2);
         GLFW.glfwPollEvents();
     }
 
@@ -392,18 +391,13 @@ public class Window {
     }
 
     public String[] getSupportedExtensions(){
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            IntBuffer numExtensions = stack.mallocInt(1);
-            glGetIntegerv(GL_NUM_EXTENSIONS, numExtensions);
+        String[] extensions = new String[backend.getInteger(GL_NUM_EXTENSIONS)];
 
-            String[] extensions = new String[numExtensions.get(0)];
-
-            for (int i = 0; i < extensions.length; i++) {
-                extensions[i] = glGetStringi(GL_EXTENSIONS, i);
-            }
-
-            return extensions;
+        for (int i = 0; i < extensions.length; i++) {
+            extensions[i] = backend.getStringi(GL_EXTENSIONS, i);
         }
+
+        return extensions;
     }
 
     static public record ContentScale(float xScale, float yScale){
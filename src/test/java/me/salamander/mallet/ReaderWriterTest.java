@@ -1,14 +1,23 @@
 package me.salamander.mallet;
 
 import me.salamander.mallet.shaders.annotation.NullableType;
+import me.salamander.mallet.type.ArrayWriter;
+import me.salamander.mallet.type.BasicType;
+import me.salamander.mallet.type.InstanceReader;
 import me.salamander.mallet.type.MalletType;
+import me.salamander.mallet.type.RawReader;
+import me.salamander.mallet.type.RawWriter;
 import me.salamander.mallet.util.Ref;
 import org.joml.Vector3f;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
 import org.objectweb.asm.Type;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Random;
 import java.util.function.BiConsumer;
@@ -84,6 +93,257 @@ public class ReaderWriterTest {
         }
     }
 
+    @Test
+    public void readerCacheTest() {
+        Type type = Type.getType(TestStruct.class);
+        MalletType malletType = context.getType(type);
+
+        BiConsumer<ByteBuffer, Consumer> reader = malletType.makeReader(Consumer.class, "this");
+        assertSame(reader, malletType.makeReader(Consumer.class, "this"));
+
+        BiConsumer<ByteBuffer, TestStructVisitor> splitReader = malletType.makeReader(TestStructVisitor.class, "this.x", "this.vec.x", "this.vec.y", "this.vec.z", "this.y", "this.magic");
+        assertSame(splitReader, malletType.makeReader(TestStructVisitor.class, "this.x", "this.vec.x", "this.vec.y", "this.vec.z", "this.y", "this.magic"));
+        assertNotSame(reader, splitReader);
+
+        //The cached reader still has to work
+        ByteBuffer buffer = ByteBuffer.allocate(testData.length * malletType.getSize());
+        BiConsumer<ByteBuffer, TestStruct> writer = malletType.makeWriter(BiConsumer.class);
+
+        for (TestStruct testDatum : testData) {
+            writer.accept(buffer, testDatum);
+        }
+
+        buffer.flip();
+
+        for (int i = 0; i < testData.length; i++) {
+            int finalI = i;
+            malletType.makeReader(Consumer.class, "this").accept(buffer, (testStruct) -> {
+                assertEquals(testData[finalI], testStruct);
+            });
+        }
+    }
+
+    @Test
+    public void writerCacheTest() {
+        MalletType intType = context.getType(Type.INT_TYPE);
+
+        BasicType.IntWriter intWriter = intType.makeWriter(BasicType.IntWriter.class);
+        assertSame(intWriter, intType.makeWriter(BasicType.IntWriter.class));
+
+        BiConsumer<ByteBuffer, Object> boxedWriter = intType.makeWriter(BiConsumer.class);
+        assertSame(boxedWriter, intType.makeWriter(BiConsumer.class));
+        assertNotSame(intWriter, boxedWriter);
+
+        MalletType enumType = context.getType(Type.getType(MagicEnum.class));
+        BiConsumer<ByteBuffer, Object> enumWriter = enumType.makeWriter(BiConsumer.class);
+        assertSame(enumWriter, enumType.makeWriter(BiConsumer.class));
+
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        boxedWriter.accept(buffer, 7);
+        enumWriter.accept(buffer, MagicEnum.MAGIC_NUMBER_3);
+
+        assertEquals(7, buffer.getInt(0));
+        assertEquals(2, buffer.getInt(4));
+    }
+
+    @Test
+    public void rawTest() {
+        Type type = Type.getType(TestStruct.class);
+        MalletType malletType = context.getType(type);
+        RawWriter rawWriter = malletType.makeRawWriter();
+        assertSame(rawWriter, malletType.makeRawWriter());
+
+        TestStruct[] data = testData.clone();
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = null;
+        }
+
+        int size = rawWriter.getSizeOf(data.length);
+        ByteBuffer expected = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        ByteBuffer actual = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+
+        malletType.makeArrayWriter().write(expected, 0, data, 0, data.length);
+        rawWriter.write(MemoryUtil.memAddress(actual), size, data, 0, data.length);
+        assertEquals(expected.clear(), actual.clear());
+
+        RawReader<Consumer> reader = malletType.makeRawReader(Consumer.class, "this");
+        assertSame(reader, malletType.makeRawReader(Consumer.class, "this"));
+        assertNotSame(reader, malletType.makeReader(Consumer.class, "this"));
+
+        long address = MemoryUtil.memAddress(actual);
+        for (int i = 0; i < data.length; i++) {
+            long offset = (long) i * rawWriter.getStride();
+            int finalI = i;
+            reader.read(address + offset, size - offset, (testStruct) -> {
+                assertEquals(data[finalI], testStruct);
+            });
+        }
+
+        assertThrows(IndexOutOfBoundsException.class, () -> rawWriter.write(address, size - 1, data, 0, data.length));
+        assertThrows(IndexOutOfBoundsException.class, () -> reader.read(address, malletType.getSize() - 1, (testStruct) -> {}));
+    }
+
+    @Test
+    public void rawHeapBufferTest() {
+        MalletType malletType = context.getType(Type.getType(TestStruct.class));
+        RawWriter rawWriter = malletType.makeRawWriter();
+        RawReader<Consumer> reader = malletType.makeRawReader(Consumer.class, "this");
+
+        ByteBuffer heap = ByteBuffer.allocate(rawWriter.getSizeOf(testData.length)).order(ByteOrder.nativeOrder());
+
+        assertThrows(IllegalArgumentException.class, () -> rawWriter.write(heap, testData[0]));
+        assertThrows(IllegalArgumentException.class, () -> rawWriter.write(heap, testData));
+        assertThrows(IllegalArgumentException.class, () -> reader.read(heap, (testStruct) -> {}));
+        assertEquals(0, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.capacity()).order(ByteOrder.nativeOrder());
+        rawWriter.write(direct, testData[0]);
+        assertEquals(rawWriter.getElementSize(), direct.position());
+
+        direct.flip();
+        reader.read(direct, (testStruct) -> assertEquals(testData[0], testStruct));
+        assertEquals(malletType.getSize(), direct.position());
+    }
+
+    @Test
+    public void instanceReaderTest() {
+        Type type = Type.getType(TestStruct.class);
+        MalletType malletType = context.getType(type);
+
+        TestStruct[] data = testData.clone();
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = null;
+        }
+
+        ArrayWriter writer = malletType.makeArrayWriter();
+        ByteBuffer buffer = ByteBuffer.allocate(writer.getSizeOf(data.length));
+        writer.write(buffer, 0, data, 0, data.length);
+
+        InstanceReader<TestStruct> reader = malletType.makeInstanceReader();
+        assertSame(reader, malletType.makeInstanceReader());
+
+        Random random = new Random(0);
+        TestStruct[] targets = new TestStruct[data.length];
+        for (int i = 0; i < targets.length; i++) {
+            //Leave some slots empty so that they have to be allocated
+            targets[i] = i % 5 == 0 ? null : TestStruct.makeRandom(random);
+        }
+
+        TestStruct[] before = targets.clone();
+        reader.read(buffer, 0, targets, 0, targets.length);
+
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], targets[i]);
+
+            if (data[i] != null && before[i] != null) {
+                assertSame(before[i], targets[i]);
+                assertSame(before[i].vec, targets[i].vec);
+            }
+        }
+
+        TestStruct single = TestStruct.makeRandom(random);
+        assertSame(single, reader.read(buffer, writer.getStride(), single));
+        assertEquals(data[1], single);
+        assertNull(reader.read(buffer, 0, single));
+    }
+
+    @Test
+    public void arrayWriterTest() {
+        MalletType malletType = context.getType(Type.getType(TestStruct.class));
+        ArrayWriter writer = malletType.makeArrayWriter();
+        assertSame(writer, malletType.makeArrayWriter());
+
+        int stride = writer.getStride();
+        assertEquals(malletType.getArrayStride(), stride);
+        assertEquals(malletType.getSize(), writer.getElementSize());
+        assertEquals(0, stride % malletType.getAlignment());
+
+        TestStruct[] data = withNulls();
+        int size = writer.getSizeOf(data.length);
+        assertEquals((data.length - 1) * stride + malletType.getSize(), size);
+
+        //Element by element at the std430 stride
+        ByteBuffer expected = ByteBuffer.allocate(size);
+        BiConsumer<ByteBuffer, TestStruct> elementWriter = malletType.makeWriter(BiConsumer.class);
+        for (int i = 0; i < data.length; i++) {
+            expected.position(i * stride);
+            elementWriter.accept(expected, data[i]);
+        }
+
+        ByteBuffer array = ByteBuffer.allocate(size);
+        writer.write(array, data);
+        assertEquals(size, array.position());
+        assertEquals(expected.clear(), array.clear());
+
+        ByteBuffer list = ByteBuffer.allocate(size);
+        writer.write(list, Arrays.asList(data));
+        assertEquals(size, list.position());
+        assertEquals(expected.clear(), list.clear());
+
+        TestStruct[] read = new TestStruct[data.length];
+        malletType.makeInstanceReader().read(array, 0, read, 0, read.length);
+        assertArrayEquals(data, read);
+
+        assertThrows(BufferOverflowException.class, () -> writer.write(ByteBuffer.allocate(size - 1), data));
+    }
+
+    @Test
+    public void parallelArrayWriterTest() {
+        MalletType malletType = context.getType(Type.getType(TestStruct.class));
+        ArrayWriter writer = malletType.makeArrayWriter();
+
+        TestStruct[] data = withNulls();
+        int size = writer.getSizeOf(data.length);
+
+        ByteBuffer expected = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        writer.write(expected, data);
+
+        //Small chunks so that the array is actually split up, including a last chunk that isn't full
+        for (int chunkSize : new int[]{1, 64, 333, data.length, data.length * 2}) {
+            ByteBuffer array = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            writer.writeParallel(array, data, chunkSize);
+            assertEquals(size, array.position());
+            assertEquals(expected.clear(), array.clear(), "Chunk size " + chunkSize);
+
+            ByteBuffer list = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+            writer.writeParallel(list, Arrays.asList(data), chunkSize);
+            assertEquals(size, list.position());
+            assertEquals(expected.clear(), list.clear(), "Chunk size " + chunkSize);
+        }
+
+        TestStruct[] read = new TestStruct[data.length];
+        malletType.makeInstanceReader().read(expected, 0, read, 0, read.length);
+        assertArrayEquals(data, read);
+
+        assertThrows(IllegalArgumentException.class, () -> writer.writeParallel(ByteBuffer.allocate(size), data, 0));
+        assertThrows(BufferOverflowException.class, () -> writer.writeParallel(ByteBuffer.allocate(size - 1), data, 64));
+    }
+
+    @Test
+    public void fallbackArrayWriterTest() {
+        //Enums don't generate their own array writer
+        MalletType enumType = context.getType(Type.getType(MagicEnum.class));
+        ArrayWriter writer = enumType.makeArrayWriter();
+        assertEquals(4, writer.getStride());
+
+        MagicEnum[] data = {MagicEnum.MAGIC_NUMBER_2, null, MagicEnum.MAGIC_NUMBER_3, MagicEnum.MAGIC_NUMBER_1};
+        ByteBuffer buffer = ByteBuffer.allocate(writer.getSizeOf(data.length));
+        writer.writeParallel(buffer, Arrays.asList(data), 1);
+
+        assertEquals(1, buffer.getInt(0));
+        assertEquals(-1, buffer.getInt(4));
+        assertEquals(2, buffer.getInt(8));
+        assertEquals(0, buffer.getInt(12));
+    }
+
+    private static TestStruct[] withNulls() {
+        TestStruct[] data = testData.clone();
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = null;
+        }
+        return data;
+    }
+
     public enum MagicEnum {
         MAGIC_NUMBER_1(4627),
         MAGIC_NUMBER_2(19309),
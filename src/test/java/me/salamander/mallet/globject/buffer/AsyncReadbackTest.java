@@ -0,0 +1,81 @@
+package me.salamander.mallet.globject.buffer;
+
+import me.salamander.mallet.globject.backend.RecordingBackend;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.opengl.GL45.*;
+
+public class AsyncReadbackTest {
+    private static BufferObject makeBuffer(RecordingBackend backend, int ints) {
+        BufferObject buffer = new BufferObject(backend);
+        buffer.bind(GL_SHADER_STORAGE_BUFFER);
+        buffer.allocate(GL_SHADER_STORAGE_BUFFER, ints * 4, GL_DYNAMIC_READ);
+
+        ByteBuffer data = ByteBuffer.allocateDirect(ints * 4).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < ints; i++) {
+            data.putInt(i * 3);
+        }
+        data.flip();
+        buffer.set(GL_SHADER_STORAGE_BUFFER, 0, data);
+
+        return buffer;
+    }
+
+    @Test
+    public void readsCompleteOnPoll() {
+        RecordingBackend backend = new RecordingBackend();
+        BufferObject buffer = makeBuffer(backend, 100);
+        AsyncReadback readback = new AsyncReadback(backend);
+
+        CompletableFuture<ByteBuffer> future = buffer.readAsync(readback, 40, 20);
+        assertFalse(future.isDone());
+        assertEquals(1, readback.getPendingReads());
+
+        assertEquals(1, readback.poll());
+        ByteBuffer data = future.join();
+
+        assertEquals(20, data.remaining());
+        for (int i = 0; i < 5; i++) {
+            assertEquals((i + 10) * 3, data.getInt(i * 4));
+        }
+
+        readback.release(data);
+        assertThrows(IllegalArgumentException.class, () -> readback.release(data));
+    }
+
+    @Test
+    public void stagingBuffersArePooled() {
+        RecordingBackend backend = new RecordingBackend();
+        BufferObject buffer = makeBuffer(backend, 1000);
+        AsyncReadback readback = new AsyncReadback(backend);
+
+        for (int frame = 0; frame < 10; frame++) {
+            CompletableFuture<ByteBuffer> bytes = readback.read(buffer, 0, 400);
+
+            int[] sum = new int[1];
+            CompletableFuture<Void> decoded = readback.read(buffer, 400, 400, (data, result) -> {
+                while (data.hasRemaining()) {
+                    result[0] += data.getInt();
+                }
+            }, sum);
+
+            readback.poll();
+
+            readback.release(bytes.join());
+            decoded.join();
+            assertEquals(3 * (100 + 199) * 100 / 2, sum[0]);
+        }
+
+        assertEquals(20, readback.getReads());
+        assertEquals(2, readback.getStagingBuffersCreated());
+        assertEquals(20, backend.getCalls("copyBufferSubData"));
+
+        readback.release();
+        assertEquals(2, backend.getCalls("deleteBuffer"));
+    }
+}
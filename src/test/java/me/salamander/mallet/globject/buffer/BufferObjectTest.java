@@ -0,0 +1,119 @@
+package me.salamander.mallet.globject.buffer;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.ReaderWriterTest;
+import me.salamander.mallet.globject.backend.RecordingBackend;
+import me.salamander.mallet.type.ArrayWriter;
+import me.salamander.mallet.type.MalletType;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.opengl.GL45.*;
+
+public class BufferObjectTest {
+    private static final MalletContext context = new MalletContext();
+    private static final MalletType type = context.getType(Type.getType(ReaderWriterTest.TestStruct.class));
+
+    private static ReaderWriterTest.TestStruct[] makeData(int length) {
+        ReaderWriterTest.TestStruct[] data = new ReaderWriterTest.TestStruct[length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 5 == 3 ? null : new ReaderWriterTest.TestStruct(i, new Vector3f(i, i * 2, i * 3), i * 0.5f, ReaderWriterTest.MagicEnum.values()[i % 3]);
+        }
+        return data;
+    }
+
+    private static BufferObject makeBuffer(RecordingBackend backend, int size) {
+        BufferObject buffer = new BufferObject(backend);
+        buffer.setDefaultBindingPoint(GL_SHADER_STORAGE_BUFFER);
+        buffer.bind();
+        buffer.allocate(size, GL_DYNAMIC_DRAW);
+        return buffer;
+    }
+
+    @Test
+    public void arraysAreUploadedWithTheArrayStride() {
+        ReaderWriterTest.TestStruct[] data = makeData(100);
+        ArrayWriter writer = type.makeArrayWriter();
+        int size = writer.getSizeOf(data.length);
+        int offset = 64;
+
+        ByteBuffer expected = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        writer.write(expected, data);
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            RecordingBackend backend = new RecordingBackend();
+            BufferObject array = makeBuffer(backend, offset + size);
+            BufferObject list = makeBuffer(backend, offset + size);
+
+            //Uploads go to whichever buffer is bound
+            array.bind();
+            array.writeArray(GL_SHADER_STORAGE_BUFFER, offset, data, type, parallel);
+            list.bind();
+            list.writeArray(GL_SHADER_STORAGE_BUFFER, offset, Arrays.asList(data), type, parallel);
+
+            assertEquals(2L * size, backend.getBytesUploaded());
+
+            for (BufferObject buffer : new BufferObject[]{array, list}) {
+                ByteBuffer storage = backend.getStorage(buffer.getHandle());
+                assertEquals(expected.clear(), storage.slice(offset, size).order(ByteOrder.nativeOrder()));
+
+                ReaderWriterTest.TestStruct[] read = new ReaderWriterTest.TestStruct[data.length];
+                type.makeInstanceReader().read(storage, offset, read, 0, read.length);
+                assertArrayEquals(data, read);
+
+                buffer.release();
+            }
+        }
+    }
+
+    @Test
+    public void unshadowedWritesAreUploadedImmediately() {
+        RecordingBackend backend = new RecordingBackend();
+        backend.setRecording(true);
+        MalletType intType = context.getType(Type.INT_TYPE);
+        MalletType floatType = context.getType(Type.FLOAT_TYPE);
+
+        BufferObject buffer = makeBuffer(backend, 64);
+        backend.reset();
+
+        buffer.write(GL_SHADER_STORAGE_BUFFER, 0, 42, intType);
+        buffer.write(GL_SHADER_STORAGE_BUFFER, 8, 1.5f, floatType);
+
+        //One sub-data call per write on the bound target, and nothing else
+        assertEquals(2, backend.getTotalCalls());
+        assertEquals(2, backend.getCalls("bufferSubData"));
+        assertEquals("bufferSubData(" + GL_SHADER_STORAGE_BUFFER + ", 8, 4)", backend.getCommands().get(1).toString());
+
+        assertEquals(8, backend.getBytesUploaded());
+        assertEquals(8, buffer.getBytesUploaded());
+        assertEquals(2, buffer.getWrites());
+        assertEquals(2, buffer.getUploadCalls());
+        assertEquals(0, buffer.getCallsSaved());
+
+        ByteBuffer storage = backend.getStorage(buffer.getHandle());
+        assertEquals(42, storage.getInt(0));
+        assertEquals(1.5f, storage.getFloat(8));
+
+        assertThrows(IllegalArgumentException.class, () -> buffer.write(GL_SHADER_STORAGE_BUFFER, 62, 1, intType));
+        assertEquals(2, buffer.getUploadCalls());
+
+        buffer.release();
+    }
+
+    @Test
+    public void arraysThatDontFitAreRejected() {
+        ReaderWriterTest.TestStruct[] data = makeData(10);
+        BufferObject buffer = makeBuffer(new RecordingBackend(), type.makeArrayWriter().getSizeOf(data.length));
+
+        assertThrows(IllegalArgumentException.class, () -> buffer.writeArray(GL_SHADER_STORAGE_BUFFER, 4, data, type, false));
+        assertThrows(IllegalArgumentException.class, () -> buffer.writeArray(GL_SHADER_STORAGE_BUFFER, 4, Arrays.asList(data), type, true));
+
+        buffer.release();
+    }
+}
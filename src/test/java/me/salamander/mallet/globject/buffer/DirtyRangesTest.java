@@ -0,0 +1,80 @@
+package me.salamander.mallet.globject.buffer;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.globject.backend.RecordingBackend;
+import me.salamander.mallet.type.MalletType;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.opengl.GL45.*;
+
+public class DirtyRangesTest {
+    @Test
+    public void rangesAreMerged() {
+        DirtyRanges ranges = new DirtyRanges();
+
+        ranges.add(0, 4);
+        ranges.add(100, 104);
+        ranges.add(104, 108); //Extends the previous range
+        ranges.add(2, 10); //Overlaps the second one
+        ranges.add(20, 24);
+        ranges.add(200, 204);
+        assertEquals(5, ranges.size());
+
+        assertEquals(3, ranges.coalesce(10));
+        assertEquals(0, ranges.getStart(0));
+        assertEquals(24, ranges.getEnd(0));
+        assertEquals(100, ranges.getStart(1));
+        assertEquals(108, ranges.getEnd(1));
+        assertEquals(200, ranges.getStart(2));
+        assertEquals(204, ranges.getEnd(2));
+
+        assertEquals(1, ranges.coalesce(100));
+        assertEquals(0, ranges.getStart(0));
+        assertEquals(204, ranges.getEnd(0));
+    }
+
+    @Test
+    public void shadowedWritesAreUploadedOnFlush() {
+        RecordingBackend backend = new RecordingBackend();
+        MalletType intType = new MalletContext().getType(Type.INT_TYPE);
+
+        BufferObject buffer = new BufferObject(backend);
+        buffer.setDefaultBindingPoint(GL_SHADER_STORAGE_BUFFER);
+        buffer.bind();
+        buffer.allocate(4096, GL_DYNAMIC_DRAW);
+        buffer.setShadowed(true);
+        buffer.setCoalesceGap(16);
+
+        //Two clusters of scattered writes
+        for (int i = 0; i < 32; i++) {
+            buffer.write(GL_SHADER_STORAGE_BUFFER, i * 8, i, intType);
+            buffer.write(GL_SHADER_STORAGE_BUFFER, 2048 + i * 8, -i, intType);
+        }
+
+        assertEquals(0, backend.getBytesUploaded());
+
+        buffer.flush();
+
+        assertEquals(2, backend.getCalls("namedBufferSubData"));
+        assertEquals(64, buffer.getWrites());
+        assertEquals(2, buffer.getUploadCalls());
+        assertEquals(62, buffer.getCallsSaved());
+        assertEquals(2 * (31 * 8 + 4), buffer.getBytesUploaded());
+
+        ByteBuffer storage = backend.getStorage(buffer.getHandle());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i, storage.getInt(i * 8));
+            assertEquals(-i, storage.getInt(2048 + i * 8));
+        }
+
+        //Nothing left to upload
+        buffer.flush();
+        assertEquals(2, buffer.getUploadCalls());
+
+        buffer.release();
+    }
+}
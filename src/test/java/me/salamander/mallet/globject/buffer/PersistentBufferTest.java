@@ -0,0 +1,142 @@
+package me.salamander.mallet.globject.buffer;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.ReaderWriterTest;
+import me.salamander.mallet.globject.backend.RecordingBackend;
+import me.salamander.mallet.type.MalletType;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.opengl.GL45.*;
+
+public class PersistentBufferTest {
+    private static final MalletContext context = new MalletContext();
+
+    @Test
+    public void writesGoToMappedMemory() {
+        RecordingBackend backend = new RecordingBackend();
+        backend.setRecording(true);
+        PersistentBuffer buffer = new PersistentBuffer(backend, 1000, 3);
+        MalletType type = context.getType(Type.getType(ReaderWriterTest.TestStruct.class));
+
+        ReaderWriterTest.TestStruct[] data = new ReaderWriterTest.TestStruct[10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new ReaderWriterTest.TestStruct(i, new Vector3f(i, i * 2, i * 3), i * 0.5f, ReaderWriterTest.MagicEnum.MAGIC_NUMBER_2);
+        }
+
+        buffer.begin();
+        buffer.end();
+
+        buffer.begin();
+        int offset = buffer.writeArray(data, type);
+        buffer.bindRange(GL_SHADER_STORAGE_BUFFER, 0, offset, type.getArrayStride() * data.length);
+        buffer.end();
+
+        //Second section
+        assertEquals(buffer.getSectionSize(), offset);
+        List<String> calls = new ArrayList<>();
+        for (RecordingBackend.Command command : backend.getCommands()) {
+            calls.add(command.name());
+        }
+        assertEquals(List.of("createBuffer", "bufferStorage", "mapBufferRange", "fenceSync", "bindBufferRange", "fenceSync"), calls);
+
+        int flags = (int) callsTo(backend, "bufferStorage").get(0)[2];
+        assertEquals(GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT, flags & (GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT));
+
+        ByteBuffer memory = backend.getStorage(buffer.getHandle()).duplicate().order(ByteOrder.nativeOrder());
+        memory.position(offset);
+
+        BiConsumer<ByteBuffer, Consumer> reader = type.makeReader(Consumer.class, "this");
+        for (ReaderWriterTest.TestStruct expected : data) {
+            reader.accept(memory, (actual) -> assertEquals(expected, actual));
+        }
+    }
+
+    @Test
+    public void sectionsAreReusedAfterTheirFence() {
+        RecordingBackend backend = new RecordingBackend();
+        backend.setRecording(true);
+        //Every fence times out once before it is signaled
+        backend.setFenceTimeouts(1);
+        PersistentBuffer buffer = new PersistentBuffer(backend, 100, 3);
+        MalletType type = context.getType(Type.INT_TYPE);
+
+        List<Integer> offsets = new ArrayList<>();
+        for (int frame = 0; frame < 4; frame++) {
+            buffer.begin();
+            offsets.add(buffer.write(frame, type));
+            buffer.end();
+        }
+
+        int section = buffer.getSectionSize();
+        assertEquals(List.of(0, section, 2 * section, 0), offsets);
+
+        //The fourth frame had to wait on the fence of the first one before overwriting its section
+        assertEquals(Set.of(1L), syncs(backend, "clientWaitSync"));
+        assertEquals(2, backend.getCalls("clientWaitSync"));
+        assertEquals(Set.of(1L), syncs(backend, "deleteSync"));
+        assertEquals(1, buffer.getStalls());
+
+        ByteBuffer memory = backend.getStorage(buffer.getHandle()).order(ByteOrder.nativeOrder());
+        assertEquals(3, memory.getInt(0));
+        assertEquals(1, memory.getInt(section));
+
+        buffer.release();
+        assertEquals(Set.of(1L, 2L, 3L, 4L), syncs(backend, "deleteSync"));
+        assertEquals(1, backend.getCalls("unmapBuffer"));
+        assertEquals(1, backend.getCalls("deleteBuffer"));
+    }
+
+    @Test
+    public void writesOutsideOfAFrameFail() {
+        PersistentBuffer buffer = new PersistentBuffer(new RecordingBackend(), 100, 2);
+        MalletType type = context.getType(Type.INT_TYPE);
+
+        assertThrows(IllegalStateException.class, () -> buffer.write(1, type));
+        assertThrows(IllegalStateException.class, buffer::end);
+    }
+
+    @Test
+    public void buffersLargerThanAByteBufferAreRejected() {
+        RecordingBackend backend = new RecordingBackend();
+        backend.setRecording(true);
+
+        //3 sections of 1 GiB, whose offsets don't fit in an int
+        assertThrows(IllegalArgumentException.class, () -> new PersistentBuffer(backend, 1 << 30, 3));
+        assertTrue(backend.getCommands().isEmpty(), "A buffer was created before the size was checked");
+    }
+
+    /**
+     * @return The arguments of every recorded call with this name
+     */
+    private static List<Object[]> callsTo(RecordingBackend backend, String name) {
+        List<Object[]> args = new ArrayList<>();
+
+        for (RecordingBackend.Command command : backend.getCommands()) {
+            if (command.name().equals(name)) {
+                args.add(command.args());
+            }
+        }
+
+        return args;
+    }
+
+    private static Set<Object> syncs(RecordingBackend backend, String name) {
+        Set<Object> syncs = new HashSet<>();
+        for (Object[] args : callsTo(backend, name)) {
+            syncs.add(args[0]);
+        }
+        return syncs;
+    }
+}
@@ -0,0 +1,114 @@
+package me.salamander.mallet.globject.buffer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StagingAllocatorTest {
+    @Test
+    public void sizesAreRoundedToPowersOfTwo() {
+        StagingAllocator allocator = new StagingAllocator();
+
+        ByteBuffer small = allocator.allocate(1);
+        ByteBuffer medium = allocator.allocate(1000);
+        ByteBuffer exact = allocator.allocate(4096);
+
+        assertEquals(1, small.remaining());
+        assertEquals(64, small.capacity());
+        assertEquals(1024, medium.capacity());
+        assertEquals(4096, exact.capacity());
+        assertEquals(64 + 1024 + 4096, allocator.getBytesInUse());
+
+        allocator.release(small);
+        allocator.release(medium);
+        allocator.release(exact);
+        assertEquals(0, allocator.getBytesInUse());
+
+        allocator.trim();
+        assertEquals(0, allocator.getBytesPooled());
+    }
+
+    @Test
+    public void releasedBlocksAreReused() {
+        StagingAllocator allocator = new StagingAllocator();
+
+        ByteBuffer first = allocator.allocate(3000);
+        allocator.release(first);
+
+        for (int i = 0; i < 9; i++) {
+            ByteBuffer buffer = allocator.allocate(2049 + i);
+            assertSame(first, buffer);
+            assertEquals(2049 + i, buffer.remaining());
+            allocator.release(buffer);
+        }
+
+        assertEquals(10, allocator.getAllocations());
+        assertEquals(9, allocator.getReuses());
+        assertEquals(0.9, allocator.getReuseRate(), 1e-9);
+        assertEquals(4096, allocator.getBytesPooled());
+
+        allocator.trim();
+    }
+
+    @Test
+    public void blocksOfDeadThreadsAreFreed() throws InterruptedException {
+        StagingAllocator allocator = new StagingAllocator();
+
+        Thread thread = new Thread(() -> allocator.release(allocator.allocate(1000)));
+        thread.start();
+        thread.join();
+
+        assertEquals(1024, allocator.getBytesPooled());
+
+        //The thread can't trim its own blocks anymore
+        allocator.trim();
+        assertEquals(0, allocator.getBytesPooled());
+    }
+
+    @Test
+    public void closeFreesTheBlocksOfEveryThread() throws InterruptedException {
+        StagingAllocator allocator = new StagingAllocator();
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+
+        Thread thread = new Thread(() -> {
+            allocator.release(allocator.allocate(100));
+            released.countDown();
+
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+
+            //The free lists of the thread are still usable
+            allocator.release(allocator.allocate(100));
+        });
+        thread.start();
+        released.await();
+
+        allocator.release(allocator.allocate(5000));
+        assertEquals(128 + 8192, allocator.getBytesPooled());
+
+        allocator.close();
+        assertEquals(0, allocator.getBytesPooled());
+
+        closed.countDown();
+        thread.join();
+        assertEquals(128, allocator.getBytesPooled());
+        assertEquals(0, allocator.getBytesInUse());
+
+        allocator.close();
+        assertEquals(0, allocator.getBytesPooled());
+    }
+
+    @Test
+    public void foreignBuffersAreRejected() {
+        StagingAllocator allocator = new StagingAllocator();
+
+        assertThrows(IllegalArgumentException.class, () -> allocator.release(ByteBuffer.allocateDirect(100)));
+    }
+}
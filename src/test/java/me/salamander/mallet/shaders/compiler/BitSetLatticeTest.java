@@ -0,0 +1,165 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.analysis.*;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableBitSet;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
+import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedSemilattice;
+import me.salamander.mallet.shaders.compiler.analysis.livevar.LiveVariables;
+import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
+import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.Variable;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BitSetLatticeTest {
+    private final ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+
+    @Test
+    public void fragmentShaderTest() {
+        checkLattices(cfgOf(Type.getType(ExampleFragmentShader.class), "main", Type.getMethodType(Type.VOID_TYPE)));
+    }
+
+    @Test
+    public void vertexShaderTest() {
+        Type desc = Type.getMethodType(Type.VOID_TYPE, Type.getType(ExampleVertexShader.Func.class));
+        checkLattices(cfgOf(Type.getType(ExampleVertexShader.class), "main", desc));
+    }
+
+    @Test
+    public void loopTest() {
+        checkLattices(cfgOf(Type.getType(Fixture.class), "loop", Type.getMethodType(Type.FLOAT_TYPE, Type.FLOAT_TYPE, Type.INT_TYPE)));
+    }
+
+    private IntermediaryCFG cfgOf(Type owner, String name, Type desc) {
+        return new IntermediaryCFG(compiler.makeDecompiler(owner, name, desc).makeIntermediateRepresentation());
+    }
+
+    private static void checkLattices(IntermediaryCFG cfg) {
+        compare(cfg, new LiveVariables(VariableNumbering.of(cfg)), new SetLattice(SemiLattice.Order.BACKWARDS));
+        compare(cfg, new DefinedSemilattice(VariableNumbering.of(cfg)), new SetLattice(SemiLattice.Order.FORWARDS));
+    }
+
+    /**
+     * Checks that the bitset lattice gives every instruction of every block the same variables as the set it replaced
+     */
+    private static <T extends VariableBitSet> void compare(IntermediaryCFG cfg, InPlaceSemiLattice<T> bitSets, SetLattice sets) {
+        AnalysisResults<T> actual = Analysis.analyze(bitSets, cfg);
+        AnalysisResults<SetValue> expected = Analysis.analyze(sets, cfg);
+
+        String name = bitSets.getClass().getSimpleName();
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            AnalysisInfo<T> actualInfo = actual.getBlocks().get(block);
+            AnalysisInfo<SetValue> expectedInfo = expected.getBlocks().get(block);
+
+            for (int i = 0; i < block.getInstructions().size(); i++) {
+                Instruction instruction = block.getInstructions().get(i);
+                assertEquals(expectedInfo.in[i].variables, new HashSet<>(actualInfo.in[i].asSet()), name + " before " + instruction);
+                assertEquals(expectedInfo.out[i].variables, new HashSet<>(actualInfo.out[i].asSet()), name + " after " + instruction);
+            }
+        }
+    }
+
+    /**
+     * The lattices as they were before they used bitsets. Forwards this finds the variables that may have been defined and
+     * backwards the variables that are live.
+     */
+    private static class SetLattice extends SemiLattice<SetValue> {
+        private SetLattice(Order order) {
+            super(order);
+        }
+
+        @Override
+        public SetValue getHeadValue() {
+            return new SetValue(new HashSet<>());
+        }
+
+        @Override
+        public SetValue getTop() {
+            return new SetValue(new HashSet<>());
+        }
+
+        @Override
+        public SetValue execute(SetValue value, Instruction instruction) {
+            Set<Variable> result = new HashSet<>(value.variables);
+
+            if (instruction instanceof AssignmentInstruction assign && assign.getLocation() instanceof Variable var) {
+                if (getOrder() == Order.FORWARDS) {
+                    result.add(var);
+                } else {
+                    result.remove(var);
+                }
+            }
+
+            if (getOrder() == Order.BACKWARDS) {
+                result.addAll(instruction.usedVariables());
+            }
+
+            return new SetValue(result);
+        }
+
+        @Override
+        public SetValue meet(SetValue a, SetValue b) {
+            Set<Variable> result = new HashSet<>(a.variables);
+            result.addAll(b.variables);
+            return new SetValue(result);
+        }
+
+        @Override
+        public SetValue[] makeArray(int size) {
+            return new SetValue[size];
+        }
+    }
+
+    private static class SetValue extends Value {
+        private final Set<Variable> variables;
+
+        private SetValue(Set<Variable> variables) {
+            this.variables = variables;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SetValue that && variables.equals(that.variables);
+        }
+
+        @Override
+        public int hashCode() {
+            return variables.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return variables.toString();
+        }
+    }
+
+    public static class Fixture {
+        public static float loop(float x, int n) {
+            float sum = 0;
+            float last = x;
+            for (int i = 0; i < n; i++) {
+                if (i > 2) {
+                    if (sum > x) {
+                        last = sum;
+                    }
+                    sum -= last;
+                } else {
+                    sum += x * i;
+                }
+            }
+
+            return sum + last;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
+import me.salamander.mallet.shaders.compiler.ast.node.InstructionASTNode;
+import me.salamander.mallet.shaders.compiler.ast.node.MethodASTNode;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.instruction.ReturnInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerListener;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import me.salamander.mallet.util.MethodInvocation;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommonSubexpressionEliminationTest {
+    private static final Type FIXTURE = Type.getType(Fixture.class);
+    private static final Type REPEATED_DESC = Type.getMethodType(Type.FLOAT_TYPE, Type.FLOAT_TYPE, Type.FLOAT_TYPE);
+
+    private static final Variable A = new Variable(Type.FLOAT_TYPE, 0, VariableType.LOCAL);
+    private static final Variable B = new Variable(Type.FLOAT_TYPE, 1, VariableType.LOCAL);
+
+    @Test
+    public void repeatedExpressionBecomesOneTemporary() {
+        List<ASTNode> body = decompileRepeated(true);
+
+        //a * b is computed once, into a temporary, and the temporary is used in its place
+        List<Instruction> productAssignments = new ArrayList<>();
+        for (ASTNode node : body) {
+            Instruction instruction = ((InstructionASTNode) node).getInstruction();
+            if (instruction instanceof AssignmentInstruction assign && isProduct(assign.getValue())) {
+                productAssignments.add(instruction);
+            }
+        }
+
+        assertEquals(1, productAssignments.size(), "Expected exactly one assignment of a * b in " + body);
+        AssignmentInstruction assign = (AssignmentInstruction) productAssignments.get(0);
+        assertTrue(assign.getLocation() instanceof Variable temp && temp.getVariableType() == VariableType.SYNTHETIC);
+
+        assertEquals(1, countProducts(body));
+        assertEquals(2, countProducts(decompileRepeated(false)));
+    }
+
+    @Test
+    public void resultsAreTheSameWithAndWithoutElimination() {
+        List<ASTNode> eliminated = decompileRepeated(true);
+        List<ASTNode> plain = decompileRepeated(false);
+
+        float[][] inputs = {{0, 0}, {1, 2}, {-3.5f, 0.25f}, {1e10f, 1e-10f}, {Float.NaN, 1}};
+        for (float[] input : inputs) {
+            float expected = Fixture.repeated(input[0], input[1]);
+
+            assertEquals(expected, evaluate(plain, input[0], input[1]));
+            assertEquals(expected, evaluate(eliminated, input[0], input[1]));
+        }
+    }
+
+    @Test
+    public void vertexShaderTest() {
+        Vector3f tint = new Vector3f(1f, 0.5f, 0.5f);
+        //Not a lambda, since the compiler needs to be able to read the class
+        ExampleVertexShader.Func func = new ExampleVertexShader.Func() {
+            @Override
+            public void run(Vector3f color) {
+                color.mul(tint);
+            }
+        };
+
+        compareOperations(ExampleVertexShader.class, func);
+    }
+
+    @Test
+    public void fragmentShaderTest() {
+        compareOperations(ExampleFragmentShader.class);
+    }
+
+    private static List<ASTNode> decompileRepeated(boolean eliminate) {
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+        compiler.setCommonSubexpressionElimination(eliminate);
+
+        ASTNode root = compiler.makeDecompiler(FIXTURE, "repeated", REPEATED_DESC).decompile();
+        return ((MethodASTNode) root).getBody();
+    }
+
+    private static boolean isProduct(Value value) {
+        return value instanceof BinaryOperation binary && binary.getOp() == BinaryOperation.Op.MUL
+                && binary.getLeft().equals(A) && binary.getRight().equals(B);
+    }
+
+    private static int countProducts(List<ASTNode> body) {
+        int[] count = {0};
+
+        for (ASTNode node : body) {
+            ((InstructionASTNode) node).getInstruction().visitAndReplace(value -> {
+                forEachValue(value, inner -> {
+                    if (isProduct(inner)) count[0]++;
+                });
+                return value;
+            }, loc -> loc);
+        }
+
+        return count[0];
+    }
+
+    /**
+     * Runs straight-line code that only does arithmetic on floats
+     */
+    private static Object evaluate(List<ASTNode> body, float a, float b) {
+        Map<Variable, Object> variables = new HashMap<>();
+        variables.put(A, a);
+        variables.put(B, b);
+
+        for (ASTNode node : body) {
+            Instruction instruction = ((InstructionASTNode) node).getInstruction();
+
+            if (instruction instanceof AssignmentInstruction assign) {
+                variables.put((Variable) assign.getLocation(), evaluate(assign.getValue(), variables));
+            } else if (instruction instanceof ReturnInstruction ret) {
+                return evaluate(ret.getValue(), variables);
+            } else {
+                fail("Unexpected instruction " + instruction);
+            }
+        }
+
+        return fail("Nothing was returned");
+    }
+
+    private static Object evaluate(Value value, Map<Variable, Object> variables) {
+        if (value instanceof Variable var) {
+            assertTrue(variables.containsKey(var), var + " is read before it is assigned");
+            return variables.get(var);
+        } else if (value instanceof LiteralValue literal) {
+            return literal.getValue();
+        } else if (value instanceof BinaryOperation binary) {
+            return binary.getOp().apply(evaluate(binary.getLeft(), variables), evaluate(binary.getRight(), variables));
+        } else if (value instanceof UnaryOperation unary) {
+            return unary.getOp().apply(evaluate(unary.getArg(), variables));
+        }
+
+        return fail("Unexpected value " + value);
+    }
+
+    private static void compareOperations(Class<?> shader, Object... mainArgs) {
+        int before = countOperations(shader, false, mainArgs);
+        int after = countOperations(shader, true, mainArgs);
+
+        assertTrue(after <= before, "Eliminating common subexpressions added operations: " + before + " -> " + after);
+    }
+
+    /**
+     * @return How many operations and loads all decompiled methods of the shader compute
+     */
+    private static int countOperations(Class<?> shader, boolean eliminate, Object... mainArgs) {
+        AtomicInteger operations = new AtomicInteger();
+
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), shader);
+        compiler.setCommonSubexpressionElimination(eliminate);
+        compiler.setListener(new CompilerListener() {
+            @Override
+            public void methodDecompiled(Type shader, MethodInvocation method, ASTNode ast) {
+                operations.addAndGet(countOperations(ast));
+            }
+        });
+        compiler.compile(mainArgs);
+
+        return operations.get();
+    }
+
+    private static int countOperations(ASTNode ast) {
+        int[] count = {0};
+        Consumer<Value> counter = value -> forEachValue(value, inner -> {
+            if (inner instanceof BinaryOperation || inner instanceof UnaryOperation || inner instanceof ObjectField || inner instanceof ArrayElement) {
+                count[0]++;
+            }
+        });
+
+        ast.visitTree(node -> node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(value -> {
+                    counter.accept(value);
+                    return value;
+                }, loc -> loc),
+                value -> {
+                    counter.accept(value);
+                    return value;
+                }
+        ));
+
+        return count[0];
+    }
+
+    private static void forEachValue(Value value, Consumer<Value> consumer) {
+        consumer.accept(value);
+
+        if (value instanceof UnaryOperation unary) {
+            forEachValue(unary.getArg(), consumer);
+        } else {
+            value.copyValue(inner -> {
+                forEachValue(inner, consumer);
+                return inner;
+            });
+        }
+    }
+
+    public static class Fixture {
+        public static float repeated(float a, float b) {
+            float x = a * b + 1.0f;
+            float y = a * b * 2.0f;
+            return x + y;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package me.salamander.mallet.shaders.compiler;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
+import me.salamander.mallet.shaders.compiler.ast.node.MethodASTNode;
+import me.salamander.mallet.shaders.compiler.instruction.value.StaticField;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.util.MethodInvocation;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilationCacheTest {
+    private static final Type OWNER = Type.getObjectType("Foo");
+    private static final Type DESC = Type.getMethodType(Type.VOID_TYPE, Type.getType(Vector3f.class));
+
+    @Test
+    public void oldestEntriesAreDropped() {
+        CompilationCache cache = new CompilationCache(2);
+        AtomicInteger decompilations = new AtomicInteger();
+
+        for (String name : List.of("a", "b", "c")) {
+            cache.getDecompiled(key(name), () -> decompile(decompilations));
+        }
+        assertEquals(2, cache.size());
+
+        //"a" was dropped, "c" wasn't
+        cache.getDecompiled(key("c"), () -> decompile(decompilations));
+        assertEquals(3, decompilations.get());
+        cache.getDecompiled(key("a"), () -> decompile(decompilations));
+        assertEquals(4, decompilations.get());
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        CompilationCache cache = new CompilationCache();
+        AtomicInteger decompilations = new AtomicInteger();
+
+        cache.getDecompiled(key("a"), () -> decompile(decompilations));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        cache.getDecompiled(key("a"), () -> decompile(decompilations));
+        assertEquals(2, decompilations.get());
+    }
+
+    @Test
+    public void equalConstantsShareEntries() {
+        CompilationCache cache = new CompilationCache();
+        AtomicInteger inlinings = new AtomicInteger();
+
+        cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings));
+        cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings));
+
+        assertEquals(1, inlinings.get());
+    }
+
+    @Test
+    public void mutatedConstantsAreNotReused() {
+        CompilationCache cache = new CompilationCache();
+        AtomicInteger inlinings = new AtomicInteger();
+
+        Vector3f constant = new Vector3f(1, 2, 3);
+        cache.getInlined(inlinedKey(constant), () -> inline(inlinings));
+
+        //The entry was made from this object, so it must not be returned for its old value either
+        constant.x = 5;
+        cache.getInlined(inlinedKey(constant), () -> inline(inlinings));
+        cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings));
+
+        assertEquals(3, inlinings.get());
+    }
+
+    @Test
+    public void changedStaticFieldsAreNotReused() {
+        CompilationCache cache = new CompilationCache();
+        AtomicInteger inlinings = new AtomicInteger();
+
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+        StaticField scale = new StaticField(Type.getType(Statics.class), "scale", Type.FLOAT_TYPE, compiler);
+
+        float original = Statics.scale;
+        try {
+            cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings, scale));
+            cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings, scale));
+            assertEquals(1, inlinings.get());
+
+            //The entry was made from the old value, which got inlined into its AST
+            Statics.scale = original + 1;
+            cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings, scale));
+            assertEquals(2, inlinings.get());
+
+            cache.getInlined(inlinedKey(new Vector3f(1, 2, 3)), () -> inline(inlinings, scale));
+            assertEquals(2, inlinings.get());
+        } finally {
+            Statics.scale = original;
+        }
+    }
+
+    @Test
+    public void decompilerOptionsAreKeptApart() {
+        CompilationCache cache = new CompilationCache();
+        AtomicInteger decompilations = new AtomicInteger();
+        MethodInvocation method = new MethodInvocation(OWNER, "a", DESC, MethodInvocation.MethodCallType.STATIC);
+
+        cache.getDecompiled(new CompilationCache.Key<>(method, null, true), () -> decompile(decompilations));
+        cache.getDecompiled(new CompilationCache.Key<>(method, null, false), () -> decompile(decompilations));
+
+        assertEquals(2, decompilations.get());
+    }
+
+    @Test
+    public void changingEliminationOnAWarmContextTakesEffect() {
+        ShaderCompiler cold = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+        cold.setCommonSubexpressionElimination(false);
+        String expected = cold.compile();
+
+        MalletContext context = new MalletContext();
+        new ShaderCompiler(context, ExampleFragmentShader.class).compile();
+
+        ShaderCompiler warm = new ShaderCompiler(context, ExampleFragmentShader.class);
+        warm.setCommonSubexpressionElimination(false);
+        assertEquals(expected, warm.compile());
+    }
+
+    @Test
+    public void batchMatchesSerialCompilation() {
+        String serial = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class).compile();
+
+        MalletContext context = new MalletContext();
+        List<ShaderCompiler.BatchEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            entries.add(new ShaderCompiler.BatchEntry(ExampleFragmentShader.class));
+        }
+
+        List<String> batch = ShaderCompiler.compileBatch(context, entries, new ForkJoinPool(4));
+
+        assertEquals(4, batch.size());
+        for (String glsl : batch) {
+            assertEquals(serial, glsl);
+        }
+
+        //Methods are only decompiled once between all shaders of the batch, apart from races
+        assertTrue(context.getCompilationCache().getHits() > 0);
+    }
+
+    private static CompilationCache.Key<MethodInvocation> key(String name) {
+        return new CompilationCache.Key<>(new MethodInvocation(OWNER, name, DESC, MethodInvocation.MethodCallType.STATIC), null, true);
+    }
+
+    private static CompilationCache.Key<MethodInvocationWithConstants> inlinedKey(Vector3f constant) {
+        Int2ObjectMap<Object> constants = new Int2ObjectOpenHashMap<>();
+        constants.put(0, constant);
+
+        MethodInvocation method = new MethodInvocation(OWNER, "run", DESC, MethodInvocation.MethodCallType.STATIC);
+        return new CompilationCache.Key<>(new MethodInvocationWithConstants(method, DESC.getArgumentTypes(), constants), null, true);
+    }
+
+    private static ASTNode decompile(AtomicInteger decompilations) {
+        decompilations.incrementAndGet();
+        return new MethodASTNode(new ArrayList<>());
+    }
+
+    private static CompilationCache.InlinedMethod inline(AtomicInteger inlinings, StaticField... staticsRead) {
+        inlinings.incrementAndGet();
+        return new CompilationCache.InlinedMethod(new MethodASTNode(new ArrayList<>()), new HashSet<>(), new HashSet<>(), new HashSet<>(List.of(staticsRead)));
+    }
+
+    public static class Statics {
+        public static float scale = 2.0f;
+    }
+}
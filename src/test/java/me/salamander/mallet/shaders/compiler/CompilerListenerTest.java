@@ -0,0 +1,176 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerListener;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerMetrics;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerPhase;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+import me.salamander.mallet.util.MethodInvocation;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilerListenerTest {
+    private static final Type SHADER = Type.getType(LoopingShader.class);
+
+    @Test
+    public void everyPhaseIsReported() {
+        Recorder recorder = compile(new Recorder());
+
+        assertEquals(EnumSet.allOf(CompilerPhase.class), recorder.phases.keySet());
+        assertEquals(1, recorder.compiled.get());
+
+        //Phases that run on the whole shader are reported without a method, all others with the method they ran on
+        for (Map.Entry<CompilerPhase, Set<Optional<String>>> entry : recorder.phases.entrySet()) {
+            boolean wholeShader = switch (entry.getKey()) {
+                case METHOD_INLINING, DEAD_CODE_ELIMINATION, GLSL_EMISSION -> true;
+                default -> false;
+            };
+
+            if (wholeShader) {
+                assertEquals(Set.of(Optional.empty()), entry.getValue(), entry.getKey() + " was reported for a method");
+            } else {
+                assertFalse(entry.getValue().contains(Optional.empty()), entry.getKey() + " was reported without a method");
+            }
+        }
+
+        assertEquals(Set.of(Optional.of("accumulate")), recorder.phases.get(CompilerPhase.METHOD_PREPARATION));
+        assertEquals(Set.of(Optional.of("main"), Optional.of("accumulate")), recorder.phases.get(CompilerPhase.AST_CONSTRUCTION));
+    }
+
+    @Test
+    public void fixpointIterationsAreReported() {
+        Recorder recorder = compile(new Recorder());
+
+        for (String analysis : List.of("ValueTracker", "PossibleValuesTracker", "LiveVariables", "MutabilitySemiLattice", "DefinedSemilattice")) {
+            for (String method : List.of("main", "accumulate")) {
+                List<Integer> iterations = recorder.fixpoints.get(method + ":" + analysis);
+                assertNotNull(iterations, analysis + " wasn't reported for " + method);
+
+                //Every reachable block (or node) gets evaluated at least once
+                for (int count : iterations) {
+                    assertTrue(count > 0, analysis + " reported " + count + " iterations for " + method);
+                }
+            }
+        }
+
+        //accumulate has a loop and a branch in it, main is a single block
+        int accumulate = recorder.fixpoints.get("accumulate:LiveVariables").get(0);
+        int main = recorder.fixpoints.get("main:LiveVariables").get(0);
+        assertTrue(accumulate > main, "accumulate took " + accumulate + " iterations, main took " + main);
+    }
+
+    @Test
+    public void metricsCountTheSameIterations() {
+        Recorder recorder = new Recorder();
+        CompilerMetrics metrics = new CompilerMetrics();
+
+        compile(new CompilerListener() {
+            @Override
+            public void phaseFinished(Type shader, @Nullable MethodInvocation method, CompilerPhase phase, long nanos, long allocatedBytes) {
+                recorder.phaseFinished(shader, method, phase, nanos, allocatedBytes);
+                metrics.phaseFinished(shader, method, phase, nanos, allocatedBytes);
+            }
+
+            @Override
+            public void fixpointFinished(Type shader, MethodInvocation method, String analysis, int iterations, long nanos, long allocatedBytes) {
+                recorder.fixpointFinished(shader, method, analysis, iterations, nanos, allocatedBytes);
+                metrics.fixpointFinished(shader, method, analysis, iterations, nanos, allocatedBytes);
+            }
+
+            @Override
+            public void shaderCompiled(Type shader, long nanos, long allocatedBytes) {
+                recorder.shaderCompiled(shader, nanos, allocatedBytes);
+                metrics.shaderCompiled(shader, nanos, allocatedBytes);
+            }
+        });
+
+        CompilerMetrics.ShaderMetrics shader = metrics.getShaders().get(SHADER);
+        assertNotNull(shader, "The shader wasn't recorded");
+        assertEquals(EnumSet.allOf(CompilerPhase.class), shader.getPhases().keySet());
+
+        Map<String, Long> recorded = new HashMap<>();
+        for (Map.Entry<MethodInvocation, CompilerMetrics.MethodMetrics> method : shader.getMethods().entrySet()) {
+            for (Map.Entry<String, CompilerMetrics.FixpointStats> fixpoint : method.getValue().getFixpoints().entrySet()) {
+                recorded.put(method.getKey().methodName() + ":" + fixpoint.getKey(), fixpoint.getValue().getIterations());
+            }
+        }
+
+        Map<String, Long> expected = new HashMap<>();
+        recorder.fixpoints.forEach((key, iterations) -> expected.put(key, iterations.stream().mapToLong(Integer::longValue).sum()));
+
+        assertEquals(expected, recorded);
+    }
+
+    private static <T extends CompilerListener> T compile(T listener) {
+        //A fresh context, so that no method comes from the compilation cache
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), LoopingShader.class);
+        compiler.setListener(listener);
+
+        assertTrue(compiler.compile().contains("void main("));
+
+        return listener;
+    }
+
+    private static class Recorder implements CompilerListener {
+        private final Map<CompilerPhase, Set<Optional<String>>> phases = new ConcurrentHashMap<>();
+        private final Map<String, List<Integer>> fixpoints = new ConcurrentHashMap<>();
+        private final AtomicInteger compiled = new AtomicInteger();
+
+        @Override
+        public void phaseFinished(Type shader, @Nullable MethodInvocation method, CompilerPhase phase, long nanos, long allocatedBytes) {
+            assertEquals(SHADER, shader);
+            assertTrue(nanos >= 0);
+
+            phases.computeIfAbsent(phase, k -> ConcurrentHashMap.newKeySet()).add(Optional.ofNullable(method).map(MethodInvocation::methodName));
+        }
+
+        @Override
+        public void fixpointFinished(Type shader, MethodInvocation method, String analysis, int iterations, long nanos, long allocatedBytes) {
+            assertEquals(SHADER, shader);
+
+            fixpoints.computeIfAbsent(method.methodName() + ":" + analysis, k -> Collections.synchronizedList(new ArrayList<>())).add(iterations);
+        }
+
+        @Override
+        public void shaderCompiled(Type shader, long nanos, long allocatedBytes) {
+            assertEquals(SHADER, shader);
+
+            compiled.incrementAndGet();
+        }
+    }
+
+    public static class LoopingShader extends FragmentShader {
+        @In
+        private static float brightness;
+
+        @Out
+        private static float outBrightness;
+
+        public static void main() {
+            outBrightness = accumulate(brightness);
+        }
+
+        private static float accumulate(float x) {
+            float sum = 0.0f;
+
+            for (int i = 0; i < 4; i++) {
+                if (x > i) {
+                    sum += x;
+                } else {
+                    sum -= 1.0f;
+                }
+            }
+
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.analysis.*;
+import me.salamander.mallet.shaders.compiler.analysis.available.AvailableExpressions;
+import me.salamander.mallet.shaders.compiler.analysis.available.ExpressionNumbering;
+import me.salamander.mallet.shaders.compiler.analysis.bitset.VariableNumbering;
+import me.salamander.mallet.shaders.compiler.analysis.defined.DefinedSemilattice;
+import me.salamander.mallet.shaders.compiler.analysis.livevar.LiveVariables;
+import me.salamander.mallet.shaders.compiler.analysis.usage.PossibleValuesTracker;
+import me.salamander.mallet.shaders.compiler.analysis.valuetrack.ValueTracker;
+import me.salamander.mallet.shaders.compiler.cfg.BasicBlock;
+import me.salamander.mallet.shaders.compiler.cfg.IntermediaryCFG;
+import me.salamander.mallet.shaders.compiler.instruction.Instruction;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataflowSolverTest {
+    private static final Type FIXTURE = Type.getType(Fixture.class);
+
+    private final ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+
+    @Test
+    public void fragmentShaderTest() {
+        checkSolvers(cfgOf(Type.getType(ExampleFragmentShader.class), "main", Type.getMethodType(Type.VOID_TYPE)));
+    }
+
+    @Test
+    public void vertexShaderTest() {
+        Type desc = Type.getMethodType(Type.VOID_TYPE, Type.getType(ExampleVertexShader.Func.class));
+        checkSolvers(cfgOf(Type.getType(ExampleVertexShader.class), "main", desc));
+    }
+
+    @Test
+    public void loopsTest() {
+        checkSolvers(cfgOf(FIXTURE, "loops", Type.getMethodType(Type.FLOAT_TYPE, Type.FLOAT_TYPE, Type.INT_TYPE)));
+    }
+
+    @Test
+    public void nestedBranchesTest() {
+        checkSolvers(cfgOf(FIXTURE, "branches", Type.getMethodType(Type.FLOAT_TYPE, Type.FLOAT_TYPE, Type.FLOAT_TYPE)));
+    }
+
+    private IntermediaryCFG cfgOf(Type owner, String name, Type desc) {
+        return new IntermediaryCFG(compiler.makeDecompiler(owner, name, desc).makeIntermediateRepresentation());
+    }
+
+    private void checkSolvers(IntermediaryCFG cfg) {
+        compare(cfg, cfg1 -> new LiveVariables(VariableNumbering.of(cfg1)));
+        compare(cfg, cfg1 -> new DefinedSemilattice(VariableNumbering.of(cfg1)));
+        compare(cfg, cfg1 -> new AvailableExpressions(ExpressionNumbering.of(cfg1)));
+        compare(cfg, cfg1 -> new ValueTracker(compiler));
+        compare(cfg, cfg1 -> new PossibleValuesTracker());
+    }
+
+    /**
+     * Checks that the worklist solver gives every instruction of every block the same value as the round-robin solver
+     */
+    private static <T extends Value> void compare(IntermediaryCFG cfg, Function<IntermediaryCFG, SemiLattice<T>> factory) {
+        SemiLattice<T> semiLattice = factory.apply(cfg);
+        assertEquals(SemiLattice.Solver.WORKLIST, semiLattice.getSolver());
+
+        AnalysisResults<T> worklist = Analysis.analyze(semiLattice, cfg);
+        AnalysisResults<T> roundRobin = Analysis.analyze(new RoundRobin<>(factory.apply(cfg)), cfg);
+
+        String name = semiLattice.getClass().getSimpleName();
+
+        //The round-robin solver also visits blocks that can't be reached, which the worklist solver leaves alone
+        List<BasicBlock> blocks = semiLattice.getOrder() == SemiLattice.Order.FORWARDS ? cfg.getStartBlock().getAll() : cfg.getEndBlock().getAllBackwards();
+        for (BasicBlock block : blocks) {
+            AnalysisInfo<T> expected = roundRobin.getBlocks().get(block);
+            AnalysisInfo<T> actual = worklist.getBlocks().get(block);
+
+            for (int i = 0; i < block.getInstructions().size(); i++) {
+                Instruction instruction = block.getInstructions().get(i);
+                assertEquals(expected.in[i], actual.in[i], name + " before " + instruction);
+                assertEquals(expected.out[i], actual.out[i], name + " after " + instruction);
+            }
+        }
+
+        assertTrue(worklist.getIterations() <= roundRobin.getIterations(), name + " took more iterations with the worklist solver");
+    }
+
+    /**
+     * Forces the round-robin solver. Doesn't update values in place, so the other code path of the solver gets compared too
+     */
+    private static class RoundRobin<T extends Value> extends SemiLattice<T> {
+        private final SemiLattice<T> semiLattice;
+
+        private RoundRobin(SemiLattice<T> semiLattice) {
+            super(semiLattice.getOrder());
+            this.semiLattice = semiLattice;
+        }
+
+        @Override
+        public T getHeadValue() {
+            return semiLattice.getHeadValue();
+        }
+
+        @Override
+        public T getTop() {
+            return semiLattice.getTop();
+        }
+
+        @Override
+        public T execute(T value, Instruction instruction) {
+            return semiLattice.execute(value, instruction);
+        }
+
+        @Override
+        public T meet(T a, T b) {
+            return semiLattice.meet(a, b);
+        }
+
+        @Override
+        public T[] makeArray(int size) {
+            return semiLattice.makeArray(size);
+        }
+
+        @Override
+        public Solver getSolver() {
+            return Solver.ROUND_ROBIN;
+        }
+    }
+
+    public static class Fixture {
+        public static float loops(float x, int n) {
+            float sum = 0;
+            for (int i = 0; i < n; i++) {
+                float y = x * i;
+                for (int j = i; j < n; j++) {
+                    if (j == 5) break;
+                    sum += y;
+                }
+
+                while (sum > 100) {
+                    sum *= 0.5f;
+                }
+            }
+
+            return sum;
+        }
+
+        public static float branches(float a, float b) {
+            float result = a;
+            if (a > b) {
+                if (b > 0) {
+                    result = a * b;
+                } else if (b < -1) {
+                    result = a + b;
+                } else {
+                    result = b;
+                }
+            } else {
+                if (a > 0) {
+                    result = a - b;
+                }
+                result *= 2;
+            }
+
+            return result + a * b;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalInliningTest {
+    @Test
+    public void vertexShaderTest() {
+        Vector3f tint = new Vector3f(1f, 0.5f, 0.5f);
+        //Not a lambda, since the compiler needs to be able to read the class
+        ExampleVertexShader.Func func = new ExampleVertexShader.Func() {
+            @Override
+            public void run(Vector3f color) {
+                color.mul(tint);
+            }
+        };
+
+        assertEquals(compile(ExampleVertexShader.class, false, func), compile(ExampleVertexShader.class, true, func));
+    }
+
+    @Test
+    public void fragmentShaderTest() {
+        assertEquals(compile(ExampleFragmentShader.class, false), compile(ExampleFragmentShader.class, true));
+    }
+
+    private static String compile(Class<?> shader, boolean incremental, Object... mainArgs) {
+        //New context each time so that nothing decompiled by the other algorithm gets reused
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), shader);
+        compiler.setIncrementalInlining(incremental);
+        return compiler.compile(mainArgs);
+    }
+}
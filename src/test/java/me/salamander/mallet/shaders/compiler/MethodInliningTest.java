@@ -0,0 +1,284 @@
+package me.salamander.mallet.shaders.compiler;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.compiler.ast.node.ASTNode;
+import me.salamander.mallet.shaders.compiler.ast.node.InstructionASTNode;
+import me.salamander.mallet.shaders.compiler.constant.Constant;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.MethodCallInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.shaders.compiler.metrics.CompilerListener;
+import me.salamander.mallet.shaders.compiler.optimize.MethodInliner;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.compiler.tests.ExampleVertexShader;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+import me.salamander.mallet.util.MethodCall;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodInliningTest {
+    private static final Type FIXTURE = Type.getType(Fixture.class);
+    private static final Type VECTOR = Type.getType(Vector4f.class);
+    private static final Variable COLOR = new Variable(VECTOR, 0, VariableType.LOCAL);
+
+    @Test
+    public void vertexShaderTest() {
+        Vector3f tint = new Vector3f(1f, 0.5f, 0.5f);
+        //Not a lambda, since the compiler needs to be able to read the class
+        ExampleVertexShader.Func func = new ExampleVertexShader.Func() {
+            @Override
+            public void run(Vector3f color) {
+                color.mul(tint);
+            }
+        };
+
+        checkInlining(ExampleVertexShader.class, func);
+    }
+
+    @Test
+    public void fragmentShaderTest() {
+        checkInlining(ExampleFragmentShader.class);
+    }
+
+    @Test
+    public void inlinedCalleeIsRemoved() {
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ScalingShader.class);
+        String main = mainOf(checkInlining(compiler));
+
+        assertFalse(hasMethod(compiler, "scale"), "scale was inlined but is still compiled");
+        assertFalse(main.contains("scale"), "main still calls scale:\n" + main);
+        assertTrue(main.contains("3.5f"), "The body of scale isn't in main:\n" + main);
+    }
+
+    @Test
+    public void disablingInliningKeepsEveryMethod() {
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ScalingShader.class);
+        compiler.setInlineThreshold(0);
+
+        boolean[] reported = {false};
+        compiler.setListener(new CompilerListener() {
+            @Override
+            public void methodsInlined(Type shader, int inlinedCalls, int methodsBefore, int methodsAfter, int sizeBefore, int sizeAfter) {
+                reported[0] = true;
+            }
+        });
+        String main = mainOf(compiler.compile());
+
+        assertFalse(reported[0]);
+        assertTrue(hasMethod(compiler, "scale"));
+        assertTrue(main.contains("scale"), "main doesn't call scale:\n" + main);
+        assertFalse(main.contains("3.5f"), "The body of scale is in main:\n" + main);
+    }
+
+    @Test
+    public void parametersWithWrittenFieldsAreCopied() {
+        ASTNode caller = inlineInto("callsClear", "clear", false);
+
+        //Without a copy the caller's color would be cleared too, unlike in GLSL where it is passed by value
+        List<Variable> written = writtenFieldBases(caller);
+        assertFalse(written.isEmpty(), "The body of clear wasn't inlined into " + caller);
+        for (Variable base : written) {
+            assertNotEquals(COLOR, base, "The argument itself is written to in " + caller);
+            assertEquals(VariableType.SYNTHETIC, base.getVariableType());
+        }
+    }
+
+    @Test
+    public void outParametersAreWrittenInPlace() {
+        ASTNode caller = inlineInto("callsClearOut", "clearOut", true);
+
+        List<Variable> written = writtenFieldBases(caller);
+        assertEquals(List.of(COLOR), written, "The write to the @Out parameter isn't visible in " + caller);
+    }
+
+    private static String checkInlining(Class<?> shader, Object... mainArgs) {
+        return checkInlining(new ShaderCompiler(new MalletContext(), shader), mainArgs);
+    }
+
+    private static String checkInlining(ShaderCompiler compiler, Object... mainArgs) {
+        int[][] result = new int[1][];
+
+        compiler.setListener(new CompilerListener() {
+            @Override
+            public void methodsInlined(Type shader, int inlinedCalls, int methodsBefore, int methodsAfter, int sizeBefore, int sizeAfter) {
+                result[0] = new int[]{inlinedCalls, methodsBefore, methodsAfter, sizeBefore, sizeAfter};
+            }
+        });
+        String glsl = compiler.compile(mainArgs);
+        int[] deltas = result[0];
+
+        assertNotNull(deltas, "Inlining wasn't reported");
+        assertTrue(deltas[2] <= deltas[1], "Inlining added methods");
+        assertEquals(deltas[2], compiler.getCompiledMethodMap().size(), "Methods that are no longer called weren't removed");
+        assertTrue(glsl.contains("void main("));
+
+        return glsl;
+    }
+
+    private static String mainOf(String glsl) {
+        int start = glsl.indexOf("// MAIN");
+        assertTrue(start >= 0, "No main in:\n" + glsl);
+        return glsl.substring(start);
+    }
+
+    private static boolean hasMethod(ShaderCompiler compiler, String name) {
+        for (MethodInvocationWithConstants invocation : compiler.getCompiledMethodMap().keySet()) {
+            if (invocation.getMethodInvocation().methodName().equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Decompiles {@code callerName} and {@code calleeName} of the {@link Fixture}, which both take a single vector, and inlines
+     * the call
+     * @return The root of the caller afterwards
+     */
+    private static ASTNode inlineInto(String callerName, String calleeName, boolean out) {
+        ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+
+        ASTNode callerRoot = compiler.makeDecompiler(FIXTURE, callerName, Type.getMethodType(Type.FLOAT_TYPE, VECTOR)).decompile();
+        Type calleeDesc = Type.getMethodType(out ? Type.VOID_TYPE : Type.FLOAT_TYPE, VECTOR);
+        ASTNode calleeRoot = compiler.makeDecompiler(FIXTURE, calleeName, calleeDesc).decompile();
+
+        CompiledMethod caller = new CompiledMethod(callerRoot, FIXTURE, callerName, Type.FLOAT_TYPE, new Type[]{VECTOR}, new int[]{0}, new boolean[]{false});
+        CompiledMethod callee = new CompiledMethod(calleeRoot, FIXTURE, calleeName, calleeDesc.getReturnType(), new Type[]{VECTOR}, new int[]{0}, new boolean[]{out});
+
+        MethodInvocationWithConstants call = findCall(caller.getRoot(), calleeName);
+        assertNotNull(call, "No call to " + calleeName + " in " + caller.getRoot());
+
+        Map<MethodInvocationWithConstants, CompiledMethod> methods = new HashMap<>();
+        methods.put(call, callee);
+
+        assertEquals(1, MethodInliner.inline(caller, methods, compiler, MethodInliner.DEFAULT_THRESHOLD));
+        assertNull(findCall(caller.getRoot(), calleeName), "The call is still in " + caller.getRoot());
+
+        return caller.getRoot();
+    }
+
+    private static @Nullable MethodInvocationWithConstants findCall(ASTNode root, String name) {
+        List<MethodCall> calls = new ArrayList<>();
+
+        root.visitTree(node -> {
+            if (node instanceof InstructionASTNode insnNode && insnNode.getInstruction() instanceof MethodCallInstruction call) {
+                calls.add(call.getMethodCall());
+            }
+        });
+
+        for (Value value : values(root)) {
+            if (value instanceof MethodCallValue call) {
+                calls.add(call.getMethodCall());
+            }
+        }
+
+        for (MethodCall call : calls) {
+            if (call.getInvocation().methodName().equals(name)) {
+                return call.toMethodInvocationWithConstants();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The variables whose fields are assigned to
+     */
+    private static List<Variable> writtenFieldBases(ASTNode root) {
+        List<Variable> bases = new ArrayList<>();
+
+        root.visitTree(node -> {
+            if (node instanceof InstructionASTNode insnNode && insnNode.getInstruction() instanceof AssignmentInstruction assign
+                    && assign.getLocation() instanceof ObjectField field) {
+                assertTrue(field.getObject() instanceof Variable, "Unexpected field write " + assign);
+                bases.add((Variable) field.getObject());
+            }
+        });
+
+        return bases;
+    }
+
+    private static List<Value> values(ASTNode root) {
+        List<Value> values = new ArrayList<>();
+
+        root.visitTree(node -> node.visitAndReplace(
+                sub -> sub,
+                insn -> insn.visitAndReplace(value -> {
+                    addValues(value, values);
+                    return value;
+                }, loc -> {
+                    addValues(loc, values);
+                    return loc;
+                }),
+                value -> {
+                    addValues(value, values);
+                    return value;
+                }
+        ));
+
+        return values;
+    }
+
+    private static void addValues(Value value, List<Value> values) {
+        values.add(value);
+
+        if (value instanceof UnaryOperation unary) {
+            addValues(unary.getArg(), values);
+        } else if (!(value instanceof Constant)) {
+            value.copyValue(inner -> {
+                addValues(inner, values);
+                return inner;
+            });
+        }
+    }
+
+    public static class ScalingShader extends FragmentShader {
+        @In
+        private static float brightness;
+
+        @Out
+        private static float outBrightness;
+
+        public static void main() {
+            outBrightness = scale(brightness);
+        }
+
+        private static float scale(float x) {
+            return x * 3.5f + 0.25f;
+        }
+    }
+
+    public static class Fixture {
+        public static float callsClear(Vector4f color) {
+            float cleared = clear(color);
+            return color.x + cleared;
+        }
+
+        public static float callsClearOut(Vector4f color) {
+            clearOut(color);
+            return color.y;
+        }
+
+        public static float clear(Vector4f color) {
+            color.x = 0.0f;
+            return color.x + color.y;
+        }
+
+        public static void clearOut(@Out Vector4f color) {
+            color.x = 0.0f;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package me.salamander.mallet.shaders.compiler.cache;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShaderCacheTest {
+    private static final Type FIXTURE = Type.getType(Fixture.class);
+    private static final String OPTIONS = "options";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void keyIsStable() {
+        ShaderCache cache = new ShaderCache(directory);
+
+        //Equal arguments that aren't the same object must give the same key
+        String first = cache.computeKey(new MalletContext(), FIXTURE, new Object[]{new Vector3f(1, 2, 3)}, OPTIONS);
+        String second = cache.computeKey(new MalletContext(), FIXTURE, new Object[]{new Vector3f(1, 2, 3)}, OPTIONS);
+
+        assertNotNull(first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void changedArgumentsChangeTheKey() {
+        ShaderCache cache = new ShaderCache(directory);
+        MalletContext context = new MalletContext();
+
+        String first = cache.computeKey(context, FIXTURE, new Object[]{new Vector3f(1, 2, 3)}, OPTIONS);
+        String second = cache.computeKey(context, FIXTURE, new Object[]{new Vector3f(1, 2, 4)}, OPTIONS);
+
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void changedStaticValuesChangeTheKey() {
+        ShaderCache cache = new ShaderCache(directory);
+        MalletContext context = new MalletContext();
+
+        int scale = Fixture.scale;
+        try {
+            String first = cache.computeKey(context, FIXTURE, new Object[0], OPTIONS);
+            Fixture.scale = scale + 1;
+            String second = cache.computeKey(context, FIXTURE, new Object[0], OPTIONS);
+
+            assertNotEquals(first, second);
+        } finally {
+            Fixture.scale = scale;
+        }
+    }
+
+    @Test
+    public void unreadableStaticValuesAreNeverKeyed() {
+        ShaderCache cache = new ShaderCache(directory);
+        MalletContext context = new MalletContext();
+
+        //Only sees the JDK, so the value of Fixture.scale can't be read
+        context.setClassLoader(new ClassLoader(null) {});
+
+        assertNull(cache.computeKey(context, FIXTURE, new Object[0], OPTIONS));
+    }
+
+    @Test
+    public void changedOptionsChangeTheKey() {
+        ShaderCache cache = new ShaderCache(directory);
+        MalletContext context = new MalletContext();
+
+        String first = cache.computeKey(context, FIXTURE, new Object[0], OPTIONS);
+        String second = cache.computeKey(context, FIXTURE, new Object[0], OPTIONS + "2");
+
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void changingACompilerOptionMissesTheCache() {
+        MalletContext context = new MalletContext();
+        ShaderCache cache = new ShaderCache(directory);
+        context.setShaderCache(cache);
+
+        List<Consumer<ShaderCompiler>> changes = List.of(
+                compiler -> compiler.setDeadCodeElimination(false),
+                compiler -> compiler.setInlineThreshold(0),
+                compiler -> compiler.setCommonSubexpressionElimination(false)
+        );
+
+        String defaults = new ShaderCompiler(context, ExampleFragmentShader.class).compile();
+        assertEquals(1, cache.getMisses());
+
+        for (Consumer<ShaderCompiler> change : changes) {
+            cache.resetCounters();
+
+            ShaderCompiler compiler = new ShaderCompiler(context, ExampleFragmentShader.class);
+            change.accept(compiler);
+            compiler.compile();
+
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+
+        //Compiling with the defaults again still finds the first entry
+        cache.resetCounters();
+        assertEquals(defaults, new ShaderCompiler(context, ExampleFragmentShader.class).compile());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void entriesAreReused() {
+        ShaderCache cache = new ShaderCache(directory);
+        AtomicInteger compilations = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            String glsl = cache.getOrCompile(new MalletContext(), FIXTURE, new Object[0], OPTIONS, () -> {
+                compilations.incrementAndGet();
+                return "void main() {}";
+            });
+
+            assertEquals("void main() {}", glsl);
+        }
+
+        assertEquals(1, compilations.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void unkeyableArgumentsAreNeverCached() throws IOException {
+        ShaderCache cache = new ShaderCache(directory);
+        AtomicInteger compilations = new AtomicInteger();
+
+        //java.lang isn't open to reflection, so the builder's contents can't be part of the key
+        Object[] args = {new StringBuilder("value")};
+        assertNull(cache.computeKey(new MalletContext(), FIXTURE, args, OPTIONS));
+
+        for (int i = 0; i < 2; i++) {
+            cache.getOrCompile(new MalletContext(), FIXTURE, args, OPTIONS, () -> {
+                compilations.incrementAndGet();
+                return "void main() {}";
+            });
+        }
+
+        assertEquals(2, compilations.get());
+        assertEquals(0, cache.getHits());
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    /**
+     * A class whose static value ends up in the cache key of anything that calls {@link #scaled(int)}
+     */
+    public static class Fixture {
+        public static int scale = 2;
+
+        public static int scaled(int x) {
+            return x * scale;
+        }
+    }
+}
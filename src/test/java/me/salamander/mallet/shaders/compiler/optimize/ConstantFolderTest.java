@@ -0,0 +1,149 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import me.salamander.mallet.shaders.compiler.CompiledMethod;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConstantFolderTest {
+    private static final Variable X = new Variable(Type.INT_TYPE, 1, VariableType.LOCAL);
+    private static final Variable F = new Variable(Type.FLOAT_TYPE, 2, VariableType.LOCAL);
+
+    @Test
+    public void literalsAreEvaluatedLikeJava() {
+        assertLiteral(1.0f, ConstantFolder.fold(new BinaryOperation(literal(2.0f), literal(0.5f), BinaryOperation.Op.MUL)));
+        assertLiteral(Integer.MIN_VALUE, ConstantFolder.fold(new BinaryOperation(literal(Integer.MAX_VALUE), literal(1), BinaryOperation.Op.ADD)));
+        assertLiteral(-2, ConstantFolder.fold(new BinaryOperation(literal(-8), literal(2), BinaryOperation.Op.SHR)));
+        assertLiteral(1 << 1, ConstantFolder.fold(new BinaryOperation(literal(1), literal(33), BinaryOperation.Op.SHL)));
+        assertLiteral(Long.MAX_VALUE, ConstantFolder.fold(new UnaryOperation(literal(Float.POSITIVE_INFINITY), UnaryOperation.Op.TO_LONG)));
+        assertLiteral(true, ConstantFolder.fold(new BinaryOperation(literal(0.0f), literal(-0.0f), BinaryOperation.Op.EQ)));
+        assertLiteral(false, ConstantFolder.fold(new BinaryOperation(literal(Float.NaN), literal(Float.NaN), BinaryOperation.Op.LE)));
+        assertLiteral(true, ConstantFolder.fold(new BinaryOperation(literal(Long.MAX_VALUE - 1), literal(Long.MAX_VALUE), BinaryOperation.Op.LT)));
+        assertLiteral(-3, ConstantFolder.fold(new UnaryOperation(new BinaryOperation(literal(1), literal(2), BinaryOperation.Op.ADD), UnaryOperation.Op.NEG)));
+    }
+
+    @Test
+    public void unrepresentableResultsAreKept() {
+        assertTrue(ConstantFolder.fold(new BinaryOperation(literal(1), literal(0), BinaryOperation.Op.DIV)) instanceof BinaryOperation);
+        assertTrue(ConstantFolder.fold(new BinaryOperation(literal(1.0f), literal(0.0f), BinaryOperation.Op.DIV)) instanceof BinaryOperation);
+    }
+
+    @Test
+    public void identitiesAreRemoved() {
+        assertEquals(X, ConstantFolder.fold(new BinaryOperation(X, literal(1), BinaryOperation.Op.MUL)));
+        assertEquals(X, ConstantFolder.fold(new BinaryOperation(literal(0), X, BinaryOperation.Op.ADD)));
+        assertEquals(X, ConstantFolder.fold(new BinaryOperation(X, literal(32), BinaryOperation.Op.SHL)));
+        assertLiteral(0, ConstantFolder.fold(new BinaryOperation(X, literal(0), BinaryOperation.Op.AND)));
+        assertEquals(F, ConstantFolder.fold(new BinaryOperation(F, literal(1.0f), BinaryOperation.Op.MUL)));
+        assertEquals(X, ConstantFolder.fold(new UnaryOperation(new UnaryOperation(X, UnaryOperation.Op.NEG), UnaryOperation.Op.NEG)));
+
+        //x + 0.0 is -0.0 if x is -0.0 and x * 0.0 is NaN if x is infinite
+        assertTrue(ConstantFolder.fold(new BinaryOperation(F, literal(0.0f), BinaryOperation.Op.ADD)) instanceof BinaryOperation);
+        assertTrue(ConstantFolder.fold(new BinaryOperation(F, literal(0.0f), BinaryOperation.Op.MUL)) instanceof BinaryOperation);
+    }
+
+    @Test
+    public void branchesWithLiteralConditionsArePruned() {
+        Value alwaysTrue = new BinaryOperation(literal(1), literal(2), BinaryOperation.Op.LT);
+        Value alwaysFalse = new BinaryOperation(literal(1.0f), literal(2.0f), BinaryOperation.Op.GT);
+        Value unknown = new BinaryOperation(X, literal(2), BinaryOperation.Op.GT);
+
+        List<ASTNode> body = new ArrayList<>();
+        body.add(new IfASTNode(new ArrayList<>(List.of(assign(1))), alwaysTrue));
+        body.add(new IfASTNode(new ArrayList<>(List.of(assign(2))), alwaysFalse));
+        body.add(new IfElseASTNode(new ArrayList<>(List.of(assign(3))), new ArrayList<>(List.of(assign(4))), alwaysFalse));
+        body.add(new IfASTNode(new ArrayList<>(List.of(assign(5))), unknown));
+
+        MethodASTNode folded = (MethodASTNode) ConstantFolder.fold(new MethodASTNode(body));
+
+        assertEquals(3, folded.getBody().size());
+        assertAssigns(1, folded.getBody().get(0));
+        assertAssigns(4, folded.getBody().get(1));
+        assertTrue(folded.getBody().get(2) instanceof IfASTNode);
+
+        //The original tree is left alone
+        assertEquals(4, body.size());
+    }
+
+    @Test
+    public void branchesEmptiedByPruningAreRemoved() {
+        Value alwaysFalse = new BinaryOperation(literal(1.0f), literal(2.0f), BinaryOperation.Op.GT);
+        Value unknown = new BinaryOperation(X, literal(2), BinaryOperation.Op.GT);
+
+        List<ASTNode> body = new ArrayList<>();
+        //if (x > 2) { if (false) {...} }
+        body.add(new IfASTNode(new ArrayList<>(List.of(new IfASTNode(new ArrayList<>(List.of(assign(1))), alwaysFalse))), unknown));
+        //if (x > 2) { if (false) {...} } else {...}
+        body.add(new IfElseASTNode(
+                new ArrayList<>(List.of(new IfASTNode(new ArrayList<>(List.of(assign(2))), alwaysFalse))),
+                new ArrayList<>(List.of(assign(3))),
+                unknown
+        ));
+        //if (x > 2) {...} else { while (false) {...} }
+        body.add(new IfElseASTNode(
+                new ArrayList<>(List.of(assign(4))),
+                new ArrayList<>(List.of(new LoopASTNode("loop", new ArrayList<>(List.of(assign(5))), alwaysFalse))),
+                unknown
+        ));
+
+        MethodASTNode folded = (MethodASTNode) ConstantFolder.fold(new MethodASTNode(body));
+
+        assertEquals(2, folded.getBody().size());
+
+        IfASTNode onlyFalse = (IfASTNode) folded.getBody().get(0);
+        assertEquals(BinaryOperation.Op.LE, ((BinaryOperation) onlyFalse.getCondition()).getOp());
+        assertAssigns(3, onlyFalse.getBody().get(0));
+
+        IfASTNode onlyTrue = (IfASTNode) folded.getBody().get(1);
+        assertSame(BinaryOperation.Op.GT, ((BinaryOperation) onlyTrue.getCondition()).getOp());
+        assertAssigns(4, onlyTrue.getBody().get(0));
+
+        //The analyses run when the method is prepared don't allow empty bodies
+        assertDoesNotThrow(() -> new CompiledMethod(folded, Type.getObjectType("Foo"), "folded", Type.VOID_TYPE, new Type[0], new int[0], new boolean[0]));
+    }
+
+    @Test
+    public void everyUnaryOperationCanBeEvaluated() {
+        assertEquals(3, UnaryOperation.Op.ARRAY_LENGTH.apply(new float[3]));
+        assertEquals(true, UnaryOperation.Op.ISNULL.apply(null));
+        assertEquals(false, UnaryOperation.Op.ISNOTNULL.apply(null));
+        assertEquals(true, UnaryOperation.Op.ISNOTNULL.apply("value"));
+        assertEquals(true, UnaryOperation.Op.makeInstanceOf(Type.getType(CharSequence.class)).apply("value"));
+        assertEquals(false, UnaryOperation.Op.makeInstanceOf(Type.getType(float[].class)).apply(new int[0]));
+        assertEquals("value", UnaryOperation.Op.makeCheckCast(Type.getType(CharSequence.class)).apply("value"));
+        assertThrows(ClassCastException.class, () -> UnaryOperation.Op.makeCheckCast(Type.getType(Integer.class)).apply("value"));
+    }
+
+    private static InstructionASTNode assign(int value) {
+        return new InstructionASTNode(new AssignmentInstruction(X, literal(value)));
+    }
+
+    private static void assertAssigns(int expected, ASTNode node) {
+        AssignmentInstruction assignment = (AssignmentInstruction) ((InstructionASTNode) node).getInstruction();
+        assertLiteral(expected, assignment.getValue());
+    }
+
+    private static void assertLiteral(Object expected, Value value) {
+        assertTrue(value instanceof LiteralValue, () -> "Not folded: " + value);
+        assertEquals(expected, ((LiteralValue) value).getValue());
+    }
+
+    private static LiteralValue literal(int value) {
+        return new LiteralValue(Type.INT_TYPE, value);
+    }
+
+    private static LiteralValue literal(long value) {
+        return new LiteralValue(Type.LONG_TYPE, value);
+    }
+
+    private static LiteralValue literal(float value) {
+        return new LiteralValue(Type.FLOAT_TYPE, value);
+    }
+}
@@ -0,0 +1,144 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.annotation.In;
+import me.salamander.mallet.shaders.annotation.Out;
+import me.salamander.mallet.shaders.annotation.Uniform;
+import me.salamander.mallet.shaders.compiler.CompiledMethod;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import me.salamander.mallet.shaders.shader.FragmentShader;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadCodeEliminatorTest {
+    private static final Variable I = new Variable(Type.INT_TYPE, 1, VariableType.LOCAL);
+    private static final Variable N = new Variable(Type.INT_TYPE, 2, VariableType.LOCAL);
+    private static final Variable A = new Variable(Type.FLOAT_TYPE, 3, VariableType.LOCAL);
+    private static final Variable B = new Variable(Type.FLOAT_TYPE, 4, VariableType.LOCAL);
+    private static final Variable X = new Variable(Type.FLOAT_TYPE, 5, VariableType.LOCAL);
+    private static final Variable O = new Variable(Type.getObjectType("Foo"), 6, VariableType.LOCAL);
+
+    private final ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+
+    @Test
+    public void chainsOfUnreadAssignmentsAreRemoved() {
+        CompiledMethod method = method(
+                new InstructionASTNode(new AssignmentInstruction(A, new BinaryOperation(X, new LiteralValue(Type.FLOAT_TYPE, 2.0f), BinaryOperation.Op.MUL))),
+                new InstructionASTNode(new AssignmentInstruction(B, new BinaryOperation(A, new LiteralValue(Type.FLOAT_TYPE, 1.0f), BinaryOperation.Op.ADD))),
+                new InstructionASTNode(new AssignmentInstruction(new ObjectField(O, O.getType(), "f", Type.FLOAT_TYPE), X))
+        );
+
+        assertEquals(2, DeadCodeEliminator.eliminate(method, compiler));
+
+        List<ASTNode> body = ((MethodASTNode) method.getRoot()).getBody();
+        assertEquals(1, body.size());
+        assertTrue(((AssignmentInstruction) ((InstructionASTNode) body.get(0)).getInstruction()).getLocation() instanceof ObjectField);
+    }
+
+    @Test
+    public void variablesReadByConditionsAreKept() {
+        List<ASTNode> loopBody = new ArrayList<>();
+        loopBody.add(new InstructionASTNode(new AssignmentInstruction(I, new BinaryOperation(I, new LiteralValue(Type.INT_TYPE, 1), BinaryOperation.Op.ADD))));
+
+        CompiledMethod method = method(
+                new InstructionASTNode(new AssignmentInstruction(N, new LiteralValue(Type.INT_TYPE, 10))),
+                new LoopASTNode("loop", loopBody, new BinaryOperation(I, N, BinaryOperation.Op.LT))
+        );
+
+        assertEquals(0, DeadCodeEliminator.eliminate(method, compiler));
+        assertEquals(2, ((MethodASTNode) method.getRoot()).getBody().size());
+    }
+
+    @Test
+    public void branchesThatEndUpEmptyAreRemoved() {
+        LiteralValue one = new LiteralValue(Type.FLOAT_TYPE, 1.0f);
+        ObjectField field = new ObjectField(O, O.getType(), "f", Type.FLOAT_TYPE);
+
+        CompiledMethod method = method(
+                new IfASTNode(new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(A, X)))), new BinaryOperation(X, one, BinaryOperation.Op.GT)),
+                new IfElseASTNode(
+                        new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(B, X)))),
+                        new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(field, X)))),
+                        new BinaryOperation(X, one, BinaryOperation.Op.GT)
+                ),
+                new IfElseASTNode(
+                        new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(field, one)))),
+                        new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(A, one)))),
+                        new BinaryOperation(X, one, BinaryOperation.Op.LT)
+                )
+        );
+
+        assertEquals(3, DeadCodeEliminator.eliminate(method, compiler));
+
+        List<ASTNode> body = ((MethodASTNode) method.getRoot()).getBody();
+        assertEquals(2, body.size());
+
+        //The true branch is the empty one, so the condition is inverted
+        IfASTNode onlyFalse = (IfASTNode) body.get(0);
+        assertEquals(BinaryOperation.Op.LE, ((BinaryOperation) onlyFalse.getCondition()).getOp());
+        assertEquals(1, onlyFalse.getBody().size());
+
+        IfASTNode onlyTrue = (IfASTNode) body.get(1);
+        assertEquals(BinaryOperation.Op.LT, ((BinaryOperation) onlyTrue.getCondition()).getOp());
+        assertEquals(1, onlyTrue.getBody().size());
+    }
+
+    @Test
+    public void unreferencedShaderInputsAreNotEmitted() {
+        ShaderCompiler eliminating = new ShaderCompiler(new MalletContext(), UnusedInputsShader.class);
+        String glsl = eliminating.compile();
+
+        assertTrue(glsl.contains("uniform float gain"), glsl);
+        assertTrue(glsl.contains("in float signal;"), glsl);
+        assertFalse(glsl.contains("uniform float offset"), glsl);
+        assertFalse(glsl.contains("in float noise;"), glsl);
+
+        //Outputs are part of the interface with the next stage, even if nothing writes them
+        assertTrue(glsl.contains("out float result;"), glsl);
+        assertTrue(glsl.contains("out float spare;"), glsl);
+
+        ShaderCompiler keeping = new ShaderCompiler(new MalletContext(), UnusedInputsShader.class);
+        keeping.setDeadCodeElimination(false);
+        String unpruned = keeping.compile();
+
+        assertTrue(unpruned.contains("uniform float offset"), unpruned);
+        assertTrue(unpruned.contains("in float noise;"), unpruned);
+    }
+
+    private static CompiledMethod method(ASTNode... body) {
+        return new CompiledMethod(new MethodASTNode(new ArrayList<>(List.of(body))), "main", Type.VOID_TYPE, new Type[0], false);
+    }
+
+    public static class UnusedInputsShader extends FragmentShader {
+        @Uniform
+        private static float gain;
+
+        @Uniform
+        private static float offset;
+
+        @In
+        private static float signal;
+
+        @In
+        private static float noise;
+
+        @Out
+        private static float result;
+
+        @Out
+        private static float spare;
+
+        public static void main() {
+            result = signal * gain;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package me.salamander.mallet.shaders.compiler.optimize;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.shaders.compiler.ShaderCompiler;
+import me.salamander.mallet.shaders.compiler.ast.node.*;
+import me.salamander.mallet.shaders.compiler.instruction.AssignmentInstruction;
+import me.salamander.mallet.shaders.compiler.instruction.value.*;
+import me.salamander.mallet.shaders.compiler.tests.ExampleFragmentShader;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopInvariantCodeMotionTest {
+    private static final Variable I = new Variable(Type.INT_TYPE, 1, VariableType.LOCAL);
+    private static final Variable N = new Variable(Type.INT_TYPE, 2, VariableType.LOCAL);
+    private static final Variable A = new Variable(Type.FLOAT_TYPE, 3, VariableType.LOCAL);
+    private static final Variable B = new Variable(Type.FLOAT_TYPE, 4, VariableType.LOCAL);
+    private static final Variable X = new Variable(Type.FLOAT_TYPE, 5, VariableType.LOCAL);
+    private static final Variable O = new Variable(Type.getObjectType("Foo"), 6, VariableType.LOCAL);
+
+    private final ShaderCompiler compiler = new ShaderCompiler(new MalletContext(), ExampleFragmentShader.class);
+
+    @Test
+    public void invariantValuesAreHoisted() {
+        Value product = new BinaryOperation(A, B, BinaryOperation.Op.MUL);
+
+        MethodASTNode hoisted = hoist(
+                new AssignmentInstruction(X, new BinaryOperation(X, product, BinaryOperation.Op.ADD)),
+                increment()
+        );
+
+        assertEquals(2, hoisted.getBody().size());
+
+        AssignmentInstruction preheader = assignment(hoisted.getBody().get(0));
+        assertTrue(preheader.getValue() instanceof BinaryOperation);
+        Variable temp = (Variable) preheader.getLocation();
+        assertTrue(temp.isTemp());
+
+        LoopASTNode loop = (LoopASTNode) hoisted.getBody().get(1);
+        BinaryOperation sum = (BinaryOperation) assignment(loop.getBody().get(0)).getValue();
+        assertEquals(X, sum.getLeft());
+        assertEquals(temp, sum.getRight());
+
+        //i changes every iteration
+        assertTrue(loop.getCondition() instanceof BinaryOperation);
+    }
+
+    @Test
+    public void memoryReadsStayWhenTheLoopWrites() {
+        Value load = new BinaryOperation(field("g"), new LiteralValue(Type.FLOAT_TYPE, 2.0f), BinaryOperation.Op.MUL);
+
+        MethodASTNode hoisted = hoist(
+                new AssignmentInstruction(field("f"), load),
+                increment()
+        );
+
+        assertEquals(1, hoisted.getBody().size());
+    }
+
+    @Test
+    public void valuesOfAssignedVariablesStay() {
+        MethodASTNode hoisted = hoist(
+                new AssignmentInstruction(X, new BinaryOperation(X, A, BinaryOperation.Op.MUL)),
+                increment()
+        );
+
+        assertEquals(1, hoisted.getBody().size());
+    }
+
+    @Test
+    public void guardedLoadIsNotHoisted() {
+        //The branch might be what keeps the read in bounds
+        Value load = new BinaryOperation(field("g"), new LiteralValue(Type.FLOAT_TYPE, 2.0f), BinaryOperation.Op.MUL);
+        IfASTNode guard = new IfASTNode(
+                new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(X, new BinaryOperation(X, load, BinaryOperation.Op.ADD))))),
+                new BinaryOperation(I, new LiteralValue(Type.INT_TYPE, 0), BinaryOperation.Op.NE)
+        );
+
+        MethodASTNode hoisted = hoist(loop(new BinaryOperation(I, N, BinaryOperation.Op.LT), guard, new InstructionASTNode(increment())));
+
+        assertEquals(1, hoisted.getBody().size());
+    }
+
+    @Test
+    public void loadsInLoopsThatMightNotRunAreNotHoisted() {
+        Value load = new BinaryOperation(field("g"), new LiteralValue(Type.FLOAT_TYPE, 2.0f), BinaryOperation.Op.MUL);
+
+        MethodASTNode hoisted = hoist(
+                new AssignmentInstruction(X, new BinaryOperation(X, load, BinaryOperation.Op.ADD)),
+                increment()
+        );
+
+        assertEquals(1, hoisted.getBody().size());
+    }
+
+    @Test
+    public void loadsThatAlwaysRunAreHoisted() {
+        Value load = new BinaryOperation(field("g"), new LiteralValue(Type.FLOAT_TYPE, 2.0f), BinaryOperation.Op.MUL);
+        IfASTNode exit = new IfASTNode(new ArrayList<>(List.of(new BreakASTNode("loop"))), new BinaryOperation(I, N, BinaryOperation.Op.GE));
+
+        MethodASTNode hoisted = hoist(loop(
+                new LiteralValue(Type.BOOLEAN_TYPE, true),
+                new InstructionASTNode(new AssignmentInstruction(X, new BinaryOperation(X, load, BinaryOperation.Op.ADD))),
+                new InstructionASTNode(increment()),
+                exit
+        ));
+
+        assertEquals(2, hoisted.getBody().size());
+        assertEquals(load, assignment(hoisted.getBody().get(0)).getValue());
+    }
+
+    @Test
+    public void loadsInTheConditionAreHoisted() {
+        ObjectField length = new ObjectField(O, O.getType(), "n", Type.INT_TYPE);
+        Value limit = new BinaryOperation(length, new LiteralValue(Type.INT_TYPE, 1), BinaryOperation.Op.SUB);
+
+        MethodASTNode hoisted = hoist(loop(new BinaryOperation(I, limit, BinaryOperation.Op.LT), new InstructionASTNode(increment())));
+
+        assertEquals(2, hoisted.getBody().size());
+        assertEquals(limit, assignment(hoisted.getBody().get(0)).getValue());
+    }
+
+    @Test
+    public void arithmeticInBranchesIsHoisted() {
+        IfASTNode branch = new IfASTNode(
+                new ArrayList<>(List.of(new InstructionASTNode(new AssignmentInstruction(X, new BinaryOperation(X, new BinaryOperation(A, B, BinaryOperation.Op.MUL), BinaryOperation.Op.ADD))))),
+                new BinaryOperation(I, new LiteralValue(Type.INT_TYPE, 0), BinaryOperation.Op.NE)
+        );
+
+        MethodASTNode hoisted = hoist(loop(new BinaryOperation(I, N, BinaryOperation.Op.LT), branch, new InstructionASTNode(increment())));
+
+        assertEquals(2, hoisted.getBody().size());
+    }
+
+    private MethodASTNode hoist(AssignmentInstruction... loopBody) {
+        List<ASTNode> body = new ArrayList<>();
+        for (AssignmentInstruction instruction : loopBody) {
+            body.add(new InstructionASTNode(instruction));
+        }
+
+        return hoist(new LoopASTNode("loop", body, new BinaryOperation(I, N, BinaryOperation.Op.LT)));
+    }
+
+    private MethodASTNode hoist(LoopASTNode loop) {
+        return (MethodASTNode) LoopInvariantCodeMotion.hoist(new MethodASTNode(new ArrayList<>(List.of(loop))), compiler);
+    }
+
+    private static LoopASTNode loop(Value condition, ASTNode... body) {
+        return new LoopASTNode("loop", new ArrayList<>(List.of(body)), condition);
+    }
+
+    private static AssignmentInstruction increment() {
+        return new AssignmentInstruction(I, new BinaryOperation(I, new LiteralValue(Type.INT_TYPE, 1), BinaryOperation.Op.ADD));
+    }
+
+    private static ObjectField field(String name) {
+        return new ObjectField(O, O.getType(), name, Type.FLOAT_TYPE);
+    }
+
+    private static AssignmentInstruction assignment(ASTNode node) {
+        return (AssignmentInstruction) ((InstructionASTNode) node).getInstruction();
+    }
+}
@@ -0,0 +1,129 @@
+package me.salamander.mallet.shaders.program;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.globject.backend.GLBackend;
+import me.salamander.mallet.globject.backend.RecordingBackend;
+import me.salamander.mallet.globject.buffer.BufferObject;
+import me.salamander.mallet.shaders.glsltypes.Vec3;
+import me.salamander.mallet.shaders.program.annotation.ShaderStorageBufferBinder;
+import me.salamander.mallet.shaders.program.annotation.UniformSetter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.lwjgl.opengl.GL45.*;
+
+/**
+ * Checks the generated uniform setters and buffer binders against a {@link RecordingBackend}, so no GPU is needed
+ */
+public class ShaderProgramTest {
+    private static final MalletContext context = new MalletContext();
+
+    private RecordingBackend backend;
+
+    @BeforeEach
+    public void setUp() {
+        backend = new RecordingBackend();
+        backend.declareUniform("u_multiplier", GL_FLOAT);
+        backend.declareUniform("u_count", GL_INT);
+        backend.declareUniform("u_offset", GL_FLOAT_VEC3);
+        backend.declareShaderStorageBlock("data", 3);
+        GLBackend.set(backend);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        //The next object to need a backend creates the default one again
+        GLBackend.set(null);
+    }
+
+    @Test
+    public void uniformSettersCallTheBackend() {
+        TestProgramTemplate program = ShaderProgram.create(TestProgramTemplate.class, context, ShaderProgram.COMPUTE_SHADER, "void main() {}");
+        backend.reset();
+        backend.setRecording(true);
+
+        program.setMultiplier(2.5f);
+        program.setCount(7);
+        program.setOffset(new Vec3(1, 2, 3));
+
+        assertEquals(List.of(
+                "uniform1f(0, 2.5)",
+                "uniform1i(1, 7)",
+                "uniform3f(2, 1.0, 2.0, 3.0)"
+        ), commands());
+
+        //Setting a uniform doesn't look anything up again
+        assertEquals(0, backend.getCalls("getUniformLocation"));
+    }
+
+    @Test
+    public void bufferBindersUseTheBlockBinding() {
+        TestProgramTemplate program = ShaderProgram.create(TestProgramTemplate.class, context, ShaderProgram.COMPUTE_SHADER, "void main() {}");
+        BufferObject buffer = new BufferObject(backend);
+        backend.reset();
+        backend.setRecording(true);
+
+        program.bindData(buffer);
+
+        assertEquals(List.of("bindBufferBase(" + GL_SHADER_STORAGE_BUFFER + ", 3, " + buffer.getHandle() + ")"), commands());
+    }
+
+    @Test
+    public void missingUniformsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ShaderProgram.create(MissingUniformTemplate.class, context, ShaderProgram.COMPUTE_SHADER, "void main() {}"));
+    }
+
+    @Test
+    public void mismatchedUniformTypesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ShaderProgram.create(WrongTypeTemplate.class, context, ShaderProgram.COMPUTE_SHADER, "void main() {}"));
+    }
+
+    private List<String> commands() {
+        List<String> commands = new ArrayList<>();
+        for (RecordingBackend.Command command : backend.getCommands()) {
+            commands.add(command.toString());
+        }
+        return commands;
+    }
+
+    public static abstract class TestProgramTemplate extends ShaderProgram {
+        protected TestProgramTemplate(int program) {
+            super(program);
+        }
+
+        @UniformSetter("u_multiplier")
+        public abstract void setMultiplier(float multiplier);
+
+        @UniformSetter("u_count")
+        public abstract void setCount(int count);
+
+        @UniformSetter("u_offset")
+        public abstract void setOffset(Vec3 offset);
+
+        @ShaderStorageBufferBinder("data")
+        public abstract void bindData(BufferObject data);
+    }
+
+    public static abstract class MissingUniformTemplate extends ShaderProgram {
+        protected MissingUniformTemplate(int program) {
+            super(program);
+        }
+
+        @UniformSetter("u_missing")
+        public abstract void setMissing(float value);
+    }
+
+    public static abstract class WrongTypeTemplate extends ShaderProgram {
+        protected WrongTypeTemplate(int program) {
+            super(program);
+        }
+
+        @UniformSetter("u_offset")
+        public abstract void setOffset(float value);
+    }
+}
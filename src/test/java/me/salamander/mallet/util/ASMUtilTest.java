@@ -0,0 +1,145 @@
+package me.salamander.mallet.util;
+
+import me.salamander.mallet.MalletContext;
+import me.salamander.mallet.generated.Marker;
+import me.salamander.mallet.type.MalletType;
+import me.salamander.mallet.type.RawWriter;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ASMUtilTest {
+    private static final ClassLoader MALLET_LOADER = Marker.class.getClassLoader();
+
+    @Test
+    public void generatedClassesAreHiddenByDefault() {
+        assertTrue(Boolean.parseBoolean(System.getProperty(ASMUtil.HIDDEN_CLASSES_PROPERTY, "true")));
+
+        Class<?> clazz = ASMUtil.load(MALLET_LOADER, makeWriter("me/salamander/mallet/generated/HiddenWriter"))[0];
+
+        //Hidden classes are defined in the package of the lookup, by its loader
+        assertTrue(clazz.isHidden());
+        assertSame(MALLET_LOADER, clazz.getClassLoader());
+        assertEquals(Marker.class.getPackageName(), clazz.getPackageName());
+        checkWriter(clazz);
+    }
+
+    @Test
+    public void sharedLoaderIsUsedWithoutHiddenClasses() {
+        Class<?> clazz = ASMUtil.load(MALLET_LOADER, false, makeWriter("me/salamander/mallet/generated/SharedWriter"))[0];
+
+        assertFalse(clazz.isHidden());
+        assertNotSame(MALLET_LOADER, clazz.getClassLoader());
+        assertSame(MALLET_LOADER, clazz.getClassLoader().getParent());
+        checkWriter(clazz);
+
+        //Every class loaded this way goes to the same loader
+        Class<?> other = ASMUtil.load(MALLET_LOADER, false, makeWriter("me/salamander/mallet/generated/OtherSharedWriter"))[0];
+        assertSame(clazz.getClassLoader(), other.getClassLoader());
+    }
+
+    @Test
+    public void classesOutsideTheGeneratedPackageAreNotHidden() {
+        Class<?> clazz = ASMUtil.load(MALLET_LOADER, makeWriter("me/salamander/mallet/util/OutsideWriter"))[0];
+
+        assertFalse(clazz.isHidden());
+        checkWriter(clazz);
+    }
+
+    @Test
+    public void writersAndReadersOfTypesAreHidden() {
+        MalletType type = new MalletContext().getType(Type.getType(Pair.class));
+
+        assertTrue(type.makeRawWriter().getClass().isHidden());
+        assertTrue(type.makeRawReader(Consumer.class, "this").getClass().isHidden());
+    }
+
+    @Test
+    public void generatedClassesAreNotDumpedByDefault() {
+        assertFalse(Boolean.getBoolean(ASMUtil.DUMP_CLASSES_PROPERTY));
+
+        String name = "me/salamander/mallet/generated/UndumpedWriter";
+        ASMUtil.load(MALLET_LOADER, makeWriter(name));
+
+        assertFalse(Files.exists(Path.of("run/generated-classes/" + name + ".class")));
+    }
+
+    /**
+     * Checks that an instance of a class made by {@link #makeWriter(String)} writes its value
+     */
+    private static void checkWriter(Class<?> clazz) {
+        RawWriter writer;
+        try {
+            writer = (RawWriter) clazz.getConstructor().newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+        writer.write(buffer, 1234);
+
+        assertEquals(1234, buffer.getInt(0));
+    }
+
+    /**
+     * Makes a {@link RawWriter} of ints, like the ones {@link MalletType#makeRawWriter()} generates. It can only write single
+     * values.
+     */
+    private static ClassNode makeWriter(String name) {
+        String superName = Type.getInternalName(RawWriter.class);
+
+        ClassNode classNode = new ClassNode();
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, name, null, superName, null);
+
+        MethodVisitor mv = classNode.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_4);
+        mv.visitInsn(Opcodes.ICONST_4);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "(II)V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitEnd();
+
+        mv = classNode.visitMethod(Opcodes.ACC_PROTECTED, "writeElement", "(JLjava/lang/Object;)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 3);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Integer");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Integer", "intValue", "()I", false);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/lwjgl/system/MemoryUtil", "memPutInt", "(JI)V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitEnd();
+
+        mv = classNode.visitMethod(Opcodes.ACC_PROTECTED, "writeElements", "(J[Ljava/lang/Object;II)V", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/UnsupportedOperationException");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/UnsupportedOperationException", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitEnd();
+
+        classNode.visitEnd();
+        return classNode;
+    }
+
+    public static class Pair {
+        public final int first;
+        public final float second;
+
+        public Pair(int first, float second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+}